@@ -1,5 +1,6 @@
 package net.originmobi.pdv;
 
+import java.time.Clock;
 import java.util.Locale;
 
 import org.springframework.boot.SpringApplication;
@@ -7,10 +8,12 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.i18n.FixedLocaleResolver;
 
 @SpringBootApplication
+@EnableScheduling
 public class PdvApplication extends SpringBootServletInitializer {
 
 	@Override
@@ -28,4 +31,9 @@ public class PdvApplication extends SpringBootServletInitializer {
 		return new FixedLocaleResolver(new Locale("pt", "BR"));
 	}
 
+	@Bean
+	public Clock relogio() {
+		return Clock.systemDefaultZone();
+	}
+
 }
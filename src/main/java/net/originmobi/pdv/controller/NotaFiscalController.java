@@ -1,20 +1,30 @@
 package net.originmobi.pdv.controller;
 
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -26,7 +36,10 @@ import net.originmobi.pdv.model.Produto;
 import net.originmobi.pdv.service.PessoaService;
 import net.originmobi.pdv.service.ProdutoService;
 import net.originmobi.pdv.service.notafiscal.FreteTipoService;
+import net.originmobi.pdv.service.notafiscal.NfceService;
 import net.originmobi.pdv.service.notafiscal.NotaFiscalItemService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalLoteService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalVendaService;
 import net.originmobi.pdv.service.notafiscal.NotaFiscalService;
 
 @Controller
@@ -52,6 +65,15 @@ public class NotaFiscalController {
 	@Autowired
 	private FreteTipoService fretes;
 
+	@Autowired
+	private NotaFiscalLoteService notasLote;
+
+	@Autowired
+	private NotaFiscalVendaService notasVenda;
+
+	@Autowired
+	private NfceService nfce;
+
 	@GetMapping("/form")
 	public ModelAndView form() {
 		ModelAndView mv = new ModelAndView(NOTAFISCAL_FORM);
@@ -93,6 +115,86 @@ public class NotaFiscalController {
 		return mv;
 	}
 	
+	/*
+	 * Emite várias notas de uma vez, o andamento é enviado a cada nota e a
+	 * cada lote e o último evento traz a situação de cada nota
+	 */
+	@PostMapping("/emitirlote")
+	public SseEmitter emitirLote(@RequestParam("codigos") List<Long> codigos) {
+		SseEmitter emissor = new SseEmitter(0L);
+
+		CompletableFuture.runAsync(() -> {
+			try {
+				Map<Long, String> situacao = notasLote.emitir(codigos, mensagem -> {
+					try {
+						emissor.send(SseEmitter.event().name("progresso").data(mensagem));
+					} catch (IOException e) {
+						// cliente desconectado, a emissão continua
+					}
+				});
+
+				emissor.send(SseEmitter.event().name("fim").data(situacao, MediaType.APPLICATION_JSON));
+				emissor.complete();
+			} catch (Exception e) {
+				emissor.completeWithError(e);
+			}
+		});
+
+		return emissor;
+	}
+
+	/*
+	 * Gera a nota com todos os produtos de uma venda fechada e retorna o
+	 * código da nota
+	 */
+	@PostMapping("/davenda")
+	public @ResponseBody String notaDaVenda(@RequestParam Map<String, String> request) {
+		if (request.get("venda") == null || request.get("venda").isEmpty())
+			throw new RuntimeException("Favor, informe a venda");
+
+		if (request.get("destinatario") == null || request.get("destinatario").isEmpty())
+			throw new RuntimeException("Favor, informe o destinatário");
+
+		return notasVenda.gerar(Long.decode(request.get("venda")), Long.decode(request.get("destinatario")));
+	}
+
+	/*
+	 * Emite a NFC-e de uma venda fechada e retorna a chave de acesso, uma
+	 * venda que já tem NFC-e recebe a chave da nota existente
+	 */
+	@PostMapping("/nfce")
+	public @ResponseBody String nfceDaVenda(@RequestParam Map<String, String> request) {
+		if (request.get("venda") == null || request.get("venda").isEmpty())
+			throw new RuntimeException("Favor, informe a venda");
+
+		return nfce.chaveDaVenda(Long.decode(request.get("venda")));
+	}
+
+	/*
+	 * Retorna o xml gravado para a chave de acesso
+	 */
+	@GetMapping("/xml/{chave}")
+	public ResponseEntity<String> xml(@PathVariable("chave") String chave) {
+		return notasFiscais.buscaXml(chave)
+				.map(xml -> ResponseEntity.ok().contentType(MediaType.APPLICATION_XML)
+						.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + chave + ".xml").body(xml))
+				.orElse(ResponseEntity.notFound().build());
+	}
+
+	/*
+	 * Exporta em um zip os xml gravados no período, escrito direto na resposta
+	 */
+	@GetMapping("/xml/exportar")
+	public void exportarXml(@RequestParam("inicio") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+			@RequestParam("fim") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim,
+			HttpServletResponse response) throws IOException {
+		response.setContentType("application/zip");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=xmlNfe-" + inicio + "-" + fim + ".zip");
+
+		notasFiscais.exportaXml(inicio, fim, response.getOutputStream());
+		response.flushBuffer();
+	}
+
 	@RequestMapping(value = "{codigo}", method = RequestMethod.POST)
 	public @ResponseBody String emitir(@PathVariable("codigo") NotaFiscal notaFiscal) {
 		
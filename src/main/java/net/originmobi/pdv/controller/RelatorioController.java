@@ -5,6 +5,7 @@ import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -15,9 +16,11 @@ import net.originmobi.pdv.relatorios.GerarRelatorio;
 @RequestMapping("/relatorio")
 public class RelatorioController {
 	
+	@Autowired
+	private GerarRelatorio relatorio;
+
 	@GetMapping
 	public String relatorio(HttpServletResponse response) {
-		GerarRelatorio relatorio = new GerarRelatorio();
 		Map<String, Object> parametros = new HashMap<>();
 		parametros.put("codvenda", 1);
 		
@@ -1,7 +1,10 @@
 package net.originmobi.pdv.controller;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -23,6 +26,13 @@ public class TituloService {
 		return titulos.findById(codigo);
 	}
 
+	/*
+	 * Busca vários títulos em uma única consulta, indexados pelo código
+	 */
+	public Map<Long, Titulo> busca(List<Long> codigos) {
+		return titulos.findAllById(codigos).stream().collect(Collectors.toMap(Titulo::getCodigo, Function.identity()));
+	}
+
 	public void cadastro(Titulo titulo) {
 		try {
 			titulos.save(titulo);
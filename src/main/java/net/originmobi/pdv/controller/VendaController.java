@@ -1,6 +1,7 @@
 package net.originmobi.pdv.controller;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -18,6 +19,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
@@ -25,14 +27,13 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import net.originmobi.pdv.enumerado.VendaSituacao;
 import net.originmobi.pdv.filter.VendaFilter;
-import net.originmobi.pdv.model.PagamentoTipo;
-import net.originmobi.pdv.model.Pessoa;
-import net.originmobi.pdv.model.Produto;
 import net.originmobi.pdv.model.Titulo;
 import net.originmobi.pdv.model.Venda;
+import net.originmobi.pdv.model.VendaProduto;
 import net.originmobi.pdv.service.PagamentoTipoService;
 import net.originmobi.pdv.service.PessoaService;
-import net.originmobi.pdv.service.ProdutoService;
+import net.originmobi.pdv.service.ProdutoIndiceService;
+import net.originmobi.pdv.service.ProdutoIndiceService.ProdutoIndexado;
 import net.originmobi.pdv.service.VendaProdutoService;
 import net.originmobi.pdv.service.VendaService;
 
@@ -51,7 +52,7 @@ public class VendaController {
 	private PessoaService pessoas;
 
 	@Autowired
-	private ProdutoService produtos;
+	private ProdutoIndiceService produtosIndice;
 
 	@Autowired
 	private VendaProdutoService vendaProdutos;
@@ -66,6 +67,7 @@ public class VendaController {
 	public ModelAndView form() {
 		ModelAndView mv = new ModelAndView(VENDA_FORM);
 		mv.addObject(new Venda());
+		mv.addAllObjects(dadosFormulario());
 		return mv;
 	}
 
@@ -90,9 +92,11 @@ public class VendaController {
 	}
 
 	@PostMapping
-	public String abrirVenda(@Validated Venda venda, Errors errors, RedirectAttributes attributes) {
-		if (errors.hasErrors())
+	public String abrirVenda(@Validated Venda venda, Errors errors, Model model, RedirectAttributes attributes) {
+		if (errors.hasErrors()) {
+			model.addAllAttributes(dadosFormulario());
 			return VENDA_FORM;
+		}
 
 		Long codigo = null;
 
@@ -112,6 +116,7 @@ public class VendaController {
 		ModelAndView mv = new ModelAndView(VENDA_FORM);
 		mv.addObject("venda", venda);
 		mv.addObject("produtosVenda", vendaProdutos.listaProdutosVenda(venda));
+		mv.addAllObjects(dadosFormulario());
 		return mv;
 	}
 
@@ -132,6 +137,17 @@ public class VendaController {
 		return mensagem;
 	}
 
+	@RequestMapping(value = "/addprodutos", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public @ResponseBody Map<String, Object> addProdutosVenda(@RequestParam("codigoVen") Long codVen,
+			@RequestBody List<VendaProduto> itens) {
+		return vendas.addProdutos(codVen, itens);
+	}
+
+	@RequestMapping(value = "/recalculatotal", method = RequestMethod.POST)
+	public @ResponseBody String recalculaTotal(@RequestParam("codigoVen") Long codVen) {
+		return String.valueOf(vendas.recalculaTotal(codVen));
+	}
+
 	@RequestMapping(value = "/removeproduto", method = RequestMethod.POST)
 	public @ResponseBody String removeProdutoVenda(@RequestParam Map<String, String> request) {
 		Long posicaoProd = Long.decode(request.get("posicaoPro"));
@@ -170,28 +186,22 @@ public class VendaController {
 		return titulos.lista();
 	}
 
-	@ModelAttribute("clientes")
-	public List<Pessoa> clientes() {
-		return pessoas.lista();
-	}
-
-	@ModelAttribute("situacoes")
-	public List<VendaSituacao> vendaSituacao() {
-		return Arrays.asList(VendaSituacao.values());
-	}
-
-	@ModelAttribute("produtos")
-	public List<Produto> produtos() {
-		return produtos.listar();
-	}
-	
-	@ModelAttribute("produtosVendaveis")
-	public List<Produto> produtosVendaveis() {
-		return produtos.listaProdutosVendaveis();
+	@RequestMapping(value = "/produtos", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public @ResponseBody List<ProdutoIndexado> buscaProdutos(@RequestParam("termo") String termo,
+			@RequestParam(value = "limite", defaultValue = "" + ProdutoIndiceService.LIMITE_PADRAO) int limite) {
+		return produtosIndice.busca(termo, limite);
 	}
 
-	@ModelAttribute("formaPagamento")
-	public List<PagamentoTipo> pagamentoTipo() {
-		return pagamentoTipos.listar();
+	/*
+	 * Dados de apoio da tela de venda. Não são @ModelAttribute para não serem
+	 * carregados a cada chamada AJAX (addproduto, removeproduto, fechar...),
+	 * apenas os handlers que renderizam o formulário os buscam
+	 */
+	private Map<String, Object> dadosFormulario() {
+		Map<String, Object> dados = new HashMap<>();
+		dados.put("clientes", pessoas.lista());
+		dados.put("situacoes", Arrays.asList(VendaSituacao.values()));
+		dados.put("formaPagamento", pagamentoTipos.listar());
+		return dados;
 	}
 }
@@ -0,0 +1,46 @@
+package net.originmobi.pdv.controller;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import net.originmobi.pdv.service.VendaCuboService;
+
+@Controller
+@RequestMapping("/venda/cubo")
+public class VendaCuboController {
+
+	@Autowired
+	private VendaCuboService cubo;
+
+	/*
+	 * Totais das vendas do período agrupados por dia, hora, produto, usuário ou
+	 * forma de pagamento
+	 */
+	@GetMapping
+	public @ResponseBody List<Map<String, Object>> consulta(
+			@RequestParam("inicio") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+			@RequestParam("fim") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim,
+			@RequestParam(value = "por", defaultValue = "DIA") VendaCuboService.Dimensao por) {
+		return cubo.consulta(inicio, fim, por);
+	}
+
+	@PostMapping("/reconstruir")
+	public @ResponseBody String reconstruir(
+			@RequestParam("inicio") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+			@RequestParam("fim") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim) {
+		cubo.reconstroi(inicio, fim);
+
+		return "Cubo de vendas reconstruído";
+	}
+
+}
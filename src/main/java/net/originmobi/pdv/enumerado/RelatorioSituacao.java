@@ -0,0 +1,6 @@
+package net.originmobi.pdv.enumerado;
+
+public enum RelatorioSituacao {
+	NA_FILA, GERANDO, PRONTO, ERRO;
+
+}
@@ -19,12 +19,17 @@ public class EmpresaParametro implements Serializable {
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	private Long codigo;
 	private int serie_nfe;
+	private Integer serie_nfce;
 
 	@Column(name = "tipo_ambiente_codigo")
 	private int ambiente;
 
 	private Double pCredSN;
 
+	// identificador e código de segurança do contribuinte para o QR-Code da NFC-e
+	private String csc_id;
+	private String csc;
+
 	public EmpresaParametro() {
 		super();
 	}
@@ -61,4 +66,28 @@ public class EmpresaParametro implements Serializable {
 		this.pCredSN = pCredSN;
 	}
 
+	public Integer getSerie_nfce() {
+		return serie_nfce;
+	}
+
+	public void setSerie_nfce(Integer serie_nfce) {
+		this.serie_nfce = serie_nfce;
+	}
+
+	public String getCsc_id() {
+		return csc_id;
+	}
+
+	public void setCsc_id(String csc_id) {
+		this.csc_id = csc_id;
+	}
+
+	public String getCsc() {
+		return csc;
+	}
+
+	public void setCsc(String csc) {
+		this.csc = csc;
+	}
+
 }
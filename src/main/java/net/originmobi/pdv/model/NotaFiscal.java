@@ -36,6 +36,10 @@ public class NotaFiscal implements Serializable {
 	private int modelo;
 	private int serie;
 
+	// somente a NFC-e guarda a venda que a gerou
+	@Column(name = "venda_codigo")
+	private Long venda;
+
 	@Enumerated(EnumType.ORDINAL)
 	private NotaFiscalTipo tipo;
 
@@ -132,6 +136,14 @@ public class NotaFiscal implements Serializable {
 		this.numero = numero;
 	}
 
+	public Long getVenda() {
+		return venda;
+	}
+
+	public void setVenda(Long venda) {
+		this.venda = venda;
+	}
+
 	public int getModelo() {
 		return modelo;
 	}
@@ -14,6 +14,7 @@ import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
+import javax.persistence.Version;
 
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.format.annotation.NumberFormat;
@@ -45,6 +46,9 @@ public class Venda implements Serializable {
 	@Enumerated(EnumType.STRING)
 	private VendaSituacao situacao;
 
+	@Version
+	private Integer versao;
+
 	@DateTimeFormat(pattern = "dd/MM/yyyy hh:mm:ss")
 	private Timestamp data_cadastro;
 
@@ -204,4 +208,12 @@ public class Venda implements Serializable {
 		this.produto = produto;
 	}
 
+	public Integer getVersao() {
+		return versao;
+	}
+
+	public void setVersao(Integer versao) {
+		this.versao = versao;
+	}
+
 }
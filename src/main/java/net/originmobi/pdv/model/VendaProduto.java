@@ -34,10 +34,16 @@ public class VendaProduto implements Serializable {
 	@Column(name = "venda_codigo")
 	private Long venda;
 
+	private int qtd = 1;
+
 	@Column(name = "valor_balanca")
 	@NumberFormat(pattern = "#,##0.00")
 	private Double valor_balanca;
 
+	@Column(name = "valor_unitario")
+	@NumberFormat(pattern = "#,##0.00")
+	private Double valor_unitario;
+
 	public VendaProduto() {
 	}
 
@@ -48,6 +54,11 @@ public class VendaProduto implements Serializable {
 		this.venda = venda;
 	}
 
+	public VendaProduto(Long produto, Long venda, int qtd, Double valor_balanca) {
+		this(produto, venda, valor_balanca);
+		this.qtd = qtd;
+	}
+
 	public Long getCodigo() {
 		return codigo;
 	}
@@ -72,6 +83,14 @@ public class VendaProduto implements Serializable {
 		this.venda = venda;
 	}
 
+	public int getQtd() {
+		return qtd;
+	}
+
+	public void setQtd(int qtd) {
+		this.qtd = qtd;
+	}
+
 	public Double getValor_balanca() {
 		return valor_balanca;
 	}
@@ -80,4 +99,12 @@ public class VendaProduto implements Serializable {
 		this.valor_balanca = valor_balanca;
 	}
 
+	public Double getValor_unitario() {
+		return valor_unitario;
+	}
+
+	public void setValor_unitario(Double valor_unitario) {
+		this.valor_unitario = valor_unitario;
+	}
+
 }
@@ -1,30 +1,63 @@
 package net.originmobi.pdv.relatorios;
 
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import net.originmobi.pdv.repository.CaixaLancamentoRepository;
 
 @Controller
 @RequestMapping("/caixa/relatorio")
 public class CaixaRelatorioController {
 	
+	@Autowired
 	private GerarRelatorio relatorio;
+
+	@Autowired
+	private ExportaRelatorio exporta;
+
+	@Autowired
+	private FilaRelatorios fila;
+
+	@Autowired
+	private CaixaLancamentoRepository lancamentos;
 	
 	@GetMapping("/caixa/{codigo}")
-	public @ResponseBody String caixa(@PathVariable("codigo") Integer codigo, HttpServletResponse response) {
+	public void caixa(@PathVariable("codigo") Integer codigo, HttpServletResponse response) throws IOException {
 		Map<String, Object> parametros = new HashMap<>();
 		parametros.put("codcaixa", codigo);
 
-		relatorio = new GerarRelatorio();
-		relatorio.gerar("caixa.jrxml", response, parametros);
-		
-		return "ok";
+		String versao = lancamentos.versaoDoCaixa(codigo.longValue());
+		PedidoRelatorio pedido = fila.pede("caixa:" + codigo + ":" + versao, "caixa-" + codigo + ".pdf",
+				"application/pdf", saida -> relatorio.gerar("caixa.jrxml", parametros, saida));
+
+		fila.responde(pedido, response, FilaRelatorios.ESPERA);
+	}
+
+	/*
+	 * Exporta os lançamentos de caixa do período em CSV ou XLSX, gerado pela fila
+	 */
+	@GetMapping("/lancamentos")
+	public void lancamentos(@RequestParam("inicio") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+			@RequestParam("fim") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim,
+			@RequestParam(value = "formato", defaultValue = "CSV") ExportaRelatorio.Formato formato,
+			HttpServletResponse response) throws IOException {
+		String versao = exporta.versaoLancamentosCaixa(inicio, fim);
+		PedidoRelatorio pedido = fila.pede("lancamentos:" + inicio + ":" + fim + ":" + formato + ":" + versao,
+				"lancamentos-caixa-" + inicio + "-" + fim + "." + formato.getExtensao(), formato.getContentType(),
+				saida -> exporta.exportaLancamentosCaixa(inicio, fim, formato, saida));
+
+		fila.responde(pedido, response, FilaRelatorios.ESPERA);
 	}
 }
@@ -0,0 +1,288 @@
+package net.originmobi.pdv.relatorios;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.time.LocalDate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exporta o resultado de uma consulta em CSV ou XLSX direto para a saída.
+ *
+ * A consulta é lida com um cursor somente para frente, o driver do MySQL
+ * entrega as linhas uma a uma, e cada linha é escrita assim que lida. Em
+ * nenhum momento o resultado inteiro fica em memória, seja qual for o período.
+ */
+@Component
+public class ExportaRelatorio {
+
+	// pede ao driver do MySQL para entregar as linhas uma a uma
+	public static final int LINHA_A_LINHA = Integer.MIN_VALUE;
+
+	public enum Formato {
+		CSV("text/csv; charset=UTF-8", "csv"),
+		XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+
+		private final String contentType;
+		private final String extensao;
+
+		Formato(String contentType, String extensao) {
+			this.contentType = contentType;
+			this.extensao = extensao;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public String getExtensao() {
+			return extensao;
+		}
+	}
+
+	private static final String LANCAMENTOS_CAIXA = "select cl.codigo, c.descricao as caixa, cl.data_cadastro as data, "
+			+ "cl.tipo, cl.estilo, cl.valor, cl.observacao from caixa_lancamento cl "
+			+ "join caixa c on c.codigo = cl.caixa_codigo "
+			+ "where cl.data_cadastro >= ? and cl.data_cadastro < ? order by cl.codigo";
+
+	private static final String VENDAS = "select v.codigo, v.data_cadastro as data, v.situacao, p.nome as cliente, "
+			+ "v.valor_produtos, v.valor_desconto, v.valor_acrescimo, v.valor_total from venda v "
+			+ "left join pessoa p on p.codigo = v.pessoa_codigo "
+			+ "where v.data_cadastro >= ? and v.data_cadastro < ? order by v.codigo";
+
+	// versão dos dados do período, muda quando uma linha é incluída ou alterada
+	private static final String VERSAO_LANCAMENTOS_CAIXA = "select concat(count(*), ':', coalesce(max(codigo), 0), ':', "
+			+ "coalesce(sum(valor), 0)) from caixa_lancamento where data_cadastro >= ? and data_cadastro < ?";
+
+	private static final String VERSAO_VENDAS = "select concat(count(*), ':', coalesce(max(codigo), 0), ':', "
+			+ "coalesce(sum(versao), 0)) from venda where data_cadastro >= ? and data_cadastro < ?";
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	public long exportaLancamentosCaixa(LocalDate inicio, LocalDate fim, Formato formato, OutputStream saida) {
+		return exporta(LANCAMENTOS_CAIXA, periodo(inicio, fim), formato, saida);
+	}
+
+	public long exportaVendas(LocalDate inicio, LocalDate fim, Formato formato, OutputStream saida) {
+		return exporta(VENDAS, periodo(inicio, fim), formato, saida);
+	}
+
+	public String versaoLancamentosCaixa(LocalDate inicio, LocalDate fim) {
+		return jdbc.queryForObject(VERSAO_LANCAMENTOS_CAIXA, String.class, periodo(inicio, fim));
+	}
+
+	public String versaoVendas(LocalDate inicio, LocalDate fim) {
+		return jdbc.queryForObject(VERSAO_VENDAS, String.class, periodo(inicio, fim));
+	}
+
+	/*
+	 * Escreve as linhas da consulta na saída e retorna quantas foram escritas,
+	 * a primeira linha traz os nomes das colunas
+	 */
+	public long exporta(String sql, Object[] parametros, Formato formato, OutputStream saida) {
+		long inicio = System.currentTimeMillis();
+
+		Long linhas = jdbc.query(con -> {
+			PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			ps.setFetchSize(LINHA_A_LINHA);
+			for (int i = 0; i < parametros.length; i++)
+				ps.setObject(i + 1, parametros[i]);
+			return ps;
+		}, rs -> {
+			try {
+				Planilha planilha = formato == Formato.CSV ? new PlanilhaCsv(saida) : new PlanilhaXlsx(saida);
+
+				ResultSetMetaData meta = rs.getMetaData();
+				Object[] valores = new Object[meta.getColumnCount()];
+
+				for (int i = 0; i < valores.length; i++)
+					valores[i] = meta.getColumnLabel(i + 1);
+				planilha.linha(valores);
+
+				long escritas = 0;
+				while (rs.next()) {
+					for (int i = 0; i < valores.length; i++)
+						valores[i] = rs.getObject(i + 1);
+					planilha.linha(valores);
+					escritas++;
+				}
+
+				planilha.termina();
+				return escritas;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		System.out.println("Exportadas " + linhas + " linhas em " + formato + " em "
+				+ (System.currentTimeMillis() - inicio) + " ms");
+
+		return linhas;
+	}
+
+	/*
+	 * O período inclui o dia final inteiro
+	 */
+	private static Object[] periodo(LocalDate inicio, LocalDate fim) {
+		if (fim.isBefore(inicio))
+			throw new RuntimeException("Data final anterior à data inicial, verifique");
+
+		return new Object[] { Date.valueOf(inicio), Date.valueOf(fim.plusDays(1)) };
+	}
+
+	private interface Planilha {
+
+		void linha(Object[] valores) throws IOException;
+
+		void termina() throws IOException;
+
+	}
+
+	/*
+	 * CSV separado por ponto e vírgula, como o Excel em português espera
+	 */
+	private static class PlanilhaCsv implements Planilha {
+
+		private final Writer escritor;
+
+		PlanilhaCsv(OutputStream saida) throws IOException {
+			escritor = new BufferedWriter(new OutputStreamWriter(saida, StandardCharsets.UTF_8));
+			escritor.write('\uFEFF');
+		}
+
+		@Override
+		public void linha(Object[] valores) throws IOException {
+			for (int i = 0; i < valores.length; i++) {
+				if (i > 0)
+					escritor.write(';');
+				escritor.write(campo(valores[i]));
+			}
+			escritor.write("\r\n");
+		}
+
+		@Override
+		public void termina() throws IOException {
+			escritor.flush();
+		}
+
+		private static String campo(Object valor) {
+			if (valor == null)
+				return "";
+
+			String texto = valor.toString();
+			if (texto.indexOf(';') < 0 && texto.indexOf('"') < 0 && texto.indexOf('\n') < 0 && texto.indexOf('\r') < 0)
+				return texto;
+
+			return '"' + texto.replace("\"", "\"\"") + '"';
+		}
+
+	}
+
+	/*
+	 * Pasta de trabalho com uma planilha só, o xml da planilha é escrito linha a
+	 * linha dentro do zip
+	 */
+	private static class PlanilhaXlsx implements Planilha {
+
+		private final ZipOutputStream zip;
+		private final Writer escritor;
+		private int linha;
+
+		PlanilhaXlsx(OutputStream saida) throws IOException {
+			zip = new ZipOutputStream(saida);
+			escritor = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+
+			entrada("[Content_Types].xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+					+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+					+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+					+ "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+					+ "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+					+ "</Types>");
+			entrada("_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+					+ "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+					+ "</Relationships>");
+			entrada("xl/workbook.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+					+ "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+					+ "<sheets><sheet name=\"Relatorio\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+			entrada("xl/_rels/workbook.xml.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+					+ "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+					+ "</Relationships>");
+
+			zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+			escritor.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+					+ "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+		}
+
+		@Override
+		public void linha(Object[] valores) throws IOException {
+			escritor.write("<row r=\"" + ++linha + "\">");
+			for (Object valor : valores) {
+				if (valor == null) {
+					escritor.write("<c/>");
+				} else if (valor instanceof Number) {
+					escritor.write("<c><v>" + valor + "</v></c>");
+				} else {
+					escritor.write("<c t=\"inlineStr\"><is><t>");
+					escreveTexto(valor.toString());
+					escritor.write("</t></is></c>");
+				}
+			}
+			escritor.write("</row>");
+		}
+
+		@Override
+		public void termina() throws IOException {
+			escritor.write("</sheetData></worksheet>");
+			escritor.flush();
+			zip.closeEntry();
+			zip.finish();
+		}
+
+		private void entrada(String nome, String conteudo) throws IOException {
+			zip.putNextEntry(new ZipEntry(nome));
+			zip.write(conteudo.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+
+		private void escreveTexto(String texto) throws IOException {
+			for (int i = 0; i < texto.length(); i++) {
+				char c = texto.charAt(i);
+				switch (c) {
+				case '<':
+					escritor.write("&lt;");
+					break;
+				case '>':
+					escritor.write("&gt;");
+					break;
+				case '&':
+					escritor.write("&amp;");
+					break;
+				default:
+					// caracteres de controle não são aceitos no xml
+					if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r')
+						escritor.write(c);
+				}
+			}
+		}
+
+	}
+
+}
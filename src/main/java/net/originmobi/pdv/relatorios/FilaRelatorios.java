@@ -0,0 +1,213 @@
+package net.originmobi.pdv.relatorios;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import net.originmobi.pdv.enumerado.RelatorioSituacao;
+
+/**
+ * Fila dos relatórios, gerados fora das threads das requisições.
+ *
+ * No máximo GERACOES_SIMULTANEAS relatórios são gerados ao mesmo tempo, assim
+ * os relatórios nunca ocupam mais que essa quantidade de conexões do pool e
+ * as vendas continuam com as demais. Com TAMANHO_FILA pedidos esperando, os
+ * novos são recusados. O arquivo gerado é guardado pela chave do pedido
+ * (relatório, parâmetros e versão dos dados), o mesmo relatório pedido de
+ * novo sem alteração nos dados é entregue sem gerar outra vez.
+ */
+@Component
+public class FilaRelatorios {
+
+	public static final int GERACOES_SIMULTANEAS = 2;
+	public static final int TAMANHO_FILA = 20;
+
+	// quanto a requisição do relatório espera antes de responder com o pedido
+	public static final long ESPERA = 15 * 1000;
+
+	private static final long VALIDADE = 10 * 60 * 1000;
+
+	@FunctionalInterface
+	public interface Geracao {
+
+		void gera(OutputStream saida) throws Exception;
+
+	}
+
+	private final Map<String, PedidoRelatorio> pedidos = new ConcurrentHashMap<>();
+	private final Map<String, PedidoRelatorio> porChave = new ConcurrentHashMap<>();
+	private final ThreadPoolExecutor geracoes;
+	private final long validade;
+
+	public FilaRelatorios() {
+		this(GERACOES_SIMULTANEAS, TAMANHO_FILA, VALIDADE);
+	}
+
+	public FilaRelatorios(int geracoesSimultaneas, int tamanhoFila, long validade) {
+		this.validade = validade;
+		geracoes = new ThreadPoolExecutor(geracoesSimultaneas, geracoesSimultaneas, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(tamanhoFila), tarefa -> {
+					Thread thread = new Thread(tarefa, "relatorio");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PreDestroy
+	public void encerra() {
+		geracoes.shutdownNow();
+		pedidos.values().forEach(this::apaga);
+	}
+
+	/*
+	 * Coloca o relatório na fila, ou devolve o pedido já feito com a mesma chave
+	 * enquanto ele estiver na fila, gerando ou pronto
+	 */
+	public PedidoRelatorio pede(String chave, String nomeArquivo, String contentType, Geracao geracao) {
+		PedidoRelatorio[] novo = new PedidoRelatorio[1];
+
+		PedidoRelatorio pedido = porChave.compute(chave, (c, atual) -> {
+			if (atual != null && atual.getSituacao() != RelatorioSituacao.ERRO)
+				return atual;
+
+			novo[0] = new PedidoRelatorio(chave, nomeArquivo, contentType);
+			return novo[0];
+		});
+
+		if (novo[0] != null) {
+			pedidos.put(pedido.getCodigo(), pedido);
+
+			try {
+				geracoes.execute(() -> gera(pedido, geracao));
+			} catch (RejectedExecutionException e) {
+				porChave.remove(chave, pedido);
+				pedidos.remove(pedido.getCodigo());
+				throw new RuntimeException("Muitos relatórios em geração, tente novamente em instantes");
+			}
+		}
+
+		return pedido;
+	}
+
+	public Optional<PedidoRelatorio> busca(String codigo) {
+		return Optional.ofNullable(pedidos.get(codigo));
+	}
+
+	/*
+	 * Espera o relatório por no máximo espera ms e escreve o arquivo na resposta,
+	 * ainda não terminado responde 202 com o código do pedido para consultar
+	 * depois
+	 */
+	public void responde(PedidoRelatorio pedido, HttpServletResponse resposta, long espera) throws IOException {
+		try {
+			pedido.aguarda(espera);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		switch (pedido.getSituacao()) {
+		case PRONTO:
+			// o arquivo não é apagado pelo descarte enquanto estiver sendo enviado
+			if (!pedido.abreLeitura())
+				throw new RuntimeException("Relatório vencido, peça o relatório novamente");
+
+			try {
+				boolean pdf = pedido.getNomeArquivo().endsWith(".pdf");
+				resposta.setContentType(pedido.getContentType());
+				resposta.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+						(pdf ? "inline" : "attachment") + "; filename=" + pedido.getNomeArquivo());
+				resposta.setContentLengthLong(Files.size(pedido.getArquivo()));
+
+				Files.copy(pedido.getArquivo(), resposta.getOutputStream());
+				resposta.flushBuffer();
+			} finally {
+				pedido.fechaLeitura();
+			}
+			break;
+
+		case ERRO:
+			throw new RuntimeException(pedido.getErro());
+
+		default:
+			resposta.setStatus(HttpServletResponse.SC_ACCEPTED);
+			resposta.setContentType("application/json");
+			resposta.setCharacterEncoding(StandardCharsets.UTF_8.name());
+			resposta.getWriter().write("{\"codigo\":\"" + pedido.getCodigo() + "\",\"situacao\":\"" + pedido.getSituacao()
+					+ "\"}");
+			resposta.flushBuffer();
+		}
+	}
+
+	/*
+	 * Apaga os arquivos dos pedidos vencidos, o próximo pedido gera de novo.
+	 * Um arquivo sendo enviado fica para a próxima limpeza
+	 */
+	@Scheduled(fixedDelay = 60 * 1000)
+	public void descartaVencidos() {
+		long limite = System.currentTimeMillis() - validade;
+
+		pedidos.values().removeIf(pedido -> {
+			if (!pedido.concluidoAntesDe(limite) || !pedido.descarta())
+				return false;
+
+			porChave.remove(pedido.getChave(), pedido);
+			apaga(pedido);
+			return true;
+		});
+	}
+
+	private void gera(PedidoRelatorio pedido, Geracao geracao) {
+		pedido.gerando();
+		long inicio = System.currentTimeMillis();
+
+		Path arquivo = null;
+		try {
+			arquivo = Files.createTempFile("relatorio-", "-" + pedido.getNomeArquivo());
+			try (OutputStream saida = new BufferedOutputStream(Files.newOutputStream(arquivo))) {
+				geracao.gera(saida);
+			}
+
+			pedido.pronto(arquivo);
+			System.out.println("Relatório " + pedido.getNomeArquivo() + " gerado pela fila em "
+					+ (System.currentTimeMillis() - inicio) + " ms");
+		} catch (Exception e) {
+			System.out.println(e);
+			apaga(arquivo);
+			pedido.erro(e instanceof RuntimeException && e.getMessage() != null ? e.getMessage()
+					: "Erro ao gerar o relatório, chame o suporte");
+		}
+	}
+
+	private void apaga(PedidoRelatorio pedido) {
+		apaga(pedido.getArquivo());
+	}
+
+	private static void apaga(Path arquivo) {
+		if (arquivo == null)
+			return;
+
+		try {
+			Files.deleteIfExists(arquivo);
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	}
+
+}
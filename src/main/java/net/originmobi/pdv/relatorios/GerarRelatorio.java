@@ -1,63 +1,166 @@
 package net.originmobi.pdv.relatorios;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletResponse;
 import javax.sql.DataSource;
 
-import net.originmobi.pdv.utilitarios.ConexaoJDBC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRParameter;
 import net.sf.jasperreports.engine.JasperCompileManager;
 import net.sf.jasperreports.engine.JasperExportManager;
 import net.sf.jasperreports.engine.JasperFillManager;
 import net.sf.jasperreports.engine.JasperPrint;
 import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import net.sf.jasperreports.engine.query.JRJdbcQueryExecuterFactory;
+import net.sf.jasperreports.engine.util.JRLoader;
+import net.sf.jasperreports.engine.util.JRSwapFile;
 
+/**
+ * Gera os relatórios em PDF.
+ *
+ * Cada relatório é compilado uma única vez e guardado, havendo um .jasper já
+ * compilado junto do .jrxml ele é usado no lugar. O preenchimento usa uma
+ * conexão do pool da aplicação, devolvida ao fim de cada relatório.
+ *
+ * A consulta do relatório é lida linha a linha e as páginas preenchidas além
+ * de PAGINAS_EM_MEMORIA vão para um arquivo temporário, um relatório de um
+ * período longo não precisa caber inteiro na memória.
+ */
+@Component
 public class GerarRelatorio {
-	private String contexto;
-	private ConexaoJDBC conexao;
 
-	public void gerar(String relatorio, HttpServletResponse resposta, Map<String, Object> parametros) {
+	private static final String DIRETORIO = "/relatorios/";
 
-		try {
-			contexto = new File(".").getCanonicalPath();
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			System.out.println("Erro ao pegar path da aplicação");
-		}
+	private static final int PAGINAS_EM_MEMORIA = 50;
 
-		String jrxml = contexto.toString().replace("/bin", "") + "/webapps/pdv/WEB-INF/classes/relatorios/" + relatorio;
-		
-		conexao = new ConexaoJDBC();
-		DataSource dataSource = conexao.abre();
+	@Autowired
+	private DataSource dataSource;
 
-		JasperReport report;
-		JasperPrint print = null;
+	private final Map<String, JasperReport> compilados = new ConcurrentHashMap<>();
+
+	public void gerar(String relatorio, HttpServletResponse resposta, Map<String, Object> parametros) {
+		JRSwapFileVirtualizer virtualizador = virtualizador();
 
 		try {
-			report = JasperCompileManager.compileReport(jrxml);
+			JasperPrint print;
+			try {
+				print = preenche(relatorio, parametros, virtualizador);
+			} catch (Exception e) {
+				System.out.println(e);
+				return;
+			}
+
+			try {
+				resposta.setContentType("application/pdf");
+				exporta(relatorio, print, resposta.getOutputStream());
+			} catch (Exception e) {
+				System.out.println(e);
+			}
+		} finally {
+			virtualizador.cleanup();
+		}
+	}
 
-			print = JasperFillManager.fillReport(report, parametros, dataSource.getConnection());
+	/*
+	 * Gera o PDF do relatório na saída informada, usado pela fila de relatórios
+	 */
+	public void gerar(String relatorio, Map<String, Object> parametros, OutputStream saida) {
+		JRSwapFileVirtualizer virtualizador = virtualizador();
 
-			dataSource.getConnection().close();
+		try {
+			exporta(relatorio, preenche(relatorio, parametros, virtualizador), saida);
+		} catch (RuntimeException e) {
+			throw e;
 		} catch (Exception e) {
 			System.out.println(e);
+			throw new RuntimeException("Erro ao gerar o relatório " + relatorio);
+		} finally {
+			virtualizador.cleanup();
 		}
-		
-		try {
-			OutputStream saida = resposta.getOutputStream();
-			
-			resposta.setContentType("application/pdf");
-			
-			JasperExportManager.exportReportToPdfStream(print, saida);
-			
-			saida.flush();
-			saida.close();
+	}
+
+	private static JRSwapFileVirtualizer virtualizador() {
+		return new JRSwapFileVirtualizer(PAGINAS_EM_MEMORIA, new JRSwapFile(System.getProperty("java.io.tmpdir"), 4096, 64),
+				true);
+	}
+
+	private JasperPrint preenche(String relatorio, Map<String, Object> parametros, JRSwapFileVirtualizer virtualizador)
+			throws SQLException, JRException {
+		JasperReport report = compilado(relatorio);
+
+		Map<String, Object> comVirtualizador = new HashMap<>(parametros);
+		comVirtualizador.put(JRParameter.REPORT_VIRTUALIZER, virtualizador);
+
+		long inicio = System.currentTimeMillis();
+		JasperPrint print;
+		try (Connection conexao = dataSource.getConnection()) {
+			print = JasperFillManager.fillReport(report, comVirtualizador, conexao);
+		}
+		// as páginas ainda em memória também podem ir para o arquivo durante a exportação
+		virtualizador.setReadOnly(true);
+		System.out.println("Relatório " + relatorio + " preenchido em " + (System.currentTimeMillis() - inicio) + " ms");
+
+		return print;
+	}
+
+	private static void exporta(String relatorio, JasperPrint print, OutputStream saida) throws JRException, IOException {
+		long inicio = System.currentTimeMillis();
+
+		JasperExportManager.exportReportToPdfStream(print, saida);
+		saida.flush();
+
+		System.out.println("Relatório " + relatorio + " exportado em " + (System.currentTimeMillis() - inicio) + " ms");
+	}
+
+	/*
+	 * Retorna o relatório compilado, compilando o .jrxml somente na primeira
+	 * vez que o relatório é pedido
+	 */
+	public JasperReport compilado(String relatorio) {
+		return compilados.computeIfAbsent(relatorio, nome -> {
+			JasperReport report = carrega(nome);
+			// a consulta do relatório é lida linha a linha, sem trazer o resultado inteiro
+			report.setProperty(JRJdbcQueryExecuterFactory.PROPERTY_JDBC_FETCH_SIZE,
+					String.valueOf(ExportaRelatorio.LINHA_A_LINHA));
+			return report;
+		});
+	}
+
+	private JasperReport carrega(String relatorio) {
+		long inicio = System.currentTimeMillis();
+		String jasper = relatorio.replaceAll("\\.jrxml$", ".jasper");
+
+		try (InputStream precompilado = getClass().getResourceAsStream(DIRETORIO + jasper)) {
+			if (precompilado != null)
+				return (JasperReport) JRLoader.loadObject(precompilado);
 		} catch (Exception e) {
 			System.out.println(e);
 		}
 
+		try (InputStream jrxml = getClass().getResourceAsStream(DIRETORIO + relatorio)) {
+			if (jrxml == null)
+				throw new RuntimeException("Relatório " + relatorio + " não encontrado");
+
+			JasperReport report = JasperCompileManager.compileReport(jrxml);
+			System.out.println("Relatório " + relatorio + " compilado em " + (System.currentTimeMillis() - inicio) + " ms");
+
+			return report;
+		} catch (JRException | IOException e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao compilar o relatório " + relatorio);
+		}
 	}
+
 }
@@ -0,0 +1,122 @@
+package net.originmobi.pdv.relatorios;
+
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.originmobi.pdv.enumerado.RelatorioSituacao;
+
+/**
+ * Relatório pedido à fila, o arquivo gerado fica em disco até vencer.
+ */
+public class PedidoRelatorio {
+
+	private final String codigo = UUID.randomUUID().toString();
+	private final String chave;
+	private final String nomeArquivo;
+	private final String contentType;
+	private final CountDownLatch concluido = new CountDownLatch(1);
+
+	private volatile RelatorioSituacao situacao = RelatorioSituacao.NA_FILA;
+	private volatile Path arquivo;
+	private volatile String erro;
+	private volatile long concluidoEm;
+
+	// respostas lendo o arquivo, o pedido descartado não entrega mais o arquivo
+	private int leituras;
+	private boolean descartado;
+
+	PedidoRelatorio(String chave, String nomeArquivo, String contentType) {
+		this.chave = chave;
+		this.nomeArquivo = nomeArquivo;
+		this.contentType = contentType;
+	}
+
+	void gerando() {
+		situacao = RelatorioSituacao.GERANDO;
+	}
+
+	void pronto(Path arquivo) {
+		this.arquivo = arquivo;
+		conclui(RelatorioSituacao.PRONTO);
+	}
+
+	void erro(String erro) {
+		this.erro = erro;
+		conclui(RelatorioSituacao.ERRO);
+	}
+
+	private void conclui(RelatorioSituacao situacao) {
+		concluidoEm = System.currentTimeMillis();
+		this.situacao = situacao;
+		concluido.countDown();
+	}
+
+	/*
+	 * Espera a geração terminar por no máximo espera ms, retorna se terminou
+	 */
+	public boolean aguarda(long espera) throws InterruptedException {
+		return concluido.await(espera, TimeUnit.MILLISECONDS);
+	}
+
+	boolean concluidoAntesDe(long momento) {
+		return concluido.getCount() == 0 && concluidoEm < momento;
+	}
+
+	/*
+	 * Marca o arquivo em uso por uma resposta, retorna false se o pedido já
+	 * foi descartado
+	 */
+	synchronized boolean abreLeitura() {
+		if (descartado)
+			return false;
+
+		leituras++;
+		return true;
+	}
+
+	synchronized void fechaLeitura() {
+		leituras--;
+	}
+
+	/*
+	 * Descarta o pedido se nenhuma resposta estiver lendo o arquivo
+	 */
+	synchronized boolean descarta() {
+		if (leituras > 0)
+			return false;
+
+		descartado = true;
+		return true;
+	}
+
+	public String getCodigo() {
+		return codigo;
+	}
+
+	public String getChave() {
+		return chave;
+	}
+
+	public String getNomeArquivo() {
+		return nomeArquivo;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public RelatorioSituacao getSituacao() {
+		return situacao;
+	}
+
+	public Path getArquivo() {
+		return arquivo;
+	}
+
+	public String getErro() {
+		return erro;
+	}
+
+}
@@ -0,0 +1,48 @@
+package net.originmobi.pdv.relatorios;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/*
+ * Consulta e download dos relatórios que ainda estavam na fila quando foram
+ * pedidos
+ */
+@Controller
+@RequestMapping("/relatorio/pedido")
+public class PedidoRelatorioController {
+
+	@Autowired
+	private FilaRelatorios fila;
+
+	@GetMapping("/{codigo}")
+	public @ResponseBody Map<String, Object> situacao(@PathVariable("codigo") String codigo) {
+		PedidoRelatorio pedido = busca(codigo);
+
+		Map<String, Object> situacao = new HashMap<>();
+		situacao.put("codigo", pedido.getCodigo());
+		situacao.put("situacao", pedido.getSituacao());
+		situacao.put("erro", pedido.getErro());
+
+		return situacao;
+	}
+
+	@GetMapping("/{codigo}/arquivo")
+	public void arquivo(@PathVariable("codigo") String codigo, HttpServletResponse response) throws IOException {
+		fila.responde(busca(codigo), response, 0);
+	}
+
+	private PedidoRelatorio busca(String codigo) {
+		return fila.busca(codigo).orElseThrow(() -> new RuntimeException("Relatório não encontrado ou vencido, peça novamente"));
+	}
+
+}
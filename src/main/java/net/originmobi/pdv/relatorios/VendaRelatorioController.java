@@ -1,39 +1,72 @@
 package net.originmobi.pdv.relatorios;
 
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import net.originmobi.pdv.repository.VendaRepository;
 
 @Controller
 @RequestMapping("/venda/relatorio")
 public class VendaRelatorioController {
 	
-	GerarRelatorio relatorio;
+	@Autowired
+	private GerarRelatorio relatorio;
 
-	@GetMapping("/controle/{codigo}")
-	public void controle(@PathVariable("codigo") Integer codigo, HttpServletResponse response) {
-		Map<String, Object> parametros = new HashMap<>();
-		parametros.put("codvenda", codigo);
+	@Autowired
+	private ExportaRelatorio exporta;
 
-		relatorio = new GerarRelatorio();
-		relatorio.gerar("controle.jrxml", response, parametros);
+	@Autowired
+	private FilaRelatorios fila;
+
+	@Autowired
+	private VendaRepository vendas;
+
+	@GetMapping("/controle/{codigo}")
+	public void controle(@PathVariable("codigo") Integer codigo, HttpServletResponse response) throws IOException {
+		daVenda("controle", codigo, response);
 	}
 	
 	@GetMapping("/comanda/{codigo}")
-	public @ResponseBody String comanda(@PathVariable("codigo") Integer codigo, HttpServletResponse response) {
+	public void comanda(@PathVariable("codigo") Integer codigo, HttpServletResponse response) throws IOException {
+		daVenda("comanda", codigo, response);
+	}
+
+	/*
+	 * Exporta as vendas do período em CSV ou XLSX, gerado pela fila
+	 */
+	@GetMapping("/vendas")
+	public void vendas(@RequestParam("inicio") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate inicio,
+			@RequestParam("fim") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fim,
+			@RequestParam(value = "formato", defaultValue = "CSV") ExportaRelatorio.Formato formato,
+			HttpServletResponse response) throws IOException {
+		String versao = exporta.versaoVendas(inicio, fim);
+		PedidoRelatorio pedido = fila.pede("vendas:" + inicio + ":" + fim + ":" + formato + ":" + versao,
+				"vendas-" + inicio + "-" + fim + "." + formato.getExtensao(), formato.getContentType(),
+				saida -> exporta.exportaVendas(inicio, fim, formato, saida));
+
+		fila.responde(pedido, response, FilaRelatorios.ESPERA);
+	}
+
+	private void daVenda(String nome, Integer codigo, HttpServletResponse response) throws IOException {
 		Map<String, Object> parametros = new HashMap<>();
 		parametros.put("codvenda", codigo);
-		
-		relatorio = new GerarRelatorio();
-		relatorio.gerar("comanda.jrxml", response, parametros);
-		
-		return "ok";
-	} 
+
+		Integer versao = vendas.versao(codigo.longValue());
+		PedidoRelatorio pedido = fila.pede(nome + ":" + codigo + ":" + versao, nome + "-" + codigo + ".pdf",
+				"application/pdf", saida -> relatorio.gerar(nome + ".jrxml", parametros, saida));
+
+		fila.responde(pedido, response, FilaRelatorios.ESPERA);
+	}
 }
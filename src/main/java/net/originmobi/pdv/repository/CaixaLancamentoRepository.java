@@ -3,6 +3,8 @@ package net.originmobi.pdv.repository;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import net.originmobi.pdv.model.Caixa;
 import net.originmobi.pdv.model.CaixaLancamento;
@@ -11,4 +13,13 @@ public interface CaixaLancamentoRepository extends JpaRepository<CaixaLancamento
 
 	public List<CaixaLancamento> findByCaixaEquals(Caixa caixa);
 
+	/*
+	 * Versão dos dados do relatório do caixa, muda a cada lançamento e no
+	 * fechamento do caixa
+	 */
+	@Query(value = "select concat(count(cl.codigo), ':', coalesce(max(cl.codigo), 0), ':', coalesce(c.data_fechamento, '')) "
+			+ "from caixa c left join caixa_lancamento cl on cl.caixa_codigo = c.codigo where c.codigo = :codigo "
+			+ "group by c.codigo, c.data_fechamento", nativeQuery = true)
+	public String versaoDoCaixa(@Param("codigo") Long codigo);
+
 }
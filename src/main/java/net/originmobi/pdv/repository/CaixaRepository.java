@@ -1,10 +1,14 @@
 package net.originmobi.pdv.repository;
 
+import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
+import javax.transaction.Transactional;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -21,6 +25,43 @@ public interface CaixaRepository extends JpaRepository<Caixa, Long> {
 	@Query("select c from Caixa c where c.tipo = 'CAIXA' and c.data_fechamento is null")
 	public Optional<Caixa> caixaAberto();
 
+	/*
+	 * Entrada e saída de valores do caixa em centavos, cada lançamento é um
+	 * único update. A saída só é aplicada se o caixa tiver saldo, os dois
+	 * retornam 0 quando o lançamento não foi aplicado
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update caixa set valor_total = (round(coalesce(valor_total, 0) * 100) + :centavos) / 100, "
+			+ "valor_entrada = (round(coalesce(valor_entrada, 0) * 100) + :centavos) / 100 "
+			+ "where codigo = :codigo and data_fechamento is null", nativeQuery = true)
+	public int lancaEntrada(@Param("codigo") Long codigo, @Param("centavos") long centavos);
+
+	@Transactional
+	@Modifying
+	@Query(value = "update caixa set valor_total = (round(coalesce(valor_total, 0) * 100) - :centavos) / 100, "
+			+ "valor_saida = (round(coalesce(valor_saida, 0) * 100) + :centavos) / 100 "
+			+ "where codigo = :codigo and data_fechamento is null and round(coalesce(valor_total, 0) * 100) >= :centavos", nativeQuery = true)
+	public int lancaSaida(@Param("codigo") Long codigo, @Param("centavos") long centavos);
+
+	/*
+	 * Fecha o caixa sem regravar os saldos, o valor de fechamento é o
+	 * valor_total no momento do update. Retorna 0 se o caixa já estava fechado
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update caixa set data_fechamento = :data, valor_fechamento = coalesce(valor_total, 0) "
+			+ "where codigo = :codigo and data_fechamento is null", nativeQuery = true)
+	public int fechaCaixa(@Param("codigo") Long codigo, @Param("data") Timestamp data);
+
+	@Query(value = "select versao from caixa_versao where codigo = 1", nativeQuery = true)
+	public Long versaoCaixas();
+
+	@Transactional
+	@Modifying
+	@Query(value = "update caixa_versao set versao = versao + 1 where codigo = 1", nativeQuery = true)
+	public void incrementaVersaoCaixas();
+
 	@Query("select c from Caixa c where c.data_fechamento is null")
 	public List<Caixa> caixasAbertos();
 
@@ -1,5 +1,6 @@
 package net.originmobi.pdv.repository;
 
+import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.time.LocalDate;
 
@@ -33,7 +34,7 @@ public interface PagarParcelaRespository extends JpaRepository<PagarParcela, Lon
 			+ "and f.nome like %:nome% order by pp.quitado", nativeQuery = true)
 	Page<PagarParcela> listaOrdenada(@Param("nome") String nome, Pageable pageable);
 
-	@Query(value = "select coalesce(format(sum(pp.valor_restante), 2, 'de_DE'), '0,00') from pagar p, parcela_pagar pp where pp.pagar_codigo = p.codigo "
+	@Query(value = "select coalesce(sum(round(pp.valor_restante * 100)), 0) from pagar p, parcela_pagar pp where pp.pagar_codigo = p.codigo "
 			+ "and pp.quitado = 0", nativeQuery = true)
-	String valorDespesasAbertas();
+	BigDecimal centavosDespesasAbertas();
 }
@@ -58,7 +58,49 @@ public interface ProdutoRepository extends JpaRepository<Produto, Long> {
 	@Query(value = "select pe.qtd from produto p, produto_estoque pe where pe.produto_codigo = p.codigo and p.codigo = :codprod", nativeQuery = true)
 	public int saldoEstoque(@Param("codprod") Long codprod);
 
+	@Query(value = "select p.controla_estoque, coalesce(pe.qtd, 0) from produto p "
+			+ "left join produto_estoque pe on pe.produto_codigo = p.codigo where p.codigo = :codprod", nativeQuery = true)
+	public List<Object[]> controleSaldoEstoque(@Param("codprod") Long codprod);
+
+	/*
+	 * Quantidade vendida, controle de estoque e saldo de todos os produtos da
+	 * venda em uma única consulta: [codigo, qtd, controla_estoque, saldo]
+	 */
+	@Query(value = "select vp.produto_codigo, cast(sum(vp.qtd) as signed), p.controla_estoque, coalesce(pe.qtd, 0) "
+			+ "from venda_produtos vp inner join produto p on p.codigo = vp.produto_codigo "
+			+ "left join produto_estoque pe on pe.produto_codigo = p.codigo where vp.venda_codigo = :codvenda "
+			+ "group by vp.produto_codigo, p.controla_estoque, pe.qtd", nativeQuery = true)
+	public List<Object[]> estoqueProdutosVenda(@Param("codvenda") Long codvenda);
+
+	/*
+	 * Quantidade de cada produto nas vendas abertas, usada para refazer as
+	 * reservas em memória: [venda, produto, qtd]
+	 */
+	@Query(value = "select vp.venda_codigo, vp.produto_codigo, cast(sum(vp.qtd) as signed) from venda_produtos vp "
+			+ "inner join venda v on v.codigo = vp.venda_codigo where v.situacao = 'ABERTA' "
+			+ "group by vp.venda_codigo, vp.produto_codigo", nativeQuery = true)
+	public List<Object[]> itensVendasAbertas();
+
+	/*
+	 * Soma (ou subtrai, com qtd negativa) no estoque do produto, não deixa o
+	 * estoque ficar negativo. Retorna 0 quando não há estoque suficiente
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update produto_estoque set qtd = qtd + :qtd where produto_codigo = :codprod and qtd + :qtd >= 0", nativeQuery = true)
+	public int atualizaEstoque(@Param("codprod") Long codprod, @Param("qtd") int qtd);
+
 	@Query("select p from Produto p where p.vendavel = 'SIM'")
 	public List<Produto> produtosVendaveis();
 
+	@Query("select p.codigo, p.descricao, p.valor_venda, p.balanca from Produto p where p.vendavel = 'SIM'")
+	public List<Object[]> dadosIndiceVendaveis();
+
+	/*
+	 * Código gerado pelo último insert da conexão, deve ser chamado na mesma
+	 * transação do insert
+	 */
+	@Query(value = "select last_insert_id()", nativeQuery = true)
+	public Long ultimoCodigoInserido();
+
 }
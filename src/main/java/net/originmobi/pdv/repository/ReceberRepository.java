@@ -1,5 +1,6 @@
 package net.originmobi.pdv.repository;
 
+import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.List;
 
@@ -37,7 +38,7 @@ public interface ReceberRepository extends JpaRepository<Receber, Long> {
 
 	public List<Receber> findByPessoaNomeContaining(String nome);
 
-	@Query(value = "select coalesce(format(sum(p.valor_restante), 2, 'de_DE'), '0,00') from receber r, parcela p where p.receber_codigo = r.codigo "
+	@Query(value = "select coalesce(sum(round(p.valor_restante * 100)), 0) from receber r, parcela p where p.receber_codigo = r.codigo "
 			+ "and p.quitado = 0", nativeQuery = true)
-	public String total_a_receber();
+	public BigDecimal centavosAReceber();
 }
@@ -27,6 +27,8 @@ public interface TributacaoRegraRepository extends JpaRepository<TributacaoRegra
 
 	List<TributacaoRegra> findByTributacaoCodigoAndTipoEquals(Long codtributacao, EntradaSaida tipo);
 
+	List<TributacaoRegra> findByTributacaoCodigoOrderByCodigo(Long codtributacao);
+
 	@Transactional
 	@Modifying
 	@Query(value = "update tributacao_regra set tributacao_codigo = :tributacao_codigo, tipo = :tipo, uf = :uf, cfop_codigo = :cfop, "
@@ -20,7 +20,7 @@ public interface VendaProdutosRepository extends JpaRepository<VendaProduto, Lon
 	 * ao mexer na ordem do dados, tem que alterar na tela tabProdutos.html da
 	 * venda
 	 */
-	@Query(value = "select p.codigo as cod_prod, p.descricao, p.valor_venda, vp.codigo, p.balanca, vp.valor_balanca from produto p, venda_produtos vp "
+	@Query(value = "select p.codigo as cod_prod, p.descricao, p.valor_venda, vp.codigo, p.balanca, vp.valor_balanca, vp.qtd, vp.valor_unitario from produto p, venda_produtos vp "
 			+ "where p.codigo = vp.produto_codigo and vp.venda_codigo = ?1", nativeQuery = true)
 	public List<Object> findByProdutosDaVenda(Long codigoVen);
 
@@ -32,11 +32,38 @@ public interface VendaProdutosRepository extends JpaRepository<VendaProduto, Lon
 
 	@Transactional
 	@Modifying
-	@Query("delete from VendaProduto where codigo = :codigo")
-	public void removeProduto(@Param("codigo") Long codigo);
+	@Query("delete from VendaProduto where codigo = :codigo and venda = :venda")
+	public int removeProduto(@Param("codigo") Long codigo, @Param("venda") Long venda);
 
-	@Query(value = "select produto_codigo, count(produto_codigo) from venda_produtos where venda_codigo = ?1 "
+	@Query(value = "select produto_codigo, cast(sum(qtd) as signed) from venda_produtos where venda_codigo = ?1 "
 			+ "group by produto_codigo", nativeQuery = true)
 	public List<Object[]> buscaQtdProduto(Long codvenda);
 
+	/*
+	 * Quantidade de cada produto da venda por preço unitário, usada para gerar
+	 * os itens da nota fiscal
+	 */
+	@Query(value = "select produto_codigo, valor_unitario, cast(sum(qtd) as signed) from venda_produtos "
+			+ "where venda_codigo = ?1 group by produto_codigo, valor_unitario order by min(codigo)", nativeQuery = true)
+	public List<Object[]> buscaQtdProdutoPorPreco(Long codvenda);
+
+	/*
+	 * Soma a quantidade na linha já existente do produto com o mesmo preço
+	 * unitário, produtos de balança não entram pois cada pesagem tem a sua
+	 * linha. Retorna 0 quando o produto ainda não está na venda ou o preço foi
+	 * alterado, nesse caso é gerada uma nova linha. O preço é comparado em
+	 * centavos pois a coluna guarda apenas duas casas decimais.
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update venda_produtos set qtd = qtd + :qtd where venda_codigo = :venda and produto_codigo = :produto "
+			+ "and coalesce(valor_balanca, 0) = 0 and round(valor_unitario * 100) = :centavos limit 1", nativeQuery = true)
+	public int incrementaQtd(@Param("venda") Long venda, @Param("produto") Long produto, @Param("qtd") int qtd,
+			@Param("centavos") long centavos);
+
+	@Transactional
+	@Modifying
+	@Query("update VendaProduto set qtd = qtd - 1 where codigo = :codigo and venda = :venda and qtd > 1")
+	public int decrementaQtd(@Param("codigo") Long codigo, @Param("venda") Long venda);
+
 }
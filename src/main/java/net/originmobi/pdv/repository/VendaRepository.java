@@ -22,20 +22,43 @@ public interface VendaRepository extends JpaRepository<Venda, Long> {
 
 	@Transactional
 	@Modifying
-	@Query("update Venda v set v.pessoa = :pessoa, v.observacao = :observacao where v.codigo = :codigo")
+	@Query("update Venda v set v.pessoa = :pessoa, v.observacao = :observacao, v.versao = v.versao + 1 where v.codigo = :codigo")
 	public void updateDadosVenda(@Param("pessoa") Pessoa pessoa, @Param("observacao") String observacao, @Param("codigo") Long codigo);
 
 	@Query("select v.situacao from Venda v where v.codigo = ?1")
 	public String verificaSituacao(Long codigo);
 
+	@Query("select v.versao from Venda v where v.codigo = ?1")
+	public Integer versao(Long codigo);
+
 	@Query("select v.valor_produtos from Venda v where v.codigo = ?1")
 	public Double verificaValorProdutos(Long codVen);
 
 	@Transactional
 	@Modifying
-	@Query("update Venda v set v.valor_produtos = :valorProdutos where v.codigo = :codigo")
+	@Query("update Venda v set v.valor_produtos = :valorProdutos, v.versao = v.versao + 1 where v.codigo = :codigo")
 	public void atualizaValorProdutos(@Param("valorProdutos") Double vlProdutos, @Param("codigo") Long codigo);
 
+	/*
+	 * Soma (ou subtrai, com valor negativo) em centavos no total dos produtos da
+	 * venda. Só altera venda aberta, retorna 0 quando a venda já foi fechada
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update venda set valor_produtos = (round(coalesce(valor_produtos, 0) * 100) + :centavos) / 100, "
+			+ "versao = versao + 1 where codigo = :codigo and situacao = 'ABERTA'", nativeQuery = true)
+	public int somaValorProdutos(@Param("codigo") Long codigo, @Param("centavos") long centavos);
+
+	/*
+	 * Recalcula o total a partir das linhas da venda, usado para corrigir o
+	 * total caso ele tenha divergido
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update venda v set v.valor_produtos = (select coalesce(sum(round(vp.valor_unitario * 100) * vp.qtd), 0) / 100 "
+			+ "from venda_produtos vp where vp.venda_codigo = v.codigo), v.versao = v.versao + 1 where v.codigo = :codigo", nativeQuery = true)
+	public int recalculaValorProdutos(@Param("codigo") Long codigo);
+
 	@Query("select v from Venda v where v.situacao = ?1")
 	public Page<Venda> findBySituacaoEquals(VendaSituacao situacao, Pageable pageable);
 
@@ -44,7 +67,7 @@ public interface VendaRepository extends JpaRepository<Venda, Long> {
 	@Transactional
 	@Modifying
 	@Query("update Venda set situacao = :situacao, valor_total = :vlTotal, valor_desconto = :vlDesconto, valor_acrescimo = :vlAcrescimo, data_finalizado = :dataFinalizado, "
-			+ "pagamentotipo = :formaPagamento where codigo = :codigo and data_finalizado is null")
+			+ "pagamentotipo = :formaPagamento, versao = versao + 1 where codigo = :codigo and data_finalizado is null")
 	public void fechaVenda(@Param("codigo") Long codVenda, @Param("situacao") VendaSituacao situacao,
 			@Param("vlTotal") Double vltotal, @Param("vlDesconto") Double vldesconto,
 			@Param("vlAcrescimo") Double vlacrescimo, @Param("dataFinalizado") Timestamp dataFinalizado,
@@ -1,6 +1,11 @@
 package net.originmobi.pdv.repository.notafiscal;
 
 import java.sql.Date;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.transaction.Transactional;
 
@@ -27,10 +32,64 @@ public interface NotaFiscalRepository extends JpaRepository<NotaFiscal, Long> {
 	@Query("select n.totais from NotaFiscal n where n.codigo = ?1")
 	NotaFiscalTotais buscaTotaisDaNota(Long codigo);
 
-	@Query(value = "select coalesce(max(numero),0) + 1 from nota_fiscal where serie = ?1", nativeQuery = true)
-	Long buscaUltimaNota(int serie);
-	
+	@Transactional
+	@Modifying
+	@Query(value = "update nota_fiscal set situacao = :situacao where chave_acesso = :chave", nativeQuery = true)
+	int atualizaSituacao(@Param("chave") String chave, @Param("situacao") String situacao);
+
+	@Transactional
+	@Modifying
+	@Query(value = "update nota_fiscal set chave_acesso = :chave where codigo = :codigo", nativeQuery = true)
+	int atualizaChave(@Param("codigo") Long codigo, @Param("chave") String chave);
+
+	/*
+	 * Troca a chave da nota enviada sem resposta pela chave da contingência,
+	 * guardando a enviada para o cancelamento
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update nota_fiscal set chave_acesso_sem_resposta = chave_acesso, chave_acesso = :chave, "
+			+ "situacao = :situacao where codigo = :codigo", nativeQuery = true)
+	int substituiChave(@Param("codigo") Long codigo, @Param("chave") String chave, @Param("situacao") String situacao);
+
+	@Query(value = "select chave_acesso from nota_fiscal where venda_codigo = :venda and modelo = :modelo", nativeQuery = true)
+	String chaveDaVenda(@Param("venda") Long venda, @Param("modelo") int modelo);
+
 	@Query(value = "select count(*) from nota_fiscal", nativeQuery = true)
 	int totalNotaFiscalEmitidas();
 
+	@Query("select distinct n from NotaFiscal n left join fetch n.emissor e left join fetch e.regime_tributario "
+			+ "left join fetch e.parametro left join fetch e.endereco ee left join fetch ee.cidade eci "
+			+ "left join fetch eci.estado ees left join fetch ees.pais left join fetch n.destinatario d "
+			+ "left join fetch d.endereco de left join fetch de.cidade dci left join fetch dci.estado des "
+			+ "left join fetch des.pais left join fetch d.telefone left join fetch n.freteTipo "
+			+ "left join fetch n.finalidade left join fetch n.totais where n.codigo in ?1")
+	List<NotaFiscal> buscaCabecalhoParaXml(Collection<Long> codigos);
+
+	@Query("select distinct n from NotaFiscal n left join fetch n.itens i left join fetch i.impostos "
+			+ "where n.codigo in ?1")
+	List<NotaFiscal> buscaItensParaXml(Collection<Long> codigos);
+
+	/*
+	 * Carrega as notas com tudo o que o xml usa em duas consultas, a primeira
+	 * traz emissor, destinatário e totais e a segunda os itens com os impostos
+	 */
+	default List<NotaFiscal> buscaParaXml(Collection<Long> codigos) {
+		List<NotaFiscal> notas = buscaCabecalhoParaXml(codigos);
+		if (notas.isEmpty())
+			return notas;
+
+		// na mesma sessão as duas consultas devolvem as mesmas instâncias, fora
+		// dela os itens são copiados
+		Map<Long, NotaFiscal> comItens = buscaItensParaXml(codigos).stream()
+				.collect(Collectors.toMap(NotaFiscal::getCodigo, Function.identity()));
+		for (NotaFiscal nota : notas) {
+			NotaFiscal itens = comItens.get(nota.getCodigo());
+			if (itens != null && itens != nota)
+				nota.setItens(itens.getItens());
+		}
+
+		return notas;
+	}
+
 }
@@ -0,0 +1,18 @@
+package net.originmobi.pdv.repository.notafiscal;
+
+/*
+ * Totais somados a partir dos itens da nota, em centavos
+ */
+public interface NotaFiscalTotaisCalculo {
+
+	Number getProdutos();
+
+	Number getIcms();
+
+	Number getPis();
+
+	Number getCofins();
+
+	Number getIpi();
+
+}
@@ -1,17 +1,35 @@
 package net.originmobi.pdv.repository.notafiscal;
 
+import javax.transaction.Transactional;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import net.originmobi.pdv.model.NotaFiscalTotais;
 
 public interface NotaFiscalTotaisRepository extends JpaRepository<NotaFiscalTotais, Long> {
 
-	@Query(value = "select coalesce(sum(nfi.vl_total), 0) total, coalesce(sum(nfii.v_icms), 0) icms, coalesce(sum(nfii.v_pis), 0) pis, "
-			+ "coalesce(sum(nfii.v_cofins), 0) cofins, coalesce(sum(nfii.v_ipi), 0) ipi "
+	@Query(value = "select coalesce(sum(round(nfi.vl_total * 100)), 0) produtos, coalesce(sum(round(nfii.v_icms * 100)), 0) icms, "
+			+ "coalesce(sum(round(nfii.v_pis * 100)), 0) pis, coalesce(sum(round(nfii.v_cofins * 100)), 0) cofins, "
+			+ "coalesce(sum(round(nfii.v_ipi * 100)), 0) ipi "
 			+ "from	nota_fiscal_item nfi, nota_fiscal_item_imposto nfii "
 			+ "where nfii.codigo = nfi.imposto_codigo "
 			+ "and nfi.nota_fiscal_codigo = ?1", nativeQuery = true)
-	String calcula(Long codNota);
+	NotaFiscalTotaisCalculo calcula(Long codNota);
+
+	/*
+	 * Soma a diferença de um item nos totais, valores em centavos
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "update nota_fiscal_totais set v_bc = (round(v_bc * 100) + :produtos) / 100, "
+			+ "v_prod = (round(v_prod * 100) + :produtos) / 100, v_icms = (round(v_icms * 100) + :icms) / 100, "
+			+ "v_pis = (round(v_pis * 100) + :pis) / 100, v_cofins = (round(v_cofins * 100) + :cofins) / 100, "
+			+ "v_ipi = (round(v_ipi * 100) + :ipi) / 100, v_nf = (round(v_nf * 100) + :produtos + :ipi) / 100 "
+			+ "where codigo = :codigo", nativeQuery = true)
+	int soma(@Param("codigo") Long codigo, @Param("produtos") long produtos, @Param("icms") long icms,
+			@Param("pis") long pis, @Param("cofins") long cofins, @Param("ipi") long ipi);
 
 }
@@ -40,9 +40,15 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter{
 			.antMatchers("/venda/form").hasRole("ABRIR_PEDIDO")
 			.antMatchers("/venda/fechar/").hasRole("GERAR_VENDA")
 			.antMatchers("/venda/addproduto/").hasRole("INSERIR_PRODUTO_VENDA")
+			.antMatchers("/venda/addprodutos").hasRole("INSERIR_PRODUTO_VENDA")
+			.antMatchers("/venda/recalculatotal").hasRole("INSERIR_PRODUTO_VENDA")
 			.antMatchers("/venda/removeproduto/").hasRole("REMOVER_PRODUTO_VENDA")
+			.antMatchers("/venda/relatorio/vendas").hasRole("VISUALIZAR_PEDIDO_FECHADO")
+			.antMatchers("/venda/cubo/reconstruir").hasRole("EDITAR_PARAMETROS")
+			.antMatchers("/venda/cubo").hasRole("VISUALIZAR_PEDIDO_FECHADO")
 			.antMatchers("/caixa").hasRole("LISTAR_CAIXA")
 			.antMatchers("/caixa/gerenciar/").hasRole("ACESSAR_CAIXA")
+			.antMatchers("/caixa/relatorio/lancamentos").hasRole("LISTAR_CAIXA")
 			.antMatchers("/caixa/lancamento/suprimento").hasRole("CAIXA_SUPRIMENTO")
 			.antMatchers("/caixa/lancamento/sangria").hasRole("CAIXA_SANGRIA")
 			.antMatchers("/transferencia").hasRole("CAIXA_TRANSFERENCIA")
@@ -59,6 +65,10 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter{
 			.antMatchers("/regras").hasRole("EXCLUIR_REGRA_TRIBUTACAO")
 			.antMatchers("/regras").hasRole("EDITAR_REGRA_TRIBUTACAO")
 			.antMatchers("/notafiscal").hasRole("VISUALIZA_NOTAFISCAL")
+			.antMatchers("/notafiscal/emitirlote").hasRole("CRIAR_NOTAFISCAL")
+			.antMatchers("/notafiscal/davenda").hasRole("CRIAR_NOTAFISCAL")
+			.antMatchers("/notafiscal/nfce").hasRole("CRIAR_NOTAFISCAL")
+			.antMatchers("/notafiscal/xml/**").hasRole("VISUALIZA_NOTAFISCAL")
 			.antMatchers("/empresa").hasRole("EDITAR_PARAMETROS")
 			.antMatchers("/banco").hasRole("LISTAR_BANCO")
 			.antMatchers("/maquinacartao").hasRole("EDITAR_CARTAO")
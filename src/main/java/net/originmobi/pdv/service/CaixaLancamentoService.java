@@ -2,7 +2,6 @@ package net.originmobi.pdv.service;
 
 import java.sql.Timestamp;
 import java.util.List;
-import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -14,13 +13,19 @@ import net.originmobi.pdv.enumerado.caixa.TipoLancamento;
 import net.originmobi.pdv.model.Caixa;
 import net.originmobi.pdv.model.CaixaLancamento;
 import net.originmobi.pdv.repository.CaixaLancamentoRepository;
+import net.originmobi.pdv.repository.CaixaRepository;
 
 @Service
 public class CaixaLancamentoService {
 
+	public static final String SALDO_INSUFICIENTE = "Saldo insuficiente para realizar esta operação";
+
 	@Autowired
 	private CaixaLancamentoRepository caixaLancamento;
 
+	@Autowired
+	private CaixaRepository caixas;
+
 	@Autowired
 	UsuarioService usuarios;
 
@@ -36,21 +41,6 @@ public class CaixaLancamentoService {
 		try {
 			lancamento.setData_cadastro(dataHoraAtual);
 
-			if (!lancamento.getCaixa().isPresent()
-					&& lancamento.getCaixa().map(Caixa::getData_fechamento).isPresent()) {
-				throw new RuntimeException("Nenhum caixa aberto");
-			}
-
-			// se for realizar uma saida de caixa, verifica se tem saldo
-			// suficiente para isso
-			if (lancamento.getEstilo().equals(EstiloLancamento.SAIDA)) {
-				Optional<Double> vlTotalCaixa = lancamento.getCaixa().map(Caixa::getValor_total);
-				
-				if (lancamento.getValor() > vlTotalCaixa.get()) {
-					return "Saldo insuficiente para realizar esta operação";
-				}
-			}
-
 			// se for do tipo SAIDA, converte o valor que vier para negativo
 			if (lancamento.getEstilo().equals(EstiloLancamento.SAIDA) && lancamento.getValor() > 0) {
 				Double valorNegativo = (lancamento.getValor() * -1);
@@ -75,6 +65,19 @@ public class CaixaLancamentoService {
 			throw new RuntimeException();
 		}
 
+		// aplica o valor no saldo do caixa antes de gravar o lançamento, a saída
+		// só passa se houver saldo no momento do update
+		Long codCaixa = lancamento.getCaixa().map(Caixa::getCodigo)
+				.orElseThrow(() -> new RuntimeException("Nenhum caixa aberto"));
+		long centavos = Math.round(Math.abs(lancamento.getValor()) * 100);
+
+		if (lancamento.getEstilo().equals(EstiloLancamento.SAIDA)) {
+			if (caixas.lancaSaida(codCaixa, centavos) == 0)
+				return SALDO_INSUFICIENTE;
+		} else if (caixas.lancaEntrada(codCaixa, centavos) == 0) {
+			throw new RuntimeException("Nenhum caixa aberto");
+		}
+
 		try {
 			caixaLancamento.save(lancamento);
 		} catch (Exception e) {
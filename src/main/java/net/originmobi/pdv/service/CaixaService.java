@@ -2,15 +2,22 @@ package net.originmobi.pdv.service;
 
 import java.sql.Date;
 import java.sql.Timestamp;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import net.originmobi.pdv.enumerado.caixa.CaixaTipo;
 import net.originmobi.pdv.enumerado.caixa.EstiloLancamento;
@@ -26,9 +33,18 @@ import net.originmobi.pdv.singleton.Aplicacao;
 @Service
 public class CaixaService {
 
+	// intervalo mínimo entre as consultas da versão dos caixas no banco
+	private static final long INTERVALO_VERSAO = 2000;
+
 	private String descricao;
 	private Usuario usuario;
 
+	// caixa aberto já resolvido por usuário, descartado quando um caixa é
+	// aberto ou fechado nesta ou em outra instância (caixa_versao)
+	private final Map<String, Optional<Caixa>> caixaAbertoPorUsuario = new ConcurrentHashMap<>();
+	private volatile long versaoCaixas = -1;
+	private volatile long proximaVerificacao = 0;
+
 	@Autowired
 	private CaixaRepository caixas;
 
@@ -38,10 +54,15 @@ public class CaixaService {
 	@Autowired
 	private CaixaLancamentoService lancamentos;
 
+	@Autowired
+	private Clock relogio;
+
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	public Long cadastro(Caixa caixa) {
 
-		if (caixa.getTipo().equals(CaixaTipo.CAIXA) && caixaIsAberto())
+		// consulta direto no banco, sem o caixa em memória, para não abrir dois
+		// caixas enquanto outra instância ainda não viu a nova versão
+		if (caixa.getTipo().equals(CaixaTipo.CAIXA) && caixas.caixaAberto().isPresent())
 			throw new RuntimeException("Existe caixa de dias anteriores em aberto, favor verifique");
 
 		// caso o valor de abertura seja null, modifica o mesmo para 0.0, esse valor é
@@ -83,6 +104,9 @@ public class CaixaService {
 			throw new RuntimeException("Erro no processo de abertura, chame o suporte técnico");
 		}
 
+		if (caixa.getTipo().equals(CaixaTipo.CAIXA))
+			descartaCaixaAberto();
+
 		if (caixa.getValor_abertura() > 0) {
 			try {
 
@@ -119,25 +143,22 @@ public class CaixaService {
 
 		if (decode.matches(senha, usuario.getSenha())) {
 
-			// busca caixa atual
-			Optional<Caixa> caixaAtual = caixas.findById(caixa);
-
-			if (caixaAtual.map(Caixa::getData_fechamento).isPresent())
-				throw new RuntimeException("Caixa já esta fechado");
-
-			Double valorTotal = !caixaAtual.map(Caixa::getValor_total).isPresent() ? 0.0
-					: caixaAtual.map(Caixa::getValor_total).get();
-
+			// fecha com um update direto, os saldos continuam sendo os que os
+			// lançamentos gravaram no banco
 			Timestamp dataHoraAtual = new Timestamp(System.currentTimeMillis());
-			caixaAtual.get().setData_fechamento(dataHoraAtual);
-			caixaAtual.get().setValor_fechamento(valorTotal);
+			int fechados;
 
 			try {
-				caixas.save(caixaAtual.get());
+				fechados = caixas.fechaCaixa(caixa, dataHoraAtual);
 			} catch (Exception e) {
 				throw new RuntimeException("Ocorreu um erro ao fechar o caixa, chame o suporte");
 			}
 
+			if (fechados == 0)
+				throw new RuntimeException("Caixa já esta fechado");
+
+			descartaCaixaAberto();
+
 			return "Caixa fechado com sucesso";
 
 		} else {
@@ -146,7 +167,7 @@ public class CaixaService {
 	}
 
 	public boolean caixaIsAberto() {
-		return caixas.caixaAberto().isPresent();
+		return caixaAberto().isPresent();
 	}
 
 	public List<Caixa> listaTodos() {
@@ -165,7 +186,8 @@ public class CaixaService {
 	}
 
 	public Optional<Caixa> caixaAberto() {
-		return caixas.caixaAberto();
+		verificaVersao();
+		return caixaAbertoPorUsuario.computeIfAbsent(usuarioAtual(), u -> caixas.caixaAberto());
 	}
 
 	public List<Caixa> caixasAbertos() {
@@ -202,4 +224,51 @@ public class CaixaService {
 		return caixas.buscaCaixaTipo(CaixaTipo.BANCO);
 	}
 
+	/*
+	 * A versão é incrementada na transação do caixa, os caixas em memória só
+	 * são descartados após o commit, assim uma consulta concorrente não volta
+	 * a guardar o caixa anterior
+	 */
+	private void descartaCaixaAberto() {
+		caixas.incrementaVersaoCaixas();
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			caixaAbertoPorUsuario.clear();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				caixaAbertoPorUsuario.clear();
+			}
+		});
+	}
+
+	/*
+	 * Consulta a versão dos caixas no máximo a cada INTERVALO_VERSAO, caso
+	 * outra instância tenha aberto ou fechado um caixa os caixas em memória são
+	 * descartados
+	 */
+	private void verificaVersao() {
+		long agora = relogio.millis();
+		if (agora < proximaVerificacao)
+			return;
+
+		proximaVerificacao = agora + INTERVALO_VERSAO;
+
+		Long versao = caixas.versaoCaixas();
+		long versaoAtual = versao == null ? 0 : versao;
+
+		if (versaoAtual != versaoCaixas) {
+			caixaAbertoPorUsuario.clear();
+			versaoCaixas = versaoAtual;
+		}
+	}
+
+	private String usuarioAtual() {
+		Authentication autenticacao = SecurityContextHolder.getContext().getAuthentication();
+		return autenticacao == null ? "" : autenticacao.getName();
+	}
+
 }
@@ -16,6 +16,7 @@ import net.originmobi.pdv.model.Endereco;
 import net.originmobi.pdv.model.RegimeTributario;
 import net.originmobi.pdv.repository.EmpresaParametrosRepository;
 import net.originmobi.pdv.repository.EmpresaRepository;
+import net.originmobi.pdv.service.notafiscal.EmitenteNfceIndice;
 
 @Service
 public class EmpresaService {
@@ -35,6 +36,9 @@ public class EmpresaService {
 	@Autowired
 	private EnderecoService enderecos;
 
+	@Autowired
+	private EmitenteNfceIndice emitentesNfce;
+
 	public void cadastro(Empresa empresa) {
 
 		try {
@@ -117,6 +121,8 @@ public class EmpresaService {
 			}
 		}
 
+		emitentesNfce.descarta();
+
 		return "Empresa salva com sucesso";
 	}
 
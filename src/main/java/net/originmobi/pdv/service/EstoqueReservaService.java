@@ -0,0 +1,306 @@
+package net.originmobi.pdv.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import net.originmobi.pdv.enumerado.produto.ProdutoControleEstoque;
+import net.originmobi.pdv.repository.ProdutoRepository;
+
+/**
+ * Reserva em memória do estoque dos produtos que estão em vendas abertas.
+ *
+ * O saldo de cada produto é carregado do produto_estoque no primeiro uso, a
+ * partir daí incluir ou retirar um produto da venda apenas reserva ou libera
+ * unidades, sem ir ao banco. Cada produto tem o seu próprio lock, assim duas
+ * vendas não conseguem reservar a mesma última unidade. No fechamento da venda
+ * o saldo é baixado pelo que foi vendido e a reserva é liberada, e vendas
+ * paradas por mais de TEMPO_ABANDONO têm as reservas liberadas.
+ *
+ * As movimentações feitas fora da venda (ajustes e entradas) são aplicadas
+ * no saldo após o commit. Na inicialização as reservas são refeitas a partir
+ * das vendas que continuam abertas.
+ */
+@Service
+public class EstoqueReservaService {
+
+	private static final long TEMPO_ABANDONO = 30 * 60 * 1000;
+
+	@Autowired
+	private ProdutoRepository produtos;
+
+	private final Map<Long, Saldo> saldos = new ConcurrentHashMap<>();
+
+	private final Map<Long, Reserva> reservas = new ConcurrentHashMap<>();
+
+	/*
+	 * Reserva a quantidade do produto para a venda, lança exceção caso não
+	 * tenha estoque disponível
+	 */
+	public void reserva(Long codVenda, Long codProduto, int qtd) {
+		Map<Long, Integer> itens = new HashMap<>();
+		itens.put(codProduto, qtd);
+		reserva(codVenda, itens);
+	}
+
+	/*
+	 * Reserva todos os itens ou nenhum, os produtos sem estoque são informados
+	 * juntos
+	 */
+	public void reserva(Long codVenda, Map<Long, Integer> itens) {
+		Reserva reserva = reservas.computeIfAbsent(codVenda, v -> new Reserva());
+		Map<Long, Integer> reservados = new HashMap<>();
+		List<Long> semEstoque = new ArrayList<>();
+
+		for (Map.Entry<Long, Integer> item : itens.entrySet()) {
+			if (reservaSaldo(item.getKey(), item.getValue()))
+				reservados.put(item.getKey(), item.getValue());
+			else
+				semEstoque.add(item.getKey());
+		}
+
+		if (!semEstoque.isEmpty()) {
+			reservados.forEach((produto, qtd) -> saldo(produto).libera(qtd));
+			throw new RuntimeException(semEstoque.size() == 1
+					? "O produto de código " + semEstoque.get(0) + " não tem estoque suficiente, verifique"
+					: "Os produtos de código " + semEstoque.stream().map(String::valueOf).collect(Collectors.joining(", "))
+							+ " não tem estoque suficiente, verifique");
+		}
+
+		reservados.forEach(reserva::soma);
+	}
+
+	/*
+	 * Devolve unidades reservadas pela venda, nunca mais do que ela reservou
+	 */
+	public void libera(Long codVenda, Long codProduto, int qtd) {
+		Reserva reserva = reservas.get(codVenda);
+		if (reserva == null)
+			return;
+
+		int liberado = reserva.retira(codProduto, qtd);
+		if (liberado > 0)
+			saldo(codProduto).libera(liberado);
+	}
+
+	/*
+	 * Devolve os itens caso a transação que os reservou seja desfeita, seja
+	 * por uma exceção no meio do caminho ou por falha no próprio commit
+	 */
+	public void liberaSeDesfeita(Long codVenda, Map<Long, Integer> itens) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive())
+			return;
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				if (status != STATUS_COMMITTED)
+					itens.forEach((produto, qtd) -> libera(codVenda, produto, qtd));
+			}
+		});
+	}
+
+	/*
+	 * Devolve as unidades somente após o commit da transação que retirou o
+	 * item da venda, se ela for desfeita a linha continua na venda reservada
+	 */
+	public void liberaAposCommit(Long codVenda, Long codProduto, int qtd) {
+		aposCommit(() -> libera(codVenda, codProduto, qtd));
+	}
+
+	/*
+	 * Chamado no fechamento da venda com a quantidade baixada do produto_estoque
+	 * de cada produto. Após o commit a reserva da venda é liberada e o saldo em
+	 * memória é baixado pelo vendido, que pode ser maior que o reservado caso a
+	 * reserva tenha sido liberada por abandono. Saldos ainda não carregados já
+	 * leem o valor baixado do banco
+	 */
+	public void confirma(Long codVenda, Map<Long, Integer> vendidos) {
+		aposCommit(() -> {
+			vendidos.forEach((produto, qtd) -> {
+				Saldo saldo = saldos.get(produto);
+				if (saldo != null)
+					saldo.movimenta(-qtd);
+			});
+
+			Reserva reserva = reservas.remove(codVenda);
+			if (reserva != null)
+				reserva.itens.forEach((produto, qtd) -> {
+					Saldo saldo = saldos.get(produto);
+					if (saldo != null)
+						saldo.libera(qtd);
+				});
+		});
+	}
+
+	/*
+	 * Entrada ou saída de estoque feita fora da venda, a qtd já vem com o
+	 * sinal. O saldo em memória só muda após o commit, um saldo ainda não
+	 * carregado já lê o valor novo do banco
+	 */
+	public void movimenta(Long codProduto, int qtd) {
+		aposCommit(() -> {
+			Saldo saldo = saldos.get(codProduto);
+			if (saldo != null)
+				saldo.movimenta(qtd);
+		});
+	}
+
+	/*
+	 * Refaz as reservas dos itens das vendas abertas, sem checar o saldo já
+	 * que essas unidades já estavam separadas antes do desligamento
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void recuperaVendasAbertas() {
+		for (Object[] linha : produtos.itensVendasAbertas()) {
+			Long venda = ((Number) linha[0]).longValue();
+			Long produto = ((Number) linha[1]).longValue();
+			int qtd = ((Number) linha[2]).intValue();
+
+			Boolean reservado;
+			do {
+				reservado = saldo(produto).recupera(qtd);
+			} while (reservado == null);
+
+			reservas.computeIfAbsent(venda, v -> new Reserva()).soma(produto, qtd);
+		}
+	}
+
+	/*
+	 * Libera as reservas das vendas abertas sem movimentação há mais de
+	 * TEMPO_ABANDONO e descarta os saldos sem reserva, assim alterações de
+	 * estoque feitas fora da venda são recarregadas no próximo uso
+	 */
+	@Scheduled(fixedDelay = 60000)
+	public void liberaAbandonadas() {
+		long limite = System.currentTimeMillis() - TEMPO_ABANDONO;
+
+		reservas.forEach((venda, reserva) -> {
+			if (reserva.ultimoAcesso < limite && reservas.remove(venda, reserva))
+				reserva.itens.forEach((produto, qtd) -> saldo(produto).libera(qtd));
+		});
+
+		saldos.forEach((produto, saldo) -> {
+			if (saldo.descarta())
+				saldos.remove(produto, saldo);
+		});
+	}
+
+	// um saldo descartado pela limpeza é carregado novamente
+	private boolean reservaSaldo(Long codProduto, int qtd) {
+		Boolean reservado;
+		do {
+			reservado = saldo(codProduto).reserva(qtd);
+		} while (reservado == null);
+
+		return reservado;
+	}
+
+	private Saldo saldo(Long codProduto) {
+		return saldos.computeIfAbsent(codProduto, this::carrega);
+	}
+
+	private Saldo carrega(Long codProduto) {
+		List<Object[]> dados = produtos.controleSaldoEstoque(codProduto);
+		if (dados.isEmpty() || !ProdutoControleEstoque.SIM.toString().equals(dados.get(0)[0]))
+			return new Saldo(false, 0);
+
+		return new Saldo(true, ((Number) dados.get(0)[1]).intValue());
+	}
+
+	private void aposCommit(Runnable acao) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			acao.run();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				acao.run();
+			}
+		});
+	}
+
+	private static class Saldo {
+
+		private final boolean controla;
+		private int estoque;
+		private int reservado;
+		private boolean descartado;
+
+		Saldo(boolean controla, int estoque) {
+			this.controla = controla;
+			this.estoque = estoque;
+		}
+
+		synchronized Boolean reserva(int qtd) {
+			if (descartado)
+				return null;
+
+			if (controla && estoque - reservado < qtd)
+				return false;
+
+			reservado += qtd;
+			return true;
+		}
+
+		synchronized Boolean recupera(int qtd) {
+			if (descartado)
+				return null;
+
+			reservado += qtd;
+			return true;
+		}
+
+		synchronized void movimenta(int qtd) {
+			estoque += qtd;
+		}
+
+		synchronized void libera(int qtd) {
+			reservado = Math.max(0, reservado - qtd);
+		}
+
+		synchronized boolean descarta() {
+			if (reservado == 0)
+				descartado = true;
+
+			return descartado;
+		}
+
+	}
+
+	private static class Reserva {
+
+		private final Map<Long, Integer> itens = new ConcurrentHashMap<>();
+		private volatile long ultimoAcesso = System.currentTimeMillis();
+
+		void soma(Long produto, int qtd) {
+			itens.merge(produto, qtd, Integer::sum);
+			ultimoAcesso = System.currentTimeMillis();
+		}
+
+		int retira(Long produto, int qtd) {
+			int[] retirado = new int[1];
+			itens.computeIfPresent(produto, (p, atual) -> {
+				retirado[0] = Math.min(atual, qtd);
+				return atual - retirado[0] == 0 ? null : atual - retirado[0];
+			});
+			ultimoAcesso = System.currentTimeMillis();
+			return retirado[0];
+		}
+
+	}
+
+}
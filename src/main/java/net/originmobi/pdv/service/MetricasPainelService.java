@@ -0,0 +1,188 @@
+package net.originmobi.pdv.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import net.originmobi.pdv.repository.PagarParcelaRespository;
+import net.originmobi.pdv.repository.ReceberRepository;
+import net.originmobi.pdv.repository.VendaRepository;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
+
+/**
+ * Contadores do painel inicial mantidos em memória.
+ *
+ * Os serviços que gravam vendas, parcelas e notas informam cada alteração e
+ * o contador é ajustado quando a transação é confirmada. A cada RECONCILIACAO
+ * os valores são lidos de novo do banco, corrigindo as alterações feitas por
+ * outra instância ou fora dos serviços. Cada ajuste recebe um número de
+ * sequência, os ajustes aplicados depois do início da leitura de um contador
+ * são somados ao valor lido, assim a reconciliação nunca é descartada nem
+ * perde um ajuste. Os valores em dinheiro ficam em centavos e são devolvidos
+ * sem formatação.
+ */
+@Service
+public class MetricasPainelService {
+
+	private static final long RECONCILIACAO = 5 * 60 * 1000;
+
+	@Autowired
+	private VendaRepository vendas;
+
+	@Autowired
+	private ReceberRepository receber;
+
+	@Autowired
+	private PagarParcelaRespository pagar;
+
+	@Autowired
+	private NotaFiscalRepository notas;
+
+	private final AtomicLong vendasAbertas = new AtomicLong();
+	private final AtomicLong centavosAReceber = new AtomicLong();
+	private final AtomicLong centavosAPagar = new AtomicLong();
+	private final AtomicLong notasEmitidas = new AtomicLong();
+
+	// sequência dos ajustes e os ajustes aplicados desde a última reconciliação
+	private final AtomicLong ajustes = new AtomicLong();
+	private final List<Ajuste> recentes = new ArrayList<>();
+
+	private final Object reconciliacao = new Object();
+
+	private volatile boolean carregado;
+
+	public long getVendasAbertas() {
+		carrega();
+		return vendasAbertas.get();
+	}
+
+	public BigDecimal getTotalAReceber() {
+		carrega();
+		return BigDecimal.valueOf(centavosAReceber.get(), 2);
+	}
+
+	public BigDecimal getTotalAPagar() {
+		carrega();
+		return BigDecimal.valueOf(centavosAPagar.get(), 2);
+	}
+
+	public long getNotasEmitidas() {
+		carrega();
+		return notasEmitidas.get();
+	}
+
+	public void vendaAberta() {
+		ajusta(vendasAbertas, 1);
+	}
+
+	public void vendaFechada() {
+		ajusta(vendasAbertas, -1);
+	}
+
+	/*
+	 * Soma (ou subtrai, com valor negativo) no total em aberto das parcelas a
+	 * receber
+	 */
+	public void somaAReceber(double valor) {
+		ajusta(centavosAReceber, Math.round(valor * 100));
+	}
+
+	public void somaAPagar(double valor) {
+		ajusta(centavosAPagar, Math.round(valor * 100));
+	}
+
+	public void notaEmitida() {
+		ajusta(notasEmitidas, 1);
+	}
+
+	@Scheduled(fixedDelay = RECONCILIACAO)
+	public void reconcilia() {
+		synchronized (reconciliacao) {
+			long desdeAbertas = ajustes.get();
+			long abertas = vendas.qtdVendasEmAberto();
+			long desdeAReceber = ajustes.get();
+			long aReceber = receber.centavosAReceber().longValue();
+			long desdeAPagar = ajustes.get();
+			long aPagar = pagar.centavosDespesasAbertas().longValue();
+			long desdeEmitidas = ajustes.get();
+			long emitidas = notas.totalNotaFiscalEmitidas();
+
+			synchronized (this) {
+				vendasAbertas.set(abertas + ajustadoDesde(vendasAbertas, desdeAbertas));
+				centavosAReceber.set(aReceber + ajustadoDesde(centavosAReceber, desdeAReceber));
+				centavosAPagar.set(aPagar + ajustadoDesde(centavosAPagar, desdeAPagar));
+				notasEmitidas.set(emitidas + ajustadoDesde(notasEmitidas, desdeEmitidas));
+
+				// as próximas leituras começam depois de todos os ajustes atuais
+				recentes.clear();
+				carregado = true;
+			}
+		}
+	}
+
+	/*
+	 * Soma dos ajustes do contador aplicados depois da sequência informada,
+	 * esses ajustes podem não estar no valor lido do banco
+	 */
+	private long ajustadoDesde(AtomicLong contador, long sequencia) {
+		long soma = 0;
+		for (Ajuste ajuste : recentes)
+			if (ajuste.contador == contador && ajuste.sequencia > sequencia)
+				soma += ajuste.valor;
+
+		return soma;
+	}
+
+	private void carrega() {
+		if (!carregado)
+			reconcilia();
+	}
+
+	/*
+	 * Dentro de uma transação o contador só muda depois da confirmação, uma
+	 * transação desfeita não altera o painel
+	 */
+	private void ajusta(AtomicLong contador, long valor) {
+		if (valor == 0)
+			return;
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			aplica(contador, valor);
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				aplica(contador, valor);
+			}
+		});
+	}
+
+	private synchronized void aplica(AtomicLong contador, long valor) {
+		recentes.add(new Ajuste(ajustes.incrementAndGet(), contador, valor));
+		contador.addAndGet(valor);
+	}
+
+	private static class Ajuste {
+
+		private final long sequencia;
+		private final AtomicLong contador;
+		private final long valor;
+
+		Ajuste(long sequencia, AtomicLong contador, long valor) {
+			this.sequencia = sequencia;
+			this.contador = contador;
+			this.valor = valor;
+		}
+
+	}
+
+}
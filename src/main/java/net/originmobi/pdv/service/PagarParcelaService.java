@@ -20,10 +20,15 @@ public class PagarParcelaService {
 	@Autowired
 	private PagarParcelaRespository parcelas;
 
+	@Autowired
+	private MetricasPainelService metricas;
+
 	public void cadastrar(Double vltotal, Double vlrestante, int quitado, Timestamp cadastro, LocalDate vencimento,
 			Pagar pagar) {
 		try {
 			parcelas.geraParcela(vltotal, vlrestante, 0.0, 0.0, 0.0, quitado, cadastro, vencimento, pagar);
+			if (quitado == 0)
+				metricas.somaAPagar(vlrestante);
 		} catch (Exception e) {
 			e.getStackTrace();
 			throw new RuntimeException();
@@ -45,8 +50,4 @@ public class PagarParcelaService {
 		return parcelas.findById(codigo);
 	}
 
-	public String totalParagarAberto() {
-		return parcelas.valorDespesasAbertas();
-	}
-
 }
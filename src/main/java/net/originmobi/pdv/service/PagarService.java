@@ -44,6 +44,9 @@ public class PagarService {
 	@Autowired
 	private CaixaLancamentoService lancamentos;
 
+	@Autowired
+	private MetricasPainelService metricas;
+
 	public List<Pagar> listar() {
 		return pagarRepo.findAll();
 	}
@@ -98,6 +101,9 @@ public class PagarService {
 
 		DataAtual dataAtual = new DataAtual();
 
+		// o que a parcela somava nas despesas em aberto antes do pagamento
+		Double emAbertoAnterior = parcela.get().getQuitado() == 0 ? parcela.get().getValor_restante() : 0.0;
+
 		parcela.get().setValor_pago(vlquitado);
 		parcela.get().setValor_restante(vlRestante);
 		parcela.get().setValor_desconto(vlDesconto);
@@ -112,14 +118,16 @@ public class PagarService {
 			throw new RuntimeException("Ocorreu um erro ao realizar o pagamento, chame o suporte");
 		}
 
+		metricas.somaAPagar((quitado == 0 ? vlRestante : 0.0) - emAbertoAnterior);
+
 		Aplicacao aplicacao = Aplicacao.getInstancia();
 
 		Usuario usuario = usuarios.buscaUsuario(aplicacao.getUsuarioAtual());
 		Optional<Caixa> caixa = caixas.busca(codCaixa);
 
-		if (vlPago + vlacre > caixa.map(Caixa::getValor_total).get())
-			throw new RuntimeException("Saldo insuficiente para realizar este pagamento");
-
+		// o saldo é verificado no próprio lançamento, sem saldo a transação é
+		// desfeita junto com a baixa da parcela
+		String retorno;
 		try {
 			CaixaLancamento lancamento = new CaixaLancamento("Referente a pagamento de despesas", vlPago + vlacre,
 					TipoLancamento.PAGAMENTO, EstiloLancamento.SAIDA, caixa.get(), usuario);
@@ -127,12 +135,15 @@ public class PagarService {
 			// vincula a parcela do pagar ao caixa_lancametno
 			lancamento.setParcelaPagar(parcela.get());
 
-			lancamentos.lancamento(lancamento);
+			retorno = lancamentos.lancamento(lancamento);
 		} catch (Exception e) {
 			e.getMessage();
 			throw new RuntimeException("Ocorreu um erro ao realizar o pagamento, chame o suporte");
 		}
 
+		if (CaixaLancamentoService.SALDO_INSUFICIENTE.equals(retorno))
+			throw new RuntimeException("Saldo insuficiente para realizar este pagamento");
+
 		return "Pagamento realizado com sucesso";
 	}
 
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import net.originmobi.pdv.filter.ClienteFilter;
@@ -21,10 +22,43 @@ public class ParcelaService {
 	@Autowired
 	private ParcelaRepository parcelas;
 
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private MetricasPainelService metricas;
+
 	public void gerarParcela(Double total, Double desconto, Double acrescimo, Double recebido, Double restante,
 			Receber receber, int quitado, int sequencia, Timestamp cadastro, Date vencimento) {
 		parcelas.gerarparcela(total, desconto, acrescimo, recebido, restante, receber, quitado, sequencia, cadastro,
 				vencimento);
+		if (quitado == 0)
+			metricas.somaAReceber(restante);
+	}
+
+	/*
+	 * Grava todas as parcelas de um receber em um único lote
+	 */
+	public void gerarParcelas(List<Parcela> novas) {
+		if (novas.isEmpty())
+			return;
+
+		jdbc.batchUpdate("insert into parcela (valor_total, valor_desconto, valor_acrescimo, valor_recebido, valor_restante, "
+				+ "receber_codigo, quitado, sequencia, data_cadastro, data_vencimento) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+				novas, novas.size(), (ps, parcela) -> {
+					ps.setDouble(1, parcela.getValor_total());
+					ps.setDouble(2, parcela.getValor_desconto());
+					ps.setDouble(3, parcela.getValor_acrescimo());
+					ps.setDouble(4, parcela.getValor_recebido());
+					ps.setDouble(5, parcela.getValor_restante());
+					ps.setLong(6, parcela.getReceber().getCodigo());
+					ps.setInt(7, parcela.getQuitado());
+					ps.setInt(8, parcela.getSequencia());
+					ps.setTimestamp(9, parcela.getData_cadastro());
+					ps.setDate(10, parcela.getData_vencimento());
+				});
+
+		metricas.somaAReceber(novas.stream().filter(p -> p.getQuitado() == 0).mapToDouble(Parcela::getValor_restante).sum());
 	}
 
 	public List<Parcela> lista() {
@@ -69,6 +103,8 @@ public class ParcelaService {
 			throw new RuntimeException();
 		}
 
+		metricas.somaAReceber((quitado == 0 ? vlRestante : 0.0) - parcelaAtual.get().getValor_restante());
+
 		return "ok";
 	}
 
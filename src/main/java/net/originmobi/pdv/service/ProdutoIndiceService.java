@@ -0,0 +1,224 @@
+package net.originmobi.pdv.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import net.originmobi.pdv.enumerado.produto.ProdutoBalanca;
+import net.originmobi.pdv.enumerado.produto.ProdutoVendavel;
+import net.originmobi.pdv.model.Produto;
+import net.originmobi.pdv.repository.ProdutoRepository;
+
+/**
+ * Índice em memória dos produtos vendáveis usado na busca da tela de venda.
+ *
+ * Cada produto é quebrado em termos (código e palavras da descrição, sem
+ * acento e em minúsculo) e guardado em um mapa ordenado, assim a busca por
+ * prefixo é feita com um subMap sem ir ao banco. O índice é carregado na
+ * primeira busca e mantido atualizado pelo ProdutoService.merger.
+ */
+@Service
+public class ProdutoIndiceService {
+
+	public static final int LIMITE_PADRAO = 20;
+
+	private static final int LIMITE_MAXIMO = 100;
+
+	@Autowired
+	private ProdutoRepository produtos;
+
+	// termo -> códigos dos produtos que possuem o termo
+	private final ConcurrentSkipListMap<String, Set<Long>> termos = new ConcurrentSkipListMap<>();
+
+	private final Map<Long, ProdutoIndexado> indexados = new ConcurrentHashMap<>();
+
+	private volatile boolean carregado = false;
+
+	public List<ProdutoIndexado> busca(String texto, int limite) {
+		carrega();
+
+		String[] partes = tokeniza(texto);
+		if (partes.length == 0 || limite <= 0)
+			return Collections.emptyList();
+
+		limite = Math.min(limite, LIMITE_MAXIMO);
+
+		List<ProdutoIndexado> resultado = new ArrayList<>();
+		Set<Long> vistos = new HashSet<>();
+
+		// se for digitado o código exato do produto ele vem primeiro
+		if (partes.length == 1 && partes[0].length() < 19 && partes[0].chars().allMatch(Character::isDigit)) {
+			ProdutoIndexado exato = indexados.get(Long.valueOf(partes[0]));
+			if (exato != null) {
+				resultado.add(exato);
+				vistos.add(exato.getCodigo());
+			}
+		}
+
+		// percorre o índice pelo maior termo, os demais apenas filtram
+		String chave = partes[0];
+		for (String parte : partes)
+			if (parte.length() > chave.length())
+				chave = parte;
+
+		for (Set<Long> codigos : termos.subMap(chave, true, chave + Character.MAX_VALUE, false).values()) {
+			for (Long codigo : codigos) {
+				if (resultado.size() >= limite)
+					return resultado;
+
+				if (!vistos.add(codigo))
+					continue;
+
+				ProdutoIndexado produto = indexados.get(codigo);
+				if (produto != null && produto.possuiTermos(partes))
+					resultado.add(produto);
+			}
+		}
+
+		return resultado;
+	}
+
+	public Double precoVenda(Long codigo) {
+		carrega();
+		ProdutoIndexado produto = indexados.get(codigo);
+		return produto == null ? null : produto.getValor_venda();
+	}
+
+	/*
+	 * Chamado após inserir ou alterar um produto, remove os termos antigos e
+	 * indexa novamente caso ele continue vendável
+	 */
+	public synchronized void atualiza(Produto produto) {
+		if (produto == null || !carregado)
+			return;
+
+		remove(produto.getCodigo());
+
+		if (ProdutoVendavel.SIM.equals(produto.getVendavel()))
+			indexa(new ProdutoIndexado(produto.getCodigo(), produto.getDescricao(), produto.getValor_venda(),
+					produto.getBalanca()));
+	}
+
+	public synchronized void remove(Long codigo) {
+		ProdutoIndexado antigo = indexados.remove(codigo);
+		if (antigo == null)
+			return;
+
+		for (String termo : antigo.termos) {
+			Set<Long> codigos = termos.get(termo);
+			if (codigos != null) {
+				codigos.remove(codigo);
+				if (codigos.isEmpty())
+					termos.remove(termo, codigos);
+			}
+		}
+	}
+
+	public synchronized void recarrega() {
+		termos.clear();
+		indexados.clear();
+
+		// carrega somente as colunas usadas, sem as associações do produto
+		for (Object[] linha : produtos.dadosIndiceVendaveis())
+			indexa(new ProdutoIndexado(((Number) linha[0]).longValue(), (String) linha[1], (Double) linha[2],
+					(ProdutoBalanca) linha[3]));
+
+		carregado = true;
+	}
+
+	private void carrega() {
+		if (!carregado) {
+			synchronized (this) {
+				if (!carregado)
+					recarrega();
+			}
+		}
+	}
+
+	private void indexa(ProdutoIndexado indexado) {
+		indexados.put(indexado.getCodigo(), indexado);
+
+		for (String termo : indexado.termos)
+			termos.computeIfAbsent(termo, t -> ConcurrentHashMap.newKeySet()).add(indexado.getCodigo());
+	}
+
+	static String[] tokeniza(String texto) {
+		if (texto == null)
+			return new String[0];
+
+		String normalizado = Normalizer.normalize(texto, Normalizer.Form.NFD).replaceAll("\\p{M}", "")
+				.toLowerCase().trim();
+
+		return Arrays.stream(normalizado.split("[^a-z0-9]+")).filter(t -> !t.isEmpty()).toArray(String[]::new);
+	}
+
+	/**
+	 * Dados do produto devolvidos na busca, apenas o necessário para a tela de
+	 * venda
+	 */
+	public static class ProdutoIndexado {
+
+		private final Long codigo;
+		private final String descricao;
+		private final Double valor_venda;
+		private final ProdutoBalanca balanca;
+		private final String[] termos;
+
+		ProdutoIndexado(Long codigo, String descricao, Double valor_venda, ProdutoBalanca balanca) {
+			this.codigo = codigo;
+			this.descricao = descricao;
+			this.valor_venda = valor_venda;
+			this.balanca = balanca;
+
+			Set<String> unicos = new HashSet<>();
+			unicos.add(codigo.toString());
+			Collections.addAll(unicos, tokeniza(descricao));
+
+			this.termos = unicos.toArray(new String[0]);
+		}
+
+		boolean possuiTermos(String[] partes) {
+			for (String parte : partes) {
+				boolean achou = false;
+				for (String termo : termos) {
+					if (termo.startsWith(parte)) {
+						achou = true;
+						break;
+					}
+				}
+
+				if (!achou)
+					return false;
+			}
+			return true;
+		}
+
+		public Long getCodigo() {
+			return codigo;
+		}
+
+		public String getDescricao() {
+			return descricao;
+		}
+
+		public Double getValor_venda() {
+			return valor_venda;
+		}
+
+		public ProdutoBalanca getBalanca() {
+			return balanca;
+		}
+
+	}
+
+}
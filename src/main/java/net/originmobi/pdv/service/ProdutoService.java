@@ -2,13 +2,23 @@ package net.originmobi.pdv.service;
 
 import java.sql.Date;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import net.originmobi.pdv.enumerado.EntradaSaida;
 import net.originmobi.pdv.enumerado.produto.ProdutoControleEstoque;
@@ -24,7 +34,16 @@ public class ProdutoService {
 	private ProdutoRepository produtos;
 
 	@Autowired
-	private VendaProdutoService vendaProdutos;
+	private ProdutoIndiceService indice;
+
+	@Autowired
+	private EstoqueReservaService reservas;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private PlatformTransactionManager transacoes;
 
 	private LocalDate dataAtual = LocalDate.now();
 
@@ -55,9 +74,17 @@ public class ProdutoService {
 
 		if (codprod == 0) {
 			try {
-				produtos.insere(codforne, codcategoria, codgrupo, balanca, descricao, valorCusto, valorVenda,
-						dataValidade, controleEstoque, situacao, unitario, subtribu.ordinal(), Date.valueOf(dataAtual),
-						ncm, cest, tributacao, modbc, vendavel);
+				// o insert e a leitura do código gerado precisam da mesma conexão,
+				// assim o índice recebe o produto cadastrado e não o de maior código
+				Produto produto = new TransactionTemplate(transacoes).execute(status -> {
+					produtos.insere(codforne, codcategoria, codgrupo, balanca, descricao, valorCusto, valorVenda,
+							dataValidade, controleEstoque, situacao, unitario, subtribu.ordinal(),
+							Date.valueOf(dataAtual), ncm, cest, tributacao, modbc, vendavel);
+
+					return produtos.findByCodigoIn(produtos.ultimoCodigoInserido());
+				});
+
+				indice.atualiza(produto);
 			} catch (Exception e) {
 				System.out.println(e.getMessage());
 				return "Erro a cadastrar produto, chame o suporte";
@@ -69,6 +96,8 @@ public class ProdutoService {
 						dataValidade, controleEstoque, situacao, unitario, subtribu.ordinal(), ncm, cest, tributacao,
 						modbc, vendavel);
 
+				indice.atualiza(produtos.findByCodigoIn(codprod));
+
 				return "Produto atualizado com sucesso";
 			} catch (Exception e) {
 				System.out.println(e.getMessage());
@@ -80,36 +109,69 @@ public class ProdutoService {
 		return "Produdo cadastrado com sucesso";
 	}
 
-	@SuppressWarnings("static-access")
-	public void movimentaEstoque(Long codvenda, EntradaSaida tipo) {
-		List<Object[]> resultado = vendaProdutos.buscaQtdProduto(codvenda);
-
-		for (int i = 0; i < resultado.size(); i++) {
-			Long codprod = Long.decode(resultado.get(i)[0].toString());
-			int qtd = Integer.parseInt(resultado.get(i)[1].toString());
-
-			Produto produto = produtos.findByCodigoIn(codprod);
+	/*
+	 * Movimenta o estoque de todos os produtos da venda de uma vez: uma consulta
+	 * com o saldo dos produtos, as movimentações gravadas em lote e um update
+	 * condicional por produto, conferido pela quantidade de linhas alteradas.
+	 * Os produtos sem estoque são informados juntos. Retorna a quantidade
+	 * movimentada de cada produto que controla estoque
+	 */
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public Map<Long, Integer> movimentaEstoque(Long codvenda, EntradaSaida tipo) {
+		Map<Long, Integer> movimentados = new HashMap<>();
+		List<Object[]> movimentos = new ArrayList<>();
+		List<Long> semEstoque = new ArrayList<>();
+
+		for (Object[] linha : produtos.estoqueProdutosVenda(codvenda)) {
+			if (!ProdutoControleEstoque.SIM.toString().equals(linha[2]))
+				continue;
+
+			Long codprod = ((Number) linha[0]).longValue();
+			int qtd = ((Number) linha[1]).intValue();
+			int saldo = ((Number) linha[3]).intValue();
+
+			if (tipo.equals(EntradaSaida.SAIDA) && qtd > saldo)
+				semEstoque.add(codprod);
+
+			movimentos.add(new Object[] { codprod, tipo.toString(), qtd, "Venda " + codvenda, Date.valueOf(dataAtual) });
+			movimentados.merge(codprod, qtd, Integer::sum);
+		}
 
-			if (produto.getControla_estoque().equals(ProdutoControleEstoque.SIM)) {
+		if (!semEstoque.isEmpty())
+			throw new RuntimeException(mensagemSemEstoque(semEstoque));
+
+		if (movimentos.isEmpty())
+			return movimentados;
+
+		jdbc.batchUpdate("insert into estoque_movimentacao (produto_codigo, tipo, qtd, origem_operacao, data_movimentacao) "
+				+ "values (?, ?, ?, ?, ?)", movimentos);
+
+		// o saldo pode ter mudado desde a consulta, o update só baixa se ainda
+		// houver estoque. Os updates são executados um a um, em lote o driver
+		// com rewriteBatchedStatements pode devolver SUCCESS_NO_INFO no lugar
+		// da quantidade de linhas e a falta de estoque passaria despercebida
+		int sinal = tipo.equals(EntradaSaida.SAIDA) ? -1 : 1;
+		for (Object[] movimento : movimentos) {
+			int qtd = sinal * (int) movimento[2];
+			if (jdbc.update("update produto_estoque set qtd = qtd + ? where produto_codigo = ? and qtd + ? >= 0", qtd,
+					movimento[0], qtd) == 0)
+				semEstoque.add((Long) movimento[0]);
+		}
 
-				// estoque atual do produto
-				int qtd_estoque = produtos.saldoEstoque(codprod);
-				String origem_operacao = "Venda " + codvenda.toString();
+		if (!semEstoque.isEmpty())
+			throw new RuntimeException(mensagemSemEstoque(semEstoque));
 
-				if (qtd <= qtd_estoque) {
-					produtos.movimentaEstoque(codprod, tipo.SAIDA.toString(), qtd, origem_operacao,
-							Date.valueOf(dataAtual));
-				} else {
-					throw new RuntimeException(
-							"O produto de código " + codprod + " não tem estoque suficiente, verifique");
-				}
-			} else {
-				System.out.println("Produto não controla estoque");
-			}
-		}
+		// a saída da venda é confirmada pela própria reserva
+		if (tipo.equals(EntradaSaida.ENTRADA))
+			for (Object[] movimento : movimentos)
+				reservas.movimenta((Long) movimento[0], (int) movimento[2]);
 
+		return movimentados;
 	}
-	
+
+	/*
+	 * A qtd do ajuste já vem com o sinal (negativa para saída)
+	 */
 	public void ajusteEstoque(Long codprod, int qtd, EntradaSaida tipo, String origem_operacao, Date data_movimentacao) {
 		Produto produto = produtos.findByCodigoIn(codprod);
 		
@@ -117,7 +179,19 @@ public class ProdutoService {
 			throw new RuntimeException("O produto de código " + codprod + " não controla estoque, verifique");
 		
 		produtos.movimentaEstoque(codprod, tipo.toString(), qtd, origem_operacao, data_movimentacao);
-		
+
+		if (produtos.atualizaEstoque(codprod, qtd) == 0)
+			throw new RuntimeException(mensagemSemEstoque(Arrays.asList(codprod)));
+
+		reservas.movimenta(codprod, qtd);
+	}
+
+	private String mensagemSemEstoque(List<Long> codigos) {
+		if (codigos.size() == 1)
+			return "O produto de código " + codigos.get(0) + " não tem estoque suficiente, verifique";
+
+		return "Os produtos de código " + codigos.stream().map(String::valueOf).collect(Collectors.joining(", "))
+				+ " não tem estoque suficiente, verifique";
 	}
 
 }
@@ -4,8 +4,14 @@ import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import net.originmobi.pdv.enumerado.caixa.EstiloLancamento;
+import net.originmobi.pdv.enumerado.caixa.TipoLancamento;
 
 import net.originmobi.pdv.model.Caixa;
+import net.originmobi.pdv.model.CaixaLancamento;
 import net.originmobi.pdv.model.Transferencia;
 import net.originmobi.pdv.model.Usuario;
 import net.originmobi.pdv.repository.TransferenciaRepository;
@@ -24,6 +30,10 @@ public class TransferenciaService {
 	@Autowired
 	private CaixaService caixas;
 
+	@Autowired
+	private CaixaLancamentoService lancamentos;
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	public String cadastrar(Double valor, Long origem, Long destino, String obs) {
 		Aplicacao aplicacao = Aplicacao.getInstancia();
 		DataAtual dataAtual = new DataAtual();
@@ -42,9 +52,6 @@ public class TransferenciaService {
 		if (!caiDestino.isPresent() || caiDestino.map(Caixa::getData_fechamento).isPresent())
 			throw new RuntimeException("Conta destino não esta aberta, verifique");
 
-		if (caiOrigem.map(Caixa::getValor_total).get() < valor)
-			throw new RuntimeException("Saldo insuficiente para realizar a transferência");
-
 		Transferencia transferencia = new Transferencia(valor, dataAtual.dataAtualTimeStamp(), caiOrigem.get(),
 				caiDestino.get(), usuario, "Transferencia para o " + caiDestino.map(Caixa::getDescricao).get() + " "
 						+ caiDestino.map(Caixa::getCodigo).get());
@@ -55,6 +62,16 @@ public class TransferenciaService {
 			throw new RuntimeException("Erro ao realizar a transferencia, chame o suporte");
 		}
 
+		// a saída da origem valida o saldo, sem saldo a transferência é desfeita
+		String retorno = lancamentos.lancamento(new CaixaLancamento("Saída de transferência", valor,
+				TipoLancamento.TRANSFERENCIA, EstiloLancamento.SAIDA, caiOrigem.get(), usuario));
+
+		if (CaixaLancamentoService.SALDO_INSUFICIENTE.equals(retorno))
+			throw new RuntimeException("Saldo insuficiente para realizar a transferência");
+
+		lancamentos.lancamento(new CaixaLancamento("Entrada de transferência", valor, TipoLancamento.TRANSFERENCIA,
+				EstiloLancamento.ENTRADA, caiDestino.get(), usuario));
+
 		return "Transferência realizada com sucesso";
 	}
 
@@ -0,0 +1,146 @@
+package net.originmobi.pdv.service;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import net.originmobi.pdv.enumerado.EntradaSaida;
+import net.originmobi.pdv.model.TributacaoRegra;
+import net.originmobi.pdv.repository.TributacaoRegraRepository;
+
+/**
+ * Índice das regras de tributação por tributação, UF e tipo de operação.
+ *
+ * As regras de uma tributação são lidas uma vez e ficam resolvidas com o
+ * CFOP e os CSTs já extraídos, a busca de uma regra é uma consulta em mapa.
+ * O índice é descartado quando uma regra é incluída, alterada ou removida e
+ * expira após VALIDADE, assim as alterações feitas em outra instância também
+ * são vistas.
+ */
+@Service
+public class TributacaoRegraIndice {
+
+	private static final long VALIDADE = 5 * 60 * 1000;
+
+	@Autowired
+	private TributacaoRegraRepository regras;
+
+	private final Map<Long, RegrasDaTributacao> indice = new ConcurrentHashMap<>();
+
+	// incrementada a cada descarte, uma carga iniciada antes não é guardada
+	private final AtomicLong geracao = new AtomicLong();
+
+	public RegrasDaTributacao daTributacao(Long codtributacao) {
+		RegrasDaTributacao regrasDaTributacao = indice.get(codtributacao);
+		if (regrasDaTributacao != null && !regrasDaTributacao.expirou())
+			return regrasDaTributacao;
+
+		long inicio = geracao.get();
+		regrasDaTributacao = new RegrasDaTributacao(regras.findByTributacaoCodigoOrderByCodigo(codtributacao));
+
+		if (geracao.get() == inicio)
+			indice.put(codtributacao, regrasDaTributacao);
+
+		return regrasDaTributacao;
+	}
+
+	/*
+	 * Descarta todo o índice, uma regra alterada pode ter mudado de tributação
+	 */
+	public void descarta() {
+		geracao.incrementAndGet();
+		indice.clear();
+	}
+
+	public static class RegrasDaTributacao {
+
+		private final long carregadoEm = System.currentTimeMillis();
+		private final Map<String, RegraResolvida> porUfTipo = new HashMap<>();
+		private final Set<EntradaSaida> tipos = EnumSet.noneOf(EntradaSaida.class);
+		private final Character origem;
+
+		RegrasDaTributacao(List<TributacaoRegra> lista) {
+			for (TributacaoRegra regra : lista) {
+				tipos.add(regra.getTipo());
+				// havendo mais de uma regra para a UF e o tipo vale a última
+				porUfTipo.put(chave(regra.getUf().getSigla(), regra.getTipo()), new RegraResolvida(regra));
+			}
+
+			// a origem da mercadoria vem do CST da primeira regra
+			origem = lista.isEmpty() ? null : lista.get(0).getCst_csosn().getCst_csosn().charAt(0);
+		}
+
+		public boolean temTipo(EntradaSaida tipo) {
+			return tipos.contains(tipo);
+		}
+
+		public RegraResolvida busca(String uf, EntradaSaida tipo) {
+			return porUfTipo.get(chave(uf, tipo));
+		}
+
+		public Character getOrigem() {
+			return origem;
+		}
+
+		private boolean expirou() {
+			return System.currentTimeMillis() - carregadoEm > VALIDADE;
+		}
+
+		private static String chave(String uf, EntradaSaida tipo) {
+			return uf + ":" + tipo;
+		}
+
+	}
+
+	public static class RegraResolvida {
+
+		private final TributacaoRegra regra;
+		private final String cfop;
+		private final String cstCsosn;
+		private final String cstPis;
+		private final String cstCofins;
+		private final String cstIpi;
+
+		RegraResolvida(TributacaoRegra regra) {
+			this.regra = regra;
+			this.cfop = regra.getCfop().getCfop();
+			this.cstCsosn = regra.getCst_csosn().getCst_csosn();
+			this.cstPis = regra.getCst_pis() == null ? null : regra.getCst_pis().getCst();
+			this.cstCofins = regra.getCst_cofins() == null ? null : regra.getCst_cofins().getCst();
+			this.cstIpi = regra.getCst_ipi() == null ? null : regra.getCst_ipi().getCst();
+		}
+
+		public TributacaoRegra getRegra() {
+			return regra;
+		}
+
+		public String getCfop() {
+			return cfop;
+		}
+
+		public String getCstCsosn() {
+			return cstCsosn;
+		}
+
+		public String getCstPis() {
+			return cstPis;
+		}
+
+		public String getCstCofins() {
+			return cstCofins;
+		}
+
+		public String getCstIpi() {
+			return cstIpi;
+		}
+
+	}
+
+}
@@ -17,6 +17,9 @@ public class TributacaoRegraService {
 	@Autowired
 	private TributacaoRegraRepository regras;
 
+	@Autowired
+	private TributacaoRegraIndice indice;
+
 	public List<TributacaoRegra> lista() {
 		return regras.findAll();
 	}
@@ -37,6 +40,8 @@ public class TributacaoRegraService {
 				System.out.println(e.getStackTrace());
 				return "Erro ao tentar adicionar regra, chame o suporte";
 			}
+
+			indice.descarta();
 		} else {
 			try {
 				regras.update(codregra, codtribu, tipo, uf, cfop, cst_csosn, cstpis, cstcofins, pis, cofins, aliq_ipi, aliq_icms, cst_ipi);
@@ -44,7 +49,8 @@ public class TributacaoRegraService {
 				System.out.println(e.getStackTrace());
 				return "Erro ao tentar alterar regra, chame o suporte";
 			}
-			
+
+			indice.descarta();
 			return "Regra alterada com sucesso";
 		}
 
@@ -59,6 +65,8 @@ public class TributacaoRegraService {
 			throw new RuntimeException("Erro ao tentar remover a regra, chame o suporte");
 		}
 
+		indice.descarta();
+
 		return "Regra removida com sucesso";
 	}
 
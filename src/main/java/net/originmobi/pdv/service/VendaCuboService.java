@@ -0,0 +1,160 @@
+package net.originmobi.pdv.service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Cubo das vendas fechadas por dia, hora, produto, usuário e forma de
+ * pagamento, com quantidade, valor bruto e desconto.
+ *
+ * Cada venda é somada ao cubo no fechamento, na mesma transação do
+ * fechamento, com um único insert ... on duplicate key update. Um erro no
+ * cubo desfaz o fechamento da venda.
+ *
+ * A reconstrução refaz cada dia do período na sua própria transação, com
+ * DIAS_EM_PARALELO dias ao mesmo tempo, e toda madrugada os dois dias
+ * anteriores são refeitos a partir das vendas. O dia atual nunca é refeito:
+ * o delete e o insert ... select do dia disputariam as travas com a soma das
+ * vendas sendo fechadas, e um fechamento poderia ser desfeito por deadlock.
+ * As consultas leem somente o cubo.
+ */
+@Service
+public class VendaCuboService {
+
+	public static final int DIAS_EM_PARALELO = 3;
+
+	public enum Dimensao {
+		DIA("dia"), HORA("hora"), PRODUTO("produto_codigo"), USUARIO("usuario_codigo"),
+		PAGAMENTO("pagamento_tipo_codigo");
+
+		private final String coluna;
+
+		Dimensao(String coluna) {
+			this.coluna = coluna;
+		}
+	}
+
+	// produtos de cada venda com o desconto da venda rateado pelo valor bruto
+	private static final String PRODUTOS_DAS_VENDAS = "select date(max(v.data_finalizado)) as dia, "
+			+ "hour(max(v.data_finalizado)) as hora, vp.produto_codigo, max(v.usuario_codigo) as usuario_codigo, "
+			+ "%s as pagamento_tipo_codigo, sum(vp.qtd) as qtd, sum(vp.valor_unitario * vp.qtd) as bruto, "
+			+ "coalesce(round(max(v.valor_desconto) * sum(vp.valor_unitario * vp.qtd) / nullif(max(v.valor_produtos), 0), 2), 0) as desconto "
+			+ "from venda v join venda_produtos vp on vp.venda_codigo = v.codigo %s "
+			+ "where v.situacao = 'FECHADA' and %s group by v.codigo, vp.produto_codigo";
+
+	private static final String INSERE = "insert into venda_cubo (dia, hora, produto_codigo, usuario_codigo, "
+			+ "pagamento_tipo_codigo, qtd, valor_bruto, valor_desconto) "
+			+ "select s.dia, s.hora, s.produto_codigo, s.usuario_codigo, s.pagamento_tipo_codigo, sum(s.qtd), sum(s.bruto), "
+			+ "sum(s.desconto) from (%s) s group by s.dia, s.hora, s.produto_codigo, s.usuario_codigo, s.pagamento_tipo_codigo";
+
+	/*
+	 * A forma de pagamento vem do fechamento, a associação com a venda ainda não
+	 * foi gravada quando a venda é somada
+	 */
+	private static final String SOMA_VENDA = String.format(INSERE,
+			String.format(PRODUTOS_DAS_VENDAS, "?", "", "v.codigo = ?"))
+			+ " on duplicate key update qtd = qtd + values(qtd), valor_bruto = valor_bruto + values(valor_bruto), "
+			+ "valor_desconto = valor_desconto + values(valor_desconto)";
+
+	private static final String INSERE_DIA = String.format(INSERE,
+			String.format(PRODUTOS_DAS_VENDAS, "coalesce(max(ptv.pag_tipo_codigo), 0)",
+					"left join pagamento_tipo_venda ptv on ptv.ven_codigo = v.codigo",
+					"v.data_finalizado >= ? and v.data_finalizado < ?"));
+
+	private static final String APAGA_DIA = "delete from venda_cubo where dia = ?";
+
+	private static final String CONSULTA = "select %1$s as chave, sum(qtd) as qtd, sum(valor_bruto) as valor_bruto, "
+			+ "sum(valor_desconto) as valor_desconto from venda_cubo where dia >= ? and dia <= ? group by %1$s order by %1$s";
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private PlatformTransactionManager transacoes;
+
+	/*
+	 * Soma os produtos da venda fechada no cubo, chamado dentro da transação do
+	 * fechamento
+	 */
+	public void soma(Long codVenda, Long codPagamentoTipo) {
+		jdbc.update(SOMA_VENDA, codPagamentoTipo, codVenda);
+	}
+
+	/*
+	 * Refaz o cubo dos dias do período a partir das vendas, retorna quantas
+	 * linhas do cubo foram gravadas. O período deve terminar antes do dia atual
+	 */
+	public int reconstroi(LocalDate inicio, LocalDate fim) {
+		if (fim.isBefore(inicio))
+			throw new RuntimeException("Data final anterior à data inicial, verifique");
+
+		if (!fim.isBefore(LocalDate.now()))
+			throw new RuntimeException("O cubo do dia atual é mantido pelo fechamento das vendas, informe um período até ontem");
+
+		long comeco = System.currentTimeMillis();
+		ExecutorService dias = Executors.newFixedThreadPool(DIAS_EM_PARALELO, tarefa -> {
+			Thread thread = new Thread(tarefa, "venda-cubo");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			List<Future<Integer>> linhas = new ArrayList<>();
+			for (LocalDate dia = inicio; !dia.isAfter(fim); dia = dia.plusDays(1)) {
+				LocalDate data = dia;
+				linhas.add(dias.submit(() -> reconstroiDia(data)));
+			}
+
+			int total = 0;
+			for (Future<Integer> linha : linhas)
+				total += linha.get();
+
+			System.out.println("Cubo de vendas de " + inicio + " a " + fim + " refeito com " + total + " linhas em "
+					+ (System.currentTimeMillis() - comeco) + " ms");
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Reconstrução do cubo de vendas interrompida");
+		} catch (ExecutionException e) {
+			System.out.println(e.getCause());
+			throw new RuntimeException("Erro ao reconstruir o cubo de vendas, chame o suporte");
+		} finally {
+			dias.shutdownNow();
+		}
+	}
+
+	@Scheduled(cron = "0 30 3 * * *")
+	public void reconstroiRecentes() {
+		LocalDate hoje = LocalDate.now();
+		reconstroi(hoje.minusDays(2), hoje.minusDays(1));
+	}
+
+	public List<Map<String, Object>> consulta(LocalDate inicio, LocalDate fim, Dimensao por) {
+		if (fim.isBefore(inicio))
+			throw new RuntimeException("Data final anterior à data inicial, verifique");
+
+		return jdbc.queryForList(String.format(CONSULTA, por.coluna), Date.valueOf(inicio), Date.valueOf(fim));
+	}
+
+	private int reconstroiDia(LocalDate dia) {
+		return new TransactionTemplate(transacoes).execute(status -> {
+			jdbc.update(APAGA_DIA, Date.valueOf(dia));
+			return jdbc.update(INSERE_DIA, Date.valueOf(dia), Date.valueOf(dia.plusDays(1)));
+		});
+	}
+
+}
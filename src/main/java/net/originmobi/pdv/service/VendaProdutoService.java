@@ -1,9 +1,11 @@
 package net.originmobi.pdv.service;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import net.originmobi.pdv.model.Produto;
@@ -17,12 +19,19 @@ public class VendaProdutoService {
 	@Autowired
 	private VendaProdutosRepository vendaProdutos;
 
+	@Autowired
+	private JdbcTemplate jdbc;
+
 	public void salvar(VendaProduto vendaProduto) {
 		vendaProdutos.save(vendaProduto);
 	}
 
 	public List<Object> listaProdutosVenda(Venda venda) {
-		return vendaProdutos.findByProdutosDaVenda(venda.getCodigo());
+		return listaProdutosVenda(venda.getCodigo());
+	}
+
+	public List<Object> listaProdutosVenda(Long codVenda) {
+		return vendaProdutos.findByProdutosDaVenda(codVenda);
 	}
 
 	public List<Produto> listaVendaProduto(Venda venda) {
@@ -33,6 +42,10 @@ public class VendaProdutoService {
 		return vendaProdutos.findByVendaEquals(codigoVen);
 	}
 
+	public List<Object[]> qtdProdutoPorPreco(Long codVenda) {
+		return vendaProdutos.buscaQtdProdutoPorPreco(codVenda);
+	}
+
 	public VendaProduto busca(Long codigo) {
 		return vendaProdutos.findByCodigoIn(codigo);
 	}
@@ -41,8 +54,49 @@ public class VendaProdutoService {
 		vendaProdutos.delete(vendaProduto);
 	}
 
-	public void removeProduto(Long posicaoProd) {
-		vendaProdutos.removeProduto(posicaoProd);
+	public int incrementaQtd(Long codVenda, Long codProduto, int qtd, long centavos) {
+		return vendaProdutos.incrementaQtd(codVenda, codProduto, qtd, centavos);
+	}
+
+	/*
+	 * Retira uma unidade da linha, quando a linha tiver apenas uma unidade a
+	 * mesma é removida. Retorna a linha da qual a unidade foi retirada, ou null
+	 * caso a linha não exista mais ou não seja da venda informada
+	 */
+	public VendaProduto removeProduto(Long posicaoProd, Long codVenda) {
+		VendaProduto linha = vendaProdutos.findByCodigoIn(posicaoProd);
+		if (linha == null || !codVenda.equals(linha.getVenda()))
+			return null;
+
+		if (vendaProdutos.decrementaQtd(posicaoProd, codVenda) == 0
+				&& vendaProdutos.removeProduto(posicaoProd, codVenda) == 0)
+			return null;
+
+		return linha;
+	}
+
+	/*
+	 * Grava as novas linhas e os incrementos de quantidade (código da linha ->
+	 * qtd) em lote, evitando uma ida ao banco por item
+	 */
+	public void gravaLote(List<VendaProduto> novos, Map<Long, Integer> incrementos) {
+		if (!novos.isEmpty())
+			jdbc.batchUpdate(
+					"insert into venda_produtos (produto_codigo, venda_codigo, qtd, valor_balanca, valor_unitario) values (?, ?, ?, ?, ?)",
+					novos, novos.size(), (ps, item) -> {
+						ps.setLong(1, item.getProduto());
+						ps.setLong(2, item.getVenda());
+						ps.setInt(3, item.getQtd());
+						ps.setDouble(4, item.getValor_balanca());
+						ps.setDouble(5, item.getValor_unitario());
+					});
+
+		if (!incrementos.isEmpty())
+			jdbc.batchUpdate("update venda_produtos set qtd = qtd + ? where codigo = ?", incrementos.entrySet(),
+					incrementos.size(), (ps, incremento) -> {
+						ps.setInt(1, incremento.getValue());
+						ps.setLong(2, incremento.getKey());
+					});
 	}
 
 	public List<Object[]> buscaQtdProduto(Long codvenda) {
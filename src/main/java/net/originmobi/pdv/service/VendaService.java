@@ -2,10 +2,14 @@ package net.originmobi.pdv.service;
 
 import java.sql.Date;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -24,6 +28,7 @@ import net.originmobi.pdv.filter.VendaFilter;
 import net.originmobi.pdv.model.Caixa;
 import net.originmobi.pdv.model.CaixaLancamento;
 import net.originmobi.pdv.model.PagamentoTipo;
+import net.originmobi.pdv.model.Parcela;
 import net.originmobi.pdv.model.Receber;
 import net.originmobi.pdv.model.Titulo;
 import net.originmobi.pdv.model.Usuario;
@@ -70,6 +75,20 @@ public class VendaService {
 	@Autowired
 	private ProdutoService produtos;
 
+	@Autowired
+	private ProdutoIndiceService produtosIndice;
+
+	@Autowired
+	private EstoqueReservaService reservas;
+
+	@Autowired
+	private VendaCuboService cubo;
+
+	@Autowired
+	private MetricasPainelService metricas;
+
+	private final Map<String, PlanoPagamento> planosPagamento = new ConcurrentHashMap<>();
+
 	private Timestamp dataHoraAtual = new Timestamp(System.currentTimeMillis());
 
 	public Long abreVenda(Venda venda) {
@@ -84,6 +103,7 @@ public class VendaService {
 
 			try {
 				vendas.save(venda);
+				metricas.vendaAberta();
 			} catch (Exception e) {
 				e.getStackTrace();
 			}
@@ -111,41 +131,168 @@ public class VendaService {
 			return vendas.findBySituacaoEquals(situacaoVenda, pageable);
 	}
 
+	/*
+	 * A unidade é reservada no estoque em memória antes de tudo e devolvida se
+	 * a transação for desfeita. O total dos produtos é atualizado em seguida,
+	 * o update só passa com a venda aberta e mantém a venda bloqueada até o
+	 * fim da transação
+	 */
+	@Transactional
 	public String addProduto(Long codVen, Long codPro, Double vlBalanca) {
-		String vendaSituacao = vendas.verificaSituacao(codVen);
-
-		if (vendaSituacao.equals(VendaSituacao.ABERTA.toString())) {
-			VendaProduto vendaProduto = null;
+		Double vlUnitario = vlBalanca > 0 ? vlBalanca : precoVenda(codPro);
 
-			vendaProduto = new VendaProduto(codPro, codVen, vlBalanca);
+		try {
+			reservas.reserva(codVen, codPro, 1);
+		} catch (RuntimeException e) {
+			return e.getMessage();
+		}
 
-			try {
-				vendaProdutos.salvar(vendaProduto);
-			} catch (Exception e) {
-				e.getStackTrace();
-			}
+		reservas.liberaSeDesfeita(codVen, Collections.singletonMap(codPro, 1));
 
-		} else {
+		if (vendas.somaValorProdutos(codVen, centavos(vlUnitario)) == 0) {
+			reservas.libera(codVen, codPro, 1);
 			return "Venda fechada";
 		}
 
+		// produto de balança sempre gera uma linha nova, os demais somam
+		// na linha do produto caso ele já esteja na venda com o mesmo preço
+		if (vlBalanca > 0 || vendaProdutos.incrementaQtd(codVen, codPro, 1, centavos(vlUnitario)) == 0) {
+			VendaProduto vendaProduto = new VendaProduto(codPro, codVen, vlBalanca);
+			vendaProduto.setValor_unitario(vlUnitario);
+			vendaProdutos.salvar(vendaProduto);
+		}
+
 		return "ok";
 	}
 
-	public String removeProduto(Long posicaoProd, Long codVenda) {
+	/*
+	 * Inclui vários itens de uma vez (leitura em sequência do código de
+	 * barras). A situação da venda é verificada uma única vez, itens repetidos
+	 * são somados e as linhas são gravadas em lote
+	 */
+	@Transactional
+	public Map<String, Object> addProdutos(Long codVen, List<VendaProduto> itens) {
+		Map<String, Object> resposta = new HashMap<>();
+
+		List<VendaProduto> novos = new ArrayList<>();
+		Map<Long, Integer> qtdPorProduto = new LinkedHashMap<>();
+		long centavos = 0;
+
+		for (VendaProduto item : itens) {
+			Double vlBalanca = item.getValor_balanca() == null ? 0.0 : item.getValor_balanca();
+
+			if (item.getProduto() == null || item.getQtd() < 1 || vlBalanca < 0) {
+				resposta.put("mensagem", "Item inválido");
+				return resposta;
+			}
+
+			// produto de balança sempre gera uma linha nova
+			if (vlBalanca > 0) {
+				VendaProduto novo = new VendaProduto(item.getProduto(), codVen, 1, vlBalanca);
+				novo.setValor_unitario(vlBalanca);
+				novos.add(novo);
+				centavos += centavos(vlBalanca);
+			} else {
+				qtdPorProduto.merge(item.getProduto(), item.getQtd(), Integer::sum);
+			}
+		}
+
+		Map<Long, Double> precos = new HashMap<>();
+		for (Map.Entry<Long, Integer> item : qtdPorProduto.entrySet()) {
+			Double preco = precoVenda(item.getKey());
+			precos.put(item.getKey(), preco);
+			centavos += centavos(preco) * item.getValue();
+		}
+
+		// reserva todos os itens de uma vez, a balança conta uma unidade por pesagem
+		Map<Long, Integer> qtdReserva = new HashMap<>(qtdPorProduto);
+		for (VendaProduto novo : novos)
+			qtdReserva.merge(novo.getProduto(), 1, Integer::sum);
+
 		try {
-			Venda venda = vendas.findByCodigoEquals(codVenda);
-			if (venda.getSituacao().equals(VendaSituacao.ABERTA))
-				vendaProdutos.removeProduto(posicaoProd);
-			else
-				return "Venda fechada";
-		} catch (Exception e) {
-			e.getStackTrace();
+			reservas.reserva(codVen, qtdReserva);
+		} catch (RuntimeException e) {
+			resposta.put("mensagem", e.getMessage());
+			return resposta;
+		}
+
+		reservas.liberaSeDesfeita(codVen, qtdReserva);
+
+		if (vendas.somaValorProdutos(codVen, centavos) == 0) {
+			qtdReserva.forEach((produto, qtd) -> reservas.libera(codVen, produto, qtd));
+			resposta.put("mensagem", "Venda fechada");
+			return resposta;
+		}
+
+		// linhas já existentes dos produtos sem balança e com o mesmo preço
+		// recebem apenas a quantidade
+		Map<Long, Long> linhaPorProduto = new HashMap<>();
+		for (VendaProduto linha : vendaProdutos.listaVendaProdutos(codVen))
+			if ((linha.getValor_balanca() == null || linha.getValor_balanca() == 0)
+					&& linha.getValor_unitario() != null && precos.containsKey(linha.getProduto())
+					&& centavos(linha.getValor_unitario()) == centavos(precos.get(linha.getProduto())))
+				linhaPorProduto.putIfAbsent(linha.getProduto(), linha.getCodigo());
+
+		Map<Long, Integer> incrementos = new LinkedHashMap<>();
+		qtdPorProduto.forEach((produto, qtd) -> {
+			Long linha = linhaPorProduto.get(produto);
+			if (linha != null) {
+				incrementos.put(linha, qtd);
+			} else {
+				VendaProduto novo = new VendaProduto(produto, codVen, qtd, 0.0);
+				novo.setValor_unitario(precos.get(produto));
+				novos.add(novo);
+			}
+		});
+
+		vendaProdutos.gravaLote(novos, incrementos);
+
+		resposta.put("mensagem", "ok");
+		resposta.put("itens", vendaProdutos.listaProdutosVenda(codVen));
+		resposta.put("total", vendas.verificaValorProdutos(codVen));
+		return resposta;
+	}
+
+	@Transactional
+	public String removeProduto(Long posicaoProd, Long codVenda) {
+		Venda venda = vendas.findByCodigoEquals(codVenda);
+		if (!venda.getSituacao().equals(VendaSituacao.ABERTA))
+			return "Venda fechada";
+
+		// uma linha de outra venda volta null e nada é alterado nesta venda
+		VendaProduto retirado = vendaProdutos.removeProduto(posicaoProd, codVenda);
+		if (retirado != null) {
+			vendas.somaValorProdutos(codVenda, -centavos(retirado.getValor_unitario()));
+			reservas.liberaAposCommit(codVenda, retirado.getProduto(), 1);
 		}
 
 		return "ok";
 	}
 
+	/*
+	 * Refaz o total dos produtos a partir das linhas da venda
+	 */
+	public Double recalculaTotal(Long codVenda) {
+		vendas.recalculaValorProdutos(codVenda);
+		return vendas.verificaValorProdutos(codVenda);
+	}
+
+	/*
+	 * Preço do índice em memória, o banco só é consultado caso o produto não
+	 * esteja indexado
+	 */
+	private Double precoVenda(Long codPro) {
+		Double preco = produtosIndice.precoVenda(codPro);
+		if (preco == null)
+			preco = produtos.busca(codPro).getValor_venda();
+
+		return preco;
+	}
+
+	private long centavos(Double valor) {
+		return Math.round(valor * 100);
+	}
+
 	public List<Venda> lista() {
 		return vendas.findAll();
 	}
@@ -163,23 +310,15 @@ public class VendaService {
 		DataAtual dataAtual = new DataAtual();
 		PagamentoTipo formaPagamento = formaPagamentos.busca(pagamentotipo);
 
-		String[] formaPagar = formaPagamento.getFormaPagamento().replace("/", " ").split(" ");
+		PlanoPagamento plano = planoPagamento(formaPagamento.getFormaPagamento());
 
 		// vlTotal é usado no lancamento
 		Double vlTotal = (vlprodutos + acrescimo) - desconto;
 
-		int qtdVezes = formaPagar.length;
+		int qtdVezes = plano.qtdParcelas();
 
 		int sequencia = 1;
 
-		// crio este MAP para receber todas as formas de pagamento e poder
-		// pesquisar por uma chave que é o tipo da forma, assim posso verificar
-		// se o tipo 00 esta presente.
-		Map<String, String> modeloPagar = new HashMap<>();
-		for (int i = 0; i < formaPagar.length; i++) {
-			modeloPagar.put(formaPagar[i], formaPagar[i]);
-		}
-
 		Venda dadosVenda = vendas.findByCodigoEquals(venda);
 		dadosVenda.setPagamentotipo(formaPagamento);
 
@@ -194,32 +333,45 @@ public class VendaService {
 			throw new RuntimeException("Erro ao fechar a venda, chame o suporte");
 		}
 
+		// todos os títulos das parcelas são buscados de uma vez
+		List<Long> codTitulos = new ArrayList<>();
+		for (int i = 0; i < plano.qtdParcelas(); i++)
+			codTitulos.add(Long.decode(titulos[i]));
+
+		Map<Long, Titulo> dadosTitulos = tituloService.busca(codTitulos);
+
 		Double desc = desconto / vlParcelas.length;
 		Double acre = acrescimo / vlParcelas.length;
 
+		// as parcelas a prazo são acumuladas e gravadas juntas no final
+		List<Parcela> novasParcelas = new ArrayList<>();
+
 		// verifica a forma de pagamento para realizar o lançamento apropriado
-		for (int i = 0; i < formaPagar.length; i++) {
-			Optional<Titulo> titulo = tituloService.busca(Long.decode(titulos[i]));
+		for (int i = 0; i < plano.qtdParcelas(); i++) {
+			Titulo titulo = dadosTitulos.get(codTitulos.get(i));
 
 			// venda à vista
-			if (formaPagar[i].equals("00")) {
+			if (plano.isAvista(i)) {
+
+				if (titulo == null)
+					throw new RuntimeException("Título não encontrado, verifique");
 
 				// no dinheiro
-				if (titulo.get().getTipo().getSigla().equals(TituloTipo.DIN.toString())) {
+				if (titulo.getTipo().getSigla().equals(TituloTipo.DIN.toString())) {
 					// verifica se o caixa esta aberto para realizar o lançamento no mesmo
 					if (!caixas.caixaIsAberto())
 						throw new RuntimeException("nenhum caixa aberto");
 
-					qtdVezes = avistaDinheiro(vlprodutos, vlParcelas, formaPagar, qtdVezes, i, desc, acre);
+					qtdVezes = avistaDinheiro(vlprodutos, vlParcelas, qtdVezes, i, desc, acre);
 				}
 
 				// se for no cartão de debito ou crédito
-				else if (titulo.get().getTipo().getSigla().equals(TituloTipo.CARTDEB.toString())
-						|| titulo.get().getTipo().getSigla().equals(TituloTipo.CARTCRED.toString())) {
+				else if (titulo.getTipo().getSigla().equals(TituloTipo.CARTDEB.toString())
+						|| titulo.getTipo().getSigla().equals(TituloTipo.CARTCRED.toString())) {
 
 					Double vl_parcela = Double.valueOf(vlParcelas[i]);
 
-					cartaoLancamento.lancamento(vl_parcela, titulo);
+					cartaoLancamento.lancamento(vl_parcela, Optional.of(titulo));
 				}
 
 			} else {
@@ -229,34 +381,53 @@ public class VendaService {
 					throw new RuntimeException("Venda sem cliente, verifique");
 
 				// no dinheiro
-				sequencia = aprazo(vlprodutos, vlParcelas, dataAtual, formaPagar, qtdVezes, sequencia, receber, i, desc,
-						acre);
+				sequencia = aprazo(vlParcelas, dataAtual, plano.dias(i), sequencia, receber, i, desc, acre,
+						novasParcelas);
 			}
+		}
 
-			try {
-				Double vlFinal = (vlprodutos + acrescimo) - desconto;
-				// realiza o fechamento da venda
-				vendas.fechaVenda(venda, VendaSituacao.FECHADA, vlFinal, desconto, acrescimo,
-						dataAtual.dataAtualTimeStamp(), formaPagamento);
-			} catch (Exception e) {
-				System.out.println(e);
-				throw new RuntimeException("Erro ao fechar a venda, chame o suporte");
-			}
+		try {
+			parcelas.gerarParcelas(novasParcelas);
+		} catch (Exception e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao fechar a venda, chame o suporte");
+		}
 
+		try {
+			// realiza o fechamento da venda
+			vendas.fechaVenda(venda, VendaSituacao.FECHADA, vlTotal, desconto, acrescimo,
+					dataAtual.dataAtualTimeStamp(), formaPagamento);
+		} catch (Exception e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao fechar a venda, chame o suporte");
 		}
-		
+
 		// Responsável por realizar a movimentação de estoque
-		produtos.movimentaEstoque(venda, EntradaSaida.SAIDA);
+		// a reserva pode ter sido liberada por abandono, o saldo em memória
+		// é baixado pelo que a venda realmente movimentou
+		reservas.confirma(venda, produtos.movimentaEstoque(venda, EntradaSaida.SAIDA));
+
+		cubo.soma(venda, formaPagamento.getCodigo());
+		metricas.vendaFechada();
 
 		return "Venda finalizada com sucesso";
 	}
 
 	/*
-	 * Responsável por realizar o lançamento quando a parcela da venda é a prazo
+	 * A forma de pagamento (ex.: 00/30/60) é interpretada uma única vez e
+	 * reaproveitada nos próximos fechamentos
+	 */
+	private PlanoPagamento planoPagamento(String formaPagamento) {
+		return planosPagamento.computeIfAbsent(formaPagamento, PlanoPagamento::new);
+	}
+
+	/*
+	 * Responsável por montar a parcela quando a parcela da venda é a prazo, a
+	 * gravação é feita junto com as demais parcelas
 	 * 
 	 */
-	private int aprazo(Double vlprodutos, String[] vlParcelas, DataAtual dataAtual, String[] formaPagar, int qtdVezes,
-			int sequencia, Receber receber, int i, Double acre, Double desc) {
+	private int aprazo(String[] vlParcelas, DataAtual dataAtual, int dias, int sequencia, Receber receber, int i,
+			Double acre, Double desc, List<Parcela> novasParcelas) {
 
 		if (vlParcelas[i].isEmpty()) {
 			throw new RuntimeException("valor de recebimento invalido");
@@ -264,9 +435,8 @@ public class VendaService {
 
 		try {
 			Double valor_parcela = (Double.valueOf(vlParcelas[i]) + acre) - desc;
-			parcelas.gerarParcela(valor_parcela, 0.00, 0.00, 0.0, valor_parcela, receber, 0, sequencia,
-					dataAtual.dataAtualTimeStamp(),
-					Date.valueOf(dataAtual.DataAtualIncrementa(Integer.parseInt(formaPagar[i]))));
+			novasParcelas.add(new Parcela(valor_parcela, 0.00, 0.00, 0.0, valor_parcela, 0, sequencia, receber,
+					dataAtual.dataAtualTimeStamp(), Date.valueOf(dataAtual.DataAtualIncrementa(dias))));
 
 		} catch (Exception e) {
 			e.getMessage();
@@ -282,8 +452,8 @@ public class VendaService {
 	 * no dinheiro
 	 * 
 	 */
-	private int avistaDinheiro(Double vlprodutos, String[] vlParcelas, String[] formaPagar, int qtdVezes, int i,
-			Double acre, Double desc) {
+	private int avistaDinheiro(Double vlprodutos, String[] vlParcelas, int qtdVezes, int i, Double acre,
+			Double desc) {
 
 		// decremento ela para usa-la no a prazo, sem a sequencia do a
 		// vista
@@ -328,4 +498,34 @@ public class VendaService {
 		return vendas.qtdVendasEmAberto();
 	}
 
+	private static class PlanoPagamento {
+
+		private final boolean[] avista;
+		private final int[] dias;
+
+		PlanoPagamento(String formaPagamento) {
+			String[] prazos = formaPagamento.replace("/", " ").split(" ");
+			avista = new boolean[prazos.length];
+			dias = new int[prazos.length];
+
+			for (int i = 0; i < prazos.length; i++) {
+				avista[i] = prazos[i].equals("00");
+				dias[i] = avista[i] ? 0 : Integer.parseInt(prazos[i]);
+			}
+		}
+
+		int qtdParcelas() {
+			return avista.length;
+		}
+
+		boolean isAvista(int parcela) {
+			return avista[parcela];
+		}
+
+		int dias(int parcela) {
+			return dias[parcela];
+		}
+
+	}
+
 }
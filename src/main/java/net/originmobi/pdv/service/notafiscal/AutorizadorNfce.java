@@ -0,0 +1,13 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import net.originmobi.pdv.xml.nfe.NFeAssinada;
+
+/**
+ * Envia a NFC-e assinada ao autorizador e devolve o protocolo de autorização.
+ * Uma rejeição é informada com RuntimeException.
+ */
+public interface AutorizadorNfce {
+
+	String autoriza(NFeAssinada nfce);
+
+}
@@ -0,0 +1,24 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import net.originmobi.pdv.xml.nfe.NFeAssinada;
+
+/**
+ * Autorizador local, aceita toda NFC-e com um protocolo sequencial. Usado
+ * enquanto não há integração com o webservice da SEFAZ, a integração deve ser
+ * registrada como @Primary para substituí-lo.
+ */
+@Component
+public class AutorizadorNfceLocal implements AutorizadorNfce {
+
+	private final AtomicLong protocolo = new AtomicLong(System.currentTimeMillis());
+
+	@Override
+	public String autoriza(NFeAssinada nfce) {
+		return "LOCAL" + protocolo.incrementAndGet();
+	}
+
+}
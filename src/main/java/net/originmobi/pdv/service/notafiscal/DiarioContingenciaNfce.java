@@ -0,0 +1,112 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Fila local das NFC-e emitidas em contingência offline.
+ *
+ * Cada nota é gravada em um arquivo próprio com a chave de acesso no nome,
+ * escrita em um temporário, forçada para o disco e renomeada, assim uma queda
+ * no meio da gravação não deixa nota pela metade na fila. A nota sai da fila
+ * quando é autorizada.
+ */
+@Component
+public class DiarioContingenciaNfce {
+
+	private static final String EXTENSAO = ".xml";
+
+	private final Path diretorio;
+
+	public DiarioContingenciaNfce() {
+		this(Paths.get(System.getProperty("user.dir"), "src", "main", "resources", "contingenciaNfce"));
+	}
+
+	public DiarioContingenciaNfce(Path diretorio) {
+		this.diretorio = diretorio;
+	}
+
+	public void enfileira(String chave, byte[] xml) {
+		try {
+			Files.createDirectories(diretorio);
+
+			Path temporario = diretorio.resolve(chave + ".tmp");
+			try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				ByteBuffer conteudo = ByteBuffer.wrap(xml);
+				while (conteudo.hasRemaining())
+					canal.write(conteudo);
+				canal.force(true);
+			}
+
+			Files.move(temporario, diretorio.resolve(chave + EXTENSAO), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Erro ao gravar a NFC-e " + chave + " em contingência " + e);
+			throw new RuntimeException("Erro ao gravar a NFC-e em contingência, chame o suporte");
+		}
+	}
+
+	/*
+	 * Chaves das notas na fila, da mais antiga para a mais nova
+	 */
+	public List<String> pendentes() {
+		if (!Files.isDirectory(diretorio))
+			return Collections.emptyList();
+
+		try (Stream<Path> arquivos = Files.list(diretorio)) {
+			return arquivos.filter(p -> p.getFileName().toString().endsWith(EXTENSAO))
+					.sorted(Comparator.comparingLong(DiarioContingenciaNfce::modificado))
+					.map(p -> p.getFileName().toString().replace(EXTENSAO, "")).collect(Collectors.toList());
+		} catch (IOException e) {
+			System.out.println("Erro ao listar as NFC-e em contingência " + e);
+			return Collections.emptyList();
+		}
+	}
+
+	public byte[] le(String chave) throws IOException {
+		return Files.readAllBytes(diretorio.resolve(chave + EXTENSAO));
+	}
+
+	public void conclui(String chave) {
+		try {
+			Files.deleteIfExists(diretorio.resolve(chave + EXTENSAO));
+		} catch (IOException e) {
+			System.out.println("Erro ao retirar a NFC-e " + chave + " da contingência " + e);
+		}
+	}
+
+	/*
+	 * Tira da fila a nota rejeitada pelo autorizador, o arquivo fica no
+	 * diretório para ser tratado pelo suporte
+	 */
+	public void rejeita(String chave) {
+		try {
+			Files.move(diretorio.resolve(chave + EXTENSAO), diretorio.resolve(chave + ".rejeitada"),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.out.println("Erro ao retirar a NFC-e " + chave + " da contingência " + e);
+		}
+	}
+
+	private static long modificado(Path arquivo) {
+		try {
+			return Files.getLastModifiedTime(arquivo).toMillis();
+		} catch (IOException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Service;
+
+import net.originmobi.pdv.model.Empresa;
+import net.originmobi.pdv.xml.nfe.EmitenteNfce;
+
+/**
+ * Emitentes da NFC-e já montados por empresa.
+ *
+ * O <emit> e os dados do ide são montados na primeira nota da empresa e
+ * reaproveitados nas seguintes. O índice é descartado quando a empresa é
+ * alterada e expira após VALIDADE, assim as alterações feitas em outra
+ * instância também são vistas.
+ */
+@Service
+public class EmitenteNfceIndice {
+
+	private static final long VALIDADE = 5 * 60 * 1000;
+
+	private final Map<Long, EmitenteNfce> emitentes = new ConcurrentHashMap<>();
+
+	// incrementada a cada descarte, um emitente montado antes não é guardado
+	private final AtomicLong geracao = new AtomicLong();
+
+	public EmitenteNfce doEmissor(Empresa empresa) {
+		EmitenteNfce emitente = emitentes.get(empresa.getCodigo());
+		if (emitente != null && !emitente.carregadoAntesDe(System.currentTimeMillis() - VALIDADE))
+			return emitente;
+
+		long inicio = geracao.get();
+		emitente = EmitenteNfce.de(empresa);
+
+		if (geracao.get() == inicio)
+			emitentes.put(empresa.getCodigo(), emitente);
+
+		return emitente;
+	}
+
+	public void descarta() {
+		geracao.incrementAndGet();
+		emitentes.clear();
+	}
+
+}
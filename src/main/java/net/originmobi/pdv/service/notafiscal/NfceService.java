@@ -0,0 +1,260 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.model.Venda;
+import net.originmobi.pdv.repository.VendaRepository;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
+import net.originmobi.pdv.xml.nfe.EmitenteNfce;
+import net.originmobi.pdv.xml.nfe.GeraXmlNfe;
+import net.originmobi.pdv.xml.nfe.NFCeAssinada;
+import net.originmobi.pdv.xml.nfe.NFeAssinada;
+
+/**
+ * Emissão da NFC-e (modelo 65) de uma venda fechada.
+ *
+ * A nota e os itens são gravados em lote pelo NotaFiscalVendaService e o xml
+ * é gerado dos objetos em memória, com o <emit> já montado por empresa e o
+ * certificado em cache. O envio ao autorizador acontece fora da transação e
+ * espera no máximo tempoLimite, sem resposta a nota é gerada de novo em
+ * contingência offline, gravada no diário e as notas seguintes já saem em
+ * contingência por CONTINGENCIA. As notas do diário são transmitidas em
+ * segundo plano quando o autorizador volta a responder.
+ */
+@Service
+public class NfceService {
+
+	public static final String AUTORIZADA = "AUTORIZADA";
+	public static final String CONTINGENCIA_OFFLINE = "CONTINGENCIA";
+	public static final String ENVIADA = "ENVIADA";
+	public static final String REJEITADA = "REJEITADA";
+
+	private static final long CONTINGENCIA = 60 * 1000;
+
+	// consumidor final à vista é dinheiro, a prazo é crédito loja
+	private static final String PAGAMENTO_DINHEIRO = "01";
+	private static final String PAGAMENTO_CREDITO_LOJA = "05";
+
+	@Autowired
+	private NotaFiscalVendaService notasVenda;
+
+	@Autowired
+	private VendaRepository vendas;
+
+	@Autowired
+	private NotaFiscalRepository notasFiscais;
+
+	@Autowired
+	private EmitenteNfceIndice emitentes;
+
+	@Autowired
+	private GeraXmlNfe geraXml;
+
+	@Autowired
+	private AutorizadorNfce autorizador;
+
+	@Autowired
+	private DiarioContingenciaNfce diario;
+
+	@Autowired
+	private ArquivoXmlNfe arquivoXml;
+
+	@Autowired
+	private PlatformTransactionManager transacoes;
+
+	@Value("${nfce.url.qrcode:https://www.homologacao.nfce.fazenda.sp.gov.br/NFCeConsultaPublica/Paginas/ConsultaQRCode.aspx}")
+	private String urlQrCode;
+
+	@Value("${nfce.autorizador.tempo-limite:2000}")
+	private long tempoLimite;
+
+	private final ExecutorService envios = Executors.newFixedThreadPool(2, tarefa -> {
+		Thread thread = new Thread(tarefa, "envio-nfce");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// enquanto o horário atual for menor as notas saem direto em contingência
+	private volatile long contingenciaAte;
+
+	@PreDestroy
+	public void encerra() {
+		envios.shutdownNow();
+	}
+
+	/*
+	 * Chave da NFC-e da venda, a nota só é emitida na primeira chamada. Uma
+	 * nova tentativa devolve a nota já emitida, inclusive quando duas chamadas
+	 * concorrentes esbarram no índice único da venda
+	 */
+	public String chaveDaVenda(Long codVenda) {
+		String chave = notasFiscais.chaveDaVenda(codVenda, NotaFiscalService.MODELO_NFCE);
+		if (chave != null)
+			return chave;
+
+		try {
+			return emitir(codVenda).getChave();
+		} catch (RuntimeException e) {
+			chave = notasFiscais.chaveDaVenda(codVenda, NotaFiscalService.MODELO_NFCE);
+			if (chave == null)
+				throw e;
+
+			return chave;
+		}
+	}
+
+	/*
+	 * Gera, assina e envia a NFC-e da venda, devolvendo a nota com o QR-Code.
+	 * A nota é gravada em uma transação curta e o envio acontece depois do
+	 * commit, sem segurar a conexão enquanto o autorizador responde
+	 */
+	public NFCeAssinada emitir(Long codVenda) {
+		Emissao emissao = new TransactionTemplate(transacoes).execute(status -> {
+			NotaFiscal nota = notasVenda.gerarNota(codVenda, null, NotaFiscalService.MODELO_NFCE);
+			EmitenteNfce emitente = emitentes.doEmissor(nota.getEmissor());
+			String tipoPagamento = tipoPagamento(vendas.findById(codVenda).get());
+
+			boolean contingencia = System.currentTimeMillis() < contingenciaAte;
+			NFCeAssinada nfce = geraXml.gerarNFCe(nota, emitente, tipoPagamento, contingencia, urlQrCode);
+
+			nota.setChave_acesso(nfce.getChave());
+			nota.setSituacao(contingencia ? CONTINGENCIA_OFFLINE : ENVIADA);
+			nota.setVenda(codVenda);
+			notasFiscais.save(nota);
+
+			return new Emissao(nota, emitente, tipoPagamento, nfce);
+		});
+
+		NFCeAssinada nfce = emissao.nfce;
+
+		if (!nfce.isContingencia()) {
+			String protocolo;
+			try {
+				protocolo = envia(nfce);
+			} catch (RuntimeException e) {
+				notasFiscais.atualizaSituacao(nfce.getChave(), REJEITADA);
+				throw e;
+			}
+
+			if (protocolo != null) {
+				notasFiscais.atualizaSituacao(nfce.getChave(), AUTORIZADA);
+				emissao.nota.setSituacao(AUTORIZADA);
+				arquivoXml.grava(nfce.getChave(), nfce.getXml());
+				return nfce;
+			}
+
+			// sem resposta a nota sai em contingência com o mesmo número, a
+			// chave enviada fica gravada para ser cancelada se for autorizada
+			contingenciaAte = System.currentTimeMillis() + CONTINGENCIA;
+			nfce = geraXml.gerarNFCe(emissao.nota, emissao.emitente, emissao.tipoPagamento, true, urlQrCode);
+			notasFiscais.substituiChave(emissao.nota.getCodigo(), nfce.getChave(), CONTINGENCIA_OFFLINE);
+			emissao.nota.setChave_acesso(nfce.getChave());
+			emissao.nota.setSituacao(CONTINGENCIA_OFFLINE);
+		}
+
+		// a nota já está gravada, o diário só recebe notas que existem no banco
+		diario.enfileira(nfce.getChave(), nfce.getXml());
+		arquivoXml.grava(nfce.getChave(), nfce.getXml());
+
+		return nfce;
+	}
+
+	/*
+	 * Transmite as notas emitidas em contingência, parando na primeira sem
+	 * resposta
+	 */
+	@Scheduled(fixedDelay = 30000)
+	public void transmiteContingencia() {
+		for (String chave : diario.pendentes()) {
+			NFeAssinada nfce;
+			try {
+				nfce = new NFeAssinada(chave, diario.le(chave));
+			} catch (IOException e) {
+				System.out.println("Erro ao ler a NFC-e " + chave + " em contingência " + e);
+				continue;
+			}
+
+			String protocolo;
+			try {
+				protocolo = envia(nfce);
+			} catch (RuntimeException e) {
+				System.out.println("NFC-e " + chave + " rejeitada " + e.getMessage());
+				notasFiscais.atualizaSituacao(chave, REJEITADA);
+				diario.rejeita(chave);
+				continue;
+			}
+
+			if (protocolo == null)
+				return;
+
+			notasFiscais.atualizaSituacao(chave, AUTORIZADA);
+			diario.conclui(chave);
+		}
+	}
+
+	/*
+	 * Envia ao autorizador esperando no máximo tempoLimite, devolve null
+	 * quando não houve resposta e lança a rejeição
+	 */
+	private String envia(NFeAssinada nfce) {
+		Future<String> envio = envios.submit(() -> autorizador.autoriza(nfce));
+		try {
+			return envio.get(tempoLimite, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			envio.cancel(true);
+			System.out.println("Autorizador sem resposta para a NFC-e " + nfce.getChave());
+			return null;
+		} catch (InterruptedException e) {
+			envio.cancel(true);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			System.out.println("Erro ao enviar a NFC-e " + nfce.getChave() + " " + e.getCause());
+			return null;
+		}
+	}
+
+	private static String tipoPagamento(Venda venda) {
+		if (venda.getPagamentotipo() == null || "00".equals(venda.getPagamentotipo().getFormaPagamento()))
+			return PAGAMENTO_DINHEIRO;
+
+		return PAGAMENTO_CREDITO_LOJA;
+	}
+
+	private static class Emissao {
+
+		private final NotaFiscal nota;
+		private final EmitenteNfce emitente;
+		private final String tipoPagamento;
+		private final NFCeAssinada nfce;
+
+		Emissao(NotaFiscal nota, EmitenteNfce emitente, String tipoPagamento, NFCeAssinada nfce) {
+			this.nota = nota;
+			this.emitente = emitente;
+			this.tipoPagamento = tipoPagamento;
+			this.nfce = nfce;
+		}
+
+	}
+
+}
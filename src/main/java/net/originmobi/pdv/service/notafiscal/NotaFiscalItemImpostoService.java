@@ -22,15 +22,8 @@ public class NotaFiscalItemImpostoService {
 			Double aliq_icms, Double vlIcms, String cst_pis, Double bc_pis, Double pis, Double vlPis, Double bc_cofins,
 			Double aliqCofins, Double vlCofins, int cst, int cst_ipi, Double vbc_ipi, Double p_ipi, Double v_ipi) {
 
-		String x = Character.toString(origin);
-		Integer orig = Integer.parseInt(x);
-
-		int vlCst_cofins = Integer.parseInt(cst_cofins);
-		int vlCst_pis = Integer.parseInt(cst_pis);
-
-		NotaFiscalItemImposto imposto = new NotaFiscalItemImposto(orig, vlCst_cofins, modBcIcms, bc_icms, aliq_icms,
-				vlIcms, vlCst_pis, bc_pis, pis, vlPis, bc_cofins, aliqCofins, vlCofins, cst, cst_ipi, vbc_ipi, p_ipi,
-				v_ipi);
+		NotaFiscalItemImposto imposto = novo(origin, cst_cofins, modBcIcms, bc_icms, aliq_icms, vlIcms, cst_pis,
+				bc_pis, pis, vlPis, bc_cofins, aliqCofins, vlCofins, cst, cst_ipi, vbc_ipi, p_ipi, v_ipi);
 
 		// se o código for diferente de null, se trata de uma atualização
 		if (codimposto != null)
@@ -48,10 +41,33 @@ public class NotaFiscalItemImpostoService {
 
 	public NotaFiscalItemImposto calcula(Long codimposto, Double vlTotal, TributacaoRegra regra, char origin,
 			int modBcIcms) {
+		// cadastra os impostos do produto
+		NotaFiscalItemImposto imposto = null;
+		try {
+			imposto = monta(vlTotal, regra, origin, modBcIcms);
+
+			// se o código for diferente de null, se trata de uma atualização
+			if (codimposto != null)
+				imposto.setCodigo(codimposto);
+
+			impostos.save(imposto);
+		} catch (Exception e) {
+			System.out.println(e);
+			throw new RuntimeException("erro ao calcular os impostos da nota");
+		}
+
+		return imposto;
+	}
+
+	/*
+	 * Calcula os impostos do item sem gravar, usado também na geração da nota
+	 * em lote
+	 */
+	public NotaFiscalItemImposto monta(Double vlTotal, TributacaoRegra regra, char origin, int modBcIcms) {
 		int cst_csosn = Integer.parseInt(regra.getCst_csosn().getCst_csosn());
 		Cst cst_cofins = regra.getCst_cofins();
 		String cst_pis = regra.getCst_pis().getCst();
-		
+
 		Double bc_icms = vlTotal;
 		Double aliq_icms = regra.getAliq_icms();
 		Double vlIcms = (vlTotal * aliq_icms) / 100;
@@ -69,17 +85,21 @@ public class NotaFiscalItemImpostoService {
 		Double aliqIPI = regra.getAliq_ipi();
 		Double vlIPI = (bcIPI * aliqIPI) / 100;
 
-		// cadastra os impostos do produto
-		NotaFiscalItemImposto imposto = null;
-		try {
-			imposto = merger(codimposto, origin, cst_cofins.getCst(), modBcIcms, bc_icms, aliq_icms, vlIcms, cst_pis,
-					bc_pis, pis, vlPis, bc_cofins, aliqCofins, vlCofins, cst_csosn, cst_ipi, bcIPI, aliqIPI, vlIPI);
-		} catch (Exception e) {
-			System.out.println(e);
-			throw new RuntimeException("erro ao calcular os impostos da nota");
-		}
+		return novo(origin, cst_cofins.getCst(), modBcIcms, bc_icms, aliq_icms, vlIcms, cst_pis, bc_pis, pis, vlPis,
+				bc_cofins, aliqCofins, vlCofins, cst_csosn, cst_ipi, bcIPI, aliqIPI, vlIPI);
+	}
 
-		return imposto;
+	private NotaFiscalItemImposto novo(char origin, String cst_cofins, int modBcIcms, Double bc_icms,
+			Double aliq_icms, Double vlIcms, String cst_pis, Double bc_pis, Double pis, Double vlPis, Double bc_cofins,
+			Double aliqCofins, Double vlCofins, int cst, int cst_ipi, Double vbc_ipi, Double p_ipi, Double v_ipi) {
+		String x = Character.toString(origin);
+		Integer orig = Integer.parseInt(x);
+
+		int vlCst_cofins = Integer.parseInt(cst_cofins);
+		int vlCst_pis = Integer.parseInt(cst_pis);
+
+		return new NotaFiscalItemImposto(orig, vlCst_cofins, modBcIcms, bc_icms, aliq_icms, vlIcms, vlCst_pis, bc_pis,
+				pis, vlPis, bc_cofins, aliqCofins, vlCofins, cst, cst_ipi, vbc_ipi, p_ipi, v_ipi);
 	}
 
 }
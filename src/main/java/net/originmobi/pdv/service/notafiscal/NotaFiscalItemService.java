@@ -16,10 +16,11 @@ import net.originmobi.pdv.model.NotaFiscalItem;
 import net.originmobi.pdv.model.NotaFiscalItemImposto;
 import net.originmobi.pdv.model.NotaFiscalTotais;
 import net.originmobi.pdv.model.Produto;
-import net.originmobi.pdv.model.Tributacao;
-import net.originmobi.pdv.model.TributacaoRegra;
 import net.originmobi.pdv.repository.notafiscal.NotaFiscalItemRepository;
 import net.originmobi.pdv.service.ProdutoService;
+import net.originmobi.pdv.service.TributacaoRegraIndice;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegraResolvida;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegrasDaTributacao;
 
 @Service
 public class NotaFiscalItemService {
@@ -39,17 +40,19 @@ public class NotaFiscalItemService {
 	@Autowired
 	private NotaFiscalService notas;
 
+	@Autowired
+	private TributacaoRegraIndice indiceRegras;
+
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	public String insere(Long prod, Long codnota, int qtd, NotaFiscalTipo tipo) {
 		Optional<Produto> produto = produtos.buscaProduto(prod);
 		Optional<NotaFiscal> notaFiscal = notas.busca(codnota);
 
-		verificaRegraDeTributacao(tipo, produto);
-
-		Tributacao tributacao = produto.map(Produto::getTributacao).get();
+		RegrasDaTributacao regras = verificaRegraDeTributacao(tipo, produto);
 
 		Long codImposto = null;
 		Long codNotaItem = null;
+		NotaFiscalItemTotais anterior = NotaFiscalItemTotais.ZERO;
 
 		// verifica se já tem o item
 		for (int i = 0; i < notaFiscal.map(NotaFiscal::getItens).get().size(); i++) {
@@ -58,10 +61,11 @@ public class NotaFiscalItemService {
 				qtd = qtd + notaFiscal.map(NotaFiscal::getItens).get().get(i).getQtd();
 				codImposto = notaFiscal.map(NotaFiscal::getItens).get().get(i).getImpostos().getCodigo();
 				codNotaItem = notaFiscal.map(NotaFiscal::getItens).get().get(i).getCodigo();
+				anterior = NotaFiscalItemTotais.de(notaFiscal.map(NotaFiscal::getItens).get().get(i));
 			}
 		}
 
-		char origin = tributacao.getRegra().get(0).getCst_csosn().getCst_csosn().toString().charAt(0);
+		char origin = regras.getOrigem();
 		Double vlTotal = produto.map(Produto::getValor_venda).get() * qtd;
 		String uniTribu = produto.map(Produto::getUnidade).get();
 		int modBcIcms = produto.map(Produto::getModBcIcms).get().getTipo();
@@ -71,30 +75,17 @@ public class NotaFiscalItemService {
 		String ufDestinatario = notaFiscal.map(NotaFiscal::getDestinatario).get().getEndereco().getCidade().getEstado()
 				.getSigla();
 
-		TributacaoRegra regra = null;
-
-		// pega a regra da tributação do produto que é da mesma uf do destinatário e do
-		// mesmo
-		// estilo da nota
-		for (int i = 0; i < produto.map(Produto::getTributacao).get().getRegra().size(); i++) {
-			String ufRegra = produto.map(Produto::getTributacao).get().getRegra().get(i).getUf().getSigla();
-			String tipoRegra = produto.map(Produto::getTributacao).get().getRegra().get(i).getTipo().toString();
-			String tipoNota = notaFiscal.map(NotaFiscal::getTipo).get().toString();
-
-			if (ufRegra.equals(ufDestinatario)) {
-				if (tipoRegra.equals(tipoNota)) {
-					regra = produto.map(Produto::getTributacao).get().getRegra().get(i);
-				}
-			}
-		}
+		// regra da tributação do produto para a uf do destinatário e o tipo da nota
+		RegraResolvida regra = regras.busca(ufDestinatario,
+				EntradaSaida.valueOf(notaFiscal.map(NotaFiscal::getTipo).get().name()));
 
 		if (regra == null)
 			throw new RuntimeException("Nenhuma regra de tributação cadastrada para a UF do destinatário");
 
-		String cfop = regra.getCfop().getCfop();
+		String cfop = regra.getCfop();
 
 		// calcula impostos da nota
-		NotaFiscalItemImposto imposto = impostos.calcula(codImposto, vlTotal, regra, origin, modBcIcms);
+		NotaFiscalItemImposto imposto = impostos.calcula(codImposto, vlTotal, regra.getRegra(), origin, modBcIcms);
 
 		// cria item da nota com imposto vinculado
 		NotaFiscalItem item = new NotaFiscalItem(prod, qtd, vlTotal, uniTribu, qtd, vlUnidade, notaFiscal.get(),
@@ -111,30 +102,34 @@ public class NotaFiscalItemService {
 			throw new RuntimeException("Erro ao salvar item na nota, chame o suporte");
 		}
 
-		// atualiza totais da nota
+		// soma nos totais somente a diferença do item
 		NotaFiscalTotais total = notaFiscal.get().getTotais();
-		Long codNota = notaFiscal.get().getCodigo();
-		totais.atualiza(codNota, total);
+		totais.soma(total, NotaFiscalItemTotais.de(item).menos(anterior));
 
 		return "ok";
 	}
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	public void remove(Long notaitem, Long codnota) {
-		
+		Optional<NotaFiscalItem> item = itemServer.findById(notaitem);
+		if (!item.isPresent() || !item.get().getNotaFiscal().getCodigo().equals(codnota))
+			throw new RuntimeException("Item não encontrado na nota, verifique");
+
+		// o imposto é removido junto com o item, a contribuição é guardada antes
+		NotaFiscalItemTotais removido = NotaFiscalItemTotais.de(item.get());
+		NotaFiscalTotais total = item.get().getNotaFiscal().getTotais();
+
 		try {
-			itemServer.deleteById(notaitem);
+			itemServer.delete(item.get());
 		} catch (Exception e) {
 			System.out.println(e);
 			throw new RuntimeException("Erro ao tentar remover o item da nota, chame o suporte");
 		}
-		
-		Optional<NotaFiscal> notaFiscal = notas.busca(codnota);
-		NotaFiscalTotais total = notaFiscal.get().getTotais();
-		totais.atualiza(codnota, total);
+
+		totais.soma(total, removido.negativo());
 	}
 
-	private void verificaRegraDeTributacao(NotaFiscalTipo tipo, Optional<Produto> produto) {
+	public RegrasDaTributacao verificaRegraDeTributacao(NotaFiscalTipo tipo, Optional<Produto> produto) {
 		if (!produto.isPresent())
 			throw new RuntimeException("Nenhum produto encontrado, favor verifique");
 
@@ -153,25 +148,16 @@ public class NotaFiscalItemService {
 
 		// verifica se a tributação do produto possue regra para o estilo de nota
 		// selecionado
+		RegrasDaTributacao regras = indiceRegras.daTributacao(produto.get().getTributacao().getCodigo());
 		if (tipo.equals(NotaFiscalTipo.SAIDA)) {
-			int aux = 0;
-			for (int i = 0; i < produto.map(Produto::getTributacao).get().getRegra().size(); i++) {
-				if (produto.map(Produto::getTributacao).get().getRegra().get(i).getTipo().equals(EntradaSaida.SAIDA))
-					aux = aux + 1;
-			}
-
-			if (aux == 0)
+			if (!regras.temTipo(EntradaSaida.SAIDA))
 				throw new RuntimeException("Tributação sem regra de saída, verifique");
 		} else {
-			int aux = 0;
-			for (int i = 0; i < produto.map(Produto::getTributacao).get().getRegra().size(); i++) {
-				if (produto.map(Produto::getTributacao).get().getRegra().get(i).getTipo().equals(EntradaSaida.ENTRADA))
-					aux = aux + 1;
-			}
-
-			if (aux == 0)
+			if (!regras.temTipo(EntradaSaida.ENTRADA))
 				throw new RuntimeException("Tributação sem regra de entrada, verifique");
 		}
+
+		return regras;
 	}
 
 	public List<Object> buscaItensNota(Long codigo) {
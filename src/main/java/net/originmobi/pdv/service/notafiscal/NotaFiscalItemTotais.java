@@ -0,0 +1,84 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import net.originmobi.pdv.model.NotaFiscalItem;
+import net.originmobi.pdv.model.NotaFiscalItemImposto;
+
+/**
+ * Quanto um item soma nos totais da nota, em centavos.
+ *
+ * Cada valor é arredondado no item, como sai no xml, assim o total da nota é
+ * sempre a soma dos itens.
+ */
+public final class NotaFiscalItemTotais {
+
+	public static final NotaFiscalItemTotais ZERO = new NotaFiscalItemTotais(0, 0, 0, 0, 0);
+
+	private final long produtos;
+	private final long icms;
+	private final long pis;
+	private final long cofins;
+	private final long ipi;
+
+	public NotaFiscalItemTotais(long produtos, long icms, long pis, long cofins, long ipi) {
+		this.produtos = produtos;
+		this.icms = icms;
+		this.pis = pis;
+		this.cofins = cofins;
+		this.ipi = ipi;
+	}
+
+	public static NotaFiscalItemTotais de(NotaFiscalItem item) {
+		NotaFiscalItemImposto imposto = item.getImpostos();
+		if (imposto == null)
+			return ZERO;
+
+		return new NotaFiscalItemTotais(centavos(item.getVlTotal()), centavos(imposto.getV_icms()),
+				centavos(imposto.getV_pis()), centavos(imposto.getV_cofins()), centavos(imposto.getV_ipi()));
+	}
+
+	public NotaFiscalItemTotais mais(NotaFiscalItemTotais outro) {
+		return new NotaFiscalItemTotais(produtos + outro.produtos, icms + outro.icms, pis + outro.pis,
+				cofins + outro.cofins, ipi + outro.ipi);
+	}
+
+	/*
+	 * Diferença entre este valor e o anterior do mesmo item
+	 */
+	public NotaFiscalItemTotais menos(NotaFiscalItemTotais anterior) {
+		return new NotaFiscalItemTotais(produtos - anterior.produtos, icms - anterior.icms, pis - anterior.pis,
+				cofins - anterior.cofins, ipi - anterior.ipi);
+	}
+
+	public NotaFiscalItemTotais negativo() {
+		return ZERO.menos(this);
+	}
+
+	public boolean isZero() {
+		return produtos == 0 && icms == 0 && pis == 0 && cofins == 0 && ipi == 0;
+	}
+
+	public long getProdutos() {
+		return produtos;
+	}
+
+	public long getIcms() {
+		return icms;
+	}
+
+	public long getPis() {
+		return pis;
+	}
+
+	public long getCofins() {
+		return cofins;
+	}
+
+	public long getIpi() {
+		return ipi;
+	}
+
+	private static long centavos(Double valor) {
+		return valor == null ? 0 : Math.round(valor * 100);
+	}
+
+}
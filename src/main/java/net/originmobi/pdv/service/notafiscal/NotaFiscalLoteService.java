@@ -0,0 +1,194 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
+import net.originmobi.pdv.xml.nfe.ConversorXmlNfe;
+import net.originmobi.pdv.xml.nfe.GeraXmlNfe;
+import net.originmobi.pdv.xml.nfe.NFeAssinada;
+
+/**
+ * Emissão de várias notas fiscais de uma vez.
+ *
+ * O xml de cada nota é gerado e assinado em paralelo em um pool limitado, as
+ * notas geradas são agrupadas em lotes de até TAMANHO_LOTE NFe por enviNFe.
+ * O xml de cada nota também fica gravado pela sua chave de acesso e cada
+ * lote é gravado em uma transação própria. Uma nota com erro não interrompe
+ * as demais, o resultado informa a situação de cada uma e o andamento é
+ * avisado a cada nota e a cada lote.
+ */
+@Service
+public class NotaFiscalLoteService {
+
+	public static final int TAMANHO_LOTE = 50;
+
+	@Autowired
+	private NotaFiscalRepository notasFiscais;
+
+	@Autowired
+	private NotaFiscalService notas;
+
+	@Autowired
+	private GeraXmlNfe geraXml;
+
+	@Autowired
+	private ArquivoXmlNfe arquivoXml;
+
+	@Autowired
+	private PlatformTransactionManager transacoes;
+
+	private final ForkJoinPool pool = new ForkJoinPool(
+			Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+	// o idLote deve ser único para o emissor, parte do horário do início
+	private final AtomicLong ultimoLote = new AtomicLong(System.currentTimeMillis() % 1000000000000000L);
+
+	@PreDestroy
+	public void encerra() {
+		pool.shutdown();
+	}
+
+	/*
+	 * Emite as notas informadas e devolve, por código, "ok" ou o motivo da
+	 * falha. Cada lote é gravado na sua própria transação
+	 */
+	public Map<Long, String> emitir(List<Long> codigos, Consumer<String> progresso) {
+		Consumer<String> aviso = mensagem -> {
+			synchronized (progresso) {
+				progresso.accept(mensagem);
+			}
+		};
+
+		Map<Long, String> situacao = new LinkedHashMap<>();
+		for (Long codigo : codigos)
+			situacao.put(codigo, "Nota fiscal não encontrada");
+
+		// as associações são carregadas aqui, as threads do pool não têm sessão
+		List<NotaFiscal> encontradas = notasFiscais.buscaParaXml(codigos);
+
+		List<NotaGerada> geradas;
+		try {
+			geradas = pool.submit(() -> encontradas.parallelStream().map(nota -> gera(nota, aviso))
+					.collect(Collectors.toList())).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Emissão das notas interrompida");
+		} catch (ExecutionException e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao emitir as notas, chame o suporte");
+		}
+
+		List<NotaGerada> lote = new ArrayList<>();
+		for (NotaGerada gerada : geradas) {
+			if (gerada.erro != null) {
+				situacao.put(gerada.nota.getCodigo(), gerada.erro);
+				continue;
+			}
+
+			lote.add(gerada);
+			if (lote.size() == TAMANHO_LOTE) {
+				gravaLote(lote, situacao, aviso);
+				lote = new ArrayList<>();
+			}
+		}
+
+		if (!lote.isEmpty())
+			gravaLote(lote, situacao, aviso);
+
+		return situacao;
+	}
+
+	private NotaGerada gera(NotaFiscal nota, Consumer<String> aviso) {
+		NotaGerada gerada = new NotaGerada(nota);
+		try {
+			gerada.nfe = geraXml.gerarNFe(nota);
+			aviso.accept("Nota " + nota.getCodigo() + " gerada");
+		} catch (Exception e) {
+			System.out.println("Erro ao gerar a nota " + nota.getCodigo() + " " + e);
+			// somente as mensagens lançadas pelo sistema são repassadas ao usuário
+			gerada.erro = e.getClass() == RuntimeException.class && e.getMessage() != null ? e.getMessage()
+					: "Erro ao gerar o xml da nota, verifique os dados";
+			aviso.accept("Nota " + nota.getCodigo() + ": " + gerada.erro);
+		}
+
+		return gerada;
+	}
+
+	/*
+	 * Grava o xml de cada nota pela sua chave e o enviNFe do lote, em seguida
+	 * grava as chaves na transação do próprio lote. Se o lote não for gravado
+	 * os xml são retirados e as notas do lote informadas com erro, os demais
+	 * lotes seguem normalmente
+	 */
+	private void gravaLote(List<NotaGerada> lote, Map<Long, String> situacao, Consumer<String> aviso) {
+		long idLote = ultimoLote.incrementAndGet();
+
+		try {
+			for (NotaGerada gerada : lote)
+				arquivoXml.grava(gerada.nfe.getChave(), gerada.nfe.getXml());
+
+			notas.salvaXML(
+					ConversorXmlNfe.lote(idLote, lote.stream().map(g -> g.nfe.getXml()).collect(Collectors.toList())),
+					"lote" + idLote);
+
+			new TransactionTemplate(transacoes).execute(status -> {
+				for (NotaGerada gerada : lote)
+					notasFiscais.atualizaChave(gerada.nota.getCodigo(), gerada.nfe.getChave());
+				return null;
+			});
+		} catch (RuntimeException e) {
+			System.out.println("Erro ao gravar o lote " + idLote + " " + e);
+
+			for (NotaGerada gerada : lote) {
+				arquivoXml.remove(gerada.nfe.getChave());
+				situacao.put(gerada.nota.getCodigo(), "Erro ao gravar o lote da nota, chame o suporte");
+			}
+			notas.removeXml("lote" + idLote);
+
+			aviso.accept("Lote " + idLote + " não gravado");
+			return;
+		}
+
+		for (NotaGerada gerada : lote) {
+			// xml da emissão anterior da nota
+			String anterior = gerada.nota.getChave_acesso();
+			if (anterior != null && !anterior.equals(gerada.nfe.getChave()))
+				notas.removeXml(anterior);
+
+			gerada.nota.setChave_acesso(gerada.nfe.getChave());
+			situacao.put(gerada.nota.getCodigo(), "ok");
+		}
+
+		aviso.accept("Lote " + idLote + " gravado com " + lote.size() + " notas");
+	}
+
+	private static class NotaGerada {
+
+		private final NotaFiscal nota;
+		private NFeAssinada nfe;
+		private String erro;
+
+		NotaGerada(NotaFiscal nota) {
+			this.nota = nota;
+		}
+
+	}
+
+}
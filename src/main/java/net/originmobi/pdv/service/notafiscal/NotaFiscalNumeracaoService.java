@@ -0,0 +1,333 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Numeração das notas fiscais por empresa, modelo e série.
+ *
+ * Cada instância reserva blocos de TAMANHO_BLOCO números avançando o contador
+ * da nota_fiscal_numeracao com um único update, em transação própria, e
+ * entrega os números do bloco a partir de um AtomicLong. Duas notas nunca
+ * recebem o mesmo número, nem na mesma instância nem em instâncias
+ * diferentes.
+ *
+ * Os blocos em uso ficam registrados com um identificador único da
+ * instância e são renovados a cada RENOVACAO. Um bloco é encerrado depois de
+ * esgotado, no desligamento ou, se a instância caiu, por qualquer instância
+ * depois de TEMPO_CONCESSAO sem renovação: os números que não viraram nota
+ * são gravados para inutilização e a sobra do bloco volta para o contador
+ * quando nenhum outro bloco foi reservado depois dele.
+ */
+@Service
+public class NotaFiscalNumeracaoService {
+
+	public static final int TAMANHO_BLOCO = 20;
+
+	// tempo para as notas em andamento de um bloco esgotado serem gravadas
+	private static final long TEMPO_ESGOTADO = 60 * 1000;
+
+	// um bloco sem renovação por TEMPO_CONCESSAO é de uma instância que caiu
+	private static final long RENOVACAO = 30 * 1000;
+	private static final int TEMPO_CONCESSAO = 5 * 60;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private PlatformTransactionManager transacoes;
+
+	private final String instancia = nomeInstancia();
+
+	private final Map<Chave, Bloco> blocos = new ConcurrentHashMap<>();
+
+	/*
+	 * Próximo número livre, reserva um novo bloco quando o atual se esgota
+	 */
+	public Long proximo(Long empresa, int modelo, int serie) {
+		Chave chave = new Chave(empresa, modelo, serie);
+
+		while (true) {
+			Bloco bloco = blocos.get(chave);
+			if (bloco != null) {
+				long numero = bloco.proximo.getAndIncrement();
+				if (numero <= bloco.numeroFinal)
+					return numero;
+			}
+
+			synchronized (this) {
+				if (blocos.get(chave) == bloco)
+					blocos.put(chave, reservaBloco(chave, bloco));
+			}
+		}
+	}
+
+	/*
+	 * Encerra os blocos sem renovação há mais de TEMPO_CONCESSAO. O bloco é
+	 * assumido por esta instância antes, assim somente uma instância o encerra
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(fixedDelay = 60000)
+	public void recupera() {
+		for (Bloco bloco : blocosAbertos(
+				"select empresa_codigo, modelo, serie, numero_inicial, numero_final from nota_fiscal_numeracao_bloco "
+						+ "where data_renovacao < date_sub(now(), interval ? second)",
+				TEMPO_CONCESSAO)) {
+			Chave chave = bloco.chave;
+			int assumido = jdbc.update("update nota_fiscal_numeracao_bloco set instancia = ?, data_renovacao = now() "
+					+ "where empresa_codigo = ? and modelo = ? and serie = ? and numero_inicial = ? "
+					+ "and data_renovacao < date_sub(now(), interval ? second)", instancia, chave.empresa,
+					chave.modelo, chave.serie, bloco.numeroInicial, TEMPO_CONCESSAO);
+
+			if (assumido == 1)
+				encerra(bloco, null);
+		}
+	}
+
+	/*
+	 * Renova os blocos desta instância. Um bloco que não está mais com ela
+	 * (a instância ficou parada além da concessão e outra o encerrou) deixa
+	 * de entregar números
+	 */
+	@Scheduled(fixedDelay = RENOVACAO)
+	public void renova() {
+		long inicio = System.currentTimeMillis();
+		jdbc.update("update nota_fiscal_numeracao_bloco set data_renovacao = now() where instancia = ?", instancia);
+
+		List<Bloco> daInstancia = blocosAbertos(
+				"select empresa_codigo, modelo, serie, numero_inicial, numero_final from nota_fiscal_numeracao_bloco "
+						+ "where instancia = ?",
+				instancia);
+
+		blocos.forEach((chave, bloco) -> {
+			// bloco reservado durante a renovação ainda pode não aparecer
+			if (bloco.reservadoEm >= inicio)
+				return;
+
+			boolean registrado = daInstancia.stream()
+					.anyMatch(b -> b.chave.equals(chave) && b.numeroInicial == bloco.numeroInicial);
+			if (!registrado && blocos.remove(chave, bloco))
+				System.out.println("Bloco de numeração " + bloco.numeroInicial + " encerrado por outra instância");
+		});
+	}
+
+	/*
+	 * Encerra os blocos esgotados há mais de TEMPO_ESGOTADO
+	 */
+	@Scheduled(fixedDelay = 60000)
+	public void encerraEsgotados() {
+		Timestamp limite = new Timestamp(System.currentTimeMillis() - TEMPO_ESGOTADO);
+
+		for (Bloco bloco : blocosAbertos(
+				"select empresa_codigo, modelo, serie, numero_inicial, numero_final from nota_fiscal_numeracao_bloco "
+						+ "where instancia = ? and data_esgotado < ?",
+				instancia, limite)) {
+			encerra(bloco, bloco.numeroFinal + 1);
+		}
+	}
+
+	/*
+	 * No desligamento devolve ao contador os números ainda não entregues
+	 */
+	@PreDestroy
+	public void desliga() {
+		blocos.forEach((chave, bloco) -> {
+			if (!blocos.remove(chave, bloco))
+				return;
+
+			try {
+				encerra(bloco, Math.min(bloco.proximo.get(), bloco.numeroFinal + 1));
+			} catch (Exception e) {
+				// fica para a próxima inicialização
+				System.out.println("Erro ao encerrar o bloco de numeração " + bloco.numeroInicial + " " + e);
+			}
+		});
+	}
+
+	private Bloco reservaBloco(Chave chave, Bloco esgotado) {
+		TransactionTemplate transacao = new TransactionTemplate(transacoes);
+		transacao.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		Bloco reservado = transacao.execute(status -> {
+			Timestamp agora = new Timestamp(System.currentTimeMillis());
+
+			if (esgotado != null)
+				jdbc.update("update nota_fiscal_numeracao_bloco set data_esgotado = ? where empresa_codigo = ? and modelo = ? "
+						+ "and serie = ? and numero_inicial = ?", agora, chave.empresa, chave.modelo, chave.serie,
+						esgotado.numeroInicial);
+
+			String avanca = "update nota_fiscal_numeracao set proximo_numero = proximo_numero + ? "
+					+ "where empresa_codigo = ? and modelo = ? and serie = ?";
+
+			// primeira nota da série, o contador parte da maior nota já cadastrada
+			if (jdbc.update(avanca, TAMANHO_BLOCO, chave.empresa, chave.modelo, chave.serie) == 0) {
+				jdbc.update("insert ignore into nota_fiscal_numeracao (empresa_codigo, modelo, serie, proximo_numero) "
+						+ "select ?, ?, ?, coalesce(max(numero), 0) + 1 from nota_fiscal where emissor_codigo = ? "
+						+ "and modelo = ? and serie = ?", chave.empresa, chave.modelo, chave.serie, chave.empresa,
+						chave.modelo, chave.serie);
+				jdbc.update(avanca, TAMANHO_BLOCO, chave.empresa, chave.modelo, chave.serie);
+			}
+
+			// a linha fica bloqueada pelo update até o fim da transação
+			Long proximo = jdbc.queryForObject(
+					"select proximo_numero from nota_fiscal_numeracao where empresa_codigo = ? and modelo = ? and serie = ?",
+					Long.class, chave.empresa, chave.modelo, chave.serie);
+
+			Bloco bloco = new Bloco(chave, proximo - TAMANHO_BLOCO, proximo - 1);
+			jdbc.update("insert into nota_fiscal_numeracao_bloco (empresa_codigo, modelo, serie, numero_inicial, "
+					+ "numero_final, instancia, data_reserva) values (?, ?, ?, ?, ?, ?, ?)", chave.empresa, chave.modelo,
+					chave.serie, bloco.numeroInicial, bloco.numeroFinal, instancia, agora);
+
+			return bloco;
+		});
+
+		reservado.reservadoEm = System.currentTimeMillis();
+		return reservado;
+	}
+
+	/*
+	 * Grava para inutilização os números entregues que não viraram nota e
+	 * devolve ao contador os não entregues, quando não é conhecido o primeiro
+	 * não entregue considera o seguinte à maior nota do bloco
+	 */
+	private void encerra(Bloco bloco, Long naoEntregue) {
+		TransactionTemplate transacao = new TransactionTemplate(transacoes);
+		transacao.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		transacao.execute(status -> {
+			Chave chave = bloco.chave;
+			List<Long> emitidas = jdbc.queryForList(
+					"select numero from nota_fiscal where emissor_codigo = ? and modelo = ? and serie = ? "
+							+ "and numero between ? and ?",
+					Long.class, chave.empresa, chave.modelo, chave.serie, bloco.numeroInicial, bloco.numeroFinal);
+
+			BitSet usados = new BitSet();
+			long maior = bloco.numeroInicial - 1;
+			for (Long numero : emitidas) {
+				usados.set((int) (numero - bloco.numeroInicial));
+				maior = Math.max(maior, numero);
+			}
+
+			long primeiroLivre = naoEntregue != null ? Math.max(naoEntregue, maior + 1) : maior + 1;
+
+			// sequências de números entregues sem nota
+			long faltaDesde = -1;
+			for (long numero = bloco.numeroInicial; numero < primeiroLivre; numero++) {
+				boolean usado = usados.get((int) (numero - bloco.numeroInicial));
+				if (!usado && faltaDesde < 0) {
+					faltaDesde = numero;
+				} else if (usado && faltaDesde >= 0) {
+					inutiliza(chave, faltaDesde, numero - 1);
+					faltaDesde = -1;
+				}
+			}
+
+			if (faltaDesde >= 0)
+				inutiliza(chave, faltaDesde, primeiroLivre - 1);
+
+			if (primeiroLivre <= bloco.numeroFinal) {
+				int devolvido = jdbc.update(
+						"update nota_fiscal_numeracao set proximo_numero = ? where empresa_codigo = ? and modelo = ? "
+								+ "and serie = ? and proximo_numero = ?",
+						primeiroLivre, chave.empresa, chave.modelo, chave.serie, bloco.numeroFinal + 1);
+
+				if (devolvido == 0)
+					inutiliza(chave, primeiroLivre, bloco.numeroFinal);
+			}
+
+			jdbc.update("delete from nota_fiscal_numeracao_bloco where empresa_codigo = ? and modelo = ? and serie = ? "
+					+ "and numero_inicial = ?", chave.empresa, chave.modelo, chave.serie, bloco.numeroInicial);
+			return null;
+		});
+	}
+
+	private void inutiliza(Chave chave, long inicial, long fim) {
+		jdbc.update("insert into nota_fiscal_inutilizacao (empresa_codigo, modelo, serie, numero_inicial, numero_final, "
+				+ "data_cadastro) values (?, ?, ?, ?, ?, ?)", chave.empresa, chave.modelo, chave.serie, inicial, fim,
+				new Timestamp(System.currentTimeMillis()));
+	}
+
+	private List<Bloco> blocosAbertos(String sql, Object... parametros) {
+		return jdbc.query(sql, (rs, linha) -> new Bloco(
+				new Chave(rs.getLong("empresa_codigo"), rs.getInt("modelo"), rs.getInt("serie")),
+				rs.getLong("numero_inicial"), rs.getLong("numero_final")), parametros);
+	}
+
+	// o nome da máquina identifica a instância para o suporte, o UUID
+	// diferencia duas instâncias na mesma máquina
+	private static String nomeInstancia() {
+		String maquina;
+		try {
+			maquina = InetAddress.getLocalHost().getHostName();
+		} catch (Exception e) {
+			maquina = "pdv";
+		}
+
+		return maquina + "-" + UUID.randomUUID();
+	}
+
+	private static class Chave {
+
+		private final Long empresa;
+		private final int modelo;
+		private final int serie;
+
+		Chave(Long empresa, int modelo, int serie) {
+			this.empresa = empresa;
+			this.modelo = modelo;
+			this.serie = serie;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Chave))
+				return false;
+
+			Chave outra = (Chave) o;
+			return Objects.equals(empresa, outra.empresa) && modelo == outra.modelo && serie == outra.serie;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(empresa, modelo, serie);
+		}
+
+	}
+
+	private static class Bloco {
+
+		private final Chave chave;
+		private final long numeroInicial;
+		private final long numeroFinal;
+		private final AtomicLong proximo;
+		private volatile long reservadoEm;
+
+		Bloco(Chave chave, long numeroInicial, long numeroFinal) {
+			this.chave = chave;
+			this.numeroInicial = numeroInicial;
+			this.numeroFinal = numeroFinal;
+			this.proximo = new AtomicLong(numeroInicial);
+		}
+
+	}
+
+}
@@ -1,13 +1,11 @@
 package net.originmobi.pdv.service.notafiscal;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Date;
 import java.time.LocalDate;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,7 +23,9 @@ import net.originmobi.pdv.model.NotaFiscalTotais;
 import net.originmobi.pdv.model.Pessoa;
 import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
 import net.originmobi.pdv.service.EmpresaService;
+import net.originmobi.pdv.service.MetricasPainelService;
 import net.originmobi.pdv.service.PessoaService;
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
 import net.originmobi.pdv.xml.nfe.GeraXmlNfe;
 
 @Service
@@ -43,9 +43,22 @@ public class NotaFiscalService {
 	@Autowired
 	private PessoaService pessoas;
 
+	@Autowired
+	private NotaFiscalNumeracaoService numeracao;
+
+	@Autowired
+	private ArquivoXmlNfe arquivoXml;
+
+	@Autowired
+	private GeraXmlNfe geraXmlNfe;
+
+	@Autowired
+	private MetricasPainelService metricas;
+
 	private LocalDate dataAtual;
 
-	private static final String CAMINHO_XML = "/src/main/resources/xmlNfe/";
+	public static final int MODELO_NFE = 55;
+	public static final int MODELO_NFCE = 65;
 
 	//Busca todas as notas fiscais cadastradas no banco de dados.
 	public List<NotaFiscal> lista() {
@@ -55,6 +68,12 @@ public class NotaFiscalService {
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	//cadastra nota fiscal, validando e preparando dados
 	public String cadastrar(Long coddesti, String natureza, NotaFiscalTipo tipo) {
+		return cadastrar(coddesti, natureza, tipo, MODELO_NFE);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	//cadastra nota fiscal do modelo informado, 55 para NF-e e 65 para NFC-e
+	public String cadastrar(Long coddesti, String natureza, NotaFiscalTipo tipo, int modelo) {
 
 		//instancia 
 		Optional<Empresa> empresa = empresas.verificaEmpresaCadastrada();
@@ -72,11 +91,11 @@ public class NotaFiscalService {
 		frete.setCodigo(4L);
 		NotaFiscalFinalidade finalidade = new NotaFiscalFinalidade();
 		finalidade.setCodigo(1L);
-		int modelo = 55;
-		int serie = empresa.map(Empresa::getParametro).get().getSerie_nfe();
+		Integer serie = modelo == MODELO_NFCE ? empresa.map(Empresa::getParametro).get().getSerie_nfce()
+				: Integer.valueOf(empresa.map(Empresa::getParametro).get().getSerie_nfe());
 
-		if (empresa.map(Empresa::getParametro).get().getSerie_nfe() == 0)
-			throw new RuntimeException("Não existe série cadastrada para o modelo 55, verifique");
+		if (serie == null || serie == 0)
+			throw new RuntimeException("Não existe série cadastrada para o modelo " + modelo + ", verifique");
 
 		// opção 1 é emissão normal, as outras opções (2, 3, 4, 5) são para contigência
 		int tipoEmissao = 1;
@@ -96,13 +115,14 @@ public class NotaFiscalService {
 		// cadastra a nota fiscal
 		NotaFiscal nota = null;
 		try {
-			// pega ultima nota cadastradas + 1
-			Long numeroNota = notasFiscais.buscaUltimaNota(serie);
+			// próximo número do bloco reservado para a série
+			Long numeroNota = numeracao.proximo(empresa.get().getCodigo(), modelo, serie);
 
 			NotaFiscal notaFiscal = new NotaFiscal(numeroNota, modelo, tipo, natureza, serie, empresa.get(),
 					pessoa.get(), tipoEmissao, verProc, frete, finalidade, totais, tipoAmbiente, cadastro);
 
 			nota = notasFiscais.save(notaFiscal);
+			metricas.notaEmitida();
 
 		} catch (Exception e) {
 			System.out.println("Erro " + e);
@@ -132,48 +152,27 @@ public class NotaFiscalService {
 		}
 	}
 
-	//Salva o XML da nota fiscal no diretório 
-	//O arquivo é nomeado com a chave da NF-e (chaveNfe.xml) -- Exemplo: 123456789.xml.
+	//Salva o XML da nota fiscal no arquivo de xml, indexado pela chave da NF-e
 	public void salvaXML(String xml, String chaveNfe) {
-		Path DIRETORIO;
-		String contexto = "";
-
-		try {
-			contexto = new File(".").getCanonicalPath();
-		} catch (Exception e) {
-			System.out.println("Erro ao pegar o contexto " + e);
-		}
-
-		DIRETORIO = Paths.get(contexto + CAMINHO_XML);
-
-		try {
-			PrintWriter out = new PrintWriter(new FileWriter(DIRETORIO.toString() + "/" + chaveNfe + ".xml"));
-			out.write(xml);
-			out.close();
-			System.out.println("Arquivo gravado com sucesso em " + DIRETORIO.toString());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		arquivoXml.grava(chaveNfe, xml.getBytes(StandardCharsets.UTF_8));
 	}
 
 	//responsável por remover o xml quando o mesmo já existe na nota que foi regerada
 	public void removeXml(String chave_acesso) {
-		String contexto = "";
+		arquivoXml.remove(chave_acesso);
+	}
 
-		try {
-			contexto = new File(".").getCanonicalPath();
-		} catch (Exception e) {
-			System.out.println("Erro ao pegar o contexto " + e);
-		}
+	//Busca o XML gravado para a chave da NF-e
+	public Optional<String> buscaXml(String chave_acesso) {
+		return arquivoXml.busca(chave_acesso).map(xml -> new String(xml, StandardCharsets.UTF_8));
+	}
 
-		try {
-			File file = new File(contexto + CAMINHO_XML + "/" + chave_acesso + ".xml");
-			System.out.println("XML para deletar " + file.toString());
-			if (file.exists())
-				file.delete();
-		} catch (Exception e) {
-			System.out.println("Erro ao deletar XML " + e);
-		}
+	//Exporta em zip os XML gravados no período, retorna a quantidade exportada
+	public int exportaXml(LocalDate inicio, LocalDate fim, OutputStream saida) throws IOException {
+		if (fim.isBefore(inicio))
+			throw new RuntimeException("Data final anterior à data inicial, verifique");
+
+		return arquivoXml.exporta(inicio, fim, saida);
 	}
 
 	//Consulta uma nota fiscal pelo código/ID.
@@ -183,15 +182,22 @@ public class NotaFiscalService {
 
 	//Responsável por gerar o XML oficial da NF-e
 	public void emitir(NotaFiscal notaFiscal) {
-		GeraXmlNfe geraXmlNfe = new GeraXmlNfe();
+		// recarrega a nota com tudo o que o xml usa, evitando uma consulta por associação
+		NotaFiscal nota = notasFiscais.buscaParaXml(Collections.singletonList(notaFiscal.getCodigo())).stream()
+				.findFirst().orElseThrow(() -> new RuntimeException("Nota fiscal não encontrada"));
+
+		// confere os totais mantidos item a item com a soma dos itens
+		if (!notaTotais.recalcula(nota.getCodigo(), nota.getTotais()))
+			System.out.println("Totais da nota " + nota.getCodigo() + " corrigidos pela soma dos itens");
 
 		// gera o xml e pega a chave de acesso do mesmo
-		String chaveNfe = geraXmlNfe.gerarXML(notaFiscal);
+		String chaveNfe = geraXmlNfe.gerarXML(nota);
 
 		// seta a chave de acesso na nota fiscal para grava-la no banco
+		nota.setChave_acesso(chaveNfe);
 		notaFiscal.setChave_acesso(chaveNfe);
 
-		notasFiscais.save(notaFiscal);
+		notasFiscais.save(nota);
 	}
 
 	//Retorna o total de notas fiscais emitidas (contagem do repositório).
@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import net.originmobi.pdv.model.NotaFiscalTotais;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalTotaisCalculo;
 import net.originmobi.pdv.repository.notafiscal.NotaFiscalTotaisRepository;
 
 @Service
@@ -22,17 +23,48 @@ public class NotaFiscalTotaisServer {
 		return totais.save(total);
 	}
 
-	public void atualiza(Long codNota, NotaFiscalTotais total) {
-		System.out.println("codnota " + codNota);
-		System.out.println("totais " + total.getCodigo());
-		String[] array = totais.calcula(codNota).split(",");
-		
-		Double totalProdutos = Double.valueOf(array[0]);
-		Double totalIcms = Double.valueOf(array[1]);
-		Double totalPis = Double.valueOf(array[2]);
-		Double totalCofins = Double.valueOf(array[3]);
-		Double totalIpi = Double.valueOf(array[4]);
-		Double totalNota = totalProdutos + totalIpi;
+	/*
+	 * Aplica nos totais somente a diferença do item incluído, alterado ou
+	 * removido, sem somar novamente os demais itens da nota
+	 */
+	public void soma(NotaFiscalTotais total, NotaFiscalItemTotais diferenca) {
+		if (diferenca.isZero())
+			return;
+
+		int atualizado;
+		try {
+			atualizado = totais.soma(total.getCodigo(), diferenca.getProdutos(), diferenca.getIcms(),
+					diferenca.getPis(), diferenca.getCofins(), diferenca.getIpi());
+		} catch (Exception e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao salvar item na nota, chame o suporte");
+		}
+
+		if (atualizado == 0)
+			throw new RuntimeException("Totais da nota não encontrados, chame o suporte");
+	}
+
+	/*
+	 * Soma novamente todos os itens da nota e corrige os totais, retorna false
+	 * quando os totais gravados estavam diferentes da soma dos itens
+	 */
+	public boolean recalcula(Long codNota, NotaFiscalTotais total) {
+		NotaFiscalTotaisCalculo calculo = totais.calcula(codNota);
+
+		Double totalProdutos = reais(calculo.getProdutos());
+		Double totalIcms = reais(calculo.getIcms());
+		Double totalPis = reais(calculo.getPis());
+		Double totalCofins = reais(calculo.getCofins());
+		Double totalIpi = reais(calculo.getIpi());
+		Double totalNota = reais(calculo.getProdutos().longValue() + calculo.getIpi().longValue());
+
+		boolean conferido = totalProdutos.equals(total.getV_prod()) && totalProdutos.equals(total.getV_bc())
+				&& totalIcms.equals(total.getV_icms()) && totalPis.equals(total.getV_pis())
+				&& totalCofins.equals(total.getV_cofins()) && totalIpi.equals(total.getV_ipi())
+				&& totalNota.equals(total.getV_nf());
+
+		if (conferido)
+			return true;
 
 		total.setV_bc(totalProdutos);
 		total.setV_prod(totalProdutos);
@@ -48,6 +80,12 @@ public class NotaFiscalTotaisServer {
 			System.out.println(e);
 			throw new RuntimeException("Erro ao salvar item na nota, chame o suporte");
 		}
+
+		return false;
+	}
+
+	private static Double reais(Number centavos) {
+		return centavos.longValue() / 100.0;
 	}
 
 }
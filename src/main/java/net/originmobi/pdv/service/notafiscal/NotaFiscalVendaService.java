@@ -0,0 +1,235 @@
+package net.originmobi.pdv.service.notafiscal;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import net.originmobi.pdv.enumerado.EntradaSaida;
+import net.originmobi.pdv.enumerado.VendaSituacao;
+import net.originmobi.pdv.enumerado.notafiscal.NotaFiscalTipo;
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.model.NotaFiscalItem;
+import net.originmobi.pdv.model.NotaFiscalItemImposto;
+import net.originmobi.pdv.model.NotaFiscalTotais;
+import net.originmobi.pdv.model.Produto;
+import net.originmobi.pdv.model.Venda;
+import net.originmobi.pdv.repository.ProdutoRepository;
+import net.originmobi.pdv.repository.VendaRepository;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegraResolvida;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegrasDaTributacao;
+import net.originmobi.pdv.service.VendaProdutoService;
+
+/**
+ * Gera a nota fiscal de uma venda fechada de uma só vez.
+ *
+ * Os produtos da venda são lidos juntos, as regras de tributação vêm do
+ * índice e os impostos de todos os itens são calculados em memória. Impostos
+ * e itens são gravados em lote e os totais da nota são atualizados uma única
+ * vez com a soma dos itens. A mesma geração atende a NF-e e a NFC-e.
+ */
+@Service
+public class NotaFiscalVendaService {
+
+	public static final String NATUREZA_VENDA = "Venda de mercadoria";
+
+	@Autowired
+	private VendaRepository vendas;
+
+	@Autowired
+	private VendaProdutoService vendaProdutos;
+
+	@Autowired
+	private ProdutoRepository produtos;
+
+	@Autowired
+	private NotaFiscalService notas;
+
+	@Autowired
+	private NotaFiscalItemService itens;
+
+	@Autowired
+	private NotaFiscalItemImpostoService impostos;
+
+	@Autowired
+	private NotaFiscalTotaisServer totais;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	/*
+	 * Cadastra a nota de saída da venda para o destinatário e retorna o código
+	 * da nota
+	 */
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public String gerar(Long codVenda, Long coddesti) {
+		return gerarNota(codVenda, coddesti, NotaFiscalService.MODELO_NFE).getCodigo().toString();
+	}
+
+	/*
+	 * Cadastra a nota do modelo informado e a devolve com os itens e os totais
+	 * em memória, prontos para gerar o xml sem consultar a nota novamente. Sem
+	 * destinatário informado a nota vai para o cliente da venda
+	 */
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public NotaFiscal gerarNota(Long codVenda, Long coddesti, int modelo) {
+		Optional<Venda> venda = vendas.findById(codVenda);
+		if (!venda.isPresent())
+			throw new RuntimeException("Venda não encontrada, verifique");
+
+		if (venda.get().getSituacao() != VendaSituacao.FECHADA)
+			throw new RuntimeException("Somente venda fechada pode gerar nota fiscal");
+
+		if (coddesti == null)
+			coddesti = venda.get().getPessoa().getCodigo();
+
+		List<Object[]> linhas = vendaProdutos.qtdProdutoPorPreco(codVenda);
+		if (linhas.isEmpty())
+			throw new RuntimeException("Venda sem produtos, verifique");
+
+		List<Long> codProdutos = linhas.stream().map(l -> ((Number) l[0]).longValue()).distinct()
+				.collect(Collectors.toList());
+		Map<Long, Produto> produtosDaVenda = produtos.findAllById(codProdutos).stream()
+				.collect(Collectors.toMap(Produto::getCodigo, Function.identity()));
+
+		String codNota = notas.cadastrar(coddesti, NATUREZA_VENDA, NotaFiscalTipo.SAIDA, modelo);
+		NotaFiscal nota = notas.busca(Long.decode(codNota)).get();
+		String ufDestinatario = nota.getDestinatario().getEndereco().getCidade().getEstado().getSigla();
+
+		List<NotaFiscalItem> novos = new ArrayList<>();
+		NotaFiscalItemTotais soma = NotaFiscalItemTotais.ZERO;
+
+		for (Object[] linha : linhas) {
+			Long codProduto = ((Number) linha[0]).longValue();
+			Optional<Produto> produto = Optional.ofNullable(produtosDaVenda.get(codProduto));
+			RegrasDaTributacao regras = itens.verificaRegraDeTributacao(NotaFiscalTipo.SAIDA, produto);
+
+			RegraResolvida regra = regras.busca(ufDestinatario, EntradaSaida.SAIDA);
+			if (regra == null)
+				throw new RuntimeException("Nenhuma regra de tributação cadastrada para a UF do destinatário no produto "
+						+ codProduto);
+
+			int qtd = ((Number) linha[2]).intValue();
+			long unitario = Math.round(((Number) linha[1]).doubleValue() * 100);
+			Double vlUnidade = unitario / 100.0;
+			Double vlTotal = unitario * qtd / 100.0;
+
+			NotaFiscalItemImposto imposto;
+			try {
+				imposto = impostos.monta(vlTotal, regra.getRegra(), regras.getOrigem(),
+						produto.get().getModBcIcms().getTipo());
+			} catch (Exception e) {
+				System.out.println(e);
+				throw new RuntimeException("erro ao calcular os impostos da nota");
+			}
+
+			NotaFiscalItem item = new NotaFiscalItem(codProduto, qtd, vlTotal, produto.get().getUnidade(), qtd,
+					vlUnidade, nota, imposto, regra.getCfop());
+			novos.add(item);
+			soma = soma.mais(NotaFiscalItemTotais.de(item));
+		}
+
+		try {
+			List<Long> codImpostos = insereImpostos(novos);
+			insereItens(nota.getCodigo(), novos, codImpostos);
+		} catch (Exception e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao salvar item na nota, chame o suporte");
+		}
+
+		totais.soma(nota.getTotais(), soma);
+
+		// a nota foi criada nesta transação com os totais zerados, ninguém mais
+		// altera os seus totais e os valores em memória ficam iguais aos gravados
+		NotaFiscalTotais total = nota.getTotais();
+		total.setV_bc(soma.getProdutos() / 100.0);
+		total.setV_prod(soma.getProdutos() / 100.0);
+		total.setV_icms(soma.getIcms() / 100.0);
+		total.setV_pis(soma.getPis() / 100.0);
+		total.setV_cofins(soma.getCofins() / 100.0);
+		total.setV_ipi(soma.getIpi() / 100.0);
+		total.setV_nf((soma.getProdutos() + soma.getIpi()) / 100.0);
+		nota.setItens(novos);
+
+		return nota;
+	}
+
+	private List<Long> insereImpostos(List<NotaFiscalItem> novos) {
+		return jdbc.execute((ConnectionCallback<List<Long>>) con -> {
+			try (PreparedStatement ps = con.prepareStatement("insert into nota_fiscal_item_imposto (orig, cst, mod_bc, "
+					+ "v_bc, p_icms, v_icms, cst_pis, vbc_pis, p_pis, v_pis, cst_cofins, vbc_cofins, p_cofins, v_cofins, "
+					+ "cst_ipi, vbc_ipi, p_ipi, v_ipi) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+					Statement.RETURN_GENERATED_KEYS)) {
+
+				for (NotaFiscalItem item : novos) {
+					NotaFiscalItemImposto i = item.getImpostos();
+					ps.setInt(1, i.getOrig());
+					ps.setInt(2, i.getCst());
+					ps.setInt(3, i.getMod_bc());
+					valor(ps, 4, i.getV_bc());
+					valor(ps, 5, i.getP_icms());
+					valor(ps, 6, i.getV_icms());
+					ps.setInt(7, i.getCst_pis());
+					valor(ps, 8, i.getVbc_pis());
+					valor(ps, 9, i.getP_pis());
+					valor(ps, 10, i.getV_pis());
+					ps.setInt(11, i.getCst_cofins());
+					valor(ps, 12, i.getVbc_cofins());
+					valor(ps, 13, i.getP_cofins());
+					valor(ps, 14, i.getV_cofins());
+					ps.setInt(15, i.getCst_ipi());
+					valor(ps, 16, i.getVbc_ipi());
+					valor(ps, 17, i.getP_ipi());
+					valor(ps, 18, i.getV_ipi());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+
+				List<Long> codigos = new ArrayList<>();
+				try (ResultSet rs = ps.getGeneratedKeys()) {
+					while (rs.next())
+						codigos.add(rs.getLong(1));
+				}
+
+				if (codigos.size() != novos.size())
+					throw new IllegalStateException("Códigos gerados " + codigos.size() + " de " + novos.size());
+
+				return codigos;
+			}
+		});
+	}
+
+	private void insereItens(Long codNota, List<NotaFiscalItem> novos, List<Long> codImpostos) {
+		List<Object[]> parametros = new ArrayList<>();
+		for (int i = 0; i < novos.size(); i++) {
+			NotaFiscalItem item = novos.get(i);
+			parametros.add(new Object[] { item.getCodProd(), item.getQtd(), item.getVlTotal(), item.getUnidade_tribu(),
+					item.getQtd_tribu(), item.getV_uniTribu(), codNota, codImpostos.get(i), item.getCfop() });
+		}
+
+		jdbc.batchUpdate("insert into nota_fiscal_item (cod_prod, qtd, vl_total, unidade_tribu, qtd_tribu, vl_uni_tribu, "
+				+ "nota_fiscal_codigo, imposto_codigo, cfop) values (?, ?, ?, ?, ?, ?, ?, ?, ?)", parametros);
+	}
+
+	private static void valor(PreparedStatement ps, int posicao, Double valor) throws SQLException {
+		if (valor == null)
+			ps.setNull(posicao, Types.DOUBLE);
+		else
+			ps.setDouble(posicao, valor);
+	}
+
+}
@@ -0,0 +1,572 @@
+package net.originmobi.pdv.xml.nfe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Arquivo dos xml das notas fiscais em segmentos só de acréscimo.
+ *
+ * Cada xml é gravado comprimido no fim do segmento atual, com a chave, a
+ * data de gravação e um CRC. Um índice em memória aponta cada chave para o
+ * segmento e a posição do seu último registro, a remoção grava um registro
+ * de remoção. Ao atingir TAMANHO_SEGMENTO o segmento é fechado e o seu índice
+ * gravado ao lado, na abertura os segmentos fechados carregam o índice e só
+ * o segmento atual é percorrido, descartando um registro incompleto do fim.
+ * A leitura é feita sobre o segmento mapeado em memória.
+ *
+ * Os xml soltos encontrados no diretório, gravados antes do arquivo, são
+ * incluídos no arquivo e apagados na abertura.
+ *
+ * O arquivo tem um único escritor: na abertura é feita a trava do arquivo
+ * TRAVA no diretório e outra instância usando o mesmo diretório falha em vez
+ * de gravar sobre os registros desta.
+ */
+@Component
+public class ArquivoXmlNfe {
+
+	public static final int TAMANHO_SEGMENTO = 64 * 1024 * 1024;
+
+	private static final int MARCA = 0x4E464531;
+	private static final int CABECALHO = 27;
+	private static final byte XML = 0;
+	private static final byte REMOVIDO = 1;
+	private static final String TRAVA = "arquivo.lock";
+
+	private final Path diretorio;
+	private final int tamanhoSegmento;
+
+	private final Map<String, Posicao> indice = new ConcurrentHashMap<>();
+	private final Map<Integer, Segmento> segmentos = new ConcurrentHashMap<>();
+	private Segmento atual;
+	private FileChannel canalTrava;
+	private FileLock trava;
+	private volatile boolean aberto;
+
+	@Autowired
+	public ArquivoXmlNfe(@Value("${nfe.xml.diretorio:${user.dir}/xmlNfe}") String diretorio) {
+		this(Paths.get(diretorio), TAMANHO_SEGMENTO);
+	}
+
+	public ArquivoXmlNfe(Path diretorio, int tamanhoSegmento) {
+		this.diretorio = diretorio;
+		this.tamanhoSegmento = tamanhoSegmento;
+	}
+
+	/*
+	 * Grava o xml da chave, substituindo o anterior
+	 */
+	public void grava(String chave, byte[] xml) {
+		grava(chave, xml, System.currentTimeMillis());
+	}
+
+	public void remove(String chave) {
+		abre();
+		if (indice.containsKey(chave))
+			acrescenta(chave, REMOVIDO, new byte[0], System.currentTimeMillis());
+	}
+
+	public Optional<byte[]> busca(String chave) {
+		abre();
+		Posicao posicao = indice.get(chave);
+		if (posicao == null)
+			return Optional.empty();
+
+		try {
+			return Optional.of(le(posicao));
+		} catch (IOException | DataFormatException e) {
+			System.out.println("Erro ao ler o xml " + chave + " " + e);
+			throw new RuntimeException("Erro ao ler o xml da nota, chame o suporte");
+		}
+	}
+
+	/*
+	 * Escreve em um zip os xml gravados no período, na ordem do arquivo
+	 */
+	public int exporta(LocalDate inicio, LocalDate fim, OutputStream saida) throws IOException {
+		abre();
+		long de = inicio.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		long ate = fim.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+		List<Map.Entry<String, Posicao>> periodo = indice.entrySet().stream()
+				.filter(e -> e.getValue().data >= de && e.getValue().data < ate)
+				.sorted(Comparator.comparing((Map.Entry<String, Posicao> e) -> e.getValue().segmento)
+						.thenComparingLong(e -> e.getValue().offset))
+				.collect(Collectors.toList());
+
+		ZipOutputStream zip = new ZipOutputStream(saida);
+		for (Map.Entry<String, Posicao> registro : periodo) {
+			ZipEntry entrada = new ZipEntry(registro.getKey() + ".xml");
+			entrada.setTime(registro.getValue().data);
+			zip.putNextEntry(entrada);
+			try {
+				zip.write(le(registro.getValue()));
+			} catch (DataFormatException e) {
+				throw new IOException("xml " + registro.getKey() + " corrompido", e);
+			}
+			zip.closeEntry();
+		}
+		zip.finish();
+
+		return periodo.size();
+	}
+
+	@PreDestroy
+	public synchronized void fecha() {
+		for (Segmento segmento : segmentos.values()) {
+			try {
+				segmento.canal.close();
+			} catch (IOException e) {
+				System.out.println("Erro ao fechar o segmento " + segmento.caminho + " " + e);
+			}
+		}
+
+		segmentos.clear();
+		indice.clear();
+		atual = null;
+		aberto = false;
+		liberaTrava();
+	}
+
+	private void grava(String chave, byte[] xml, long data) {
+		abre();
+		acrescenta(chave, XML, xml, data);
+	}
+
+	private synchronized void acrescenta(String chave, byte tipo, byte[] xml, long data) {
+		byte[] bytesChave = chave.getBytes(StandardCharsets.UTF_8);
+		byte[] comprimido = comprime(xml);
+
+		CRC32 crc = new CRC32();
+		crc.update(comprimido);
+
+		ByteBuffer registro = ByteBuffer.allocate(CABECALHO + bytesChave.length + comprimido.length);
+		registro.putInt(MARCA);
+		registro.putShort((short) bytesChave.length);
+		registro.put(tipo);
+		registro.putLong(data);
+		registro.putInt(xml.length);
+		registro.putInt(comprimido.length);
+		registro.put(bytesChave);
+		registro.put(comprimido);
+		registro.putInt((int) crc.getValue());
+		registro.flip();
+
+		try {
+			if (atual.tamanho > 0 && atual.tamanho + registro.remaining() > tamanhoSegmento)
+				novoSegmento();
+
+			long offset = atual.tamanho;
+			while (registro.hasRemaining())
+				atual.canal.write(registro, offset + registro.position());
+			atual.canal.force(false);
+			atual.tamanho += registro.limit();
+
+			aplica(chave, tipo, new Posicao(atual.numero, offset, registro.limit(), data));
+		} catch (IOException e) {
+			System.out.println("Erro ao gravar o xml " + chave + " " + e);
+			throw new RuntimeException("Erro ao gravar o xml da nota, chame o suporte");
+		}
+	}
+
+	private void aplica(String chave, byte tipo, Posicao posicao) {
+		if (tipo == REMOVIDO)
+			indice.remove(chave);
+		else
+			indice.put(chave, posicao);
+	}
+
+	private byte[] le(Posicao posicao) throws IOException, DataFormatException {
+		ByteBuffer registro = segmentos.get(posicao.segmento).le(posicao.offset, posicao.tamanho);
+		registro.position(15);
+		int original = registro.getInt();
+		int comprimido = registro.getInt();
+		registro.position(registro.position() + registro.getShort(4));
+
+		byte[] dados = new byte[comprimido];
+		registro.get(dados);
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(dados);
+			byte[] xml = new byte[original];
+			int lidos = 0;
+			while (lidos < original && !inflater.finished())
+				lidos += inflater.inflate(xml, lidos, original - lidos);
+			return xml;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static byte[] comprime(byte[] xml) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(xml);
+			deflater.finish();
+			byte[] buffer = new byte[Math.max(64, xml.length / 2)];
+			int tamanho = 0;
+			while (!deflater.finished()) {
+				if (tamanho == buffer.length)
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				tamanho += deflater.deflate(buffer, tamanho, buffer.length - tamanho);
+			}
+			return Arrays.copyOf(buffer, tamanho);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/*
+	 * Carrega os índices dos segmentos na primeira utilização
+	 */
+	private void abre() {
+		if (aberto)
+			return;
+
+		synchronized (this) {
+			if (aberto)
+				return;
+
+			try {
+				Files.createDirectories(diretorio);
+				trava();
+
+				List<Integer> numeros;
+				try (Stream<Path> arquivos = Files.list(diretorio)) {
+					numeros = arquivos.map(p -> p.getFileName().toString())
+							.filter(n -> n.startsWith("segmento-") && n.endsWith(".dat"))
+							.map(n -> Integer.valueOf(n.substring(9, n.length() - 4))).sorted()
+							.collect(Collectors.toList());
+				}
+
+				for (int i = 0; i < numeros.size(); i++) {
+					boolean ultimo = i == numeros.size() - 1;
+					Segmento segmento = new Segmento(numeros.get(i), caminho(numeros.get(i), ".dat"), ultimo);
+					segmentos.put(segmento.numero, segmento);
+
+					if (!ultimo && Files.exists(caminho(segmento.numero, ".idx")))
+						carregaIndice(segmento);
+					else
+						percorre(segmento, ultimo);
+
+					if (ultimo)
+						atual = segmento;
+				}
+
+				if (atual == null) {
+					atual = new Segmento(1, caminho(1, ".dat"), true);
+					segmentos.put(1, atual);
+				}
+
+				aberto = true;
+			} catch (IOException e) {
+				System.out.println("Erro ao abrir o arquivo de xml " + e);
+				fecha();
+				throw new RuntimeException("Erro ao abrir o arquivo de xml das notas, chame o suporte");
+			}
+
+			importaSoltos();
+		}
+	}
+
+	/*
+	 * Trava o diretório para esta instância, cada instância grava no seu
+	 * próprio offset e duas no mesmo diretório corromperiam o segmento
+	 */
+	private void trava() throws IOException {
+		canalTrava = FileChannel.open(diretorio.resolve(TRAVA), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			trava = canalTrava.tryLock();
+		} catch (OverlappingFileLockException e) {
+			trava = null;
+		}
+
+		if (trava == null) {
+			liberaTrava();
+			System.out.println("O diretório " + diretorio + " já está travado por outra instância");
+			throw new RuntimeException("O arquivo de xml das notas está em uso por outra instância, verifique");
+		}
+	}
+
+	private void liberaTrava() {
+		try {
+			if (trava != null)
+				trava.release();
+			if (canalTrava != null)
+				canalTrava.close();
+		} catch (IOException e) {
+			System.out.println("Erro ao liberar a trava de " + diretorio + " " + e);
+		}
+
+		trava = null;
+		canalTrava = null;
+	}
+
+	/*
+	 * Lê os cabeçalhos dos registros, um registro incompleto no fim do
+	 * segmento atual é descartado
+	 */
+	private void percorre(Segmento segmento, boolean atual) throws IOException {
+		long tamanho = segmento.canal.size();
+		long offset = 0;
+		ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO - 4);
+
+		while (offset + CABECALHO <= tamanho) {
+			cabecalho.clear();
+			segmento.canal.read(cabecalho, offset);
+			cabecalho.flip();
+
+			if (cabecalho.getInt() != MARCA)
+				break;
+
+			int tamanhoChave = cabecalho.getShort();
+			byte tipo = cabecalho.get();
+			long data = cabecalho.getLong();
+			cabecalho.getInt();
+			int comprimido = cabecalho.getInt();
+			int total = CABECALHO + tamanhoChave + comprimido;
+
+			if (tamanhoChave < 0 || comprimido < 0 || offset + total > tamanho)
+				break;
+
+			ByteBuffer resto = ByteBuffer.allocate(tamanhoChave + comprimido + 4);
+			segmento.canal.read(resto, offset + CABECALHO - 4);
+			resto.flip();
+
+			byte[] chave = new byte[tamanhoChave];
+			resto.get(chave);
+			CRC32 crc = new CRC32();
+			crc.update(resto.array(), tamanhoChave, comprimido);
+			resto.position(tamanhoChave + comprimido);
+			if (resto.getInt() != (int) crc.getValue())
+				break;
+
+			aplica(new String(chave, StandardCharsets.UTF_8), tipo, new Posicao(segmento.numero, offset, total, data));
+			offset += total;
+		}
+
+		if (offset < tamanho) {
+			if (!atual)
+				throw new IOException("Segmento " + segmento.caminho + " corrompido na posição " + offset);
+
+			System.out.println("Descartando registro incompleto no fim de " + segmento.caminho);
+			segmento.canal.truncate(offset);
+		}
+
+		segmento.tamanho = offset;
+	}
+
+	private void carregaIndice(Segmento segmento) throws IOException {
+		try (DataInputStream entrada = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(caminho(segmento.numero, ".idx"))))) {
+			int registros = entrada.readInt();
+			for (int i = 0; i < registros; i++) {
+				String chave = entrada.readUTF();
+				byte tipo = entrada.readByte();
+				long offset = entrada.readLong();
+				int tamanho = entrada.readInt();
+				long data = entrada.readLong();
+				aplica(chave, tipo, new Posicao(segmento.numero, offset, tamanho, data));
+			}
+		}
+
+		segmento.tamanho = segmento.canal.size();
+	}
+
+	/*
+	 * Fecha o segmento atual gravando o seu índice e inicia o próximo
+	 */
+	private void novoSegmento() throws IOException {
+		Segmento fechado = atual;
+
+		// registros do segmento na ordem em que foram gravados
+		List<Registro> registros = new ArrayList<>();
+		percorreRegistros(fechado, registros);
+
+		Path temporario = caminho(fechado.numero, ".idx.tmp");
+		try (DataOutputStream saida = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporario)))) {
+			saida.writeInt(registros.size());
+			for (Registro registro : registros) {
+				saida.writeUTF(registro.chave);
+				saida.writeByte(registro.tipo);
+				saida.writeLong(registro.posicao.offset);
+				saida.writeInt(registro.posicao.tamanho);
+				saida.writeLong(registro.posicao.data);
+			}
+		}
+		Files.move(temporario, caminho(fechado.numero, ".idx"), StandardCopyOption.ATOMIC_MOVE);
+
+		atual = new Segmento(fechado.numero + 1, caminho(fechado.numero + 1, ".dat"), true);
+		segmentos.put(atual.numero, atual);
+	}
+
+	private void percorreRegistros(Segmento segmento, List<Registro> registros) throws IOException {
+		long offset = 0;
+		while (offset < segmento.tamanho) {
+			ByteBuffer cabecalho = segmento.le(offset, CABECALHO - 4);
+			cabecalho.getInt();
+			int tamanhoChave = cabecalho.getShort();
+			byte tipo = cabecalho.get();
+			long data = cabecalho.getLong();
+			cabecalho.getInt();
+			int comprimido = cabecalho.getInt();
+			int total = CABECALHO + tamanhoChave + comprimido;
+
+			ByteBuffer chave = segmento.le(offset + CABECALHO - 4, tamanhoChave);
+			byte[] bytesChave = new byte[tamanhoChave];
+			chave.get(bytesChave);
+
+			registros.add(new Registro(new String(bytesChave, StandardCharsets.UTF_8), tipo,
+					new Posicao(segmento.numero, offset, total, data)));
+			offset += total;
+		}
+	}
+
+	/*
+	 * Inclui no arquivo os xml gravados como arquivos soltos no diretório
+	 */
+	private void importaSoltos() {
+		try (DirectoryStream<Path> soltos = Files.newDirectoryStream(diretorio, "*.xml")) {
+			for (Path solto : soltos) {
+				String nome = solto.getFileName().toString();
+				byte[] xml;
+				try (InputStream entrada = Files.newInputStream(solto)) {
+					xml = readAll(entrada);
+				}
+
+				acrescenta(nome.substring(0, nome.length() - 4), XML, xml,
+						Files.getLastModifiedTime(solto).toMillis());
+				Files.delete(solto);
+			}
+		} catch (IOException e) {
+			System.out.println("Erro ao importar os xml soltos " + e);
+		}
+	}
+
+	private static byte[] readAll(InputStream entrada) throws IOException {
+		ByteArrayOutputStream saida = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int lidos;
+		while ((lidos = entrada.read(buffer)) > 0)
+			saida.write(buffer, 0, lidos);
+		return saida.toByteArray();
+	}
+
+	private Path caminho(int numero, String extensao) {
+		return diretorio.resolve(String.format("segmento-%06d%s", numero, extensao));
+	}
+
+	private static class Posicao {
+
+		private final int segmento;
+		private final long offset;
+		private final int tamanho;
+		private final long data;
+
+		Posicao(int segmento, long offset, int tamanho, long data) {
+			this.segmento = segmento;
+			this.offset = offset;
+			this.tamanho = tamanho;
+			this.data = data;
+		}
+
+	}
+
+	private static class Registro {
+
+		private final String chave;
+		private final byte tipo;
+		private final Posicao posicao;
+
+		Registro(String chave, byte tipo, Posicao posicao) {
+			this.chave = chave;
+			this.tipo = tipo;
+			this.posicao = posicao;
+		}
+
+	}
+
+	private static class Segmento {
+
+		private final int numero;
+		private final Path caminho;
+		private final FileChannel canal;
+		private long tamanho;
+		private volatile MappedByteBuffer mapa;
+
+		Segmento(int numero, Path caminho, boolean escrita) throws IOException {
+			this.numero = numero;
+			this.caminho = caminho;
+			this.canal = escrita
+					? FileChannel.open(caminho, StandardOpenOption.CREATE, StandardOpenOption.READ,
+							StandardOpenOption.WRITE)
+					: FileChannel.open(caminho, StandardOpenOption.READ);
+		}
+
+		/*
+		 * Trecho do segmento mapeado, o segmento atual é mapeado novamente
+		 * quando cresce além do mapa
+		 */
+		ByteBuffer le(long offset, int quantidade) throws IOException {
+			MappedByteBuffer m = mapa;
+			if (m == null || offset + quantidade > m.capacity()) {
+				synchronized (this) {
+					m = mapa;
+					if (m == null || offset + quantidade > m.capacity()) {
+						m = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+						mapa = m;
+					}
+				}
+			}
+
+			ByteBuffer trecho = m.duplicate();
+			trecho.position((int) offset);
+			trecho.limit((int) offset + quantidade);
+			return trecho.slice();
+		}
+
+	}
+
+}
@@ -7,11 +7,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidAlgorithmParameterException;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.Signature;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
@@ -30,9 +34,11 @@ import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
 import javax.xml.crypto.dsig.keyinfo.X509Data;
 import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -42,13 +48,32 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+/**
+ * Assina o xml da NFe com o certificado A1.
+ *
+ * O certificado é carregado uma única vez e compartilhado entre as
+ * instâncias, sendo recarregado apenas quando o arquivo é alterado. As
+ * fábricas de assinatura e de xml não são thread-safe, por isso cada thread
+ * mantém as suas, montadas no primeiro uso.
+ *
+ * O xml gerado pelo EscritorXml é assinado direto no buffer com assinaNFe,
+ * o assinaXML continua disponível para xml recebido como texto.
+ */
 public class AssinaXML {
 	private static final String NFE = "NFe";
 
-	private PrivateKey privateKey;
-	private KeyInfo keyInfo;
+	private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+	private static final String NS_DSIG = "http://www.w3.org/2000/09/xmldsig#";
+	private static final String C14N = "http://www.w3.org/TR/2001/REC-xml-c14n-20010315";
 
-	public String assinaXML(String xml) {
+	private static volatile Certificado certificado;
+
+	private static final ThreadLocal<Contexto> contexto = ThreadLocal.withInitial(Contexto::new);
+
+	private final String caminhoCertificado;
+	private final String senhaCertificado;
+
+	public AssinaXML() {
 		String path = "";
 
 		try {
@@ -57,15 +82,21 @@ public class AssinaXML {
 			System.out.println(e);
 		}
 
-		String caminhoCertificado = path + "/" + "src/main/resources/certificado/certificado.pfx";
-		String senhaCertificado = "spcbrasil";
+		this.caminhoCertificado = path + "/" + "src/main/resources/certificado/certificado.pfx";
+		this.senhaCertificado = "spcbrasil";
+	}
+
+	public AssinaXML(String caminhoCertificado, String senhaCertificado) {
+		this.caminhoCertificado = caminhoCertificado;
+		this.senhaCertificado = senhaCertificado;
+	}
 
+	public String assinaXML(String xml) {
 		String xmlAssinado = "";
 		try {
 			xmlAssinado = assinarEnviNFe(xml, caminhoCertificado, senhaCertificado);
 			System.out.println(xmlAssinado);
 		} catch (Exception e) {
-			e.printStackTrace();
 			System.out.println(e);
 		}
 
@@ -74,46 +105,128 @@ public class AssinaXML {
 
 	private String assinarEnviNFe(String xmlEnviNFe, String caminhoCertificado, String senhaCertificado)
 			throws Exception {
-		Document document = documentFactory(xmlEnviNFe);
-		XMLSignatureFactory signatureFactory = XMLSignatureFactory.getInstance("DOM");
-		ArrayList<Transform> transformList = signatureFactory(signatureFactory);
-		loadCertificates(caminhoCertificado, senhaCertificado, signatureFactory);
+		Contexto ctx = contexto.get();
+		Certificado cert = certificado(caminhoCertificado, senhaCertificado);
+
+		Document document = documentFactory(ctx, xmlEnviNFe);
 
 		for (int i = 0; i < document.getDocumentElement().getElementsByTagName(NFE).getLength(); i++) {
-			assinarNFe(signatureFactory, transformList, privateKey, keyInfo, document, i);
+			assinarNFe(ctx, cert, document, i);
 		}
 
-		return outputXML(document);
+		return outputXML(ctx, document);
+	}
+
+	/*
+	 * Assina o infNFe que acabou de ser escrito no buffer, entre inicioInfNFe e
+	 * a posição atual. O trecho já está na forma canônica, então o digest é
+	 * calculado sobre os próprios bytes e a Signature é escrita logo após o
+	 * </infNFe>, sem montar um DOM
+	 */
+	public void assinaNFe(EscritorXml xml, int inicioInfNFe, String id) {
+		assinaNFe(xml, id, digestInfNFe(xml, inicioInfNFe, xml.posicao()));
 	}
 
-	private Document documentFactory(String xml) throws SAXException, IOException, ParserConfigurationException {
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		factory.setNamespaceAware(true);
-		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes()));
-		return document;
+	/*
+	 * Digest do infNFe escrito entre inicioInfNFe e fimInfNFe, calculado antes
+	 * da assinatura quando algo vai entre o infNFe e a Signature, como o
+	 * infNFeSupl da NFC-e
+	 */
+	public String digestInfNFe(EscritorXml xml, int inicioInfNFe, int fimInfNFe) {
+		// no C14N o infNFe recebe o namespace herdado do NFe
+		MessageDigest sha1 = contexto.get().sha1;
+		sha1.reset();
+		sha1.update(("<infNFe xmlns=\"" + NS_NFE + "\"").getBytes(StandardCharsets.UTF_8));
+		int aposNome = inicioInfNFe + "<infNFe".length();
+		sha1.update(xml.buffer(), aposNome, fimInfNFe - aposNome);
+		return Base64.getEncoder().encodeToString(sha1.digest());
 	}
 
-	private ArrayList<Transform> signatureFactory(XMLSignatureFactory signatureFactory)
-			throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
-		ArrayList<Transform> transformList = new ArrayList<Transform>();
-		TransformParameterSpec tps = null;
-		Transform envelopedTransform = signatureFactory.newTransform(Transform.ENVELOPED, tps);
-		Transform c14NTransform = signatureFactory.newTransform("http://www.w3.org/TR/2001/REC-xml-c14n-20010315", tps);
+	/*
+	 * Escreve na posição atual a Signature do infNFe com o digest já calculado
+	 */
+	public void assinaNFe(EscritorXml xml, String id, String digest) {
+		try {
+			Contexto ctx = contexto.get();
+			Certificado cert = certificado(caminhoCertificado, senhaCertificado);
+
+			xml.abre("Signature").atributo("xmlns", NS_DSIG);
 
-		transformList.add(envelopedTransform);
-		transformList.add(c14NTransform);
-		return transformList;
+			int inicioSignedInfo = xml.posicao();
+			xml.abre("SignedInfo");
+			xml.abre("CanonicalizationMethod").atributo("Algorithm", C14N).fecha();
+			xml.abre("SignatureMethod").atributo("Algorithm", SignatureMethod.RSA_SHA1).fecha();
+			xml.abre("Reference").atributo("URI", "#" + id);
+			xml.abre("Transforms");
+			xml.abre("Transform").atributo("Algorithm", Transform.ENVELOPED).fecha();
+			xml.abre("Transform").atributo("Algorithm", C14N).fecha();
+			xml.fecha(); // fim Transforms
+			xml.abre("DigestMethod").atributo("Algorithm", DigestMethod.SHA1).fecha();
+			xml.elemento("DigestValue", digest);
+			xml.fecha(); // fim Reference
+			xml.fecha(); // fim SignedInfo
+			int fimSignedInfo = xml.posicao();
+
+			// o SignedInfo também é assinado com o namespace herdado da Signature
+			Signature rsa = ctx.rsa;
+			rsa.initSign(cert.privateKey);
+			rsa.update(("<SignedInfo xmlns=\"" + NS_DSIG + "\"").getBytes(StandardCharsets.UTF_8));
+			int aposNome = inicioSignedInfo + "<SignedInfo".length();
+			rsa.update(xml.buffer(), aposNome, fimSignedInfo - aposNome);
+
+			xml.elemento("SignatureValue", Base64.getEncoder().encodeToString(rsa.sign()));
+
+			xml.abre("KeyInfo");
+			xml.abre("X509Data");
+			xml.elemento("X509Certificate", cert.x509);
+			xml.fecha(); // fim X509Data
+			xml.fecha(); // fim KeyInfo
+
+			xml.fecha(); // fim Signature
+		} catch (Exception e) {
+			System.out.println(e);
+			throw new RuntimeException("Erro ao assinar o xml da NF-e, verifique o certificado digital");
+		}
 	}
 
-	private void loadCertificates(String certificado, String senha, XMLSignatureFactory signatureFactory)
-			throws Exception {
+	private Document documentFactory(Contexto ctx, String xml) throws SAXException, IOException {
+		ctx.documentBuilder.reset();
+		return ctx.documentBuilder.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/*
+	 * Devolve o certificado em memória, relendo o arquivo somente quando ele
+	 * mudou desde a última carga
+	 */
+	private static Certificado certificado(String caminho, String senha) throws Exception {
+		File arquivo = new File(caminho);
+		Certificado atual = certificado;
+		if (atual != null && atual.isValido(arquivo))
+			return atual;
+
+		synchronized (AssinaXML.class) {
+			atual = certificado;
+			if (atual == null || !atual.isValido(arquivo)) {
+				atual = loadCertificates(arquivo, senha);
+				certificado = atual;
+			}
+			return atual;
+		}
+	}
+
+	private static Certificado loadCertificates(File arquivo, String senha) throws Exception {
+		// a data é lida antes do arquivo, se ele mudar durante a leitura a
+		// próxima assinatura carrega de novo
+		long modificado = arquivo.lastModified();
+		long tamanho = arquivo.length();
 
-		InputStream entrada = new FileInputStream(certificado);
 		KeyStore ks = KeyStore.getInstance("pkcs12");
-		try {
-			ks.load(entrada, senha.toCharArray());
-		} catch (IOException e) {
-			throw new Exception("Senha do Certificado Digital incorreta ou Certificado inválido.");
+		try (InputStream entrada = new FileInputStream(arquivo)) {
+			try {
+				ks.load(entrada, senha.toCharArray());
+			} catch (IOException e) {
+				throw new Exception("Senha do Certificado Digital incorreta ou Certificado inválido.");
+			}
 		}
 
 		KeyStore.PrivateKeyEntry pkEntry = null;
@@ -123,50 +236,53 @@ public class AssinaXML {
 			if (ks.isKeyEntry(alias)) {
 				pkEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias,
 						new KeyStore.PasswordProtection(senha.toCharArray()));
-				privateKey = pkEntry.getPrivateKey();
 				break;
 			}
 		}
 
+		if (pkEntry == null)
+			throw new Exception("Certificado Digital sem chave privada.");
+
 		X509Certificate cert = (X509Certificate) pkEntry.getCertificate();
 		System.out.println("Data Certificado " + cert.getNotAfter());
 
-		KeyInfoFactory keyInfoFactory = signatureFactory.getKeyInfoFactory();
+		KeyInfoFactory keyInfoFactory = XMLSignatureFactory.getInstance("DOM").getKeyInfoFactory();
 		List<X509Certificate> x509Content = new ArrayList<X509Certificate>();
 
 		x509Content.add(cert);
 		X509Data x509Data = keyInfoFactory.newX509Data(x509Content);
-		keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(x509Data));
+		KeyInfo keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(x509Data));
+
+		return new Certificado(arquivo.getPath(), modificado, tamanho, pkEntry.getPrivateKey(), keyInfo,
+				Base64.getEncoder().encodeToString(cert.getEncoded()));
 	}
 
-	private void assinarNFe(XMLSignatureFactory fac, ArrayList<Transform> transformList, PrivateKey privateKey,
-			KeyInfo ki, Document document, int indexNFe) throws Exception {
+	private void assinarNFe(Contexto ctx, Certificado cert, Document document, int indexNFe) throws Exception {
 
 		NodeList elements = document.getElementsByTagName("infNFe");
 		org.w3c.dom.Element el = (org.w3c.dom.Element) elements.item(indexNFe);
 		String id = el.getAttribute("Id");
 		el.setIdAttribute("Id", true);
 
-		Reference ref = fac.newReference("#" + id, fac.newDigestMethod(DigestMethod.SHA1, null), transformList, null,
-				null);
+		XMLSignatureFactory fac = ctx.signatureFactory;
+		Reference ref = fac.newReference("#" + id, ctx.digestMethod, ctx.transformList, null, null);
 
-		SignedInfo si = fac.newSignedInfo(
-				fac.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE, (C14NMethodParameterSpec) null),
-				fac.newSignatureMethod(SignatureMethod.RSA_SHA1, null), Collections.singletonList(ref));
+		SignedInfo si = fac.newSignedInfo(ctx.canonicalizationMethod, ctx.signatureMethod,
+				Collections.singletonList(ref));
 
-		XMLSignature signature = fac.newXMLSignature(si, ki);
+		XMLSignature signature = fac.newXMLSignature(si, cert.keyInfo);
 
-		DOMSignContext dsc = new DOMSignContext(privateKey,
+		DOMSignContext dsc = new DOMSignContext(cert.privateKey,
 				document.getDocumentElement().getElementsByTagName(NFE).item(indexNFe));
 		signature.sign(dsc);
 	}
 
-	private String outputXML(Document doc) throws TransformerException {
+	private String outputXML(Contexto ctx, Document doc) throws TransformerException {
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
-		TransformerFactory tf = TransformerFactory.newInstance();
-		Transformer trans = tf.newTransformer();
+		Transformer trans = ctx.transformer;
+		trans.reset();
 		trans.transform(new DOMSource(doc), new StreamResult(os));
-		String xml = os.toString();
+		String xml = new String(os.toByteArray(), StandardCharsets.UTF_8);
 		if ((xml != null) && (!"".equals(xml))) {
 			xml = xml.replaceAll("\\r\\n", "");
 			xml = xml.replaceAll(" standalone=\"no\"", "");
@@ -174,4 +290,80 @@ public class AssinaXML {
 		return xml;
 	}
 
+	/*
+	 * Chave e KeyInfo do certificado, imutáveis e compartilhados entre as
+	 * threads
+	 */
+	private static class Certificado {
+
+		private final String caminho;
+		private final long modificado;
+		private final long tamanho;
+		private final PrivateKey privateKey;
+		private final KeyInfo keyInfo;
+		private final String x509;
+
+		Certificado(String caminho, long modificado, long tamanho, PrivateKey privateKey, KeyInfo keyInfo,
+				String x509) {
+			this.caminho = caminho;
+			this.modificado = modificado;
+			this.tamanho = tamanho;
+			this.privateKey = privateKey;
+			this.keyInfo = keyInfo;
+			this.x509 = x509;
+		}
+
+		boolean isValido(File arquivo) {
+			return caminho.equals(arquivo.getPath()) && modificado == arquivo.lastModified()
+					&& tamanho == arquivo.length();
+		}
+
+	}
+
+	/*
+	 * Fábricas e estruturas fixas da assinatura, uma por thread
+	 */
+	private static class Contexto {
+
+		private final XMLSignatureFactory signatureFactory;
+		private final List<Transform> transformList;
+		private final DigestMethod digestMethod;
+		private final CanonicalizationMethod canonicalizationMethod;
+		private final SignatureMethod signatureMethod;
+		private final DocumentBuilder documentBuilder;
+		private final Transformer transformer;
+		private final MessageDigest sha1;
+		private final Signature rsa;
+
+		Contexto() {
+			try {
+				signatureFactory = XMLSignatureFactory.getInstance("DOM");
+
+				List<Transform> transforms = new ArrayList<Transform>();
+				TransformParameterSpec tps = null;
+				transforms.add(signatureFactory.newTransform(Transform.ENVELOPED, tps));
+				transforms.add(signatureFactory.newTransform("http://www.w3.org/TR/2001/REC-xml-c14n-20010315", tps));
+				transformList = Collections.unmodifiableList(transforms);
+
+				digestMethod = signatureFactory.newDigestMethod(DigestMethod.SHA1, null);
+				canonicalizationMethod = signatureFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE,
+						(C14NMethodParameterSpec) null);
+				signatureMethod = signatureFactory.newSignatureMethod(SignatureMethod.RSA_SHA1, null);
+
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setNamespaceAware(true);
+				documentBuilder = factory.newDocumentBuilder();
+
+				transformer = TransformerFactory.newInstance().newTransformer();
+
+				sha1 = MessageDigest.getInstance("SHA-1");
+				rsa = Signature.getInstance("SHA1withRSA");
+			} catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | ParserConfigurationException
+					| TransformerConfigurationException e) {
+				throw new RuntimeException("Erro ao preparar a assinatura do xml", e);
+			}
+		}
+
+	}
+
 }
@@ -1,31 +1,97 @@
 package net.originmobi.pdv.xml.nfe;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.thoughtworks.xstream.converters.Converter;
-import com.thoughtworks.xstream.converters.MarshallingContext;
-import com.thoughtworks.xstream.converters.UnmarshallingContext;
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-
+import net.originmobi.pdv.model.Empresa;
 import net.originmobi.pdv.model.NotaFiscal;
 import net.originmobi.pdv.service.notafiscal.NotaFiscalService;
 
-public class ConversorXmlNfe implements Converter {
+/**
+ * Monta o xml de envio da NF-e (enviNFe) em uma única passada, direto no
+ * buffer do EscritorXml, e assina o infNFe no mesmo buffer. A NFC-e usa o
+ * mesmo caminho com o <emit> já montado por empresa.
+ */
+public class ConversorXmlNfe {
+
+	private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+
+	private static final DateTimeFormatter DATA_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx");
+	private static final DateTimeFormatter ANO_MES = DateTimeFormatter.ofPattern("yyMM");
 
 	public NotaFiscalService nfService;
 	private String chaveNfeRetorno = "";
 
-	@Override
-	public boolean canConvert(Class type) {
-		return type.equals(NotaFiscal.class);
+	/*
+	 * Gera o enviNFe de uma única nota
+	 */
+	public String converte(NotaFiscal notaFiscal, AssinaXML assina) {
+		EscritorXml xml = EscritorXml.daThread();
+		abreLote(xml, 1);
+		escreveNFe(xml, notaFiscal, assina);
+		xml.fecha(); // fim nod enviNFe
+
+		return xml.toString();
+	}
+
+	/*
+	 * Gera apenas o NFe assinado, para ser juntado depois em um lote
+	 */
+	public byte[] converteNFe(NotaFiscal notaFiscal, AssinaXML assina) {
+		EscritorXml xml = EscritorXml.daThread();
+		escreveNFe(xml, notaFiscal, assina);
+
+		return xml.toByteArray();
 	}
 
-	@Override
-	public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
-		NotaFiscal notaFiscal = (NotaFiscal) source;
+	/*
+	 * Gera a NFC-e assinada a partir dos dados do emitente já montados, com o
+	 * QR-Code no infNFeSupl. Em contingência offline a nota sai com tpEmis 9
+	 * para ser transmitida depois
+	 */
+	public NFCeAssinada converteNFCe(NotaFiscal notaFiscal, EmitenteNfce emitente, String tipoPagamento,
+			boolean contingencia, String urlQrCode, AssinaXML assina) {
+		EscritorXml xml = EscritorXml.daThread();
+		String qrCode = escreveNFCe(xml, notaFiscal, emitente, tipoPagamento, contingencia, urlQrCode, assina);
+
+		return new NFCeAssinada(chaveNfeRetorno, xml.toByteArray(), qrCode, contingencia);
+	}
+
+	/*
+	 * Junta os NFe já assinados em um enviNFe, o processamento de lote com
+	 * mais de uma nota é sempre assíncrono
+	 */
+	public static String lote(long idLote, List<byte[]> nfes) {
+		EscritorXml xml = EscritorXml.daThread();
+		abreLote(xml, idLote);
+		for (byte[] nfe : nfes)
+			xml.fragmento(nfe);
+		xml.fecha(); // fim nod enviNFe
+
+		return xml.toString();
+	}
+
+	private static void abreLote(EscritorXml xml, long idLote) {
+		xml.declaracao();
+
+		xml.abre("enviNFe");
+		xml.atributo("xmlns", NS_NFE);
+		xml.atributo("versao", "3.10");
+
+		xml.elemento("idLote", idLote);
+		xml.elemento("indSinc", 0);
+	}
+
+	private void escreveNFe(EscritorXml xml, NotaFiscal notaFiscal, AssinaXML assina) {
 
 		DecimalFormat formato = new DecimalFormat("#0.00");
 
@@ -54,321 +120,294 @@ public class ConversorXmlNfe implements Converter {
 
 		chaveNfeRetorno = chaveNfe + cDV;
 
-		writer.addAttribute("xmlns", "http://www.portalfiscal.inf.br/nfe");
-		writer.addAttribute("versao", "3.10");
-
-		writer.startNode("idLote");
-		context.convertAnother(1);
-		writer.endNode();
-
-		writer.startNode("indSinc");
-		context.convertAnother(0);
-		writer.endNode();
-
-		writer.startNode("NFe");
-
-		writer.addAttribute("xmlns", "http://www.portalfiscal.inf.br/nfe");
-
-		writer.startNode("infNFe");
-
-		writer.addAttribute("Id", "NFe" + chaveNfe + cDV);
-		writer.addAttribute("versao", "3.10");
-
-		writer.startNode("ide");
-
-		writer.startNode("cUF");
-		context.convertAnother(ufEmissor);
-		writer.endNode();
-
-		writer.startNode("cNF");
-		context.convertAnother(cNF);
-		writer.endNode();
-
-		writer.startNode("natOp");
-		context.convertAnother(notaFiscal.getNatureza_operacao());
-		writer.endNode();
-
-		writer.startNode("indPag");
-		context.convertAnother(0);
-		writer.endNode();
-
-		writer.startNode("mod");
-		context.convertAnother(notaFiscal.getModelo());
-		writer.endNode();
-
-		writer.startNode("serie");
-		context.convertAnother(notaFiscal.getSerie());
-		writer.endNode();
-
-		writer.startNode("nNF");
-		context.convertAnother(notaFiscal.getNumero());
-		writer.endNode();
-
-		writer.startNode("dhEmi");
-		context.convertAnother("2018-05-03T08:10:00-04:00");
-		writer.endNode();
-
-		writer.startNode("dhSaiEnt");
-		context.convertAnother("2018-05-03T08:10:00-04:00");
-		writer.endNode();
-
-		writer.startNode("tpNF");
-		context.convertAnother(notaFiscal.getTipo().ordinal());
-		writer.endNode();
-
-		writer.startNode("idDest");
-		context.convertAnother(1);
-		writer.endNode();
-
-		writer.startNode("cMunFG");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getCidade().getCodigo_municipio());
-		writer.endNode();
-
-		writer.startNode("tpImp");
-		context.convertAnother(1);
-		writer.endNode();
-
-		writer.startNode("tpEmis");
-		context.convertAnother(1);
-		writer.endNode();
-
-		writer.startNode("cDV");
-		context.convertAnother(cDV);
-		writer.endNode();
-
-		writer.startNode("tpAmb");
-		context.convertAnother(notaFiscal.getTipo_ambiente());
-		writer.endNode();
-
-		writer.startNode("finNFe");
-		context.convertAnother(notaFiscal.getFinalidade().getTipo());
-		writer.endNode();
-
-		writer.startNode("indFinal");
-		context.convertAnother(0); // 0 -- normal, 1 -- consumidor final
-		writer.endNode();
-
-		writer.startNode("indPres");
-		context.convertAnother(1);
-		writer.endNode();
-
-		writer.startNode("procEmi");
-		context.convertAnother(0);
-		writer.endNode();
-
-		writer.startNode("verProc");
-		context.convertAnother("0.0.1");
-		writer.endNode();
-
-		writer.endNode(); // fim nod ide
-
-		writer.startNode("emit");
-
-		writer.startNode("CNPJ");
-		context.convertAnother(cnpjEmissor);
-		writer.endNode();
-
-		writer.startNode("xNome");
-		context.convertAnother(notaFiscal.getEmissor().getNome());
-		writer.endNode();
-
-		writer.startNode("xFant");
-		context.convertAnother(notaFiscal.getEmissor().getNome_fantasia());
-		writer.endNode();
-
-		writer.startNode("enderEmit");
-
-		writer.startNode("xLgr");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getRua());
-		writer.endNode();
-
-		writer.startNode("nro");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getNumero());
-		writer.endNode();
-
-		writer.startNode("xCpl");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getReferencia());
-		writer.endNode();
-
-		writer.startNode("xBairro");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getBairro());
-		writer.endNode();
-
-		writer.startNode("cMun");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getCidade().getCodigo_municipio());
-		writer.endNode();
+		xml.abre("NFe");
 
-		writer.startNode("xMun");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getCidade().getNome());
-		writer.endNode();
+		xml.atributo("xmlns", NS_NFE);
 
-		writer.startNode("UF");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getCidade().getEstado().getSigla());
-		writer.endNode();
+		int inicioInfNFe = xml.posicao();
+		xml.abre("infNFe");
 
-		writer.startNode("CEP");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getCep());
-		writer.endNode();
+		xml.atributo("Id", "NFe" + chaveNfe + cDV);
+		xml.atributo("versao", "3.10");
 
-		writer.startNode("cPais");
-		context.convertAnother(
-				notaFiscal.getEmissor().getEndereco().getCidade().getEstado().getPais().getCodigo_pais());
-		writer.endNode();
+		xml.abre("ide");
 
-		writer.startNode("xPais");
-		context.convertAnother(notaFiscal.getEmissor().getEndereco().getCidade().getEstado().getPais().getNome());
-		writer.endNode();
+		xml.elemento("cUF", ufEmissor);
+		xml.elemento("cNF", cNF);
+		xml.elemento("natOp", notaFiscal.getNatureza_operacao());
+		xml.elemento("indPag", 0);
+		xml.elemento("mod", notaFiscal.getModelo());
+		xml.elemento("serie", notaFiscal.getSerie());
+		xml.elemento("nNF", notaFiscal.getNumero());
+		xml.elemento("dhEmi", "2018-05-03T08:10:00-04:00");
+		xml.elemento("dhSaiEnt", "2018-05-03T08:10:00-04:00");
+		xml.elemento("tpNF", notaFiscal.getTipo().ordinal());
+		xml.elemento("idDest", 1);
+		xml.elemento("cMunFG", notaFiscal.getEmissor().getEndereco().getCidade().getCodigo_municipio());
+		xml.elemento("tpImp", 1);
+		xml.elemento("tpEmis", 1);
+		xml.elemento("cDV", cDV);
+		xml.elemento("tpAmb", notaFiscal.getTipo_ambiente());
+		xml.elemento("finNFe", notaFiscal.getFinalidade().getTipo());
+		xml.elemento("indFinal", 0); // 0 -- normal, 1 -- consumidor final
 
-		writer.endNode(); // fim not <enderEmit>
+		xml.elemento("indPres", 1);
+		xml.elemento("procEmi", 0);
+		xml.elemento("verProc", "0.0.1");
 
-		writer.startNode("IE");
-		context.convertAnother(notaFiscal.getEmissor().getIe());
-		writer.endNode();
+		xml.fecha(); // fim nod ide
 
-		writer.startNode("CRT");
-		context.convertAnother(notaFiscal.getEmissor().getRegime_tributario().getTipoRegime());
-		writer.endNode();
+		escreveEmitente(xml, notaFiscal.getEmissor(), cnpjEmissor);
 
-		writer.endNode(); // fim nod <emit>
+		xml.abre("dest");
 
-		writer.startNode("dest");
+		xml.elemento("CPF", notaFiscal.getDestinatario().getCpfcnpj().replaceAll("\\D", ""));
 
-		writer.startNode("CPF");
-		context.convertAnother(notaFiscal.getDestinatario().getCpfcnpj().replaceAll("\\D", ""));
-		writer.endNode();
-
-		writer.startNode("xNome");
 		if (notaFiscal.getEmissor().getParametro().getAmbiente() == 2)
-			context.convertAnother("NF-E EMITIDA EM AMBIENTE DE HOMOLOGACAO - SEM VALOR FISCAL");
+			xml.elemento("xNome", "NF-E EMITIDA EM AMBIENTE DE HOMOLOGACAO - SEM VALOR FISCAL");
 		else
-			context.convertAnother(notaFiscal.getDestinatario().getNome());
-		writer.endNode();
-
-		writer.startNode("enderDest");
+			xml.elemento("xNome", notaFiscal.getDestinatario().getNome());
+
+		xml.abre("enderDest");
+
+		xml.elemento("xLgr", notaFiscal.getDestinatario().getEndereco().getRua());
+		xml.elemento("nro", notaFiscal.getDestinatario().getEndereco().getNumero());
+		xml.elemento("xCpl", notaFiscal.getDestinatario().getEndereco().getReferencia());
+		xml.elemento("xBairro", notaFiscal.getDestinatario().getEndereco().getBairro());
+		xml.elemento("cMun", notaFiscal.getDestinatario().getEndereco().getCidade().getCodigo_municipio());
+		xml.elemento("xMun", notaFiscal.getDestinatario().getEndereco().getCidade().getNome());
+		xml.elemento("UF", notaFiscal.getDestinatario().getEndereco().getCidade().getEstado().getSigla());
+		xml.elemento("CEP", notaFiscal.getDestinatario().getEndereco().getCep());
+		xml.elemento("cPais",
+				notaFiscal.getDestinatario().getEndereco().getCidade().getEstado().getPais().getCodigo_pais());
+		xml.elemento("xPais", notaFiscal.getDestinatario().getEndereco().getCidade().getEstado().getPais().getNome());
+		xml.elemento("fone", notaFiscal.getDestinatario().getTelefone().get(0).getFone());
 
-		writer.startNode("xLgr");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getRua());
-		writer.endNode();
+		xml.fecha(); // fim node <enderDest>
 
-		writer.startNode("nro");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getNumero());
-		writer.endNode();
+		xml.elemento("indIEDest", 2);
 
-		writer.startNode("xCpl");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getReferencia());
-		writer.endNode();
+		// xml.abre("IE");
+		// xml.fecha(); // fim nod <IE>
 
-		writer.startNode("xBairro");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getBairro());
-		writer.endNode();
+		xml.fecha(); // fim nod <dest>
 
-		writer.startNode("cMun");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getCidade().getCodigo_municipio());
-		writer.endNode();
+		escreveItens(xml, notaFiscal, tipoRegime, formato);
 
-		writer.startNode("xMun");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getCidade().getNome());
-		writer.endNode();
+		escreveTotal(xml, notaFiscal, tipoRegime, formato);
 
-		writer.startNode("UF");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getCidade().getEstado().getSigla());
-		writer.endNode();
+		xml.abre("transp");
 
-		writer.startNode("CEP");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getCep());
-		writer.endNode();
+		xml.elemento("modFrete", notaFiscal.getFreteTipo().getTipo());
 
-		writer.startNode("cPais");
-		context.convertAnother(
-				notaFiscal.getDestinatario().getEndereco().getCidade().getEstado().getPais().getCodigo_pais());
-		writer.endNode();
+		xml.fecha(); // fim nod transp
 
-		writer.startNode("xPais");
-		context.convertAnother(notaFiscal.getDestinatario().getEndereco().getCidade().getEstado().getPais().getNome());
-		writer.endNode();
+		xml.fecha(); // fim nod <infNFe>
 
-		writer.startNode("fone");
-		context.convertAnother(notaFiscal.getDestinatario().getTelefone().get(0).getFone());
-		writer.endNode();
+		// a assinatura é escrita dentro do NFe, logo após o infNFe
+		assina.assinaNFe(xml, inicioInfNFe, "NFe" + chaveNfe + cDV);
 
-		writer.endNode(); // fim node <enderDest>
-
-		writer.startNode("indIEDest");
-		context.convertAnother(2);
-		writer.endNode();
+		xml.fecha(); // fim nod NFe
+	}
 
-		// writer.startNode("IE");
-		// writer.endNode(); // fim nod <IE>
+	private String escreveNFCe(EscritorXml xml, NotaFiscal notaFiscal, EmitenteNfce emitente, String tipoPagamento,
+			boolean contingencia, String urlQrCode, AssinaXML assina) {
 
-		writer.endNode(); // fim nod <dest>
+		DecimalFormat formato = new DecimalFormat("#0.00");
+		OffsetDateTime agora = OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+		String dhEmi = agora.format(DATA_HORA);
+		int tpEmis = contingencia ? 9 : 1;
 
-		for (int i = 0; i < notaFiscal.getItens().size(); i++) {
-			writer.startNode("det");
-			writer.addAttribute("nItem", String.valueOf(i + 1));
+		String cNF = String.valueOf(ThreadLocalRandom.current().nextInt(10000000, 100000000));
+		String serie = StringUtils.leftPad(String.valueOf(notaFiscal.getSerie()), 3, "0");
+		String numeroNf = StringUtils.leftPad(String.valueOf(notaFiscal.getNumero()), 9, "0");
 
-			writer.startNode("prod");
+		String chaveNfe = emitente.getCodigoUF() + agora.format(ANO_MES) + emitente.getCnpj() + "65" + serie + numeroNf
+				+ tpEmis + cNF;
 
-			writer.startNode("cProd");
-			context.convertAnother(notaFiscal.getItens().get(i).getCodigo());
-			writer.endNode();
+		nfService = new NotaFiscalService();
+		Integer cDV = nfService.geraDV(chaveNfe);
+		chaveNfeRetorno = chaveNfe + cDV;
 
-			writer.startNode("cEAN");
-			context.convertAnother("");
-			writer.endNode();
+		xml.abre("NFe");
+		xml.atributo("xmlns", NS_NFE);
+
+		int inicioInfNFe = xml.posicao();
+		xml.abre("infNFe");
+		xml.atributo("Id", "NFe" + chaveNfeRetorno);
+		xml.atributo("versao", "3.10");
+
+		xml.abre("ide");
+		xml.elemento("cUF", emitente.getCodigoUF());
+		xml.elemento("cNF", cNF);
+		xml.elemento("natOp", notaFiscal.getNatureza_operacao());
+		xml.elemento("indPag", 0);
+		xml.elemento("mod", 65);
+		xml.elemento("serie", notaFiscal.getSerie());
+		xml.elemento("nNF", notaFiscal.getNumero());
+		xml.elemento("dhEmi", dhEmi);
+		xml.elemento("tpNF", 1);
+		xml.elemento("idDest", 1);
+		xml.elemento("cMunFG", emitente.getCodigoMunicipio());
+		xml.elemento("tpImp", 4); // DANFE NFC-e
+		xml.elemento("tpEmis", tpEmis);
+		xml.elemento("cDV", cDV);
+		xml.elemento("tpAmb", emitente.getAmbiente());
+		xml.elemento("finNFe", 1);
+		xml.elemento("indFinal", 1);
+		xml.elemento("indPres", 1);
+		xml.elemento("procEmi", 0);
+		xml.elemento("verProc", "0.0.1");
+		if (contingencia) {
+			xml.elemento("dhCont", dhEmi);
+			xml.elemento("xJust", "Autorizador sem resposta, emissao em contingencia offline");
+		}
+		xml.fecha(); // fim nod ide
+
+		xml.fragmento(emitente.getEmit());
+
+		// na NFC-e o consumidor só é identificado quando informou o CPF ou CNPJ
+		String documento = notaFiscal.getDestinatario() == null || notaFiscal.getDestinatario().getCpfcnpj() == null
+				? ""
+				: notaFiscal.getDestinatario().getCpfcnpj().replaceAll("\\D", "");
+		if (documento.length() == 11 || documento.length() == 14) {
+			xml.abre("dest");
+			xml.elemento(documento.length() == 11 ? "CPF" : "CNPJ", documento);
+			if (emitente.getAmbiente() == 2)
+				xml.elemento("xNome", "NF-E EMITIDA EM AMBIENTE DE HOMOLOGACAO - SEM VALOR FISCAL");
+			xml.elemento("indIEDest", 9);
+			xml.fecha(); // fim nod dest
+		} else {
+			documento = "";
+		}
+
+		escreveItens(xml, notaFiscal, emitente.getTipoRegime(), formato);
+		escreveTotal(xml, notaFiscal, emitente.getTipoRegime(), formato);
+
+		xml.abre("transp");
+		xml.elemento("modFrete", 9);
+		xml.fecha(); // fim nod transp
+
+		String vNF = formato.format(notaFiscal.getTotais().getV_nf()).replace(",", ".");
+		xml.abre("pag");
+		xml.elemento("tPag", tipoPagamento);
+		xml.elemento("vPag", vNF);
+		xml.fecha(); // fim nod pag
+
+		xml.fecha(); // fim nod infNFe
+		int fimInfNFe = xml.posicao();
+
+		// o QR-Code leva o digest do infNFe, a assinatura vem depois do infNFeSupl
+		String digest = assina.digestInfNFe(xml, inicioInfNFe, fimInfNFe);
+		String qrCode = qrCode(urlQrCode, emitente, documento, dhEmi, vNF,
+				formato.format(notaFiscal.getTotais().getV_icms()).replace(",", "."), digest);
+
+		xml.abre("infNFeSupl");
+		xml.elemento("qrCode", qrCode);
+		xml.fecha(); // fim nod infNFeSupl
+
+		assina.assinaNFe(xml, "NFe" + chaveNfeRetorno, digest);
+
+		xml.fecha(); // fim nod NFe
+
+		return qrCode;
+	}
 
-			writer.startNode("xProd");
-			context.convertAnother("teste " + String.valueOf(i + 1));
-			writer.endNode();
+	/*
+	 * QR-Code da NFC-e versão 100, o hash é o SHA-1 dos parâmetros seguidos do
+	 * CSC
+	 */
+	private String qrCode(String url, EmitenteNfce emitente, String documento, String dhEmi, String vNF, String vICMS,
+			String digest) {
+		StringBuilder parametros = new StringBuilder();
+		parametros.append("chNFe=").append(chaveNfeRetorno);
+		parametros.append("&nVersao=100");
+		parametros.append("&tpAmb=").append(emitente.getAmbiente());
+		if (!documento.isEmpty())
+			parametros.append("&cDest=").append(documento);
+		parametros.append("&dhEmi=").append(hexa(dhEmi.getBytes(StandardCharsets.UTF_8)));
+		parametros.append("&vNF=").append(vNF);
+		parametros.append("&vICMS=").append(vICMS);
+		parametros.append("&digVal=").append(hexa(digest.getBytes(StandardCharsets.UTF_8)));
+		parametros.append("&cIdToken=").append(emitente.getCscId());
+
+		String hash;
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			hash = hexa(sha1.digest((parametros + emitente.getCsc()).getBytes(StandardCharsets.UTF_8))).toUpperCase();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Erro ao gerar o QR-Code da NFC-e", e);
+		}
+
+		return url + "?" + parametros + "&cHashQRCode=" + hash;
+	}
 
-			writer.startNode("NCM");
-			context.convertAnother(21050010);
-			writer.endNode();
+	private static String hexa(byte[] bytes) {
+		StringBuilder hexa = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hexa.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hexa.toString();
+	}
 
-			writer.startNode("CFOP");
-			context.convertAnother(notaFiscal.getItens().get(i).getCfop());
-			writer.endNode();
+	/*
+	 * Escreve o <emit>, igual em toda nota do emissor
+	 */
+	static void escreveEmitente(EscritorXml xml, Empresa emissor, String cnpjEmissor) {
+		xml.abre("emit");
 
-			writer.startNode("uCom");
-			context.convertAnother(notaFiscal.getItens().get(i).getUnidade_tribu());
-			writer.endNode();
+		xml.elemento("CNPJ", cnpjEmissor);
+		xml.elemento("xNome", emissor.getNome());
+		xml.elemento("xFant", emissor.getNome_fantasia());
 
-			writer.startNode("qCom");
-			context.convertAnother(notaFiscal.getItens().get(i).getQtd());
-			writer.endNode();
+		xml.abre("enderEmit");
 
-			writer.startNode("vUnCom");
-			context.convertAnother(notaFiscal.getItens().get(i).getV_uniTribu());
-			writer.endNode();
+		xml.elemento("xLgr", emissor.getEndereco().getRua());
+		xml.elemento("nro", emissor.getEndereco().getNumero());
+		xml.elemento("xCpl", emissor.getEndereco().getReferencia());
+		xml.elemento("xBairro", emissor.getEndereco().getBairro());
+		xml.elemento("cMun", emissor.getEndereco().getCidade().getCodigo_municipio());
+		xml.elemento("xMun", emissor.getEndereco().getCidade().getNome());
+		xml.elemento("UF", emissor.getEndereco().getCidade().getEstado().getSigla());
+		xml.elemento("CEP", emissor.getEndereco().getCep());
+		xml.elemento("cPais",
+				emissor.getEndereco().getCidade().getEstado().getPais().getCodigo_pais());
+		xml.elemento("xPais", emissor.getEndereco().getCidade().getEstado().getPais().getNome());
 
-			writer.startNode("vProd");
-			context.convertAnother(formato.format(notaFiscal.getItens().get(i).getVlTotal()).replace(",", "."));
-			writer.endNode();
+		xml.fecha(); // fim not <enderEmit>
 
-			writer.startNode("cEANTrib");
-			context.convertAnother("");
-			writer.endNode();
+		xml.elemento("IE", emissor.getIe());
+		xml.elemento("CRT", emissor.getRegime_tributario().getTipoRegime());
 
-			writer.startNode("uTrib");
-			context.convertAnother(notaFiscal.getItens().get(i).getUnidade_tribu());
-			writer.endNode();
+		xml.fecha(); // fim nod <emit>
+	}
 
-			writer.startNode("qTrib");
-			context.convertAnother(notaFiscal.getItens().get(i).getQtd_tribu());
-			writer.endNode();
+	private static void escreveItens(EscritorXml xml, NotaFiscal notaFiscal, int tipoRegime, DecimalFormat formato) {
+		for (int i = 0; i < notaFiscal.getItens().size(); i++) {
+			xml.abre("det");
+			xml.atributo("nItem", String.valueOf(i + 1));
 
-			writer.startNode("vUnTrib");
-			context.convertAnother(notaFiscal.getItens().get(i).getV_uniTribu());
-			writer.endNode();
+			xml.abre("prod");
 
-			writer.startNode("indTot");
-			context.convertAnother(1);
-			writer.endNode();
+			xml.elemento("cProd", notaFiscal.getItens().get(i).getCodigo());
+			xml.elemento("cEAN", "");
+			xml.elemento("xProd", "teste " + String.valueOf(i + 1));
+			xml.elemento("NCM", 21050010);
+			xml.elemento("CFOP", notaFiscal.getItens().get(i).getCfop());
+			xml.elemento("uCom", notaFiscal.getItens().get(i).getUnidade_tribu());
+			xml.elemento("qCom", notaFiscal.getItens().get(i).getQtd());
+			xml.elemento("vUnCom", notaFiscal.getItens().get(i).getV_uniTribu());
+			xml.elemento("vProd", formato.format(notaFiscal.getItens().get(i).getVlTotal()).replace(",", "."));
+			xml.elemento("cEANTrib", "");
+			xml.elemento("uTrib", notaFiscal.getItens().get(i).getUnidade_tribu());
+			xml.elemento("qTrib", notaFiscal.getItens().get(i).getQtd_tribu());
+			xml.elemento("vUnTrib", notaFiscal.getItens().get(i).getV_uniTribu());
+			xml.elemento("indTot", 1);
 
-			writer.endNode(); // fim nod<prod>
+			xml.fecha(); // fim nod<prod>
 
-			writer.startNode("imposto");
+			xml.abre("imposto");
 
-			writer.startNode("ICMS");
+			xml.abre("ICMS");
 
 			DecimalFormat formato2 = new DecimalFormat("00");
 
@@ -378,206 +417,100 @@ public class ConversorXmlNfe implements Converter {
 			else
 				modeloICMS = "ICMS";
 
-			writer.startNode(modeloICMS + formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst()));
+			xml.abre(modeloICMS + formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst()));
 
-			writer.startNode("orig");
-			context.convertAnother(notaFiscal.getItens().get(i).getImpostos().getOrig());
-			writer.endNode();
+			xml.elemento("orig", notaFiscal.getItens().get(i).getImpostos().getOrig());
 
 			if (tipoRegime == 1) {
-				writer.startNode("CSOSN");
-				context.convertAnother(notaFiscal.getItens().get(i).getImpostos().getCst());
-				writer.endNode();
-
-				writer.startNode("pCredSN");
-				context.convertAnother(2);
-				writer.endNode();
-
-				writer.startNode("vCredICMSSN");
-				context.convertAnother((notaFiscal.getItens().get(i).getVlTotal() * 2) / 100);
-				writer.endNode();
+				xml.elemento("CSOSN", notaFiscal.getItens().get(i).getImpostos().getCst());
+				xml.elemento("pCredSN", 2);
+				xml.elemento("vCredICMSSN", (notaFiscal.getItens().get(i).getVlTotal() * 2) / 100);
 			} else {
-				writer.startNode("CST");
-				context.convertAnother(formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst()));
-				writer.endNode();
-
-				writer.startNode("modBC");
-				context.convertAnother(notaFiscal.getItens().get(i).getImpostos().getMod_bc());
-				writer.endNode();
-
-				writer.startNode("vBC");
-				context.convertAnother(
+				xml.elemento("CST", formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst()));
+				xml.elemento("modBC", notaFiscal.getItens().get(i).getImpostos().getMod_bc());
+				xml.elemento("vBC",
 						formato.format(notaFiscal.getItens().get(i).getImpostos().getV_bc()).replace(",", "."));
-				writer.endNode();
-
-				writer.startNode("pICMS");
-				context.convertAnother(
+				xml.elemento("pICMS",
 						formato.format(notaFiscal.getItens().get(i).getImpostos().getP_icms()).replace(",", "."));
-				writer.endNode();
-
-				writer.startNode("vICMS");
-				context.convertAnother(
+				xml.elemento("vICMS",
 						formato.format(notaFiscal.getItens().get(i).getImpostos().getV_icms()).replace(",", "."));
-				writer.endNode();
 			}
 
-			writer.endNode(); // fim nod ICMS + CST
-
-			writer.endNode(); // fim nod ICMS
+			xml.fecha(); // fim nod ICMS + CST
 
-			writer.startNode("PIS");
+			xml.fecha(); // fim nod ICMS
 
-			writer.startNode("PISAliq");
+			xml.abre("PIS");
 
-			writer.startNode("CST");
-			context.convertAnother(formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst_pis()));
-			writer.endNode();
+			xml.abre("PISAliq");
 
-			writer.startNode("vBC");
-			context.convertAnother(
+			xml.elemento("CST", formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst_pis()));
+			xml.elemento("vBC",
 					formato.format(notaFiscal.getItens().get(i).getImpostos().getVbc_pis()).replace(",", "."));
-			writer.endNode();
-
-			writer.startNode("pPIS");
-			context.convertAnother(
+			xml.elemento("pPIS",
 					formato.format(notaFiscal.getItens().get(i).getImpostos().getP_pis()).replace(",", "."));
-			writer.endNode();
-
-			writer.startNode("vPIS");
-			context.convertAnother(
+			xml.elemento("vPIS",
 					formato.format(notaFiscal.getItens().get(i).getImpostos().getV_pis()).replace(",", "."));
-			writer.endNode();
-
-			writer.endNode(); // fim nod PISAliq
 
-			writer.endNode(); // fim nod PIS
+			xml.fecha(); // fim nod PISAliq
 
-			writer.startNode("COFINS");
+			xml.fecha(); // fim nod PIS
 
-			writer.startNode("COFINSAliq");
+			xml.abre("COFINS");
 
-			writer.startNode("CST");
-			context.convertAnother(formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst_cofins()));
-			writer.endNode();
+			xml.abre("COFINSAliq");
 
-			writer.startNode("vBC");
-			context.convertAnother(
+			xml.elemento("CST", formato2.format(notaFiscal.getItens().get(i).getImpostos().getCst_cofins()));
+			xml.elemento("vBC",
 					formato.format(notaFiscal.getItens().get(i).getImpostos().getVbc_cofins()).replace(",", "."));
-			writer.endNode();
-
-			writer.startNode("pCOFINS");
-			context.convertAnother(
+			xml.elemento("pCOFINS",
 					formato.format(notaFiscal.getItens().get(i).getImpostos().getP_cofins()).replace(",", "."));
-			writer.endNode();
-
-			writer.startNode("vCOFINS");
-			context.convertAnother(
+			xml.elemento("vCOFINS",
 					formato.format(notaFiscal.getItens().get(i).getImpostos().getV_cofins()).replace(",", "."));
-			writer.endNode();
 
-			writer.endNode(); // fim nod COFINS
+			xml.fecha(); // fim nod COFINS
 
-			writer.endNode(); // fim nod COFINSAliq
+			xml.fecha(); // fim nod COFINSAliq
 
-			writer.endNode(); // fim nod imposto
+			xml.fecha(); // fim nod imposto
 
-			writer.endNode(); // fim nod <det>
+			xml.fecha(); // fim nod <det>
 		} // fim for dos itens
+	}
 
-		writer.startNode("total");
+	private static void escreveTotal(EscritorXml xml, NotaFiscal notaFiscal, int tipoRegime, DecimalFormat formato) {
+		xml.abre("total");
 
-		writer.startNode("ICMSTot");
+		xml.abre("ICMSTot");
 
 		String v_bc = formato.format(notaFiscal.getTotais().getV_bc()).replaceAll(",", ".");
 
 		if (tipoRegime == 1)
 			v_bc = "0.00";
 
-		writer.startNode("vBC");
-		context.convertAnother(v_bc);
-		writer.endNode();
-
-		writer.startNode("vICMS");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_icms()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vICMSDeson");
-		context.convertAnother("0.00");
-		writer.endNode();
-
-		writer.startNode("vBCST");
-		context.convertAnother("0.00");
-		writer.endNode();
-
-		writer.startNode("vST");
-		context.convertAnother("0.00");
-		writer.endNode();
-
-		writer.startNode("vProd");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_prod()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vFrete");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_frete()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vSeg");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_seg()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vDesc");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_desc()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vII");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_ii()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vIPI");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_ipi()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vPIS");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_pis()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vCOFINS");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_cofins()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vOutro");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_outros()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.startNode("vNF");
-		context.convertAnother(formato.format(notaFiscal.getTotais().getV_nf()).replaceAll(",", "."));
-		writer.endNode();
-
-		writer.endNode(); // fim nod ICMSTot
-
-		writer.endNode(); // fim nod total
-
-		writer.startNode("transp");
-
-		writer.startNode("modFrete");
-		context.convertAnother(notaFiscal.getFreteTipo().getTipo());
-		writer.endNode();
-
-		writer.endNode(); // fim nod transp
-
-		writer.endNode(); // fim nod <infNFe>
-
-		writer.endNode(); // fim nod NFe
-
+		xml.elemento("vBC", v_bc);
+		xml.elemento("vICMS", formato.format(notaFiscal.getTotais().getV_icms()).replaceAll(",", "."));
+		xml.elemento("vICMSDeson", "0.00");
+		xml.elemento("vBCST", "0.00");
+		xml.elemento("vST", "0.00");
+		xml.elemento("vProd", formato.format(notaFiscal.getTotais().getV_prod()).replaceAll(",", "."));
+		xml.elemento("vFrete", formato.format(notaFiscal.getTotais().getV_frete()).replaceAll(",", "."));
+		xml.elemento("vSeg", formato.format(notaFiscal.getTotais().getV_seg()).replaceAll(",", "."));
+		xml.elemento("vDesc", formato.format(notaFiscal.getTotais().getV_desc()).replaceAll(",", "."));
+		xml.elemento("vII", formato.format(notaFiscal.getTotais().getV_ii()).replaceAll(",", "."));
+		xml.elemento("vIPI", formato.format(notaFiscal.getTotais().getV_ipi()).replaceAll(",", "."));
+		xml.elemento("vPIS", formato.format(notaFiscal.getTotais().getV_pis()).replaceAll(",", "."));
+		xml.elemento("vCOFINS", formato.format(notaFiscal.getTotais().getV_cofins()).replaceAll(",", "."));
+		xml.elemento("vOutro", formato.format(notaFiscal.getTotais().getV_outros()).replaceAll(",", "."));
+		xml.elemento("vNF", formato.format(notaFiscal.getTotais().getV_nf()).replaceAll(",", "."));
+
+		xml.fecha(); // fim nod ICMSTot
+
+		xml.fecha(); // fim nod total
 	}
 
 	public String retornaChaveNfe() {
 		return chaveNfeRetorno;
 	}
 
-	@Override
-	public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
-		return null;
-	}
-
 }
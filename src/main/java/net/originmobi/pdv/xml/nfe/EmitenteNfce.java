@@ -0,0 +1,82 @@
+package net.originmobi.pdv.xml.nfe;
+
+import net.originmobi.pdv.model.Empresa;
+import net.originmobi.pdv.model.EmpresaParametro;
+
+/**
+ * Dados do emitente repetidos em toda NFC-e, montados uma vez por empresa: o
+ * <emit> já escrito em bytes e os campos usados no ide, na chave de acesso e
+ * no QR-Code.
+ */
+public class EmitenteNfce {
+
+	private final String codigoUF;
+	private final String cnpj;
+	private final String codigoMunicipio;
+	private final int tipoRegime;
+	private final int ambiente;
+	private final String cscId;
+	private final String csc;
+	private final byte[] emit;
+	private final long carregadoEm = System.currentTimeMillis();
+
+	private EmitenteNfce(Empresa empresa) {
+		EmpresaParametro parametro = empresa.getParametro();
+		if (parametro.getCsc_id() == null || parametro.getCsc() == null)
+			throw new RuntimeException("CSC da NFC-e não cadastrado, verifique");
+
+		this.codigoUF = empresa.getEndereco().getCidade().getEstado().getCodigoUF();
+		this.cnpj = empresa.getCnpj().replaceAll("\\D", "");
+		this.codigoMunicipio = empresa.getEndereco().getCidade().getCodigo_municipio();
+		this.tipoRegime = empresa.getRegime_tributario().getTipoRegime();
+		this.ambiente = parametro.getAmbiente();
+		this.cscId = parametro.getCsc_id();
+		this.csc = parametro.getCsc();
+
+		// o escritor da thread pode estar em uso, o trecho é escrito em um próprio
+		EscritorXml xml = new EscritorXml();
+		ConversorXmlNfe.escreveEmitente(xml, empresa, cnpj);
+		this.emit = xml.toByteArray();
+	}
+
+	public static EmitenteNfce de(Empresa empresa) {
+		return new EmitenteNfce(empresa);
+	}
+
+	public boolean carregadoAntesDe(long instante) {
+		return carregadoEm < instante;
+	}
+
+	public String getCodigoUF() {
+		return codigoUF;
+	}
+
+	public String getCnpj() {
+		return cnpj;
+	}
+
+	public String getCodigoMunicipio() {
+		return codigoMunicipio;
+	}
+
+	public int getTipoRegime() {
+		return tipoRegime;
+	}
+
+	public int getAmbiente() {
+		return ambiente;
+	}
+
+	public String getCscId() {
+		return cscId;
+	}
+
+	public String getCsc() {
+		return csc;
+	}
+
+	byte[] getEmit() {
+		return emit;
+	}
+
+}
@@ -0,0 +1,213 @@
+package net.originmobi.pdv.xml.nfe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Escreve xml direto em um buffer de bytes UTF-8 reaproveitado pela thread.
+ *
+ * A saída já sai na forma canônica (C14N) usada na assinatura da NF-e: sem
+ * espaços entre as tags, elementos vazios com abertura e fechamento e texto
+ * escapado como no C14N. Assim um trecho do buffer pode ser assinado direto,
+ * sem montar um DOM. Os atributos devem ser informados na ordem canônica, o
+ * xmlns primeiro e os demais em ordem alfabética.
+ */
+public class EscritorXml {
+
+	private static final int TAMANHO_INICIAL = 16 * 1024;
+
+	// buffers maiores que isso não ficam presos na thread depois do uso
+	private static final int TAMANHO_MAXIMO_RETIDO = 1024 * 1024;
+
+	private static final ThreadLocal<EscritorXml> escritores = ThreadLocal.withInitial(EscritorXml::new);
+
+	private byte[] buffer = new byte[TAMANHO_INICIAL];
+	private int tamanho;
+	private final Deque<String> abertos = new ArrayDeque<>();
+	private boolean tagAberta;
+
+	/*
+	 * Devolve o escritor da thread atual, vazio
+	 */
+	public static EscritorXml daThread() {
+		EscritorXml escritor = escritores.get();
+		escritor.limpa();
+		return escritor;
+	}
+
+	public void limpa() {
+		if (buffer.length > TAMANHO_MAXIMO_RETIDO)
+			buffer = new byte[TAMANHO_INICIAL];
+
+		tamanho = 0;
+		abertos.clear();
+		tagAberta = false;
+	}
+
+	public EscritorXml declaracao() {
+		escreve("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		return this;
+	}
+
+	public EscritorXml abre(String nome) {
+		fechaTag();
+		escreve('<');
+		escreve(nome);
+		abertos.push(nome);
+		tagAberta = true;
+		return this;
+	}
+
+	public EscritorXml atributo(String nome, Object valor) {
+		if (!tagAberta)
+			throw new IllegalStateException("Atributo " + nome + " fora da abertura de um elemento");
+
+		escreve(' ');
+		escreve(nome);
+		escreve("=\"");
+		escapa(valor, true);
+		escreve('"');
+		return this;
+	}
+
+	public EscritorXml texto(Object valor) {
+		fechaTag();
+		escapa(valor, false);
+		return this;
+	}
+
+	public EscritorXml fecha() {
+		fechaTag();
+		escreve("</");
+		escreve(abertos.pop());
+		escreve('>');
+		return this;
+	}
+
+	public EscritorXml elemento(String nome, Object valor) {
+		return abre(nome).texto(valor).fecha();
+	}
+
+	/*
+	 * Copia um trecho já pronto, como o NFe assinado em outra thread
+	 */
+	public EscritorXml fragmento(byte[] xml) {
+		fechaTag();
+		garante(xml.length);
+		System.arraycopy(xml, 0, buffer, tamanho, xml.length);
+		tamanho += xml.length;
+		return this;
+	}
+
+	/*
+	 * Posição atual no buffer, usada para marcar o início e o fim de um trecho
+	 */
+	public int posicao() {
+		fechaTag();
+		return tamanho;
+	}
+
+	byte[] buffer() {
+		return buffer;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, tamanho);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, 0, tamanho, StandardCharsets.UTF_8);
+	}
+
+	private void fechaTag() {
+		if (tagAberta) {
+			escreve('>');
+			tagAberta = false;
+		}
+	}
+
+	private void escapa(Object valor, boolean atributo) {
+		if (valor == null)
+			return;
+
+		String texto = String.valueOf(valor);
+		for (int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			switch (c) {
+			case '&':
+				escreve("&amp;");
+				break;
+			case '<':
+				escreve("&lt;");
+				break;
+			case '>':
+				if (atributo)
+					escreve(c);
+				else
+					escreve("&gt;");
+				break;
+			case '"':
+				if (atributo)
+					escreve("&quot;");
+				else
+					escreve(c);
+				break;
+			case '\t':
+				if (atributo)
+					escreve("&#x9;");
+				else
+					escreve(c);
+				break;
+			case '\n':
+				if (atributo)
+					escreve("&#xA;");
+				else
+					escreve(c);
+				break;
+			case '\r':
+				escreve("&#xD;");
+				break;
+			default:
+				if (Character.isHighSurrogate(c) && i + 1 < texto.length()) {
+					escreve(Character.toCodePoint(c, texto.charAt(++i)));
+				} else {
+					escreve(c);
+				}
+			}
+		}
+	}
+
+	private void escreve(String texto) {
+		for (int i = 0; i < texto.length(); i++)
+			escreve(texto.charAt(i));
+	}
+
+	private void escreve(int codePoint) {
+		garante(4);
+
+		if (codePoint < 0x80) {
+			buffer[tamanho++] = (byte) codePoint;
+		} else if (codePoint < 0x800) {
+			buffer[tamanho++] = (byte) (0xC0 | (codePoint >> 6));
+			buffer[tamanho++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			buffer[tamanho++] = (byte) (0xE0 | (codePoint >> 12));
+			buffer[tamanho++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			buffer[tamanho++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else {
+			buffer[tamanho++] = (byte) (0xF0 | (codePoint >> 18));
+			buffer[tamanho++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			buffer[tamanho++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			buffer[tamanho++] = (byte) (0x80 | (codePoint & 0x3F));
+		}
+	}
+
+	private void garante(int bytes) {
+		if (tamanho + bytes > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, tamanho + bytes));
+	}
+
+}
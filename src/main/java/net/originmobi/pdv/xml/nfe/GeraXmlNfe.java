@@ -1,48 +1,56 @@
 package net.originmobi.pdv.xml.nfe;
 
+import java.nio.charset.StandardCharsets;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
-
 import net.originmobi.pdv.model.NotaFiscal;
-import net.originmobi.pdv.service.notafiscal.NotaFiscalService;
 
 @Component
 public class GeraXmlNfe {
 	
 	@Autowired
-	private NotaFiscalService nfServer;
+	private ArquivoXmlNfe arquivoXml;
 
 	/*
 	 * Recebe uma notafiscal e retorna a chave de acesso da mesma
 	 */
 	public String gerarXML(NotaFiscal notaFiscal) {
-		XStream valor = new XStream(new DomDriver());
 		ConversorXmlNfe conversor = new ConversorXmlNfe();
 		AssinaXML assina = new AssinaXML();
 		
-		valor.registerConverter(conversor);
-		
-		valor.alias("enviNFe", NotaFiscal.class);
-		
-		String xml = valor.toXML(notaFiscal);
-		
-		xml = assina.assinaXML(xml);
+		// gera e assina o xml em uma única passada
+		String xml = conversor.converte(notaFiscal, assina);
 		
 		//pega a chave da nfe
 		String chaveNfe = conversor.retornaChaveNfe();
 		
-		nfServer = new NotaFiscalService();
-		
-		if(notaFiscal.getChave_acesso() != null) {
-			nfServer.removeXml(notaFiscal.getChave_acesso());
+		if(notaFiscal.getChave_acesso() != null && !notaFiscal.getChave_acesso().equals(chaveNfe)) {
+			arquivoXml.remove(notaFiscal.getChave_acesso());
 		}
 		
-		nfServer.salvaXML(xml, chaveNfe);
+		arquivoXml.grava(chaveNfe, xml.getBytes(StandardCharsets.UTF_8));
 		
 		return chaveNfe;
 	}
-}
 
+	/*
+	 * Gera apenas o NFe assinado de uma nota, para ser enviado em lote
+	 */
+	public NFeAssinada gerarNFe(NotaFiscal notaFiscal) {
+		ConversorXmlNfe conversor = new ConversorXmlNfe();
+		byte[] nfe = conversor.converteNFe(notaFiscal, new AssinaXML());
+
+		return new NFeAssinada(conversor.retornaChaveNfe(), nfe);
+	}
+
+	/*
+	 * Gera a NFC-e assinada com o QR-Code, o emitente já vem montado
+	 */
+	public NFCeAssinada gerarNFCe(NotaFiscal notaFiscal, EmitenteNfce emitente, String tipoPagamento,
+			boolean contingencia, String urlQrCode) {
+		return new ConversorXmlNfe().converteNFCe(notaFiscal, emitente, tipoPagamento, contingencia, urlQrCode,
+				new AssinaXML());
+	}
+}
@@ -0,0 +1,26 @@
+package net.originmobi.pdv.xml.nfe;
+
+/**
+ * NFC-e assinada com o QR-Code gerado para o DANFE e a indicação de emissão em
+ * contingência offline
+ */
+public class NFCeAssinada extends NFeAssinada {
+
+	private final String qrCode;
+	private final boolean contingencia;
+
+	public NFCeAssinada(String chave, byte[] xml, String qrCode, boolean contingencia) {
+		super(chave, xml);
+		this.qrCode = qrCode;
+		this.contingencia = contingencia;
+	}
+
+	public String getQrCode() {
+		return qrCode;
+	}
+
+	public boolean isContingencia() {
+		return contingencia;
+	}
+
+}
@@ -0,0 +1,25 @@
+package net.originmobi.pdv.xml.nfe;
+
+/**
+ * NFe já assinado, pronto para ser juntado em um lote, com a chave de acesso
+ * gerada para a nota
+ */
+public class NFeAssinada {
+
+	private final String chave;
+	private final byte[] xml;
+
+	public NFeAssinada(String chave, byte[] xml) {
+		this.chave = chave;
+		this.xml = xml;
+	}
+
+	public String getChave() {
+		return chave;
+	}
+
+	public byte[] getXml() {
+		return xml;
+	}
+
+}
@@ -0,0 +1,38 @@
+-- -----------------------------------------------------
+-- Cubo diário das vendas
+--
+-- Quantidade, valor bruto e desconto das vendas fechadas por dia, hora,
+-- produto, usuário e forma de pagamento. O VendaCuboService soma cada venda
+-- no fechamento e reconstrói os dias em paralelo, o desconto da venda é
+-- rateado entre os produtos pelo valor bruto de cada um.
+-- -----------------------------------------------------
+USE `pdv`;
+
+CREATE TABLE IF NOT EXISTS `pdv`.`venda_cubo` (
+  `dia` DATE NOT NULL,
+  `hora` TINYINT NOT NULL,
+  `produto_codigo` INT(11) NOT NULL,
+  `usuario_codigo` INT(11) NOT NULL,
+  `pagamento_tipo_codigo` INT(11) NOT NULL,
+  `qtd` BIGINT NOT NULL DEFAULT 0,
+  `valor_bruto` DECIMAL(15,2) NOT NULL DEFAULT 0,
+  `valor_desconto` DECIMAL(15,2) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`dia`, `hora`, `produto_codigo`, `usuario_codigo`, `pagamento_tipo_codigo`),
+  INDEX `venda_cubo_produto_idx` (`produto_codigo` ASC, `dia` ASC),
+  INDEX `venda_cubo_usuario_idx` (`usuario_codigo` ASC, `dia` ASC))
+ENGINE = InnoDB;
+
+INSERT INTO `pdv`.`venda_cubo` (`dia`, `hora`, `produto_codigo`, `usuario_codigo`, `pagamento_tipo_codigo`, `qtd`,
+  `valor_bruto`, `valor_desconto`)
+SELECT s.dia, s.hora, s.produto_codigo, s.usuario_codigo, s.pagamento_tipo_codigo, sum(s.qtd), sum(s.bruto), sum(s.desconto)
+FROM (
+  SELECT date(max(v.data_finalizado)) AS dia, hour(max(v.data_finalizado)) AS hora, vp.produto_codigo,
+    max(v.usuario_codigo) AS usuario_codigo, coalesce(max(ptv.pag_tipo_codigo), 0) AS pagamento_tipo_codigo,
+    sum(vp.qtd) AS qtd, sum(vp.valor_unitario * vp.qtd) AS bruto,
+    coalesce(round(max(v.valor_desconto) * sum(vp.valor_unitario * vp.qtd) / nullif(max(v.valor_produtos), 0), 2), 0) AS desconto
+  FROM `pdv`.`venda` v
+  JOIN `pdv`.`venda_produtos` vp ON vp.venda_codigo = v.codigo
+  LEFT JOIN `pdv`.`pagamento_tipo_venda` ptv ON ptv.ven_codigo = v.codigo
+  WHERE v.situacao = 'FECHADA' AND v.data_finalizado IS NOT NULL
+  GROUP BY v.codigo, vp.produto_codigo) s
+GROUP BY s.dia, s.hora, s.produto_codigo, s.usuario_codigo, s.pagamento_tipo_codigo;
@@ -0,0 +1,11 @@
+-- -----------------------------------------------------
+-- Chave da NFC-e enviada sem resposta
+--
+-- Quando o autorizador não responde a nota é gerada de novo em
+-- contingência com outra chave. A chave enviada fica gravada para a nota
+-- ser cancelada caso seja autorizada depois.
+-- -----------------------------------------------------
+USE `pdv`;
+
+ALTER TABLE `pdv`.`nota_fiscal`
+  ADD COLUMN `chave_acesso_sem_resposta` VARCHAR(50) NULL AFTER `chave_acesso`;
@@ -0,0 +1,13 @@
+-- -----------------------------------------------------
+-- Renovação dos blocos de numeração
+--
+-- Cada instância tem um identificador próprio e renova periodicamente os
+-- blocos que está usando. Um bloco sem renovação dentro do tempo de
+-- concessão é de uma instância que caiu e pode ser encerrado por qualquer
+-- outra.
+-- -----------------------------------------------------
+USE `pdv`;
+
+ALTER TABLE `pdv`.`nota_fiscal_numeracao_bloco`
+  ADD COLUMN `data_renovacao` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP AFTER `data_esgotado`,
+  ADD INDEX `renovacao_idx` (`data_renovacao` ASC);
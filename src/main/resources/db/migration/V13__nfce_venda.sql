@@ -0,0 +1,13 @@
+-- -----------------------------------------------------
+-- Venda da NFC-e
+--
+-- A NFC-e guarda a venda que a gerou e cada venda tem no máximo uma nota
+-- do modelo. Uma nova tentativa de emissão, por exemplo após o tempo
+-- limite do autorizador, devolve a nota já emitida em vez de gerar outra.
+-- As demais notas ficam sem venda.
+-- -----------------------------------------------------
+USE `pdv`;
+
+ALTER TABLE `pdv`.`nota_fiscal`
+  ADD COLUMN `venda_codigo` INT(11) NULL AFTER `modelo`,
+  ADD UNIQUE INDEX `venda_modelo_UNIQUE` (`venda_codigo` ASC, `modelo` ASC);
@@ -0,0 +1,68 @@
+-- -----------------------------------------------------
+-- Quantidade nos produtos da venda
+--
+-- Cada produto da venda passa a ocupar uma única linha com a sua quantidade,
+-- antes era gravada uma linha por unidade vendida. Produtos de balança
+-- continuam com uma linha por pesagem (qtd = 1).
+-- -----------------------------------------------------
+USE `pdv`;
+
+ALTER TABLE `pdv`.`venda_produtos`
+  ADD COLUMN `qtd` INT NOT NULL DEFAULT 1 AFTER `venda_codigo`;
+
+DROP TRIGGER IF EXISTS `pdv`.`tr_atualizaTotalProdutosVenda_AFTER_INSERT`;
+DROP TRIGGER IF EXISTS `pdv`.`atualizaTotalProdutos_BEFORE_DELETE`;
+
+DELIMITER $$
+USE `pdv`$$
+CREATE DEFINER = CURRENT_USER TRIGGER `pdv`.`tr_atualizaTotalProdutosVenda_AFTER_INSERT` AFTER INSERT ON `venda_produtos` FOR EACH ROW
+BEGIN
+	SET @codigoVen = NEW.venda_codigo;
+    SET @codigoPro = NEW.produto_codigo;
+    SET @vlBalanca = NEW.valor_balanca;
+    SET @qtd = NEW.qtd;
+    
+    select coalesce(v.valor_produtos, 0) INTO @vlProdutos from venda v where v.codigo = @codigoVen;
+    
+    IF(@vlBalanca > 0) THEN
+		update venda set valor_produtos = (@vlProdutos + @vlBalanca) where codigo = @codigoVen;
+	else 
+		select p.valor_venda INTO @vlVenda from produto p where p.codigo = @codigoPro;
+		UPDATE venda set valor_produtos = (@vlProdutos + (@vlVenda * @qtd)) where codigo = @codigoVen;
+	end if;
+END;$$
+
+USE `pdv`$$
+CREATE DEFINER = CURRENT_USER TRIGGER `pdv`.`tr_atualizaTotalProdutosVenda_AFTER_UPDATE` AFTER UPDATE ON `venda_produtos` FOR EACH ROW
+BEGIN
+	SET @codigoVen = NEW.venda_codigo;
+    SET @codigoPro = NEW.produto_codigo;
+    SET @vlBalanca = NEW.valor_balanca;
+    SET @diferenca = NEW.qtd - OLD.qtd;
+    
+    IF(@diferenca <> 0 AND coalesce(@vlBalanca, 0) = 0) THEN
+		select coalesce(v.valor_produtos, 0) INTO @vlProdutos from venda v where v.codigo = @codigoVen;
+		select p.valor_venda INTO @vlVenda from produto p where p.codigo = @codigoPro;
+		UPDATE venda set valor_produtos = (@vlProdutos + (@vlVenda * @diferenca)) where codigo = @codigoVen;
+	end if;
+END;$$
+
+USE `pdv`$$
+CREATE DEFINER = CURRENT_USER TRIGGER `pdv`.`atualizaTotalProdutos_BEFORE_DELETE` BEFORE DELETE ON `venda_produtos` FOR EACH ROW
+BEGIN
+	SET @codigoVen = OLD.venda_codigo;
+    SET @vlBalanca = OLD.valor_balanca;
+    SET @codigoProd = OLD.produto_codigo;
+    SET @qtd = OLD.qtd;
+    
+    select coalesce(v.valor_produtos, 0) into @vlProdutos from venda v where v.codigo = @codigoVen;
+    
+    if(@vlBalanca > 0) then
+		update venda set valor_produtos = (@vlProdutos - @vlBalanca) where codigo = @codigoVen;
+	else
+		select valor_venda into @vlVenda from produto where codigo = @codigoProd;
+        update venda set valor_produtos = (@vlProdutos - (@vlVenda * @qtd)) where codigo = @codigoVen;
+	end if;
+END$$
+
+DELIMITER ;
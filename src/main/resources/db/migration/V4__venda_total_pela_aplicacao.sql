@@ -0,0 +1,28 @@
+-- -----------------------------------------------------
+-- Total dos produtos da venda mantido pela aplicação
+--
+-- O VendaService passa a somar/subtrair o valor de cada linha em
+-- venda.valor_produtos, por isso as triggers de venda_produtos são removidas.
+-- O preço unitário é gravado na linha no momento da inclusão, assim a
+-- remoção não depende do preço atual do produto.
+-- -----------------------------------------------------
+USE `pdv`;
+
+DROP TRIGGER IF EXISTS `pdv`.`tr_atualizaTotalProdutosVenda_AFTER_INSERT`;
+DROP TRIGGER IF EXISTS `pdv`.`tr_atualizaTotalProdutosVenda_AFTER_UPDATE`;
+DROP TRIGGER IF EXISTS `pdv`.`atualizaTotalProdutos_BEFORE_DELETE`;
+
+ALTER TABLE `pdv`.`venda_produtos`
+  ADD COLUMN `valor_unitario` DECIMAL(10,2) NOT NULL DEFAULT 0 AFTER `qtd`;
+
+ALTER TABLE `pdv`.`venda`
+  ADD COLUMN `versao` INT NOT NULL DEFAULT 0;
+
+UPDATE `pdv`.`venda_produtos` vp
+  INNER JOIN `pdv`.`produto` p ON p.codigo = vp.produto_codigo
+  SET vp.valor_unitario = IF(coalesce(vp.valor_balanca, 0) > 0, vp.valor_balanca, p.valor_venda);
+
+UPDATE `pdv`.`venda` v
+  SET v.valor_produtos = (select coalesce(sum(round(vp.valor_unitario * 100) * vp.qtd), 0) / 100
+                            from `pdv`.`venda_produtos` vp where vp.venda_codigo = v.codigo)
+  WHERE v.situacao = 'ABERTA';
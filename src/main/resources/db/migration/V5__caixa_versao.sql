@@ -0,0 +1,15 @@
+-- -----------------------------------------------------
+-- Versão dos caixas
+--
+-- Incrementada sempre que um caixa é aberto ou fechado, as instâncias da
+-- aplicação comparam esta versão para descartar o caixa aberto em memória.
+-- -----------------------------------------------------
+USE `pdv`;
+
+CREATE TABLE IF NOT EXISTS `pdv`.`caixa_versao` (
+  `codigo` INT(11) NOT NULL,
+  `versao` BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`codigo`))
+ENGINE = InnoDB;
+
+INSERT INTO `pdv`.`caixa_versao` (`codigo`, `versao`) VALUES (1, 0);
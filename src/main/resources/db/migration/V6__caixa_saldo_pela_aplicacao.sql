@@ -0,0 +1,12 @@
+-- -----------------------------------------------------
+-- Saldo dos caixas mantido pela aplicação
+--
+-- O CaixaLancamentoService aplica cada lançamento no caixa com um único
+-- update condicional (em centavos), as saídas sem saldo são recusadas no
+-- próprio update. A transferência passa a gerar os seus lançamentos pelo
+-- TransferenciaService.
+-- -----------------------------------------------------
+USE `pdv`;
+
+DROP TRIGGER IF EXISTS `pdv`.`tr_atualizaValoresCaixa_AFTER_INSERT`;
+DROP TRIGGER IF EXISTS `pdv`.`tr_lanca_cai_lancamento_AFTER_INSERT`;
@@ -0,0 +1,10 @@
+-- -----------------------------------------------------
+-- Estoque mantido pela aplicação
+--
+-- O ProdutoService grava as movimentações em lote e atualiza o
+-- produto_estoque com um update condicional por produto, a trigger de
+-- estoque_movimentacao deixa de ser usada.
+-- -----------------------------------------------------
+USE `pdv`;
+
+DROP TRIGGER IF EXISTS `pdv`.`atualiza_produto_estoque_AFTER_INSERT`;
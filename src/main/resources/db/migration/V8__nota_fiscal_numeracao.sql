@@ -0,0 +1,50 @@
+-- -----------------------------------------------------
+-- Numeração das notas fiscais por empresa, modelo e série
+--
+-- O NotaFiscalNumeracaoService reserva blocos de números avançando o
+-- proximo_numero com um único update, os blocos em uso ficam registrados
+-- por instância e os números que não chegaram a virar nota são gravados
+-- em nota_fiscal_inutilizacao.
+-- -----------------------------------------------------
+USE `pdv`;
+
+CREATE TABLE IF NOT EXISTS `pdv`.`nota_fiscal_numeracao` (
+  `empresa_codigo` INT(11) NOT NULL,
+  `modelo` INT NOT NULL,
+  `serie` INT NOT NULL,
+  `proximo_numero` INT(11) NOT NULL,
+  PRIMARY KEY (`empresa_codigo`, `modelo`, `serie`))
+ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS `pdv`.`nota_fiscal_numeracao_bloco` (
+  `codigo` INT(11) NOT NULL AUTO_INCREMENT,
+  `empresa_codigo` INT(11) NOT NULL,
+  `modelo` INT NOT NULL,
+  `serie` INT NOT NULL,
+  `numero_inicial` INT(11) NOT NULL,
+  `numero_final` INT(11) NOT NULL,
+  `instancia` VARCHAR(255) NOT NULL,
+  `data_reserva` DATETIME NOT NULL,
+  `data_esgotado` DATETIME NULL,
+  PRIMARY KEY (`codigo`),
+  UNIQUE INDEX `bloco_UNIQUE` (`empresa_codigo` ASC, `modelo` ASC, `serie` ASC, `numero_inicial` ASC),
+  INDEX `instancia_idx` (`instancia` ASC))
+ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS `pdv`.`nota_fiscal_inutilizacao` (
+  `codigo` INT(11) NOT NULL AUTO_INCREMENT,
+  `empresa_codigo` INT(11) NOT NULL,
+  `modelo` INT NOT NULL,
+  `serie` INT NOT NULL,
+  `numero_inicial` INT(11) NOT NULL,
+  `numero_final` INT(11) NOT NULL,
+  `situacao` VARCHAR(45) NOT NULL DEFAULT 'PENDENTE',
+  `data_cadastro` DATETIME NOT NULL,
+  PRIMARY KEY (`codigo`),
+  INDEX `numeracao_idx` (`empresa_codigo` ASC, `modelo` ASC, `serie` ASC))
+ENGINE = InnoDB;
+
+INSERT INTO `pdv`.`nota_fiscal_numeracao` (`empresa_codigo`, `modelo`, `serie`, `proximo_numero`)
+SELECT `emissor_codigo`, `modelo`, `serie`, MAX(`numero`) + 1
+  FROM `pdv`.`nota_fiscal`
+ GROUP BY `emissor_codigo`, `modelo`, `serie`;
@@ -0,0 +1,13 @@
+-- -----------------------------------------------------
+-- Parâmetros da NFC-e (modelo 65)
+--
+-- A série da NFC-e é separada da série da NF-e e o CSC (código de
+-- segurança do contribuinte) com o seu identificador é usado no hash do
+-- QR-Code.
+-- -----------------------------------------------------
+USE `pdv`;
+
+ALTER TABLE `pdv`.`empresa_parametros`
+  ADD COLUMN `serie_nfce` INT NULL AFTER `serie_nfe`,
+  ADD COLUMN `csc_id` VARCHAR(6) NULL,
+  ADD COLUMN `csc` VARCHAR(36) NULL;
@@ -40,6 +40,8 @@ $(function() {
 						
 						if (e == "Venda fechada")
 							alert("Venda Fechada");
+						else if (e != "ok")
+							alert(e);
 						
 					}
 				});
@@ -50,6 +52,45 @@ $(function() {
 				});
 			});
 
+	// responsável por buscar os produtos conforme o que é digitado, a
+	// busca é feita no índice do servidor e retorna apenas os primeiros
+	// produtos encontrados
+	var buscaProdutoTimer;
+	$("#buscaProduto").on("input", function() {
+		var termo = $(this).val();
+
+		clearTimeout(buscaProdutoTimer);
+		buscaProdutoTimer = setTimeout(function() {
+			var $select = $("#codigoProduto");
+
+			if (termo.trim() == "") {
+				$select.find('option').remove();
+				$select.append("<option selected='selected'></option>");
+				return;
+			}
+
+			$.ajax({
+				dataType : 'json',
+				url : $('#link-busca-produtos').attr('href'),
+				data : {
+					termo : termo
+				},
+
+				success : function(e) {
+					$select.find('option').remove();
+					$.each(e, function(key, value) {
+						$select.append($("<option></option>")
+								.val(value['codigo'])
+								.attr('data-balanca', value['balanca'])
+								.text("COD: " + value['codigo'] + " - "
+										+ value['descricao'] + " - R$"
+										+ value['valor_venda']));
+					});
+				}
+			});
+		}, 150);
+	});
+
 	// responsável por remover um produto da venda
 	$('#tabProdutoVenda').on(
 			'click',
@@ -295,6 +336,7 @@ $(function() {
 			$("#btn-salva").prop("disabled", true);
 			$("#btn-venda").prop("disabled", true);
 			$("#codigoProduto").prop("disabled", true);
+			$("#buscaProduto").prop("disabled", true);
 			$("#cliente").prop("disabled", true);
 			$("#observacao").prop("disabled", true);
 		}
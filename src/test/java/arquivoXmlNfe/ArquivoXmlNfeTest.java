@@ -0,0 +1,170 @@
+package arquivoXmlNfe;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
+
+@DisplayName("ArquivoXmlNfe — testes unitarios")
+class ArquivoXmlNfeTest {
+
+    @TempDir
+    Path diretorio;
+
+    private static byte[] xml(String chave) {
+        StringBuilder xml = new StringBuilder("<NFe><infNFe Id=\"NFe" + chave + "\">");
+        for (int i = 0; i < 50; i++)
+            xml.append("<det nItem=\"").append(i).append("\"><prod><xProd>Produto ção</xProd></prod></det>");
+        return xml.append("</infNFe></NFe>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String texto(byte[] xml) {
+        return new String(xml, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("grava()/busca(): o xml é lido de volta igual e a última gravação da chave vale")
+    void grava_Busca_UltimaGravacaoVale() {
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+
+        arquivo.grava("1", xml("1"));
+        arquivo.grava("2", xml("2"));
+        arquivo.grava("1", "<NFe>nova</NFe>".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("<NFe>nova</NFe>", texto(arquivo.busca("1").get()));
+        assertEquals(texto(xml("2")), texto(arquivo.busca("2").get()));
+        assertFalse(arquivo.busca("3").isPresent());
+
+        arquivo.fecha();
+    }
+
+    @Test
+    @DisplayName("abre(): o índice é refeito na abertura com segmentos fechados e remoções")
+    void abre_RefazIndiceDosSegmentos() throws IOException {
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, 1024);
+        for (int i = 0; i < 30; i++)
+            arquivo.grava(String.valueOf(i), xml(String.valueOf(i)));
+        arquivo.remove("7");
+        arquivo.fecha();
+
+        long segmentos;
+        try (java.util.stream.Stream<Path> arquivos = Files.list(diretorio)) {
+            segmentos = arquivos.filter(p -> p.toString().endsWith(".idx")).count();
+        }
+        assertTrue(segmentos > 1);
+
+        ArquivoXmlNfe reaberto = new ArquivoXmlNfe(diretorio, 1024);
+        for (int i = 0; i < 30; i++) {
+            if (i == 7)
+                assertFalse(reaberto.busca("7").isPresent());
+            else
+                assertEquals(texto(xml(String.valueOf(i))), texto(reaberto.busca(String.valueOf(i)).get()));
+        }
+
+        reaberto.fecha();
+    }
+
+    @Test
+    @DisplayName("abre(): registro incompleto no fim do segmento é descartado")
+    void abre_RegistroIncompleto_Descarta() throws IOException {
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+        arquivo.grava("1", xml("1"));
+        arquivo.grava("2", xml("2"));
+        arquivo.fecha();
+
+        Path segmento = diretorio.resolve("segmento-000001.dat");
+        long tamanho = Files.size(segmento);
+        try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.WRITE)) {
+            canal.truncate(tamanho - 10);
+        }
+
+        ArquivoXmlNfe reaberto = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+        assertTrue(reaberto.busca("1").isPresent());
+        assertFalse(reaberto.busca("2").isPresent());
+
+        reaberto.grava("3", xml("3"));
+        assertEquals(texto(xml("3")), texto(reaberto.busca("3").get()));
+        reaberto.fecha();
+    }
+
+    @Test
+    @DisplayName("exporta(): o zip traz os xml gravados no período")
+    void exporta_Periodo_EscreveZip() throws IOException {
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+        arquivo.grava("1", xml("1"));
+        arquivo.grava("2", xml("2"));
+        arquivo.remove("2");
+
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        assertEquals(1, arquivo.exporta(LocalDate.now(), LocalDate.now(), saida));
+
+        List<String> entradas = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(saida.toByteArray()))) {
+            ZipEntry entrada;
+            while ((entrada = zip.getNextEntry()) != null) {
+                entradas.add(entrada.getName());
+                ByteArrayOutputStream conteudo = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int lidos;
+                while ((lidos = zip.read(buffer)) > 0)
+                    conteudo.write(buffer, 0, lidos);
+                assertEquals(texto(xml("1")), texto(conteudo.toByteArray()));
+            }
+        }
+        assertEquals(List.of("1.xml"), entradas);
+
+        ByteArrayOutputStream vazio = new ByteArrayOutputStream();
+        assertEquals(0, arquivo.exporta(LocalDate.now().minusDays(2), LocalDate.now().minusDays(1), vazio));
+
+        arquivo.fecha();
+    }
+
+    @Test
+    @DisplayName("abre(): xml soltos no diretório são incluídos no arquivo e apagados")
+    void abre_XmlSoltos_Importa() throws IOException {
+        Path solto = diretorio.resolve("35200000000000000000550010000000011000000010.xml");
+        Files.write(solto, xml("solto"));
+
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+
+        assertEquals(texto(xml("solto")),
+                texto(arquivo.busca("35200000000000000000550010000000011000000010").get()));
+        assertFalse(Files.exists(solto));
+
+        arquivo.fecha();
+    }
+
+    @Test
+    @DisplayName("abre(): outra instância no mesmo diretório falha enquanto o arquivo estiver aberto")
+    void abre_DiretorioTravado_Falha() {
+        ArquivoXmlNfe primeiro = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+        ArquivoXmlNfe segundo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+
+        primeiro.grava("1", xml("1"));
+        assertThrows(RuntimeException.class, () -> segundo.grava("2", xml("2")));
+
+        primeiro.fecha();
+        segundo.grava("2", xml("2"));
+        assertEquals(texto(xml("1")), texto(segundo.busca("1").get()));
+
+        segundo.fecha();
+    }
+
+}
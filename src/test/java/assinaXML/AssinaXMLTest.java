@@ -0,0 +1,137 @@
+package assinaXML;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PublicKey;
+
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import net.originmobi.pdv.xml.nfe.AssinaXML;
+import net.originmobi.pdv.xml.nfe.EscritorXml;
+
+@DisplayName("AssinaXML — testes unitarios")
+class AssinaXMLTest {
+
+    private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+    private static final String ID = "NFe11180512271266000158550010000000011994707452";
+
+    @TempDir
+    static Path pasta;
+
+    private static String certificado;
+    private static PublicKey chavePublica;
+
+    @BeforeAll
+    static void geraCertificado() throws Exception {
+        certificado = pasta.resolve("certificado.pfx").toString();
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+
+        Process processo = new ProcessBuilder(keytool, "-genkeypair", "-alias", "nfe", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=Teste", "-validity", "1", "-storetype", "pkcs12",
+                "-keystore", certificado, "-storepass", "teste123", "-keypass", "teste123")
+                .redirectErrorStream(true).start();
+        assertEquals(0, processo.waitFor());
+
+        KeyStore ks = KeyStore.getInstance("pkcs12");
+        try (InputStream entrada = new FileInputStream(certificado)) {
+            ks.load(entrada, "teste123".toCharArray());
+        }
+        chavePublica = ks.getCertificate("nfe").getPublicKey();
+    }
+
+    // escreve um enviNFe com textos que precisam de escape, assinando ou não
+    private String enviNFe(AssinaXML assina) {
+        EscritorXml xml = EscritorXml.daThread();
+        xml.declaracao();
+        xml.abre("enviNFe").atributo("xmlns", NS_NFE).atributo("versao", "3.10");
+        xml.elemento("idLote", 1);
+        xml.abre("NFe").atributo("xmlns", NS_NFE);
+
+        int inicio = xml.posicao();
+        xml.abre("infNFe").atributo("Id", ID).atributo("versao", "3.10");
+        xml.abre("emit");
+        xml.elemento("xNome", "Açougue & Mercearia <São João> \"Ltda\"");
+        xml.elemento("xCpl", "");
+        xml.elemento("xFant", null);
+        xml.fecha();
+        for (int i = 1; i <= 3; i++) {
+            xml.abre("det").atributo("nItem", i);
+            xml.elemento("vProd", i * 1.5);
+            xml.fecha();
+        }
+        xml.fecha();
+
+        if (assina != null)
+            assina.assinaNFe(xml, inicio, ID);
+
+        xml.fecha();
+        xml.fecha();
+        return xml.toString();
+    }
+
+    private Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        ((Element) document.getElementsByTagNameNS(NS_NFE, "infNFe").item(0)).setIdAttribute("Id", true);
+        return document;
+    }
+
+    private String digest(Document document) {
+        return document.getElementsByTagNameNS(XMLSignature.XMLNS, "DigestValue").item(0).getTextContent();
+    }
+
+    @Test
+    @DisplayName("assinaNFe(): a assinatura gerada direto no buffer deve ser válida")
+    void assinaNFe_AssinaturaValida() throws Exception {
+        String xml = enviNFe(new AssinaXML(certificado, "teste123"));
+        Document document = parse(xml);
+
+        DOMValidateContext validacao = new DOMValidateContext(KeySelector.singletonKeySelector(chavePublica),
+                document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").item(0));
+        validacao.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.FALSE);
+        XMLSignature assinatura = XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(validacao);
+
+        assertTrue(assinatura.validate(validacao));
+        assertTrue(xml.contains("<xCpl></xCpl>"));
+    }
+
+    @Test
+    @DisplayName("assinaNFe(): o digest deve ser o mesmo da assinatura feita sobre o DOM")
+    void assinaNFe_MesmoDigestDoDom() throws Exception {
+        AssinaXML assina = new AssinaXML(certificado, "teste123");
+
+        String direto = enviNFe(assina);
+        String viaDom = assina.assinaXML(enviNFe(null));
+
+        assertEquals(digest(parse(viaDom)), digest(parse(direto)));
+    }
+
+    @Test
+    @DisplayName("assinaNFe(): certificado inexistente deve retornar erro de assinatura")
+    void assinaNFe_CertificadoInexistente_RetornaErro() {
+        AssinaXML assina = new AssinaXML(pasta.resolve("nao-existe.pfx").toString(), "teste123");
+
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> enviNFe(assina));
+        assertEquals("Erro ao assinar o xml da NF-e, verifique o certificado digital", ex.getMessage());
+    }
+
+}
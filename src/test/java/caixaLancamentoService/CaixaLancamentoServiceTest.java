@@ -0,0 +1,87 @@
+package caixaLancamentoService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import net.originmobi.pdv.enumerado.caixa.EstiloLancamento;
+import net.originmobi.pdv.enumerado.caixa.TipoLancamento;
+import net.originmobi.pdv.model.Caixa;
+import net.originmobi.pdv.model.CaixaLancamento;
+import net.originmobi.pdv.model.Usuario;
+import net.originmobi.pdv.repository.CaixaLancamentoRepository;
+import net.originmobi.pdv.repository.CaixaRepository;
+import net.originmobi.pdv.service.CaixaLancamentoService;
+import net.originmobi.pdv.service.UsuarioService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("CaixaLancamentoService — testes unitarios")
+class CaixaLancamentoServiceTest {
+
+  @InjectMocks
+  private CaixaLancamentoService caixaLancamentoService;
+
+  @Mock private CaixaLancamentoRepository caixaLancamento;
+  @Mock private CaixaRepository caixas;
+  @Mock private UsuarioService usuarios;
+
+  private Caixa caixa(Long codigo) {
+    Caixa c = new Caixa();
+    c.setCodigo(codigo);
+    return c;
+  }
+
+  @Test
+  @DisplayName("lancamento(): ENTRADA deve somar no caixa em centavos e salvar o lançamento")
+  void lancamento_Entrada_SomaNoCaixaESalva() {
+    CaixaLancamento l = new CaixaLancamento("Suprimento", 10.25, TipoLancamento.SUPRIMENTO,
+        EstiloLancamento.ENTRADA, caixa(1L), new Usuario());
+    when(caixas.lancaEntrada(1L, 1025L)).thenReturn(1);
+
+    assertEquals("Lançamento realizado com sucesso", caixaLancamentoService.lancamento(l));
+    verify(caixaLancamento).save(l);
+  }
+
+  @Test
+  @DisplayName("lancamento(): ENTRADA em caixa fechado deve lançar 'Nenhum caixa aberto'")
+  void lancamento_EntradaCaixaFechado_LancaErro() {
+    CaixaLancamento l = new CaixaLancamento("Suprimento", 10.0, TipoLancamento.SUPRIMENTO,
+        EstiloLancamento.ENTRADA, caixa(1L), new Usuario());
+    when(caixas.lancaEntrada(1L, 1000L)).thenReturn(0);
+
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> caixaLancamentoService.lancamento(l));
+    assertEquals("Nenhum caixa aberto", ex.getMessage());
+    verify(caixaLancamento, never()).save(any());
+  }
+
+  @Test
+  @DisplayName("lancamento(): SAIDA com saldo deve gravar o valor negativo")
+  void lancamento_SaidaComSaldo_GravaNegativo() {
+    CaixaLancamento l = new CaixaLancamento("Sangria", 5.0, TipoLancamento.SANGRIA,
+        EstiloLancamento.SAIDA, caixa(2L), new Usuario());
+    when(caixas.lancaSaida(2L, 500L)).thenReturn(1);
+
+    assertEquals("Lançamento realizado com sucesso", caixaLancamentoService.lancamento(l));
+    assertEquals(-5.0, l.getValor());
+    verify(caixaLancamento).save(l);
+  }
+
+  @Test
+  @DisplayName("lancamento(): SAIDA sem saldo deve retornar saldo insuficiente sem gravar")
+  void lancamento_SaidaSemSaldo_RetornaMensagem() {
+    CaixaLancamento l = new CaixaLancamento("Sangria", 500.0, TipoLancamento.SANGRIA,
+        EstiloLancamento.SAIDA, caixa(2L), new Usuario());
+    when(caixas.lancaSaida(2L, 50000L)).thenReturn(0);
+
+    assertEquals(CaixaLancamentoService.SALDO_INSUFICIENTE, caixaLancamentoService.lancamento(l));
+    verify(caixaLancamento, never()).save(any());
+  }
+
+}
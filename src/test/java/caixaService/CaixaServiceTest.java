@@ -3,6 +3,7 @@ package caixaService;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import java.sql.Date;
+import java.time.Clock;
 import java.util.List;
 import java.util.Optional;
 
@@ -39,6 +40,7 @@ class CaixaServiceTest {
   @Mock private CaixaRepository caixas;
   @Mock private UsuarioService usuarios;
   @Mock private CaixaLancamentoService lancamentos;
+  @Mock private Clock relogio;
   
   @Test
   @DisplayName("cadastro(): se tipo=CAIXA e já houver caixa aberto deve retornar 'Existe caixa de dias anteriores em aberto, favor verifique'")
@@ -209,13 +211,13 @@ class CaixaServiceTest {
 
       String msg = caixaService.fechaCaixa(1L, "");
       assertEquals("Favor, informe a senha", msg);
-      verify(caixas, never()).findById(anyLong());
+      verify(caixas, never()).fechaCaixa(anyLong(), any());
     }
   }
 
   @Test
-  @DisplayName("fechaCaixa(): se senha correta e caixa em aberto deve fechar e salvar")
-  void fechaCaixa_SenhaCorreta_FechaESalva() {
+  @DisplayName("fechaCaixa(): se senha correta e caixa em aberto deve fechar com update direto, sem regravar o caixa")
+  void fechaCaixa_SenhaCorreta_FechaComUpdate() {
     BCryptPasswordEncoder enc = new BCryptPasswordEncoder();
     String senha = "123";
     String hash = enc.encode(senha);
@@ -223,9 +225,7 @@ class CaixaServiceTest {
     Usuario u = new Usuario();
     u.setSenha(hash);
 
-    Caixa c = new Caixa();
-    c.setValor_total(123.45);
-    when(caixas.findById(5L)).thenReturn(Optional.of(c));
+    when(caixas.fechaCaixa(eq(5L), any(java.sql.Timestamp.class))).thenReturn(1);
 
     try (MockedStatic<net.originmobi.pdv.singleton.Aplicacao> app =
            mockStatic(net.originmobi.pdv.singleton.Aplicacao.class)) {
@@ -234,14 +234,13 @@ class CaixaServiceTest {
       when(aplicacao.getUsuarioAtual()).thenReturn("user1");
       when(usuarios.buscaUsuario("user1")).thenReturn(u);
 
-      when(caixas.save(any(Caixa.class))).thenAnswer(inv -> inv.getArgument(0));
-
       String msg = caixaService.fechaCaixa(5L, "123");
 
       assertEquals("Caixa fechado com sucesso", msg);
-      assertNotNull(c.getData_fechamento());
-      assertEquals(123.45, c.getValor_fechamento());
-      verify(caixas).save(same(c));
+      verify(caixas).fechaCaixa(eq(5L), any(java.sql.Timestamp.class));
+      verify(caixas).incrementaVersaoCaixas();
+      verify(caixas, never()).findById(anyLong());
+      verify(caixas, never()).save(any());
     }
   }
   
@@ -252,10 +251,7 @@ class CaixaServiceTest {
     Usuario u = new Usuario();
     u.setSenha(enc.encode("abc"));
 
-    Caixa c = new Caixa();
-    c.setValor_total(10.0);
-    c.setData_fechamento(new java.sql.Timestamp(System.currentTimeMillis()));
-    when(caixas.findById(3L)).thenReturn(Optional.of(c));
+    when(caixas.fechaCaixa(eq(3L), any(java.sql.Timestamp.class))).thenReturn(0);
 
     try (MockedStatic<net.originmobi.pdv.singleton.Aplicacao> app =
            mockStatic(net.originmobi.pdv.singleton.Aplicacao.class)) {
@@ -266,7 +262,7 @@ class CaixaServiceTest {
 
       RuntimeException ex = assertThrows(RuntimeException.class, () -> caixaService.fechaCaixa(3L, "abc"));
       assertEquals("Caixa já esta fechado", ex.getMessage());
-      verify(caixas, never()).save(any());
+      verify(caixas, never()).incrementaVersaoCaixas();
     }
   }
   
@@ -286,7 +282,7 @@ class CaixaServiceTest {
 
       String msg = caixaService.fechaCaixa(10L, "errada");
       assertEquals("Senha incorreta, favor verifique", msg);
-      verify(caixas, never()).findById(anyLong());
+      verify(caixas, never()).fechaCaixa(anyLong(), any());
     }
   }
   
@@ -297,9 +293,7 @@ class CaixaServiceTest {
     Usuario u = new Usuario();
     u.setSenha(enc.encode("pw"));
 
-    Caixa c = new Caixa();
-    when(caixas.findById(11L)).thenReturn(Optional.of(c));
-    doThrow(new RuntimeException("x")).when(caixas).save(any(Caixa.class));
+    when(caixas.fechaCaixa(eq(11L), any(java.sql.Timestamp.class))).thenThrow(new RuntimeException("x"));
 
     try (MockedStatic<net.originmobi.pdv.singleton.Aplicacao> app =
            mockStatic(net.originmobi.pdv.singleton.Aplicacao.class)) {
@@ -459,5 +453,67 @@ class CaixaServiceTest {
     verify(caixas).buscaCaixaTipo(CaixaTipo.BANCO);
     verify(caixas, never()).buscaCaixaTipoData(any(), any());
   }
-  
+
+  @Test
+  @DisplayName("caixaAberto(): chamadas seguidas devem consultar o caixa aberto no banco uma única vez")
+  void caixaAberto_ChamadasSeguidas_ConsultaUmaVez() {
+    Caixa aberto = new Caixa();
+    when(caixas.caixaAberto()).thenReturn(Optional.of(aberto));
+
+    assertTrue(caixaService.caixaIsAberto());
+    assertSame(aberto, caixaService.caixaAberto().get());
+
+    verify(caixas, times(1)).caixaAberto();
+    verify(caixas, times(1)).versaoCaixas();
+  }
+
+  @Test
+  @DisplayName("caixaAberto(): versão dos caixas alterada deve descartar o caixa em memória")
+  void caixaAberto_VersaoAlterada_ConsultaNovamente() {
+    when(caixas.caixaAberto()).thenReturn(Optional.empty(), Optional.of(new Caixa()));
+    when(caixas.versaoCaixas()).thenReturn(1L, 2L);
+    // a segunda consulta acontece depois do intervalo da verificação da versão
+    when(relogio.millis()).thenReturn(1000L, 5000L);
+
+    assertFalse(caixaService.caixaIsAberto());
+    assertTrue(caixaService.caixaIsAberto());
+    verify(caixas, times(2)).caixaAberto();
+  }
+
+  @Test
+  @DisplayName("fechaCaixa(): dentro de uma transação o caixa em memória só é descartado após o commit")
+  void fechaCaixa_Transacao_DescartaAposCommit() {
+    BCryptPasswordEncoder enc = new BCryptPasswordEncoder();
+    Usuario u = new Usuario();
+    u.setSenha(enc.encode("pw"));
+
+    Caixa aberto = new Caixa();
+    when(caixas.caixaAberto()).thenReturn(Optional.of(aberto), Optional.empty());
+    when(caixas.fechaCaixa(eq(8L), any(java.sql.Timestamp.class))).thenReturn(1);
+    assertTrue(caixaService.caixaIsAberto());
+
+    try (MockedStatic<net.originmobi.pdv.singleton.Aplicacao> app =
+           mockStatic(net.originmobi.pdv.singleton.Aplicacao.class)) {
+      net.originmobi.pdv.singleton.Aplicacao aplicacao = mock(net.originmobi.pdv.singleton.Aplicacao.class);
+      app.when(net.originmobi.pdv.singleton.Aplicacao::getInstancia).thenReturn(aplicacao);
+      when(aplicacao.getUsuarioAtual()).thenReturn("user5");
+      when(usuarios.buscaUsuario("user5")).thenReturn(u);
+
+      org.springframework.transaction.support.TransactionSynchronizationManager.initSynchronization();
+      try {
+        caixaService.fechaCaixa(8L, "pw");
+
+        // antes do commit continua o caixa em memória
+        assertTrue(caixaService.caixaIsAberto());
+
+        org.springframework.transaction.support.TransactionSynchronizationManager.getSynchronizations()
+            .forEach(org.springframework.transaction.support.TransactionSynchronization::afterCommit);
+      } finally {
+        org.springframework.transaction.support.TransactionSynchronizationManager.clearSynchronization();
+      }
+    }
+
+    assertFalse(caixaService.caixaIsAberto());
+  }
+
 }
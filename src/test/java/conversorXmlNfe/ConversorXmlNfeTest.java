@@ -0,0 +1,193 @@
+package conversorXmlNfe;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.sql.Date;
+import java.util.Arrays;
+
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import net.originmobi.pdv.model.Cidade;
+import net.originmobi.pdv.model.Empresa;
+import net.originmobi.pdv.model.EmpresaParametro;
+import net.originmobi.pdv.model.Endereco;
+import net.originmobi.pdv.model.Estado;
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.model.NotaFiscalItem;
+import net.originmobi.pdv.model.NotaFiscalItemImposto;
+import net.originmobi.pdv.model.NotaFiscalTotais;
+import net.originmobi.pdv.model.Pais;
+import net.originmobi.pdv.model.Pessoa;
+import net.originmobi.pdv.model.RegimeTributario;
+import net.originmobi.pdv.xml.nfe.AssinaXML;
+import net.originmobi.pdv.xml.nfe.ConversorXmlNfe;
+import net.originmobi.pdv.xml.nfe.EmitenteNfce;
+import net.originmobi.pdv.xml.nfe.NFCeAssinada;
+
+@DisplayName("ConversorXmlNfe — testes unitarios")
+class ConversorXmlNfeTest {
+
+    private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+    private static final String URL = "https://nfce.exemplo/qrcode";
+
+    @TempDir
+    static Path pasta;
+
+    private static String certificado;
+    private static PublicKey chavePublica;
+
+    @BeforeAll
+    static void geraCertificado() throws Exception {
+        certificado = pasta.resolve("certificado.pfx").toString();
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+
+        Process processo = new ProcessBuilder(keytool, "-genkeypair", "-alias", "nfe", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=Teste", "-validity", "1", "-storetype", "pkcs12",
+                "-keystore", certificado, "-storepass", "teste123", "-keypass", "teste123")
+                .redirectErrorStream(true).start();
+        assertEquals(0, processo.waitFor());
+
+        KeyStore ks = KeyStore.getInstance("pkcs12");
+        try (InputStream entrada = new FileInputStream(certificado)) {
+            ks.load(entrada, "teste123".toCharArray());
+        }
+        chavePublica = ks.getCertificate("nfe").getPublicKey();
+    }
+
+    private Empresa empresa() {
+        Pais pais = new Pais();
+        pais.setCodigo_pais("1058");
+        pais.setNome("Brasil");
+        Estado estado = new Estado();
+        estado.setSigla("SP");
+        estado.setCodigoUF("35");
+        estado.setPais(pais);
+        Cidade cidade = new Cidade();
+        cidade.setNome("São Paulo");
+        cidade.setCodigo_municipio("3550308");
+        cidade.setEstado(estado);
+
+        RegimeTributario regime = new RegimeTributario();
+        regime.setTipoRegime(3);
+        EmpresaParametro parametro = new EmpresaParametro();
+        parametro.setAmbiente(2);
+        parametro.setSerie_nfce(1);
+        parametro.setCsc_id("000001");
+        parametro.setCsc("CSC-DE-TESTE");
+
+        Endereco endereco = new Endereco("Rua A", "Centro", "10", "01001000", "", new Date(0), cidade);
+        Empresa empresa = new Empresa("Mercado & Cia", "Mercado", "12.345.678/0001-90", "123", regime, endereco,
+                parametro);
+        empresa.setCodigo(1L);
+        return empresa;
+    }
+
+    private NotaFiscal nota(Empresa empresa) {
+        NotaFiscalItemImposto imposto = new NotaFiscalItemImposto();
+        imposto.setCst(0);
+        imposto.setV_bc(10.0);
+        imposto.setP_icms(18.0);
+        imposto.setV_icms(1.8);
+        imposto.setCst_pis(1);
+        imposto.setVbc_pis(10.0);
+        imposto.setP_pis(0.65);
+        imposto.setV_pis(0.07);
+        imposto.setCst_cofins(1);
+        imposto.setVbc_cofins(10.0);
+        imposto.setP_cofins(3.0);
+        imposto.setV_cofins(0.3);
+
+        Pessoa consumidor = new Pessoa();
+        consumidor.setCpfcnpj("123.456.789-09");
+
+        NotaFiscal nota = new NotaFiscal();
+        nota.setNumero(42L);
+        nota.setSerie(1);
+        nota.setNatureza_operacao("Venda de mercadoria");
+        nota.setEmissor(empresa);
+        nota.setDestinatario(consumidor);
+        nota.setTotais(new NotaFiscalTotais(10.0, 1.8, 0.0, 10.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.07, 0.3, 0.0, 10.0));
+        nota.setItens(Arrays.asList(new NotaFiscalItem(7L, 2, 10.0, "UN", 2, 5.0, nota, imposto, "5102")));
+        return nota;
+    }
+
+    private Document parse(byte[] xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        ((Element) document.getElementsByTagNameNS(NS_NFE, "infNFe").item(0)).setIdAttribute("Id", true);
+        return document;
+    }
+
+    private String texto(Document document, String nome) {
+        return document.getElementsByTagNameNS(NS_NFE, nome).item(0).getTextContent();
+    }
+
+    @Test
+    @DisplayName("converteNFCe(): assinatura válida com o infNFeSupl antes da Signature e hash do QR-Code pelo CSC")
+    void converteNFCe_AssinaturaEQrCode() throws Exception {
+        NFCeAssinada nfce = new ConversorXmlNfe().converteNFCe(nota(empresa()), EmitenteNfce.de(empresa()), "01",
+                false, URL, new AssinaXML(certificado, "teste123"));
+        Document document = parse(nfce.getXml());
+
+        DOMValidateContext validacao = new DOMValidateContext(KeySelector.singletonKeySelector(chavePublica),
+                document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").item(0));
+        validacao.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.FALSE);
+        assertTrue(XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(validacao).validate(validacao));
+
+        assertEquals(44, nfce.getChave().length());
+        assertEquals("65", nfce.getChave().substring(20, 22));
+        assertEquals("1", texto(document, "tpEmis"));
+        assertEquals("12345678909", texto(document, "CPF"));
+        assertEquals("12345678000190", texto(document, "CNPJ"));
+        assertEquals("infNFeSupl", document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").item(0)
+                .getPreviousSibling().getLocalName());
+
+        String qrCode = texto(document, "qrCode");
+        assertEquals(nfce.getQrCode(), qrCode);
+        assertTrue(qrCode.startsWith(URL + "?chNFe=" + nfce.getChave() + "&nVersao=100&tpAmb=2&cDest=12345678909"));
+
+        String digest = document.getElementsByTagNameNS(XMLSignature.XMLNS, "DigestValue").item(0).getTextContent();
+        assertTrue(qrCode.contains("&digVal="
+                + String.format("%x", new BigInteger(1, digest.getBytes(StandardCharsets.UTF_8)))));
+
+        String parametros = qrCode.substring(qrCode.indexOf('?') + 1, qrCode.indexOf("&cHashQRCode="));
+        byte[] hash = MessageDigest.getInstance("SHA-1")
+                .digest((parametros + "CSC-DE-TESTE").getBytes(StandardCharsets.UTF_8));
+        assertTrue(qrCode.endsWith("&cHashQRCode=" + String.format("%040X", new BigInteger(1, hash))));
+    }
+
+    @Test
+    @DisplayName("converteNFCe(): em contingência a nota sai com tpEmis 9 e justificativa")
+    void converteNFCe_Contingencia() throws Exception {
+        NFCeAssinada nfce = new ConversorXmlNfe().converteNFCe(nota(empresa()), EmitenteNfce.de(empresa()), "01",
+                true, URL, new AssinaXML(certificado, "teste123"));
+        Document document = parse(nfce.getXml());
+
+        assertTrue(nfce.isContingencia());
+        assertEquals("9", nfce.getChave().substring(34, 35));
+        assertEquals("9", texto(document, "tpEmis"));
+        assertNotNull(document.getElementsByTagNameNS(NS_NFE, "xJust").item(0));
+    }
+
+}
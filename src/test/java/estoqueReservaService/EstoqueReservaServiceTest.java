@@ -0,0 +1,215 @@
+package estoqueReservaService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import net.originmobi.pdv.repository.ProdutoRepository;
+import net.originmobi.pdv.service.EstoqueReservaService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("EstoqueReservaService — testes unitarios")
+class EstoqueReservaServiceTest {
+
+    @InjectMocks
+    private EstoqueReservaService reservas;
+
+    @Mock private ProdutoRepository produtos;
+
+    private void estoque(Long produto, String controla, int qtd) {
+        when(produtos.controleSaldoEstoque(produto))
+                .thenReturn(Arrays.<Object[]>asList(new Object[] { controla, qtd }));
+    }
+
+    @Test
+    @DisplayName("reserva(): a última unidade só pode ser reservada por uma venda")
+    void reserva_UltimaUnidade_SomenteUmaVenda() {
+        estoque(10L, "SIM", 1);
+
+        reservas.reserva(1L, 10L, 1);
+        RuntimeException e = assertThrows(RuntimeException.class, () -> reservas.reserva(2L, 10L, 1));
+
+        assertEquals("O produto de código 10 não tem estoque suficiente, verifique", e.getMessage());
+        verify(produtos, times(1)).controleSaldoEstoque(10L);
+    }
+
+    @Test
+    @DisplayName("reserva(): com um item sem estoque nenhum item do lote fica reservado")
+    void reserva_Lote_TudoOuNada() {
+        estoque(10L, "SIM", 5);
+        estoque(11L, "SIM", 1);
+
+        Map<Long, Integer> itens = new HashMap<>();
+        itens.put(10L, 3);
+        itens.put(11L, 2);
+
+        assertThrows(RuntimeException.class, () -> reservas.reserva(1L, itens));
+
+        // as 5 unidades do produto 10 continuam disponíveis
+        assertDoesNotThrow(() -> reservas.reserva(2L, 10L, 5));
+    }
+
+    @Test
+    @DisplayName("libera(): a unidade retirada da venda volta a ficar disponível")
+    void libera_DevolveUnidade() {
+        estoque(10L, "SIM", 1);
+
+        reservas.reserva(1L, 10L, 1);
+        reservas.libera(1L, 10L, 1);
+
+        assertDoesNotThrow(() -> reservas.reserva(2L, 10L, 1));
+    }
+
+    @Test
+    @DisplayName("libera(): não devolve mais do que a venda reservou")
+    void libera_NaoPassaDoReservado() {
+        estoque(10L, "SIM", 2);
+
+        reservas.reserva(1L, 10L, 1);
+        reservas.reserva(2L, 10L, 1);
+        reservas.libera(3L, 10L, 1);
+        reservas.libera(1L, 10L, 5);
+
+        reservas.reserva(4L, 10L, 1);
+        assertThrows(RuntimeException.class, () -> reservas.reserva(5L, 10L, 1));
+    }
+
+    @Test
+    @DisplayName("confirma(): as unidades vendidas saem do saldo em memória")
+    void confirma_BaixaSaldo() {
+        estoque(10L, "SIM", 2);
+
+        reservas.reserva(1L, 10L, 2);
+        reservas.confirma(1L, mapa(10L, 2));
+        reservas.libera(1L, 10L, 2);
+
+        assertThrows(RuntimeException.class, () -> reservas.reserva(2L, 10L, 1));
+    }
+
+    @Test
+    @DisplayName("confirma(): venda com a reserva liberada baixa do saldo tudo o que foi vendido")
+    void confirma_ReservaAbandonada_BaixaVendido() {
+        estoque(10L, "SIM", 5);
+
+        reservas.reserva(1L, 10L, 3);
+        reservas.reserva(2L, 10L, 1);
+
+        // a venda 1 perde a reserva mas continua com as 3 unidades nas linhas,
+        // a venda 2 segura o saldo em memória
+        reservas.libera(1L, 10L, 3);
+
+        reservas.confirma(1L, mapa(10L, 3));
+
+        // restam 2 unidades no banco, uma delas reservada pela venda 2
+        assertDoesNotThrow(() -> reservas.reserva(5L, 10L, 1));
+        assertThrows(RuntimeException.class, () -> reservas.reserva(6L, 10L, 1));
+    }
+
+    @Test
+    @DisplayName("liberaAposCommit(): a unidade só volta a ficar disponível após o commit")
+    void liberaAposCommit_Rollback_MantemReserva() {
+        estoque(10L, "SIM", 1);
+        reservas.reserva(1L, 10L, 1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            reservas.liberaAposCommit(1L, 10L, 1);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThrows(RuntimeException.class, () -> reservas.reserva(2L, 10L, 1));
+    }
+
+    private Map<Long, Integer> mapa(Long produto, int qtd) {
+        Map<Long, Integer> itens = new HashMap<>();
+        itens.put(produto, qtd);
+        return itens;
+    }
+
+    @Test
+    @DisplayName("reserva(): produto que não controla estoque sempre é reservado")
+    void reserva_SemControle_SempreReserva() {
+        estoque(10L, "NAO", 0);
+
+        reservas.reserva(1L, 10L, 50);
+        assertDoesNotThrow(() -> reservas.reserva(2L, 10L, 50));
+    }
+
+    @Test
+    @DisplayName("movimenta(): a entrada de estoque libera unidades mesmo com o produto sempre reservado")
+    void movimenta_Entrada_AumentaSaldo() {
+        estoque(10L, "SIM", 1);
+
+        reservas.reserva(1L, 10L, 1);
+        reservas.movimenta(10L, 2);
+
+        assertDoesNotThrow(() -> reservas.reserva(2L, 10L, 2));
+        assertThrows(RuntimeException.class, () -> reservas.reserva(3L, 10L, 1));
+    }
+
+    @Test
+    @DisplayName("recuperaVendasAbertas(): as unidades das vendas abertas voltam a ficar reservadas")
+    void recuperaVendasAbertas_RefazReservas() {
+        estoque(10L, "SIM", 3);
+        when(produtos.itensVendasAbertas()).thenReturn(Arrays.<Object[]>asList(
+                new Object[] { 1L, 10L, 2L }));
+
+        reservas.recuperaVendasAbertas();
+
+        assertThrows(RuntimeException.class, () -> reservas.reserva(2L, 10L, 2));
+        assertDoesNotThrow(() -> reservas.reserva(2L, 10L, 1));
+
+        // a venda recuperada pode devolver as suas unidades
+        reservas.libera(1L, 10L, 2);
+        assertDoesNotThrow(() -> reservas.reserva(3L, 10L, 2));
+    }
+
+    @Test
+    @DisplayName("liberaSeDesfeita(): transação desfeita devolve os itens reservados, commit mantém a reserva")
+    void liberaSeDesfeita_Rollback_DevolveItens() {
+        estoque(10L, "SIM", 2);
+        Map<Long, Integer> itens = new HashMap<>();
+        itens.put(10L, 2);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            reservas.reserva(1L, itens);
+            reservas.liberaSeDesfeita(1L, itens);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertDoesNotThrow(() -> reservas.reserva(2L, 10L, 2));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            reservas.liberaSeDesfeita(2L, itens);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThrows(RuntimeException.class, () -> reservas.reserva(3L, 10L, 1));
+    }
+
+}
@@ -0,0 +1,126 @@
+package exportaRelatorio;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import net.originmobi.pdv.relatorios.ExportaRelatorio;
+import net.originmobi.pdv.relatorios.ExportaRelatorio.Formato;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ExportaRelatorio — testes unitarios")
+class ExportaRelatorioTest {
+
+    @InjectMocks
+    private ExportaRelatorio exporta;
+
+    @Mock private JdbcTemplate jdbc;
+    @Mock private Connection conexao;
+    @Mock private PreparedStatement ps;
+    @Mock private ResultSet rs;
+    @Mock private ResultSetMetaData meta;
+
+    /*
+     * Executa a consulta com as linhas informadas no lugar do banco
+     */
+    private void consultaRetorna(Object[]... linhas) throws SQLException {
+        when(rs.getMetaData()).thenReturn(meta);
+        when(meta.getColumnCount()).thenReturn(3);
+        when(meta.getColumnLabel(1)).thenReturn("codigo");
+        when(meta.getColumnLabel(2)).thenReturn("observacao");
+        when(meta.getColumnLabel(3)).thenReturn("valor");
+
+        int[] atual = { -1 };
+        when(rs.next()).thenAnswer(i -> ++atual[0] < linhas.length);
+        when(rs.getObject(anyInt())).thenAnswer(i -> linhas[atual[0]][(int) i.getArgument(0) - 1]);
+
+        when(jdbc.query(any(PreparedStatementCreator.class), any(ResultSetExtractor.class))).thenAnswer(i -> {
+            ((PreparedStatementCreator) i.getArgument(0)).createPreparedStatement(conexao);
+            return ((ResultSetExtractor<?>) i.getArgument(1)).extractData(rs);
+        });
+        when(conexao.prepareStatement(anyString(), eq(ResultSet.TYPE_FORWARD_ONLY), eq(ResultSet.CONCUR_READ_ONLY)))
+                .thenReturn(ps);
+    }
+
+    @Test
+    @DisplayName("exportaLancamentosCaixa(): CSV com cabeçalho, lido linha a linha no período informado")
+    void exportaLancamentosCaixa_Csv_LinhaALinha() throws SQLException {
+        consultaRetorna(new Object[] { 1, "Suprimento", 10.5 }, new Object[] { 2, "troco; \"moedas\"", null });
+
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        long linhas = exporta.exportaLancamentosCaixa(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 31),
+                Formato.CSV, saida);
+
+        assertEquals(2, linhas);
+        assertEquals("\uFEFFcodigo;observacao;valor\r\n1;Suprimento;10.5\r\n2;\"troco; \"\"moedas\"\"\";\r\n",
+                new String(saida.toByteArray(), StandardCharsets.UTF_8));
+
+        verify(ps).setFetchSize(ExportaRelatorio.LINHA_A_LINHA);
+        verify(ps).setObject(1, Date.valueOf(LocalDate.of(2020, 1, 1)));
+        verify(ps).setObject(2, Date.valueOf(LocalDate.of(2020, 2, 1)));
+    }
+
+    @Test
+    @DisplayName("exportaVendas(): XLSX traz a planilha com números e textos")
+    void exportaVendas_Xlsx_EscrevePlanilha() throws SQLException, IOException {
+        consultaRetorna(new Object[] { 1, "a < b & c", 10.5 });
+
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        assertEquals(1, exporta.exportaVendas(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 1), Formato.XLSX, saida));
+
+        Map<String, String> entradas = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(saida.toByteArray()))) {
+            ZipEntry entrada;
+            while ((entrada = zip.getNextEntry()) != null) {
+                ByteArrayOutputStream conteudo = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int lidos;
+                while ((lidos = zip.read(buffer)) > 0)
+                    conteudo.write(buffer, 0, lidos);
+                entradas.put(entrada.getName(), new String(conteudo.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+
+        assertTrue(entradas.containsKey("[Content_Types].xml"));
+        assertTrue(entradas.containsKey("xl/workbook.xml"));
+        assertTrue(entradas.get("xl/worksheets/sheet1.xml").contains("<row r=\"2\"><c><v>1</v></c>"
+                + "<c t=\"inlineStr\"><is><t>a &lt; b &amp; c</t></is></c><c><v>10.5</v></c></row>"));
+    }
+
+    @Test
+    @DisplayName("exportaVendas(): data final anterior à inicial retorna erro")
+    void exportaVendas_PeriodoInvalido_RetornaErro() {
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> exporta.exportaVendas(LocalDate.of(2020, 1, 2),
+                LocalDate.of(2020, 1, 1), Formato.CSV, new ByteArrayOutputStream()));
+
+        assertEquals("Data final anterior à data inicial, verifique", ex.getMessage());
+        verifyNoInteractions(jdbc);
+    }
+
+}
@@ -0,0 +1,184 @@
+package filaRelatorios;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.originmobi.pdv.enumerado.RelatorioSituacao;
+import net.originmobi.pdv.relatorios.FilaRelatorios;
+import net.originmobi.pdv.relatorios.PedidoRelatorio;
+
+@DisplayName("FilaRelatorios — testes unitarios")
+class FilaRelatoriosTest {
+
+    private final FilaRelatorios fila = new FilaRelatorios(1, 1, 10 * 60 * 1000);
+    private final CountDownLatch libera = new CountDownLatch(1);
+
+    @AfterEach
+    void encerra() {
+        libera.countDown();
+        fila.encerra();
+    }
+
+    private FilaRelatorios.Geracao escreve(String conteudo, AtomicInteger geracoes) {
+        return saida -> {
+            geracoes.incrementAndGet();
+            libera.await(5, TimeUnit.SECONDS);
+            saida.write(conteudo.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    private static ServletOutputStream servletOutputStream(ByteArrayOutputStream destino) {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                destino.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("pede(): a mesma chave devolve o mesmo pedido e o relatório é gerado uma vez")
+    void pede_MesmaChave_GeraUmaVez() throws Exception {
+        AtomicInteger geracoes = new AtomicInteger();
+
+        PedidoRelatorio primeiro = fila.pede("caixa:1:v1", "caixa-1.pdf", "application/pdf", escreve("pdf", geracoes));
+        PedidoRelatorio segundo = fila.pede("caixa:1:v1", "caixa-1.pdf", "application/pdf", escreve("pdf", geracoes));
+        libera.countDown();
+
+        assertSame(primeiro, segundo);
+        assertTrue(primeiro.aguarda(5000));
+        assertEquals(RelatorioSituacao.PRONTO, primeiro.getSituacao());
+        assertSame(primeiro, fila.pede("caixa:1:v1", "caixa-1.pdf", "application/pdf", escreve("pdf", geracoes)));
+        assertEquals(1, geracoes.get());
+        assertSame(primeiro, fila.busca(primeiro.getCodigo()).get());
+    }
+
+    @Test
+    @DisplayName("pede(): com a fila cheia o pedido é recusado")
+    void pede_FilaCheia_Recusa() {
+        AtomicInteger geracoes = new AtomicInteger();
+        fila.pede("a", "a.pdf", "application/pdf", escreve("a", geracoes));
+        fila.pede("b", "b.pdf", "application/pdf", escreve("b", geracoes));
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> fila.pede("c", "c.pdf", "application/pdf", escreve("c", geracoes)));
+
+        assertEquals("Muitos relatórios em geração, tente novamente em instantes", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("responde(): relatório ainda gerando responde 202 com o código do pedido")
+    void responde_Gerando_Responde202() throws IOException {
+        PedidoRelatorio pedido = fila.pede("a", "a.pdf", "application/pdf", escreve("a", new AtomicInteger()));
+        HttpServletResponse resposta = mock(HttpServletResponse.class);
+        StringWriter corpo = new StringWriter();
+        when(resposta.getWriter()).thenReturn(new PrintWriter(corpo));
+
+        fila.responde(pedido, resposta, 0);
+
+        verify(resposta).setStatus(HttpServletResponse.SC_ACCEPTED);
+        assertTrue(corpo.toString().contains("\"codigo\":\"" + pedido.getCodigo() + "\""));
+    }
+
+    @Test
+    @DisplayName("responde(): relatório pronto escreve o arquivo na resposta")
+    void responde_Pronto_EscreveArquivo() throws IOException {
+        libera.countDown();
+        PedidoRelatorio pedido = fila.pede("a", "a.csv", "text/csv", escreve("codigo;valor", new AtomicInteger()));
+        HttpServletResponse resposta = mock(HttpServletResponse.class);
+        ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+        when(resposta.getOutputStream()).thenReturn(servletOutputStream(corpo));
+
+        fila.responde(pedido, resposta, 5000);
+
+        verify(resposta).setContentType("text/csv");
+        assertEquals("codigo;valor", new String(corpo.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("responde(): erro na geração retorna a mensagem e o próximo pedido gera de novo")
+    void responde_Erro_RetornaMensagem() throws Exception {
+        PedidoRelatorio pedido = fila.pede("a", "a.pdf", "application/pdf", saida -> {
+            throw new RuntimeException("Erro ao gerar o relatório caixa.jrxml");
+        });
+        assertTrue(pedido.aguarda(5000));
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> fila.responde(pedido, mock(HttpServletResponse.class), 0));
+
+        assertEquals("Erro ao gerar o relatório caixa.jrxml", ex.getMessage());
+        assertNotSame(pedido, fila.pede("a", "a.pdf", "application/pdf", escreve("a", new AtomicInteger())));
+    }
+
+    @Test
+    @DisplayName("descartaVencidos(): o arquivo sendo enviado não é apagado, o descarte fica para a próxima limpeza")
+    void descartaVencidos_ArquivoEmEnvio_NaoApaga() throws Exception {
+        FilaRelatorios vencida = new FilaRelatorios(1, 1, 0);
+        try {
+            PedidoRelatorio pedido = vencida.pede("a", "a.csv", "text/csv", saida -> saida.write("conteudo".getBytes()));
+            assertTrue(pedido.aguarda(5000));
+            Thread.sleep(5);
+
+            // a limpeza roda enquanto a resposta ainda está escrevendo o arquivo
+            ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+            boolean[] existiaNoEnvio = new boolean[1];
+            HttpServletResponse resposta = mock(HttpServletResponse.class);
+            when(resposta.getOutputStream()).thenReturn(new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    vencida.descartaVencidos();
+                    existiaNoEnvio[0] = java.nio.file.Files.exists(pedido.getArquivo());
+                    corpo.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            });
+
+            vencida.responde(pedido, resposta, 0);
+
+            assertTrue(existiaNoEnvio[0]);
+            assertEquals("conteudo", new String(corpo.toByteArray(), StandardCharsets.UTF_8));
+            assertTrue(vencida.busca(pedido.getCodigo()).isPresent());
+
+            vencida.descartaVencidos();
+            assertFalse(java.nio.file.Files.exists(pedido.getArquivo()));
+            assertFalse(vencida.busca(pedido.getCodigo()).isPresent());
+        } finally {
+            vencida.encerra();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package gerarRelatorio;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import net.originmobi.pdv.relatorios.GerarRelatorio;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("GerarRelatorio — testes unitarios")
+class GerarRelatorioTest {
+
+    @InjectMocks
+    private GerarRelatorio relatorio;
+
+    @Mock private DataSource dataSource;
+    @Mock private Connection conexao;
+    @Mock private HttpServletResponse resposta;
+
+    @Test
+    @DisplayName("compilado(): o relatório é compilado uma única vez")
+    void compilado_CompilaUmaVez() {
+        assertSame(relatorio.compilado("comanda.jrxml"), relatorio.compilado("comanda.jrxml"));
+    }
+
+    @Test
+    @DisplayName("compilado(): relatório inexistente retorna erro")
+    void compilado_Inexistente_RetornaErro() {
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> relatorio.compilado("nada.jrxml"));
+
+        assertEquals("Relatório nada.jrxml não encontrado", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("gerar(): usa uma só conexão do pool e a devolve mesmo com erro no preenchimento")
+    void gerar_DevolveConexao() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(conexao);
+        lenient().when(conexao.prepareStatement(anyString(), anyInt(), anyInt())).thenThrow(new SQLException("falha"));
+        lenient().when(conexao.prepareStatement(anyString(), anyInt(), anyInt(), anyInt())).thenThrow(new SQLException("falha"));
+
+        relatorio.gerar("comanda.jrxml", resposta, new HashMap<>());
+
+        verify(dataSource, times(1)).getConnection();
+        verify(conexao).close();
+        verifyNoInteractions(resposta);
+    }
+
+}
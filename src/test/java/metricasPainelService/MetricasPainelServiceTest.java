@@ -0,0 +1,124 @@
+package metricasPainelService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import net.originmobi.pdv.repository.PagarParcelaRespository;
+import net.originmobi.pdv.repository.ReceberRepository;
+import net.originmobi.pdv.repository.VendaRepository;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
+import net.originmobi.pdv.service.MetricasPainelService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("MetricasPainelService — testes unitarios")
+class MetricasPainelServiceTest {
+
+    @InjectMocks
+    private MetricasPainelService metricas;
+
+    @Mock private VendaRepository vendas;
+    @Mock private ReceberRepository receber;
+    @Mock private PagarParcelaRespository pagar;
+    @Mock private NotaFiscalRepository notas;
+
+    private void banco(int abertas, long aReceber, long aPagar, int emitidas) {
+        when(vendas.qtdVendasEmAberto()).thenReturn(abertas);
+        when(receber.centavosAReceber()).thenReturn(BigDecimal.valueOf(aReceber));
+        when(pagar.centavosDespesasAbertas()).thenReturn(BigDecimal.valueOf(aPagar));
+        when(notas.totalNotaFiscalEmitidas()).thenReturn(emitidas);
+    }
+
+    @Test
+    @DisplayName("get*(): os valores são lidos do banco uma vez e mantidos pelos ajustes")
+    void get_LeUmaVez_AjustaEmMemoria() {
+        banco(3, 150050, 2000, 7);
+
+        assertEquals(3, metricas.getVendasAbertas());
+        assertEquals(new BigDecimal("1500.50"), metricas.getTotalAReceber());
+
+        metricas.vendaAberta();
+        metricas.vendaFechada();
+        metricas.vendaFechada();
+        metricas.somaAReceber(-500.25);
+        metricas.somaAPagar(10.0);
+        metricas.notaEmitida();
+
+        assertEquals(2, metricas.getVendasAbertas());
+        assertEquals(new BigDecimal("1000.25"), metricas.getTotalAReceber());
+        assertEquals(new BigDecimal("30.00"), metricas.getTotalAPagar());
+        assertEquals(8, metricas.getNotasEmitidas());
+        verify(vendas, times(1)).qtdVendasEmAberto();
+    }
+
+    @Test
+    @DisplayName("somaAReceber(): dentro de uma transação o valor só muda após a confirmação")
+    void somaAReceber_Transacao_AplicaAposConfirmar() {
+        banco(0, 0, 0, 0);
+        metricas.reconcilia();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            metricas.somaAReceber(25.0);
+            assertEquals(new BigDecimal("0.00"), metricas.getTotalAReceber());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(new BigDecimal("25.00"), metricas.getTotalAReceber());
+    }
+
+    @Test
+    @DisplayName("reconcilia(): os contadores voltam aos valores do banco")
+    void reconcilia_CorrigeContadores() {
+        banco(1, 100, 100, 1);
+        metricas.reconcilia();
+        metricas.notaEmitida();
+
+        banco(5, 900, 800, 4);
+        metricas.reconcilia();
+
+        assertEquals(5, metricas.getVendasAbertas());
+        assertEquals(new BigDecimal("9.00"), metricas.getTotalAReceber());
+        assertEquals(new BigDecimal("8.00"), metricas.getTotalAPagar());
+        assertEquals(4, metricas.getNotasEmitidas());
+    }
+
+    @Test
+    @DisplayName("reconcilia(): ajuste aplicado durante a leitura não descarta a reconciliação nem é perdido")
+    void reconcilia_AjusteDuranteLeitura_SomaAoValorLido() {
+        banco(1, 100, 100, 1);
+        metricas.reconcilia();
+
+        // o banco mudou por fora e uma venda é aberta enquanto a soma a receber é lida
+        when(vendas.qtdVendasEmAberto()).thenReturn(6);
+        when(receber.centavosAReceber()).thenAnswer(inv -> {
+            metricas.vendaAberta();
+            metricas.somaAReceber(2.0);
+            return BigDecimal.valueOf(900);
+        });
+        when(pagar.centavosDespesasAbertas()).thenReturn(BigDecimal.valueOf(800));
+        when(notas.totalNotaFiscalEmitidas()).thenReturn(4);
+
+        metricas.reconcilia();
+
+        // os dois ajustes aconteceram depois das leituras de vendas e a receber
+        assertEquals(7, metricas.getVendasAbertas());
+        assertEquals(new BigDecimal("11.00"), metricas.getTotalAReceber());
+        assertEquals(new BigDecimal("8.00"), metricas.getTotalAPagar());
+        assertEquals(4, metricas.getNotasEmitidas());
+    }
+
+}
@@ -0,0 +1,190 @@
+package notafiscalService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import net.originmobi.pdv.model.Empresa;
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.model.Venda;
+import net.originmobi.pdv.repository.VendaRepository;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
+import net.originmobi.pdv.service.notafiscal.AutorizadorNfce;
+import net.originmobi.pdv.service.notafiscal.DiarioContingenciaNfce;
+import net.originmobi.pdv.service.notafiscal.EmitenteNfceIndice;
+import net.originmobi.pdv.service.notafiscal.NfceService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalVendaService;
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
+import net.originmobi.pdv.xml.nfe.EmitenteNfce;
+import net.originmobi.pdv.xml.nfe.GeraXmlNfe;
+import net.originmobi.pdv.xml.nfe.NFCeAssinada;
+import net.originmobi.pdv.xml.nfe.NFeAssinada;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("NfceService — testes unitarios")
+class NfceServiceTest {
+
+    @InjectMocks
+    private NfceService nfceService;
+
+    @Mock private NotaFiscalVendaService notasVenda;
+    @Mock private VendaRepository vendas;
+    @Mock private NotaFiscalRepository notasFiscais;
+    @Mock private EmitenteNfceIndice emitentes;
+    @Mock private GeraXmlNfe geraXml;
+    @Mock private AutorizadorNfce autorizador;
+    @Mock private DiarioContingenciaNfce diario;
+    @Mock private ArquivoXmlNfe arquivoXml;
+    @Mock private EmitenteNfce emitente;
+    @Mock private PlatformTransactionManager transacoes;
+
+    private final NotaFiscal nota = new NotaFiscal();
+
+    private final NFCeAssinada normal = new NFCeAssinada("chave1", "<NFe>1</NFe>".getBytes(), "qr1", false);
+    private final NFCeAssinada offline = new NFCeAssinada("chave9", "<NFe>9</NFe>".getBytes(), "qr9", true);
+
+    @BeforeEach
+    void prepara() {
+        ReflectionTestUtils.setField(nfceService, "urlQrCode", "url");
+        ReflectionTestUtils.setField(nfceService, "tempoLimite", 100L);
+
+        Empresa empresa = new Empresa();
+        nota.setCodigo(7L);
+        nota.setEmissor(empresa);
+        when(notasVenda.gerarNota(1L, null, 65)).thenReturn(nota);
+        when(vendas.findById(1L)).thenReturn(Optional.of(new Venda()));
+        when(emitentes.doEmissor(empresa)).thenReturn(emitente);
+    }
+
+    @AfterEach
+    void encerra() {
+        nfceService.encerra();
+    }
+
+    @Test
+    @DisplayName("emitir(): autorizador respondendo, a nota é autorizada depois do commit sem passar pelo diário")
+    void emitir_Autorizada() {
+        when(geraXml.gerarNFCe(nota, emitente, "01", false, "url")).thenReturn(normal);
+        when(autorizador.autoriza(normal)).thenReturn("P1");
+
+        assertSame(normal, nfceService.emitir(1L));
+
+        assertEquals("chave1", nota.getChave_acesso());
+        assertEquals(NfceService.AUTORIZADA, nota.getSituacao());
+        assertEquals(Long.valueOf(1L), nota.getVenda());
+
+        // a nota é gravada e commitada antes do envio
+        InOrder ordem = inOrder(notasFiscais, transacoes, autorizador);
+        ordem.verify(notasFiscais).save(nota);
+        ordem.verify(transacoes).commit(any());
+        ordem.verify(autorizador).autoriza(normal);
+        ordem.verify(notasFiscais).atualizaSituacao("chave1", NfceService.AUTORIZADA);
+
+        verify(arquivoXml).grava("chave1", normal.getXml());
+        verifyNoInteractions(diario);
+    }
+
+    @Test
+    @DisplayName("emitir(): autorizador lento, a nota sai em contingência guardando a chave enviada e as seguintes nem esperam o autorizador")
+    void emitir_AutorizadorLento_Contingencia() {
+        when(geraXml.gerarNFCe(nota, emitente, "01", false, "url")).thenReturn(normal);
+        when(geraXml.gerarNFCe(nota, emitente, "01", true, "url")).thenReturn(offline);
+        when(autorizador.autoriza(normal)).thenAnswer(inv -> {
+            Thread.sleep(2000);
+            return "P1";
+        });
+
+        assertSame(offline, nfceService.emitir(1L));
+        assertEquals(NfceService.CONTINGENCIA_OFFLINE, nota.getSituacao());
+
+        // o diário só recebe a nota depois do commit e da troca da chave
+        InOrder ordem = inOrder(transacoes, notasFiscais, diario);
+        ordem.verify(transacoes).commit(any());
+        ordem.verify(notasFiscais).substituiChave(7L, "chave9", NfceService.CONTINGENCIA_OFFLINE);
+        ordem.verify(diario).enfileira("chave9", offline.getXml());
+
+        assertSame(offline, nfceService.emitir(1L));
+        verify(autorizador, times(1)).autoriza(any());
+        verify(notasFiscais, times(1)).substituiChave(anyLong(), anyString(), anyString());
+        verify(diario, times(2)).enfileira("chave9", offline.getXml());
+    }
+
+    @Test
+    @DisplayName("emitir(): falha ao gravar a nota, nada vai para o diário nem para o autorizador")
+    void emitir_FalhaAoGravar_NadaNoDiario() {
+        when(geraXml.gerarNFCe(nota, emitente, "01", false, "url")).thenReturn(normal);
+        when(notasFiscais.save(nota)).thenThrow(new RuntimeException("falha"));
+
+        assertThrows(RuntimeException.class, () -> nfceService.emitir(1L));
+
+        verify(transacoes).rollback(any());
+        verifyNoInteractions(autorizador, diario, arquivoXml);
+    }
+
+    @Test
+    @DisplayName("transmiteContingencia(): notas do diário autorizadas saem da fila")
+    void transmiteContingencia_Autoriza() throws Exception {
+        reset(notasVenda, vendas, emitentes);
+        when(diario.pendentes()).thenReturn(Arrays.asList("chave9"));
+        when(diario.le("chave9")).thenReturn(offline.getXml());
+        when(autorizador.autoriza(any(NFeAssinada.class))).thenReturn("P9");
+
+        nfceService.transmiteContingencia();
+
+        verify(notasFiscais).atualizaSituacao("chave9", NfceService.AUTORIZADA);
+        verify(diario).conclui("chave9");
+    }
+
+    @Test
+    @DisplayName("transmiteContingencia(): nota do diário rejeitada fica REJEITADA no banco")
+    void transmiteContingencia_Rejeitada_AtualizaSituacao() throws Exception {
+        reset(notasVenda, vendas, emitentes);
+        when(diario.pendentes()).thenReturn(Arrays.asList("chave9"));
+        when(diario.le("chave9")).thenReturn(offline.getXml());
+        when(autorizador.autoriza(any(NFeAssinada.class))).thenThrow(new RuntimeException("rejeição 539"));
+
+        nfceService.transmiteContingencia();
+
+        verify(notasFiscais).atualizaSituacao("chave9", NfceService.REJEITADA);
+        verify(diario).rejeita("chave9");
+    }
+
+    @Test
+    @DisplayName("chaveDaVenda(): venda que já tem NFC-e devolve a chave existente sem emitir outra nota")
+    void chaveDaVenda_JaEmitida_DevolveChave() {
+        reset(notasVenda, vendas, emitentes);
+        when(notasFiscais.chaveDaVenda(1L, 65)).thenReturn("chave1");
+
+        assertEquals("chave1", nfceService.chaveDaVenda(1L));
+
+        verifyNoInteractions(notasVenda, geraXml, autorizador, transacoes);
+    }
+
+    @Test
+    @DisplayName("chaveDaVenda(): emissão concorrente barrada pelo índice da venda devolve a chave da outra emissão")
+    void chaveDaVenda_EmissaoConcorrente_DevolveChave() {
+        when(geraXml.gerarNFCe(nota, emitente, "01", false, "url")).thenReturn(normal);
+        when(notasFiscais.save(nota)).thenThrow(new RuntimeException("Duplicate entry"));
+        when(notasFiscais.chaveDaVenda(1L, 65)).thenReturn(null, "chave5");
+
+        assertEquals("chave5", nfceService.chaveDaVenda(1L));
+
+        verifyNoInteractions(autorizador);
+    }
+
+}
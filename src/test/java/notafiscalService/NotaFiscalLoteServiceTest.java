@@ -0,0 +1,142 @@
+package notafiscalService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalLoteService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalService;
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
+import net.originmobi.pdv.xml.nfe.GeraXmlNfe;
+import net.originmobi.pdv.xml.nfe.NFeAssinada;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("NotaFiscalLoteService — testes unitarios")
+class NotaFiscalLoteServiceTest {
+
+    @InjectMocks
+    private NotaFiscalLoteService notasLote;
+
+    @Mock private NotaFiscalRepository notasFiscais;
+    @Mock private NotaFiscalService notas;
+    @Mock private GeraXmlNfe geraXml;
+    @Mock private ArquivoXmlNfe arquivoXml;
+    @Mock private PlatformTransactionManager transacoes;
+
+    @AfterEach
+    void encerra() {
+        notasLote.encerra();
+    }
+
+    private List<NotaFiscal> notas(int quantidade) {
+        List<NotaFiscal> lista = new ArrayList<>();
+        for (long codigo = 1; codigo <= quantidade; codigo++) {
+            NotaFiscal nota = new NotaFiscal();
+            nota.setCodigo(codigo);
+            nota.setItens(Collections.emptyList());
+            lista.add(nota);
+        }
+        return lista;
+    }
+
+    private List<Long> codigos(List<NotaFiscal> notas) {
+        List<Long> codigos = new ArrayList<>();
+        notas.forEach(n -> codigos.add(n.getCodigo()));
+        return codigos;
+    }
+
+    @Test
+    @DisplayName("emitir(): deve agrupar as notas em lotes de até 50 e isolar a nota com erro")
+    void emitir_AgrupaEmLotes_IsolaFalha() {
+        List<NotaFiscal> lista = notas(120);
+        List<Long> codigos = codigos(lista);
+        when(notasFiscais.buscaParaXml(codigos)).thenReturn(lista);
+
+        when(geraXml.gerarNFe(any(NotaFiscal.class))).thenAnswer(inv -> {
+            NotaFiscal nota = inv.getArgument(0);
+            if (nota.getCodigo() == 7L)
+                throw new RuntimeException("Nota sem destinatário, verifique");
+            return new NFeAssinada("chave" + nota.getCodigo(), ("<NFe>" + nota.getCodigo() + "</NFe>").getBytes());
+        });
+
+        List<String> progresso = new ArrayList<>();
+        Map<Long, String> situacao = notasLote.emitir(codigos, progresso::add);
+
+        assertEquals(120, situacao.size());
+        assertEquals("Nota sem destinatário, verifique", situacao.get(7L));
+        assertEquals(119, situacao.values().stream().filter("ok"::equals).count());
+
+        verify(notas, times(3)).salvaXML(anyString(), startsWith("lote"));
+        verify(transacoes, times(3)).commit(any());
+        verify(notasFiscais, times(119)).atualizaChave(anyLong(), anyString());
+        verify(arquivoXml, times(119)).grava(startsWith("chave"), any(byte[].class));
+        verify(arquivoXml).grava(eq("chave1"), argThat(xml -> new String(xml).equals("<NFe>1</NFe>")));
+        verify(notas, times(2)).salvaXML(argThat(xml -> xml.split("<NFe>").length - 1 == 50), anyString());
+        verify(notas).salvaXML(argThat(xml -> xml.split("<NFe>").length - 1 == 19), anyString());
+        assertEquals(3, progresso.stream().filter(m -> m.startsWith("Lote ")).count());
+        assertEquals("chave1", lista.get(0).getChave_acesso());
+        assertNull(lista.get(6).getChave_acesso());
+    }
+
+    @Test
+    @DisplayName("emitir(): falha ao gravar um lote desfaz somente esse lote, os xml dele são retirados")
+    void emitir_FalhaEmUmLote_DesfazSomenteOLote() {
+        List<NotaFiscal> lista = notas(60);
+        List<Long> codigos = codigos(lista);
+        when(notasFiscais.buscaParaXml(codigos)).thenReturn(lista);
+        when(geraXml.gerarNFe(any(NotaFiscal.class))).thenAnswer(inv -> {
+            NotaFiscal nota = inv.getArgument(0);
+            return new NFeAssinada("chave" + nota.getCodigo(), ("<NFe>" + nota.getCodigo() + "</NFe>").getBytes());
+        });
+        // o primeiro lote falha ao gravar as chaves, o segundo é gravado
+        when(notasFiscais.atualizaChave(anyLong(), anyString())).thenAnswer(inv -> {
+            if ((Long) inv.getArgument(0) == 10L)
+                throw new RuntimeException("falha");
+            return 1;
+        });
+
+        Map<Long, String> situacao = notasLote.emitir(codigos, m -> {
+        });
+
+        assertEquals(10, situacao.values().stream().filter("ok"::equals).count());
+        verify(transacoes).rollback(any());
+        verify(transacoes).commit(any());
+
+        // os xml do lote desfeito são retirados, os do lote gravado ficam
+        verify(arquivoXml, times(50)).remove(anyString());
+        verify(arquivoXml, never()).remove("chave55");
+        verify(notas).removeXml(startsWith("lote"));
+        assertNull(lista.get(0).getChave_acesso());
+        assertEquals("chave55", lista.get(54).getChave_acesso());
+    }
+
+    @Test
+    @DisplayName("emitir(): nota não encontrada deve ser informada sem gerar lote")
+    void emitir_NotaNaoEncontrada_Informa() {
+        List<Long> codigos = Collections.singletonList(99L);
+        when(notasFiscais.buscaParaXml(codigos)).thenReturn(Collections.emptyList());
+
+        Map<Long, String> situacao = notasLote.emitir(codigos, m -> {
+        });
+
+        assertEquals("Nota fiscal não encontrada", situacao.get(99L));
+        verifyNoInteractions(notas, geraXml);
+    }
+
+}
@@ -0,0 +1,186 @@
+package notafiscalService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import net.originmobi.pdv.service.notafiscal.NotaFiscalNumeracaoService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("NotaFiscalNumeracaoService — testes unitarios")
+class NotaFiscalNumeracaoServiceTest {
+
+    @InjectMocks
+    private NotaFiscalNumeracaoService numeracao;
+
+    @Mock private JdbcTemplate jdbc;
+    @Mock private PlatformTransactionManager transacoes;
+
+    @Test
+    @DisplayName("proximo(): notas criadas em paralelo nunca recebem o mesmo número")
+    void proximo_Concorrente_SemRepeticao() throws Exception {
+        // contador da nota_fiscal_numeracao, já com 100 notas emitidas
+        AtomicLong contador = new AtomicLong(101);
+        lenient().when(jdbc.update(startsWith("update nota_fiscal_numeracao set proximo_numero = proximo_numero"),
+                any(), any(), any(), any())).thenAnswer(inv -> {
+                    contador.addAndGet((Integer) inv.getArgument(1));
+                    return 1;
+                });
+        when(jdbc.queryForObject(startsWith("select proximo_numero"), eq(Long.class), any(), any(), any()))
+                .thenAnswer(inv -> contador.get());
+
+        Set<Long> numeros = ConcurrentHashMap.newKeySet();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<?>> tarefas = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            tarefas.add(threads.submit(() -> {
+                for (int i = 0; i < 50; i++)
+                    numeros.add(numeracao.proximo(1L, 55, 1));
+            }));
+        }
+        for (Future<?> tarefa : tarefas)
+            tarefa.get();
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(400, numeros.size());
+        assertEquals(101L, (long) Collections.min(numeros));
+        assertEquals(500L, (long) Collections.max(numeros));
+        verify(jdbc, times(400 / NotaFiscalNumeracaoService.TAMANHO_BLOCO)).queryForObject(
+                startsWith("select proximo_numero"), eq(Long.class), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("recupera(): números de um bloco sem renovação sem nota vão para inutilização e a sobra volta ao contador")
+    void recupera_BlocoAbandonado_InutilizaEDevolve() {
+        when(jdbc.query(startsWith("select empresa_codigo"), any(RowMapper.class), any()))
+                .thenAnswer(inv -> {
+                    RowMapper<?> mapper = inv.getArgument(1);
+                    ResultSet rs = mock(ResultSet.class);
+                    when(rs.getLong("empresa_codigo")).thenReturn(1L);
+                    when(rs.getInt("modelo")).thenReturn(55);
+                    when(rs.getInt("serie")).thenReturn(1);
+                    when(rs.getLong("numero_inicial")).thenReturn(21L);
+                    when(rs.getLong("numero_final")).thenReturn(40L);
+                    return Arrays.asList(mapper.mapRow(rs, 0));
+                });
+        // a nota 23 não chegou a ser gravada, depois da 25 nenhum número foi entregue
+        when(jdbc.queryForList(startsWith("select numero from nota_fiscal"), eq(Long.class), any(), any(), any(),
+                any(), any())).thenReturn(Arrays.asList(21L, 22L, 24L, 25L));
+        lenient().when(jdbc.update(startsWith("update nota_fiscal_numeracao set proximo_numero = ?"), any(), any(),
+                any(), any(), any())).thenReturn(1);
+        when(jdbc.update(startsWith("update nota_fiscal_numeracao_bloco set instancia"), any(), any(), any(), any(),
+                any(), any())).thenReturn(1);
+
+        numeracao.recupera();
+
+        verify(jdbc).update(startsWith("insert into nota_fiscal_inutilizacao"), eq(1L), eq(55), eq(1), eq(23L),
+                eq(23L), any());
+        verify(jdbc, times(1)).update(startsWith("insert into nota_fiscal_inutilizacao"), any(), any(), any(), any(),
+                any(), any());
+        verify(jdbc).update(startsWith("update nota_fiscal_numeracao set proximo_numero = ?"), eq(26L), eq(1L),
+                eq(55), eq(1), eq(41L));
+        verify(jdbc).update(startsWith("delete from nota_fiscal_numeracao_bloco"), eq(1L), eq(55), eq(1), eq(21L));
+    }
+
+    @Test
+    @DisplayName("desliga(): sobra que não pode voltar ao contador vai para inutilização")
+    void desliga_OutroBlocoReservado_InutilizaSobra() {
+        AtomicLong contador = new AtomicLong(1);
+        lenient().when(jdbc.update(startsWith("update nota_fiscal_numeracao set proximo_numero = proximo_numero"),
+                any(), any(), any(), any())).thenAnswer(inv -> {
+                    contador.addAndGet((Integer) inv.getArgument(1));
+                    return 1;
+                });
+        when(jdbc.queryForObject(startsWith("select proximo_numero"), eq(Long.class), any(), any(), any()))
+                .thenAnswer(inv -> contador.get());
+        when(jdbc.queryForList(startsWith("select numero from nota_fiscal"), eq(Long.class), any(), any(), any(),
+                any(), any())).thenReturn(Arrays.asList(1L, 2L, 3L));
+        // outra instância já reservou o bloco seguinte
+        lenient().when(jdbc.update(startsWith("update nota_fiscal_numeracao set proximo_numero = ?"), any(), any(),
+                any(), any(), any())).thenReturn(0);
+
+        for (int i = 0; i < 3; i++)
+            numeracao.proximo(1L, 55, 1);
+        numeracao.desliga();
+
+        verify(jdbc).update(startsWith("insert into nota_fiscal_inutilizacao"), eq(1L), eq(55), eq(1), eq(4L),
+                eq(20L), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void blocoAbandonado() {
+        when(jdbc.query(startsWith("select empresa_codigo"), any(RowMapper.class), any()))
+                .thenAnswer(inv -> {
+                    RowMapper<?> mapper = inv.getArgument(1);
+                    ResultSet rs = mock(ResultSet.class);
+                    when(rs.getLong("empresa_codigo")).thenReturn(1L);
+                    when(rs.getInt("modelo")).thenReturn(55);
+                    when(rs.getInt("serie")).thenReturn(1);
+                    when(rs.getLong("numero_inicial")).thenReturn(21L);
+                    when(rs.getLong("numero_final")).thenReturn(40L);
+                    return Arrays.asList(mapper.mapRow(rs, 0));
+                });
+    }
+
+    @Test
+    @DisplayName("recupera(): bloco assumido antes por outra instância não é encerrado de novo")
+    void recupera_BlocoAssumidoPorOutra_NaoEncerra() {
+        blocoAbandonado();
+        when(jdbc.update(startsWith("update nota_fiscal_numeracao_bloco set instancia"), any(), any(), any(), any(),
+                any(), any())).thenReturn(0);
+
+        numeracao.recupera();
+
+        verify(jdbc, never()).queryForList(anyString(), eq(Long.class), any(), any(), any(), any(), any());
+        verify(jdbc, never()).update(startsWith("delete from nota_fiscal_numeracao_bloco"), any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("renova(): bloco encerrado por outra instância deixa de entregar números")
+    @SuppressWarnings("unchecked")
+    void renova_BlocoEncerradoPorOutra_ReservaNovoBloco() throws Exception {
+        AtomicLong contador = new AtomicLong(1);
+        lenient().when(jdbc.update(startsWith("update nota_fiscal_numeracao set proximo_numero = proximo_numero"),
+                any(), any(), any(), any())).thenAnswer(inv -> {
+                    contador.addAndGet((Integer) inv.getArgument(1));
+                    return 1;
+                });
+        when(jdbc.queryForObject(startsWith("select proximo_numero"), eq(Long.class), any(), any(), any()))
+                .thenAnswer(inv -> contador.get());
+        // nenhum bloco continua registrado com esta instância
+        when(jdbc.query(startsWith("select empresa_codigo"), any(RowMapper.class), any()))
+                .thenReturn(Collections.emptyList());
+
+        assertEquals(1L, (long) numeracao.proximo(1L, 55, 1));
+        Thread.sleep(5);
+        numeracao.renova();
+
+        assertEquals(21L, (long) numeracao.proximo(1L, 55, 1));
+        verify(jdbc).update(startsWith("update nota_fiscal_numeracao_bloco set data_renovacao = now()"), anyString());
+    }
+
+}
@@ -4,26 +4,34 @@ import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.DisplayName;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import net.originmobi.pdv.enumerado.notafiscal.NotaFiscalTipo;
 import net.originmobi.pdv.model.Empresa;
 import net.originmobi.pdv.model.EmpresaParametro;
 import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.model.NotaFiscalItem;
+import net.originmobi.pdv.model.NotaFiscalItemImposto;
 import net.originmobi.pdv.model.NotaFiscalTotais;
 import net.originmobi.pdv.model.Pessoa;
 import net.originmobi.pdv.repository.notafiscal.NotaFiscalRepository;
 import net.originmobi.pdv.service.EmpresaService;
+import net.originmobi.pdv.service.MetricasPainelService;
 import net.originmobi.pdv.service.PessoaService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalNumeracaoService;
 import net.originmobi.pdv.service.notafiscal.NotaFiscalService;
 import net.originmobi.pdv.service.notafiscal.NotaFiscalTotaisServer;
+import net.originmobi.pdv.xml.nfe.ArquivoXmlNfe;
+import net.originmobi.pdv.xml.nfe.GeraXmlNfe;
 
 class NotaFiscalServiceTest {
 
@@ -123,67 +131,51 @@ class NotaFiscalServiceTest {
     
     @Test
     @DisplayName("Teste do método salvaXML(String xml, String chaveNfe)")
-    void salvaArquivoXML() {
+    void salvaArquivoXML(@TempDir Path diretorio) {
 
-        // objeto da classe NotaFiscalService
+        // objeto da classe NotaFiscalService com o arquivo de xml em um diretório temporário
         NotaFiscalService service = new NotaFiscalService();
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+        ReflectionTestUtils.setField(service, "arquivoXml", arquivo);
 
         // dados de teste que são passados como parâmetros ao chamar o método
-        String xml = "<nfe>conteudo</nfe>";
+        String xml = "<nfe>conteúdo</nfe>";
         String chave = "teste123";
 
-        try {
-            // chama o método salvaXML(String xml, String chaveNfe) de NotaFiscalService
-            service.salvaXML(xml, chave);
+        // chama o método salvaXML(String xml, String chaveNfe) de NotaFiscalService
+        service.salvaXML(xml, chave);
 
-            // verifica se o arquivo foi criado
-            File file = new File(new File(".").getCanonicalPath() + "/src/main/resources/xmlNfe/" + chave + ".xml");
+        // o xml deve ser lido de volta pela chave
+        assertEquals(Optional.of(xml), service.buscaXml(chave));
 
-            // verificação de resultado do teste
-            assertTrue(file.exists());
-
-            // deleta arquivo criado após o teste
-            file.delete();
-
-        } catch (Exception e) {
-            fail("Erro inesperado ao salvar XML: " + e.getMessage());
-        }
+        arquivo.fecha();
     }
 
 
     
     @Test
     @DisplayName("Teste do método removeXml(String chave_acesso)")
-    void removeArquivoXMLExistente() {
+    void removeArquivoXMLExistente(@TempDir Path diretorio) {
 
-        // objeto da classe NotaFiscalService
+        // objeto da classe NotaFiscalService com o arquivo de xml em um diretório temporário
         NotaFiscalService service = new NotaFiscalService();
+        ArquivoXmlNfe arquivo = new ArquivoXmlNfe(diretorio, ArquivoXmlNfe.TAMANHO_SEGMENTO);
+        ReflectionTestUtils.setField(service, "arquivoXml", arquivo);
 
         // dado de teste que é passado como parâmetro ao chamar o método
         String chave = "remover123";
+        service.salvaXML("<nfe>teste</nfe>", chave);
 
-        try {
-            // cria objeto File que aponta para o arquivo com chave_acesso "remover123"
-            File file = new File(new File(".").getCanonicalPath() + "/src/main/resources/xmlNfe/" + chave + ".xml");
-
-            // cria arquivo de teste manualmente
-            file.getParentFile().mkdirs();
-            try (FileWriter fw = new FileWriter(file)) {
-                fw.write("<nfe>teste</nfe>");
-            }
-
-            // verifica se o arquivo existe antes da remoção
-            assertTrue(file.exists());
+        // verifica se o xml existe antes da remoção
+        assertTrue(service.buscaXml(chave).isPresent());
 
-            // chama o método para deletar o arquivo
-            service.removeXml(chave);
+        // chama o método para remover o xml
+        service.removeXml(chave);
 
-            // verifica se o arquivo foi realmente removido
-            assertFalse(file.exists());
+        // verifica se o xml foi realmente removido
+        assertFalse(service.buscaXml(chave).isPresent());
 
-        } catch (Exception e) {
-            fail("Erro inesperado ao remover XML: " + e.getMessage());
-        }
+        arquivo.fecha();
     }
 
     
@@ -197,6 +189,8 @@ class NotaFiscalServiceTest {
         EmpresaService mockEmpresaService = mock(EmpresaService.class);
         PessoaService mockPessoaService = mock(PessoaService.class);
         NotaFiscalTotaisServer mockTotaisService = mock(NotaFiscalTotaisServer.class);
+        NotaFiscalNumeracaoService mockNumeracao = mock(NotaFiscalNumeracaoService.class);
+        MetricasPainelService mockMetricas = mock(MetricasPainelService.class);
 
         // cria service e injeta mocks (campo privado → ReflectionTestUtils aqui é só utilidade do Spring,
         NotaFiscalService nfeService = new NotaFiscalService();
@@ -205,6 +199,8 @@ class NotaFiscalServiceTest {
         ReflectionTestUtils.setField(nfeService, "empresas", mockEmpresaService);
         ReflectionTestUtils.setField(nfeService, "pessoas", mockPessoaService);
         ReflectionTestUtils.setField(nfeService, "notaTotais", mockTotaisService);
+        ReflectionTestUtils.setField(nfeService, "numeracao", mockNumeracao);
+        ReflectionTestUtils.setField(nfeService, "metricas", mockMetricas);
 
         //dados testes necessários
         EmpresaParametro parametro = new EmpresaParametro();
@@ -212,6 +208,7 @@ class NotaFiscalServiceTest {
         parametro.setAmbiente(1);    
 
         Empresa empresa = new Empresa();
+        empresa.setCodigo(1L);
         empresa.setParametro(parametro);
 
         Pessoa pessoa = new Pessoa();
@@ -225,14 +222,68 @@ class NotaFiscalServiceTest {
         when(mockEmpresaService.verificaEmpresaCadastrada()).thenReturn(Optional.of(empresa));
         when(mockPessoaService.buscaPessoa(10L)).thenReturn(Optional.of(pessoa));
         when(mockTotaisService.cadastro(any(NotaFiscalTotais.class))).thenReturn(totais);
-        when(mockRepo.buscaUltimaNota(1)).thenReturn(100L);
+        when(mockNumeracao.proximo(1L, 55, 1)).thenReturn(100L);
         when(mockRepo.save(any(NotaFiscal.class))).thenReturn(nfSalva);
 
         //chama método para cadastrar a nota fiscal
         String codigoGerado = nfeService.cadastrar(10L, "Venda de produtos", NotaFiscalTipo.SAIDA);
 
         assertEquals("999", codigoGerado);
+        verify(mockRepo).save(argThat(nota -> nota.getNumero() == 100L));
+        verify(mockMetricas).notaEmitida();
     }
 
 
-}
\ No newline at end of file
+    @Test
+    @DisplayName("Teste do método emitir(NotaFiscal notaFiscal) com nota de 300 itens chamando uma vez cada consulta de carga do repositório")
+    void emiteNotaChamandoUmaVezCadaConsultaDeCarga() {
+
+        //cria mocks necessários para execução do método
+        NotaFiscalRepository mockRepo = mock(NotaFiscalRepository.class);
+        NotaFiscalTotaisServer mockTotaisService = mock(NotaFiscalTotaisServer.class);
+        GeraXmlNfe mockGeraXml = mock(GeraXmlNfe.class);
+
+        NotaFiscalService nfeService = new NotaFiscalService();
+        ReflectionTestUtils.setField(nfeService, "notasFiscais", mockRepo);
+        ReflectionTestUtils.setField(nfeService, "notaTotais", mockTotaisService);
+        ReflectionTestUtils.setField(nfeService, "geraXmlNfe", mockGeraXml);
+
+        //a primeira consulta traz a nota sem os itens, a segunda os 300 itens com os impostos
+        NotaFiscal cabecalho = new NotaFiscal();
+        cabecalho.setCodigo(1L);
+        NotaFiscal comItens = new NotaFiscal();
+        comItens.setCodigo(1L);
+        List<NotaFiscalItem> itens = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            NotaFiscalItem item = new NotaFiscalItem();
+            item.setImpostos(new NotaFiscalItemImposto());
+            itens.add(item);
+        }
+        comItens.setItens(itens);
+
+        List<Long> codigos = Collections.singletonList(1L);
+        when(mockRepo.buscaParaXml(codigos)).thenCallRealMethod();
+        when(mockRepo.buscaCabecalhoParaXml(codigos)).thenReturn(Arrays.asList(cabecalho));
+        when(mockRepo.buscaItensParaXml(codigos)).thenReturn(Arrays.asList(comItens));
+        when(mockTotaisService.recalcula(eq(1L), any())).thenReturn(true);
+        when(mockGeraXml.gerarXML(cabecalho)).thenAnswer(inv -> {
+            NotaFiscal nota = inv.getArgument(0);
+            //o xml percorre todos os itens e impostos já carregados
+            assertEquals(300, nota.getItens().stream().filter(i -> i.getImpostos() != null).count());
+            return "chave";
+        });
+
+        NotaFiscal recebida = new NotaFiscal();
+        recebida.setCodigo(1L);
+        nfeService.emitir(recebida);
+
+        //o serviço chama cada consulta de carga do repositório uma única vez, as
+        //instruções SQL geradas pelo hibernate não são medidas aqui
+        verify(mockRepo).buscaCabecalhoParaXml(codigos);
+        verify(mockRepo).buscaItensParaXml(codigos);
+        verify(mockRepo).save(cabecalho);
+        assertEquals("chave", cabecalho.getChave_acesso());
+        assertEquals("chave", recebida.getChave_acesso());
+    }
+
+}
@@ -0,0 +1,122 @@
+package notafiscalService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import net.originmobi.pdv.model.NotaFiscalItem;
+import net.originmobi.pdv.model.NotaFiscalItemImposto;
+import net.originmobi.pdv.model.NotaFiscalTotais;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalTotaisCalculo;
+import net.originmobi.pdv.repository.notafiscal.NotaFiscalTotaisRepository;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalItemTotais;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalTotaisServer;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("NotaFiscalTotaisServer — testes unitarios")
+class NotaFiscalTotaisServerTest {
+
+    @InjectMocks
+    private NotaFiscalTotaisServer totaisServer;
+
+    @Mock private NotaFiscalTotaisRepository totais;
+
+    private NotaFiscalTotais totais(double produtos, double icms, double ipi) {
+        NotaFiscalTotais total = new NotaFiscalTotais(produtos, icms, 0.0, produtos, 0.0, 0.0, 0.0, 0.0, ipi, 0.0,
+                0.0, 0.0, produtos + ipi);
+        total.setCodigo(5L);
+        return total;
+    }
+
+    private NotaFiscalItem item(double vlTotal, double icms, double ipi) {
+        NotaFiscalItemImposto imposto = new NotaFiscalItemImposto();
+        imposto.setV_icms(icms);
+        imposto.setV_pis(0.0);
+        imposto.setV_cofins(0.0);
+        imposto.setV_ipi(ipi);
+
+        NotaFiscalItem item = new NotaFiscalItem();
+        item.setVlTotal(vlTotal);
+        item.setImpostos(imposto);
+        return item;
+    }
+
+    private NotaFiscalTotaisCalculo calculo(long produtos, long icms, long ipi) {
+        return new NotaFiscalTotaisCalculo() {
+            public Number getProdutos() { return BigDecimal.valueOf(produtos); }
+            public Number getIcms() { return BigDecimal.valueOf(icms); }
+            public Number getPis() { return BigDecimal.ZERO; }
+            public Number getCofins() { return BigDecimal.ZERO; }
+            public Number getIpi() { return BigDecimal.valueOf(ipi); }
+        };
+    }
+
+    @Test
+    @DisplayName("soma(): alteração de um item aplica somente a diferença em centavos")
+    void soma_AlteracaoItem_AplicaDiferenca() {
+        when(totais.soma(5L, 1000L, 180L, 0L, 0L, 50L)).thenReturn(1);
+
+        NotaFiscalItemTotais anterior = NotaFiscalItemTotais.de(item(10.0, 1.8, 0.5));
+        NotaFiscalItemTotais atual = NotaFiscalItemTotais.de(item(20.0, 3.6, 1.0));
+        totaisServer.soma(totais(10.0, 1.8, 0.5), atual.menos(anterior));
+
+        verify(totais).soma(5L, 1000L, 180L, 0L, 0L, 50L);
+        verify(totais, never()).calcula(anyLong());
+    }
+
+    @Test
+    @DisplayName("soma(): item removido subtrai a sua contribuição e diferença zero não vai ao banco")
+    void soma_Remocao_SubtraiEZeroIgnora() {
+        when(totais.soma(5L, -1234L, -222L, 0L, 0L, 0L)).thenReturn(1);
+
+        NotaFiscalItemTotais item = NotaFiscalItemTotais.de(item(12.34, 2.2212, 0.0));
+        totaisServer.soma(totais(12.34, 2.22, 0.0), item.negativo());
+        totaisServer.soma(totais(12.34, 2.22, 0.0), item.menos(item));
+
+        verify(totais, times(1)).soma(anyLong(), anyLong(), anyLong(), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    @DisplayName("soma(): totais inexistentes devem retornar erro")
+    void soma_TotaisInexistentes_RetornaErro() {
+        when(totais.soma(5L, 100L, 0L, 0L, 0L, 0L)).thenReturn(0);
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> totaisServer.soma(totais(0.0, 0.0, 0.0), new NotaFiscalItemTotais(100, 0, 0, 0, 0)));
+        assertEquals("Totais da nota não encontrados, chame o suporte", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("recalcula(): totais iguais à soma dos itens não são gravados")
+    void recalcula_TotaisConferem_NaoGrava() {
+        when(totais.calcula(1L)).thenReturn(calculo(3050, 549, 150));
+
+        assertTrue(totaisServer.recalcula(1L, totais(30.5, 5.49, 1.5)));
+        verify(totais, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("recalcula(): totais divergentes são corrigidos pela soma dos itens")
+    void recalcula_TotaisDivergentes_Corrige() {
+        when(totais.calcula(1L)).thenReturn(calculo(3050, 549, 150));
+        NotaFiscalTotais total = totais(20.0, 3.0, 1.5);
+
+        assertFalse(totaisServer.recalcula(1L, total));
+
+        verify(totais).save(total);
+        assertEquals(30.5, total.getV_prod());
+        assertEquals(30.5, total.getV_bc());
+        assertEquals(5.49, total.getV_icms());
+        assertEquals(32.0, total.getV_nf());
+    }
+
+}
@@ -0,0 +1,159 @@
+package notafiscalService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import net.originmobi.pdv.enumerado.EntradaSaida;
+import net.originmobi.pdv.enumerado.VendaSituacao;
+import net.originmobi.pdv.enumerado.notafiscal.NotaFiscalTipo;
+import net.originmobi.pdv.model.Cidade;
+import net.originmobi.pdv.model.Endereco;
+import net.originmobi.pdv.model.Estado;
+import net.originmobi.pdv.model.ModBcIcms;
+import net.originmobi.pdv.model.NotaFiscal;
+import net.originmobi.pdv.model.NotaFiscalItemImposto;
+import net.originmobi.pdv.model.NotaFiscalTotais;
+import net.originmobi.pdv.model.Pessoa;
+import net.originmobi.pdv.model.Produto;
+import net.originmobi.pdv.model.TributacaoRegra;
+import net.originmobi.pdv.model.Venda;
+import net.originmobi.pdv.repository.ProdutoRepository;
+import net.originmobi.pdv.repository.VendaRepository;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegraResolvida;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegrasDaTributacao;
+import net.originmobi.pdv.service.VendaProdutoService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalItemImpostoService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalItemService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalItemTotais;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalService;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalTotaisServer;
+import net.originmobi.pdv.service.notafiscal.NotaFiscalVendaService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("NotaFiscalVendaService — testes unitarios")
+class NotaFiscalVendaServiceTest {
+
+    @InjectMocks
+    private NotaFiscalVendaService notasVenda;
+
+    @Mock private VendaRepository vendas;
+    @Mock private VendaProdutoService vendaProdutos;
+    @Mock private ProdutoRepository produtos;
+    @Mock private NotaFiscalService notas;
+    @Mock private NotaFiscalItemService itens;
+    @Mock private NotaFiscalItemImpostoService impostos;
+    @Mock private NotaFiscalTotaisServer totais;
+    @Mock private JdbcTemplate jdbc;
+
+    private Venda venda(VendaSituacao situacao) {
+        Venda venda = new Venda();
+        venda.setCodigo(1L);
+        venda.setSituacao(situacao);
+        return venda;
+    }
+
+    private Produto produto(Long codigo) {
+        ModBcIcms modBc = new ModBcIcms();
+        modBc.setTipo(3);
+        Produto produto = new Produto();
+        produto.setCodigo(codigo);
+        produto.setUnidade("UN");
+        produto.setModBcIcms(modBc);
+        return produto;
+    }
+
+    private NotaFiscal nota() {
+        Estado estado = new Estado();
+        estado.setSigla("SP");
+        Cidade cidade = new Cidade();
+        cidade.setEstado(estado);
+        Endereco endereco = new Endereco();
+        endereco.setCidade(cidade);
+        Pessoa destinatario = new Pessoa();
+        destinatario.setEndereco(endereco);
+
+        NotaFiscalTotais total = new NotaFiscalTotais(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+        total.setCodigo(9L);
+        NotaFiscal nota = new NotaFiscal();
+        nota.setCodigo(50L);
+        nota.setDestinatario(destinatario);
+        nota.setTotais(total);
+        return nota;
+    }
+
+    private NotaFiscalItemImposto imposto(double vlTotal) {
+        NotaFiscalItemImposto imposto = new NotaFiscalItemImposto();
+        imposto.setV_icms(vlTotal * 0.18);
+        imposto.setV_pis(0.0);
+        imposto.setV_cofins(0.0);
+        imposto.setV_ipi(0.0);
+        return imposto;
+    }
+
+    @Test
+    @DisplayName("gerar(): todos os itens são gravados em lote e os totais atualizados uma vez")
+    void gerar_GravaEmLote_TotaisUmaVez() {
+        NotaFiscal nota = nota();
+        TributacaoRegra regraSp = new TributacaoRegra();
+        RegrasDaTributacao regras = mock(RegrasDaTributacao.class);
+        RegraResolvida resolvida = mock(RegraResolvida.class);
+
+        when(vendas.findById(1L)).thenReturn(Optional.of(venda(VendaSituacao.FECHADA)));
+        when(vendaProdutos.qtdProdutoPorPreco(1L)).thenReturn(Arrays.asList(
+                new Object[] { 10L, new BigDecimal("2.50"), 3L },
+                new Object[] { 11L, new BigDecimal("10.00"), 1L }));
+        when(produtos.findAllById(Arrays.asList(10L, 11L))).thenReturn(Arrays.asList(produto(10L), produto(11L)));
+        when(notas.cadastrar(20L, NotaFiscalVendaService.NATUREZA_VENDA, NotaFiscalTipo.SAIDA, 55)).thenReturn("50");
+        when(notas.busca(50L)).thenReturn(Optional.of(nota));
+        when(itens.verificaRegraDeTributacao(eq(NotaFiscalTipo.SAIDA), any())).thenReturn(regras);
+        when(regras.busca("SP", EntradaSaida.SAIDA)).thenReturn(resolvida);
+        when(regras.getOrigem()).thenReturn('0');
+        when(resolvida.getRegra()).thenReturn(regraSp);
+        when(resolvida.getCfop()).thenReturn("5102");
+        when(impostos.monta(7.5, regraSp, '0', 3)).thenReturn(imposto(7.5));
+        when(impostos.monta(10.0, regraSp, '0', 3)).thenReturn(imposto(10.0));
+        when(jdbc.execute(any(ConnectionCallback.class))).thenReturn(Arrays.asList(101L, 102L));
+
+        assertEquals("50", notasVenda.gerar(1L, 20L));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Object[]>> linhas = ArgumentCaptor.forClass(List.class);
+        verify(jdbc).batchUpdate(startsWith("insert into nota_fiscal_item "), linhas.capture());
+        assertEquals(2, linhas.getValue().size());
+        assertArrayEquals(new Object[] { 10L, 3, 7.5, "UN", 3, 2.5, 50L, 101L, "5102" }, linhas.getValue().get(0));
+        assertArrayEquals(new Object[] { 11L, 1, 10.0, "UN", 1, 10.0, 50L, 102L, "5102" }, linhas.getValue().get(1));
+
+        ArgumentCaptor<NotaFiscalItemTotais> soma = ArgumentCaptor.forClass(NotaFiscalItemTotais.class);
+        verify(totais, times(1)).soma(same(nota.getTotais()), soma.capture());
+        assertEquals(1750L, soma.getValue().getProdutos());
+        assertEquals(315L, soma.getValue().getIcms());
+    }
+
+    @Test
+    @DisplayName("gerar(): venda aberta não gera nota")
+    void gerar_VendaAberta_RetornaErro() {
+        when(vendas.findById(1L)).thenReturn(Optional.of(venda(VendaSituacao.ABERTA)));
+
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> notasVenda.gerar(1L, 20L));
+
+        assertEquals("Somente venda fechada pode gerar nota fiscal", ex.getMessage());
+        verifyNoInteractions(notas, jdbc, totais);
+    }
+
+}
@@ -0,0 +1,87 @@
+package produtoIndiceService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import net.originmobi.pdv.enumerado.produto.ProdutoBalanca;
+import net.originmobi.pdv.enumerado.produto.ProdutoVendavel;
+import net.originmobi.pdv.model.Produto;
+import net.originmobi.pdv.repository.ProdutoRepository;
+import net.originmobi.pdv.service.ProdutoIndiceService;
+import net.originmobi.pdv.service.ProdutoIndiceService.ProdutoIndexado;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ProdutoIndiceService — testes unitarios")
+class ProdutoIndiceServiceTest {
+
+    @InjectMocks
+    private ProdutoIndiceService indice;
+
+    @Mock private ProdutoRepository produtos;
+
+    @BeforeEach
+    void setup() {
+        when(produtos.dadosIndiceVendaveis()).thenReturn(Arrays.asList(
+                new Object[] { 1L, "Refrigerante Cola 2L", 8.5, ProdutoBalanca.NAO },
+                new Object[] { 12L, "Refrigerante Limão 350ml", 4.0, ProdutoBalanca.NAO },
+                new Object[] { 120L, "Pão Francês", 15.9, ProdutoBalanca.SIM }));
+    }
+
+    @Test
+    @DisplayName("busca(): deve encontrar por prefixo das palavras, sem acento e sem diferenciar maiúsculas")
+    void busca_PrefixoDescricao_RetornaProdutos() {
+        List<ProdutoIndexado> resultado = indice.busca("REFRI lim", 10);
+
+        assertEquals(1, resultado.size());
+        assertEquals(12L, resultado.get(0).getCodigo());
+
+        List<ProdutoIndexado> pao = indice.busca("pao", 10);
+        assertEquals(1, pao.size());
+        assertEquals(ProdutoBalanca.SIM, pao.get(0).getBalanca());
+    }
+
+    @Test
+    @DisplayName("busca(): código exato deve vir primeiro e o limite deve ser respeitado")
+    void busca_CodigoExato_VemPrimeiroERespeitaLimite() {
+        List<ProdutoIndexado> resultado = indice.busca("12", 10);
+
+        assertEquals(12L, resultado.get(0).getCodigo());
+        assertEquals(2, resultado.size());
+
+        assertEquals(1, indice.busca("refrigerante", 1).size());
+        verify(produtos, times(1)).dadosIndiceVendaveis();
+    }
+
+    @Test
+    @DisplayName("atualiza(): deve reindexar o produto alterado e remover quando deixar de ser vendável")
+    void atualiza_ProdutoAlterado_ReindexaOuRemove() {
+        indice.busca("x", 1);
+
+        Produto produto = new Produto();
+        produto.setCodigo(1L);
+        produto.setDescricao("Suco de Uva 1L");
+        produto.setValor_venda(9.0);
+        produto.setVendavel(ProdutoVendavel.SIM);
+        indice.atualiza(produto);
+
+        assertTrue(indice.busca("cola", 10).isEmpty());
+        assertEquals(9.0, indice.busca("uva", 10).get(0).getValor_venda());
+
+        produto.setVendavel(ProdutoVendavel.NAO);
+        indice.atualiza(produto);
+
+        assertTrue(indice.busca("uva", 10).isEmpty());
+        assertNull(indice.precoVenda(1L));
+    }
+}
@@ -0,0 +1,129 @@
+package produtoService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import net.originmobi.pdv.enumerado.EntradaSaida;
+import net.originmobi.pdv.repository.ProdutoRepository;
+import net.originmobi.pdv.enumerado.produto.ProdutoControleEstoque;
+import net.originmobi.pdv.enumerado.produto.ProdutoSubstTributaria;
+import net.originmobi.pdv.model.Produto;
+import net.originmobi.pdv.service.EstoqueReservaService;
+import net.originmobi.pdv.service.ProdutoIndiceService;
+import net.originmobi.pdv.service.ProdutoService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ProdutoService — testes unitarios")
+class ProdutoServiceTest {
+
+    @InjectMocks
+    private ProdutoService produtoService;
+
+    @Mock private ProdutoRepository produtos;
+    @Mock private ProdutoIndiceService indice;
+    @Mock private JdbcTemplate jdbc;
+    @Mock private EstoqueReservaService reservas;
+    @Mock private PlatformTransactionManager transacoes;
+
+    @Test
+    @DisplayName("movimentaEstoque(): deve informar todos os produtos sem estoque de uma vez, sem gravar nada")
+    void movimentaEstoque_VariosSemEstoque_InformaTodos() {
+        when(produtos.estoqueProdutosVenda(1L)).thenReturn(Arrays.<Object[]>asList(
+                new Object[] { 10L, 5L, "SIM", 2 },
+                new Object[] { 11L, 1L, "SIM", 9 },
+                new Object[] { 12L, 3L, "SIM", 0 }));
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> produtoService.movimentaEstoque(1L, EntradaSaida.SAIDA));
+
+        assertEquals("Os produtos de código 10, 12 não tem estoque suficiente, verifique", ex.getMessage());
+        verifyNoInteractions(jdbc);
+    }
+
+    @Test
+    @DisplayName("movimentaEstoque(): deve gravar as movimentações e baixar o estoque em lote, ignorando produtos sem controle")
+    @SuppressWarnings("unchecked")
+    void movimentaEstoque_ComEstoque_GravaEmLote() {
+        when(produtos.estoqueProdutosVenda(1L)).thenReturn(Arrays.<Object[]>asList(
+                new Object[] { 10L, 2L, "SIM", 5 },
+                new Object[] { 11L, 1L, "NAO", 0 }));
+        when(jdbc.update(startsWith("update produto_estoque"), any(), any(), any())).thenReturn(1);
+
+        produtoService.movimentaEstoque(1L, EntradaSaida.SAIDA);
+
+        verify(jdbc).batchUpdate(startsWith("insert into estoque_movimentacao"),
+                (List<Object[]>) argThat(l -> ((List<Object[]>) l).size() == 1));
+        verify(jdbc).update(startsWith("update produto_estoque"), eq(-2), eq(10L), eq(-2));
+        verify(jdbc, never()).batchUpdate(startsWith("update produto_estoque"), anyList());
+    }
+
+    @Test
+    @DisplayName("movimentaEstoque(): se o estoque acabar antes do update deve informar o produto")
+    void movimentaEstoque_EstoqueAlteradoAntesDoUpdate_LancaErro() {
+        when(produtos.estoqueProdutosVenda(1L)).thenReturn(Arrays.<Object[]>asList(
+                new Object[] { 10L, 2L, "SIM", 5 }));
+        when(jdbc.update(startsWith("update produto_estoque"), any(), any(), any())).thenReturn(0);
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> produtoService.movimentaEstoque(1L, EntradaSaida.SAIDA));
+
+        assertEquals("O produto de código 10 não tem estoque suficiente, verifique", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("ajusteEstoque(): a entrada de estoque deve chegar ao saldo das reservas")
+    void ajusteEstoque_Entrada_AtualizaSaldoDasReservas() {
+        Produto produto = new Produto();
+        produto.setControla_estoque(ProdutoControleEstoque.SIM);
+        when(produtos.findByCodigoIn(10L)).thenReturn(produto);
+        when(produtos.atualizaEstoque(10L, 7)).thenReturn(1);
+
+        produtoService.ajusteEstoque(10L, 7, EntradaSaida.ENTRADA, "Ajuste", java.sql.Date.valueOf("2026-01-01"));
+
+        verify(reservas).movimenta(10L, 7);
+    }
+
+    @Test
+    @DisplayName("movimentaEstoque(): a saída da venda não altera o saldo das reservas, ela é confirmada pela venda")
+    void movimentaEstoque_Saida_NaoMovimentaReservas() {
+        when(produtos.estoqueProdutosVenda(1L)).thenReturn(Arrays.<Object[]>asList(
+                new Object[] { 10L, 2L, "SIM", 5 }));
+        when(jdbc.update(startsWith("update produto_estoque"), any(), any(), any())).thenReturn(1);
+
+        Map<Long, Integer> movimentados = produtoService.movimentaEstoque(1L, EntradaSaida.SAIDA);
+
+        verify(reservas, never()).movimenta(anyLong(), anyInt());
+        assertEquals(Integer.valueOf(2), movimentados.get(10L));
+    }
+
+    @Test
+    @DisplayName("merger(): cadastro deve indexar o produto com o código gerado pelo insert")
+    void testMerger_Cadastro_IndexaProdutoInserido() {
+        Produto inserido = new Produto();
+        when(produtos.ultimoCodigoInserido()).thenReturn(42L);
+        when(produtos.findByCodigoIn(42L)).thenReturn(inserido);
+
+        String r = produtoService.merger(0L, 1L, 1L, 1L, 0, "Arroz", 2.0, 3.0, null, "SIM", "ATIVO", "UN",
+                ProdutoSubstTributaria.NAO, "", "", 1L, 1L, "SIM");
+
+        assertEquals("Produdo cadastrado com sucesso", r);
+        verify(indice).atualiza(inserido);
+        verify(transacoes).commit(any());
+    }
+
+}
@@ -0,0 +1,91 @@
+package tributacaoRegraIndice;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import net.originmobi.pdv.enumerado.EntradaSaida;
+import net.originmobi.pdv.model.CFOP;
+import net.originmobi.pdv.model.Cst;
+import net.originmobi.pdv.model.CstCsosn;
+import net.originmobi.pdv.model.Estado;
+import net.originmobi.pdv.model.TributacaoRegra;
+import net.originmobi.pdv.repository.TributacaoRegraRepository;
+import net.originmobi.pdv.service.TributacaoRegraIndice;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegraResolvida;
+import net.originmobi.pdv.service.TributacaoRegraIndice.RegrasDaTributacao;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("TributacaoRegraIndice — testes unitarios")
+class TributacaoRegraIndiceTest {
+
+    @InjectMocks
+    private TributacaoRegraIndice indice;
+
+    @Mock private TributacaoRegraRepository regras;
+
+    private TributacaoRegra regra(String uf, EntradaSaida tipo, String cfop, String cst) {
+        Estado estado = new Estado();
+        estado.setSigla(uf);
+        CFOP codCfop = new CFOP();
+        codCfop.setCfop(cfop);
+        CstCsosn cstCsosn = new CstCsosn();
+        cstCsosn.setCst_csosn(cst);
+        Cst cstPis = new Cst();
+        cstPis.setCst("01");
+
+        TributacaoRegra regra = new TributacaoRegra();
+        regra.setUf(estado);
+        regra.setTipo(tipo);
+        regra.setCfop(codCfop);
+        regra.setCst_csosn(cstCsosn);
+        regra.setCst_pis(cstPis);
+        return regra;
+    }
+
+    @Test
+    @DisplayName("daTributacao(): as regras são lidas uma vez e resolvidas por UF e tipo")
+    void daTributacao_CarregaUmaVez_ResolvePorUfTipo() {
+        when(regras.findByTributacaoCodigoOrderByCodigo(1L)).thenReturn(Arrays.asList(
+                regra("SP", EntradaSaida.SAIDA, "5102", "0102"),
+                regra("RJ", EntradaSaida.SAIDA, "6102", "0102"),
+                regra("SP", EntradaSaida.SAIDA, "5405", "0500")));
+
+        RegrasDaTributacao resolvidas = indice.daTributacao(1L);
+        for (int i = 0; i < 10; i++)
+            indice.daTributacao(1L);
+
+        RegraResolvida sp = resolvidas.busca("SP", EntradaSaida.SAIDA);
+        assertEquals("5405", sp.getCfop());
+        assertEquals("0500", sp.getCstCsosn());
+        assertEquals("01", sp.getCstPis());
+        assertNull(sp.getCstIpi());
+        assertEquals("6102", resolvidas.busca("RJ", EntradaSaida.SAIDA).getCfop());
+        assertNull(resolvidas.busca("SP", EntradaSaida.ENTRADA));
+        assertTrue(resolvidas.temTipo(EntradaSaida.SAIDA));
+        assertFalse(resolvidas.temTipo(EntradaSaida.ENTRADA));
+        assertEquals(Character.valueOf('0'), resolvidas.getOrigem());
+        verify(regras, times(1)).findByTributacaoCodigoOrderByCodigo(1L);
+    }
+
+    @Test
+    @DisplayName("descarta(): a regra alterada é lida novamente na próxima busca")
+    void descarta_RecarregaRegras() {
+        when(regras.findByTributacaoCodigoOrderByCodigo(1L))
+                .thenReturn(Arrays.asList(regra("SP", EntradaSaida.SAIDA, "5102", "0102")))
+                .thenReturn(Arrays.asList(regra("SP", EntradaSaida.SAIDA, "5405", "0102")));
+
+        assertEquals("5102", indice.daTributacao(1L).busca("SP", EntradaSaida.SAIDA).getCfop());
+        indice.descarta();
+        assertEquals("5405", indice.daTributacao(1L).busca("SP", EntradaSaida.SAIDA).getCfop());
+    }
+
+}
@@ -0,0 +1,113 @@
+package vendaController;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.view.InternalResourceViewResolver;
+
+import net.originmobi.pdv.controller.TituloService;
+import net.originmobi.pdv.controller.VendaController;
+import net.originmobi.pdv.service.PagamentoTipoService;
+import net.originmobi.pdv.service.PessoaService;
+import net.originmobi.pdv.service.ProdutoIndiceService;
+import net.originmobi.pdv.service.VendaProdutoService;
+import net.originmobi.pdv.service.VendaService;
+
+/*
+ * Garante que os endpoints AJAX da venda não carregam as listas de apoio da
+ * tela (clientes, formas de pagamento, produtos), cada chamada deve acessar
+ * apenas o serviço que realmente usa.
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("VendaController — carga dos dados de apoio")
+class VendaControllerTest {
+
+    @InjectMocks
+    private VendaController controller;
+
+    @Mock private VendaService vendas;
+    @Mock private PessoaService pessoas;
+    @Mock private ProdutoIndiceService produtosIndice;
+    @Mock private VendaProdutoService vendaProdutos;
+    @Mock private PagamentoTipoService pagamentoTipos;
+    @Mock private TituloService titulos;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setup() {
+        InternalResourceViewResolver viewResolver = new InternalResourceViewResolver();
+        viewResolver.setPrefix("/templates/");
+        viewResolver.setSuffix(".html");
+
+        mvc = MockMvcBuilders.standaloneSetup(controller).setViewResolvers(viewResolver).build();
+    }
+
+    @AfterEach
+    void semListasDeApoio() {
+        verifyNoMoreInteractions(pessoas, pagamentoTipos, produtosIndice);
+    }
+
+    @Test
+    @DisplayName("/venda/addproduto: deve chamar apenas addProduto")
+    void addProduto_NaoCarregaListas() throws Exception {
+        when(vendas.addProduto(1L, 2L, 0.0)).thenReturn("ok");
+
+        mvc.perform(post("/venda/addproduto").param("codigoVen", "1").param("codigoPro", "2")
+                .param("valorBalanca", "0")).andExpect(status().isOk());
+
+        verify(vendas).addProduto(1L, 2L, 0.0);
+        verifyNoMoreInteractions(vendas);
+    }
+
+    @Test
+    @DisplayName("/venda/removeproduto: deve chamar apenas removeProduto")
+    void removeProduto_NaoCarregaListas() throws Exception {
+        when(vendas.removeProduto(3L, 1L)).thenReturn("ok");
+
+        mvc.perform(post("/venda/removeproduto").param("codigoVen", "1").param("posicaoPro", "3"))
+                .andExpect(status().isOk());
+
+        verify(vendas).removeProduto(3L, 1L);
+        verifyNoMoreInteractions(vendas);
+    }
+
+    @Test
+    @DisplayName("/venda/titulos: deve chamar apenas a lista de títulos")
+    void titulos_NaoCarregaListas() throws Exception {
+        when(titulos.lista()).thenReturn(Collections.emptyList());
+
+        mvc.perform(get("/venda/titulos")).andExpect(status().isOk());
+
+        verify(titulos).lista();
+        verifyNoInteractions(vendas);
+    }
+
+    @Test
+    @DisplayName("/venda/form: deve carregar clientes e formas de pagamento uma única vez")
+    void form_CarregaListasUmaVez() throws Exception {
+        when(pessoas.lista()).thenReturn(Collections.emptyList());
+        when(pagamentoTipos.listar()).thenReturn(Collections.emptyList());
+
+        mvc.perform(get("/venda/form")).andExpect(status().isOk())
+                .andExpect(model().attributeExists("clientes", "formaPagamento", "situacoes"));
+
+        verify(pessoas, times(1)).lista();
+        verify(pagamentoTipos, times(1)).listar();
+    }
+}
@@ -0,0 +1,99 @@
+package vendaCuboService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import net.originmobi.pdv.service.VendaCuboService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("VendaCuboService — testes unitarios")
+class VendaCuboServiceTest {
+
+    @InjectMocks
+    private VendaCuboService cubo;
+
+    @Mock private JdbcTemplate jdbc;
+    @Mock private PlatformTransactionManager transacoes;
+
+    @Test
+    @DisplayName("soma(): a venda é somada ao cubo com um único upsert")
+    void soma_UmUpsert() {
+        cubo.soma(7L, 100L);
+
+        verify(jdbc).update(AdditionalMatchers.and(startsWith("insert into venda_cubo "), contains("on duplicate key update")), eq(100L), eq(7L));
+        verifyNoMoreInteractions(jdbc);
+    }
+
+    @Test
+    @DisplayName("reconstroi(): cada dia do período é apagado e refeito na sua transação")
+    void reconstroi_RefazCadaDia() {
+        lenient().when(jdbc.update(startsWith("insert into venda_cubo "), any(Date.class), any(Date.class))).thenReturn(4);
+
+        assertEquals(12, cubo.reconstroi(LocalDate.of(2020, 1, 30), LocalDate.of(2020, 2, 1)));
+
+        for (LocalDate dia : new LocalDate[] { LocalDate.of(2020, 1, 30), LocalDate.of(2020, 1, 31), LocalDate.of(2020, 2, 1) }) {
+            verify(jdbc).update("delete from venda_cubo where dia = ?", Date.valueOf(dia));
+            verify(jdbc).update(startsWith("insert into venda_cubo "), eq(Date.valueOf(dia)), eq(Date.valueOf(dia.plusDays(1))));
+        }
+        verify(transacoes, times(3)).commit(any());
+    }
+
+    @Test
+    @DisplayName("reconstroi(): erro em um dia retorna erro")
+    void reconstroi_ErroNoDia_RetornaErro() {
+        when(jdbc.update(anyString(), any(Date.class))).thenThrow(new RuntimeException("falha"));
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> cubo.reconstroi(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 1)));
+
+        assertEquals("Erro ao reconstruir o cubo de vendas, chame o suporte", ex.getMessage());
+    }
+
+    @Test
+    @DisplayName("reconstroi(): o dia atual não é refeito, ele é mantido pelo fechamento das vendas")
+    void reconstroi_DiaAtual_RetornaErro() {
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> cubo.reconstroi(LocalDate.now().minusDays(1), LocalDate.now()));
+
+        assertEquals("O cubo do dia atual é mantido pelo fechamento das vendas, informe um período até ontem",
+                ex.getMessage());
+        verifyNoInteractions(jdbc, transacoes);
+    }
+
+    @Test
+    @DisplayName("consulta(): agrupa o cubo pela coluna da dimensão no período")
+    void consulta_AgrupaPelaDimensao() {
+        when(jdbc.queryForList(anyString(), any(Date.class), any(Date.class))).thenReturn(Collections.emptyList());
+
+        cubo.consulta(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 12, 31), VendaCuboService.Dimensao.PRODUTO);
+
+        verify(jdbc).queryForList(AdditionalMatchers.and(startsWith("select produto_codigo as chave"), endsWith("group by produto_codigo order by produto_codigo")),
+                eq(Date.valueOf(LocalDate.of(2020, 1, 1))), eq(Date.valueOf(LocalDate.of(2020, 12, 31))));
+    }
+
+    @Test
+    @DisplayName("consulta(): data final anterior à inicial retorna erro")
+    void consulta_PeriodoInvalido_RetornaErro() {
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> cubo.consulta(LocalDate.of(2020, 1, 2), LocalDate.of(2020, 1, 1), VendaCuboService.Dimensao.DIA));
+
+        assertEquals("Data final anterior à data inicial, verifique", ex.getMessage());
+        verifyNoInteractions(jdbc);
+    }
+
+}
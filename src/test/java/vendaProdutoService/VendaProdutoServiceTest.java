@@ -0,0 +1,52 @@
+package vendaProdutoService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import net.originmobi.pdv.model.VendaProduto;
+import net.originmobi.pdv.repository.VendaProdutosRepository;
+import net.originmobi.pdv.service.VendaProdutoService;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("VendaProdutoService — testes unitarios")
+class VendaProdutoServiceTest {
+
+    @InjectMocks
+    private VendaProdutoService vendaProdutoService;
+
+    @Mock private VendaProdutosRepository vendaProdutos;
+    @Mock private JdbcTemplate jdbc;
+
+    @Test
+    @DisplayName("removeProduto(): linha de outra venda não deve ser alterada")
+    void testRemoveProduto_LinhaDeOutraVenda_RetornaNull() {
+        when(vendaProdutos.findByCodigoIn(3L)).thenReturn(new VendaProduto(7L, 50L, 0.0));
+
+        assertNull(vendaProdutoService.removeProduto(3L, 99L));
+
+        verify(vendaProdutos, never()).decrementaQtd(anyLong(), anyLong());
+        verify(vendaProdutos, never()).removeProduto(anyLong(), anyLong());
+    }
+
+    @Test
+    @DisplayName("removeProduto(): linha com uma unidade deve ser removida da própria venda")
+    void testRemoveProduto_UltimaUnidade_RemoveLinha() {
+        VendaProduto linha = new VendaProduto(7L, 99L, 0.0);
+        when(vendaProdutos.findByCodigoIn(3L)).thenReturn(linha);
+        when(vendaProdutos.decrementaQtd(3L, 99L)).thenReturn(0);
+        when(vendaProdutos.removeProduto(3L, 99L)).thenReturn(1);
+
+        assertSame(linha, vendaProdutoService.removeProduto(3L, 99L));
+    }
+
+}
@@ -4,13 +4,16 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
@@ -26,7 +29,9 @@ import net.originmobi.pdv.filter.VendaFilter;
 import net.originmobi.pdv.model.Caixa;
 import net.originmobi.pdv.model.CaixaLancamento;
 import net.originmobi.pdv.model.PagamentoTipo;
+import net.originmobi.pdv.model.Parcela;
 import net.originmobi.pdv.model.Pessoa;
+import net.originmobi.pdv.model.Produto;
 import net.originmobi.pdv.model.Receber;
 import net.originmobi.pdv.model.Titulo;
 import net.originmobi.pdv.model.Usuario;
@@ -35,12 +40,16 @@ import net.originmobi.pdv.model.VendaProduto;
 import net.originmobi.pdv.repository.VendaRepository;
 import net.originmobi.pdv.service.CaixaLancamentoService;
 import net.originmobi.pdv.service.CaixaService;
+import net.originmobi.pdv.service.EstoqueReservaService;
 import net.originmobi.pdv.service.PagamentoTipoService;
 import net.originmobi.pdv.service.ParcelaService;
+import net.originmobi.pdv.service.ProdutoIndiceService;
 import net.originmobi.pdv.service.ProdutoService;
 import net.originmobi.pdv.service.ReceberService;
 import net.originmobi.pdv.service.UsuarioService;
 import net.originmobi.pdv.service.VendaProdutoService;
+import net.originmobi.pdv.service.MetricasPainelService;
+import net.originmobi.pdv.service.VendaCuboService;
 import net.originmobi.pdv.service.VendaService;
 import net.originmobi.pdv.service.cartao.CartaoLancamentoService;
 
@@ -62,6 +71,10 @@ class VendaServiceTest {
     @Mock private TituloService tituloService;
     @Mock private CartaoLancamentoService cartaoLancamento;
     @Mock private ProdutoService produtos;
+    @Mock private ProdutoIndiceService produtosIndice;
+    @Mock private EstoqueReservaService reservas;
+    @Mock private VendaCuboService cubo;
+    @Mock private MetricasPainelService metricas;
 
     @Test
     @DisplayName("abreVenda(): se venda não tiver código deve preencher campos padrão, buscar usuário e salvar")
@@ -160,27 +173,134 @@ class VendaServiceTest {
     }
 
     @Test
-    @DisplayName("addProduto(): se venda estiver ABERTA deve salvar produto e retornar 'ok'")
+    @DisplayName("addProduto(): se venda estiver ABERTA deve somar o valor no total, salvar produto e retornar 'ok'")
     void testAddProduto_VendaAberta_SalvaERetornaOk() {
-        when(vendas.verificaSituacao(1L)).thenReturn(VendaSituacao.ABERTA.toString());
+        when(vendas.somaValorProdutos(1L, 1050L)).thenReturn(1);
 
         String r = vendaService.addProduto(1L, 2L, 10.5);
 
+        assertEquals("ok", r);
+        ArgumentCaptor<VendaProduto> salvo = ArgumentCaptor.forClass(VendaProduto.class);
+        verify(vendaProdutos).salvar(salvo.capture());
+        assertEquals(10.5, salvo.getValue().getValor_unitario());
+    }
+
+    @Test
+    @DisplayName("addProduto(): produto já presente na venda deve somar na quantidade sem nova linha")
+    void testAddProduto_ProdutoJaNaVenda_IncrementaQtd() {
+        when(produtosIndice.precoVenda(2L)).thenReturn(5.0);
+        when(vendas.somaValorProdutos(1L, 500L)).thenReturn(1);
+        when(vendaProdutos.incrementaQtd(1L, 2L, 1, 500L)).thenReturn(1);
+
+        String r = vendaService.addProduto(1L, 2L, 0.0);
+
+        assertEquals("ok", r);
+        verify(vendaProdutos, never()).salvar(any());
+    }
+
+    @Test
+    @DisplayName("addProduto(): preço com mais de duas casas deve ser comparado em centavos com a linha existente")
+    void testAddProduto_PrecoNaoArredondado_ComparaEmCentavos() {
+        when(produtosIndice.precoVenda(2L)).thenReturn(3.3333);
+        when(vendas.somaValorProdutos(1L, 333L)).thenReturn(1);
+        when(vendaProdutos.incrementaQtd(1L, 2L, 1, 333L)).thenReturn(1);
+
+        String r = vendaService.addProduto(1L, 2L, 0.0);
+
+        assertEquals("ok", r);
+        verify(vendaProdutos, never()).salvar(any());
+    }
+
+    @Test
+    @DisplayName("addProduto(): produto fora do índice deve buscar o preço no banco e gerar nova linha")
+    void testAddProduto_ProdutoNovo_SalvaLinha() {
+        when(produtosIndice.precoVenda(2L)).thenReturn(null);
+        Produto produto = new Produto();
+        produto.setValor_venda(3.3);
+        when(produtos.busca(2L)).thenReturn(produto);
+        when(vendas.somaValorProdutos(1L, 330L)).thenReturn(1);
+        when(vendaProdutos.incrementaQtd(1L, 2L, 1, 330L)).thenReturn(0);
+
+        String r = vendaService.addProduto(1L, 2L, 0.0);
+
         assertEquals("ok", r);
         verify(vendaProdutos).salvar(any(VendaProduto.class));
     }
 
+    @Test
+    @DisplayName("addProdutos(): deve somar itens repetidos, incrementar linhas existentes e gravar em lote")
+    @SuppressWarnings("unchecked")
+    void testAddProdutos_AgrupaEGravaEmLote() {
+        when(produtosIndice.precoVenda(2L)).thenReturn(1.0);
+        when(produtosIndice.precoVenda(3L)).thenReturn(2.5);
+        // 4 x 1,00 + 2 x 2,50 + 7,50 da balança
+        when(vendas.somaValorProdutos(1L, 1650L)).thenReturn(1);
+
+        VendaProduto existente = new VendaProduto(2L, 1L, 0.0);
+        existente.setCodigo(50L);
+        existente.setValor_unitario(1.0);
+        when(vendaProdutos.listaVendaProdutos(1L)).thenReturn(Arrays.asList(existente));
+        when(vendas.verificaValorProdutos(1L)).thenReturn(42.0);
+
+        List<VendaProduto> itens = Arrays.asList(
+                new VendaProduto(2L, null, 1, null),
+                new VendaProduto(3L, null, 2, null),
+                new VendaProduto(2L, null, 3, null),
+                new VendaProduto(4L, null, 1, 7.5));
+
+        Map<String, Object> r = vendaService.addProdutos(1L, itens);
+
+        assertEquals("ok", r.get("mensagem"));
+        assertEquals(42.0, r.get("total"));
+
+        ArgumentCaptor<List<VendaProduto>> novos = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Map<Long, Integer>> incrementos = ArgumentCaptor.forClass(Map.class);
+        verify(vendaProdutos).gravaLote(novos.capture(), incrementos.capture());
+        verify(vendas, times(1)).somaValorProdutos(anyLong(), anyLong());
+
+        assertEquals(Integer.valueOf(4), incrementos.getValue().get(50L));
+        assertEquals(2, novos.getValue().size());
+        assertTrue(novos.getValue().stream().anyMatch(vp -> vp.getProduto() == 3L && vp.getQtd() == 2
+                && vp.getValor_unitario() == 2.5));
+        assertTrue(novos.getValue().stream().anyMatch(vp -> vp.getProduto() == 4L && vp.getValor_unitario() == 7.5));
+    }
+
+    @Test
+    @DisplayName("addProdutos(): se venda estiver FECHADA não deve gravar nenhum item")
+    void testAddProdutos_VendaFechada_NaoGrava() {
+        when(produtosIndice.precoVenda(2L)).thenReturn(1.0);
+
+        Map<String, Object> r = vendaService.addProdutos(1L,
+                Arrays.asList(new VendaProduto(2L, null, 1, null)));
+
+        assertEquals("Venda fechada", r.get("mensagem"));
+        verify(vendaProdutos, never()).gravaLote(any(), any());
+    }
+
+    @Test
+    @DisplayName("addProdutos(): a reserva deve ser registrada para ser devolvida se a transação for desfeita")
+    @SuppressWarnings("unchecked")
+    void testAddProdutos_FalhaAoGravar_ReservaDevolvidaNoRollback() {
+        when(produtosIndice.precoVenda(2L)).thenReturn(1.0);
+        when(vendas.somaValorProdutos(1L, 200L)).thenReturn(1);
+        doThrow(new RuntimeException("falha")).when(vendaProdutos).gravaLote(any(), any());
+
+        assertThrows(RuntimeException.class, () -> vendaService.addProdutos(1L,
+                Arrays.asList(new VendaProduto(2L, null, 2, null))));
+
+        verify(reservas).liberaSeDesfeita(eq(1L), (Map<Long, Integer>) argThat(m -> ((Map<Long, Integer>) m).get(2L) == 2));
+    }
+
     @Test
     @DisplayName("addProduto(): se venda estiver FECHADA deve retornar 'Venda fechada'")
     void testAddProduto_VendaFechada_RetornaMensagem() {
-        when(vendas.verificaSituacao(1L)).thenReturn(VendaSituacao.FECHADA.toString());
+        when(vendas.somaValorProdutos(1L, 1050L)).thenReturn(0);
 
         String r = vendaService.addProduto(1L, 2L, 10.5);
 
         assertEquals("Venda fechada", r);
         verify(vendaProdutos, never()).salvar(any());
     }
-
     @Test
     @DisplayName("removeProduto(): se venda estiver ABERTA deve remover produto e retornar 'ok'")
     void testRemoveProduto_VendaAberta_RemoveERetornaOk() {
@@ -191,7 +311,7 @@ class VendaServiceTest {
         String r = vendaService.removeProduto(3L, 99L);
 
         assertEquals("ok", r);
-        verify(vendaProdutos).removeProduto(3L);
+        verify(vendaProdutos).removeProduto(3L, 99L);
     }
 
     @Test
@@ -204,7 +324,39 @@ class VendaServiceTest {
         String r = vendaService.removeProduto(3L, 99L);
 
         assertEquals("Venda fechada", r);
-        verify(vendaProdutos, never()).removeProduto(anyLong());
+        verify(vendaProdutos, never()).removeProduto(anyLong(), anyLong());
+    }
+
+    @Test
+    @DisplayName("removeProduto(): deve subtrair do total o valor unitário retirado e liberar a reserva após o commit")
+    void testRemoveProduto_SubtraiValorDoTotal() {
+        Venda venda = mock(Venda.class);
+        when(vendas.findByCodigoEquals(99L)).thenReturn(venda);
+        when(venda.getSituacao()).thenReturn(VendaSituacao.ABERTA);
+        VendaProduto linha = new VendaProduto(7L, 99L, 0.0);
+        linha.setValor_unitario(2.5);
+        when(vendaProdutos.removeProduto(3L, 99L)).thenReturn(linha);
+
+        String r = vendaService.removeProduto(3L, 99L);
+
+        assertEquals("ok", r);
+        verify(vendas).somaValorProdutos(99L, -250L);
+        verify(reservas).liberaAposCommit(99L, 7L, 1);
+    }
+
+    @Test
+    @DisplayName("removeProduto(): linha de outra venda não deve alterar o total nem a reserva")
+    void testRemoveProduto_LinhaDeOutraVenda_NaoAlteraVenda() {
+        Venda venda = mock(Venda.class);
+        when(vendas.findByCodigoEquals(99L)).thenReturn(venda);
+        when(venda.getSituacao()).thenReturn(VendaSituacao.ABERTA);
+        when(vendaProdutos.removeProduto(3L, 99L)).thenReturn(null);
+
+        String r = vendaService.removeProduto(3L, 99L);
+
+        assertEquals("ok", r);
+        verify(vendas, never()).somaValorProdutos(anyLong(), anyLong());
+        verify(reservas, never()).liberaAposCommit(anyLong(), anyLong(), anyInt());
     }
 
     @Test
@@ -248,7 +400,7 @@ class VendaServiceTest {
         net.originmobi.pdv.model.TituloTipo tituloTipo = mock(net.originmobi.pdv.model.TituloTipo.class);
         when(titulo.getTipo()).thenReturn(tituloTipo);
         when(tituloTipo.getSigla()).thenReturn(TituloTipo.DIN.toString());
-        when(tituloService.busca(1L)).thenReturn(Optional.of(titulo));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, titulo));
 
         when(caixas.caixaIsAberto()).thenReturn(true);
         when(caixas.caixaAberto()).thenReturn(Optional.of(new Caixa()));
@@ -267,12 +419,13 @@ class VendaServiceTest {
             assertEquals("Venda finalizada com sucesso", msg);
             double vlFinal = (vlProdutos + acrescimo) - desconto;
             verify(receberServ).cadastrar(any(Receber.class));
-            verify(vendas, atLeastOnce()).fechaVenda(eq(codVenda), eq(VendaSituacao.FECHADA), eq(vlFinal),
+            verify(vendas).fechaVenda(eq(codVenda), eq(VendaSituacao.FECHADA), eq(vlFinal),
                     eq(desconto), eq(acrescimo), any(), eq(forma));
             verify(produtos).movimentaEstoque(eq(codVenda), eq(net.originmobi.pdv.enumerado.EntradaSaida.SAIDA));
+            verify(cubo).soma(codVenda, codForma);
+            verify(metricas).vendaFechada();
             verify(lancamentos).lancamento(any(CaixaLancamento.class));
-            verify(parcelas, never()).gerarParcela(anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyDouble(),
-                    any(Receber.class), anyInt(), anyInt(), any(), any());
+            verify(parcelas).gerarParcelas(Collections.emptyList());
             verify(cartaoLancamento, never()).lancamento(anyDouble(), any());
         }
     }
@@ -320,7 +473,7 @@ class VendaServiceTest {
         net.originmobi.pdv.model.TituloTipo tituloTipo = mock(net.originmobi.pdv.model.TituloTipo.class);
         when(titulo.getTipo()).thenReturn(tituloTipo);
         when(tituloTipo.getSigla()).thenReturn(TituloTipo.DIN.toString());
-        when(tituloService.busca(1L)).thenReturn(Optional.of(titulo));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, titulo));
 
         when(caixas.caixaIsAberto()).thenReturn(false);
 
@@ -345,7 +498,7 @@ class VendaServiceTest {
         forma.setCodigo(codForma);
         forma.setFormaPagamento("30");
         when(formaPagamentos.busca(codForma)).thenReturn(forma);
-        when(tituloService.busca(1L)).thenReturn(Optional.of(mock(Titulo.class)));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, mock(Titulo.class)));
 
         RuntimeException ex = assertThrows(RuntimeException.class, () ->
             vendaService.fechaVenda(codVenda, codForma, 100.0, 0.0, 0.0, vlParcelas, titulos)
@@ -369,16 +522,47 @@ class VendaServiceTest {
         forma.setFormaPagamento("30/60");
         when(formaPagamentos.busca(codForma)).thenReturn(forma);
 
-        when(tituloService.busca(anyLong())).thenReturn(Optional.of(mock(Titulo.class)));
+        when(tituloService.busca(anyList())).thenReturn(Collections.emptyMap());
 
         String msg = vendaService.fechaVenda(codVenda, codForma, 200.00, 0.0, 0.0, vlParcelas, titulos);
 
         assertEquals("Venda finalizada com sucesso", msg);
-        verify(parcelas, atLeast(2)).gerarParcela(anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyDouble(),
-                any(Receber.class), anyInt(), anyInt(), any(), any());
-        verify(vendas, atLeastOnce()).fechaVenda(eq(codVenda), eq(VendaSituacao.FECHADA), eq(Double.valueOf(200.00)),
+        ArgumentCaptor<List<Parcela>> geradas = ArgumentCaptor.forClass(List.class);
+        verify(parcelas).gerarParcelas(geradas.capture());
+        assertEquals(2, geradas.getValue().size());
+        assertEquals(1, geradas.getValue().get(0).getSequencia());
+        assertEquals(2, geradas.getValue().get(1).getSequencia());
+        verify(vendas).fechaVenda(eq(codVenda), eq(VendaSituacao.FECHADA), eq(Double.valueOf(200.00)),
                 eq(Double.valueOf(0.0)), eq(Double.valueOf(0.0)), any(java.sql.Timestamp.class), eq(forma));
         verify(produtos).movimentaEstoque(eq(codVenda), eq(EntradaSaida.SAIDA));
+        // a reserva é confirmada com a quantidade que saiu do estoque
+        verify(reservas).confirma(eq(codVenda), anyMap());
+    }
+
+    @Test
+    @DisplayName("fechaVenda(): a quantidade de parcelas não deve aumentar os acessos ao banco")
+    void testFechaVenda_VariasParcelas_UmLoteUmFechamento() {
+        Long codVenda = 12L, codForma = 310L;
+        String[] vlParcelas = {"50.00", "50.00", "50.00", "50.00", "50.00", "50.00"};
+        String[] titulos = {"1", "1", "1", "1", "1", "1"};
+        Venda venda = mock(Venda.class);
+        when(vendas.findByCodigoEquals(codVenda)).thenReturn(venda);
+        when(venda.isAberta()).thenReturn(true);
+        when(venda.getPessoa()).thenReturn(new Pessoa());
+
+        PagamentoTipo forma = new PagamentoTipo();
+        forma.setCodigo(codForma);
+        forma.setFormaPagamento("30/60/90/120/150/180");
+        when(formaPagamentos.busca(codForma)).thenReturn(forma);
+
+        when(tituloService.busca(anyList())).thenReturn(Collections.emptyMap());
+
+        vendaService.fechaVenda(codVenda, codForma, 300.00, 0.0, 0.0, vlParcelas, titulos);
+
+        verify(tituloService, times(1)).busca(anyList());
+        verify(parcelas, times(1)).gerarParcelas(argThat(lista -> lista.size() == 6));
+        verify(vendas, times(1)).fechaVenda(eq(codVenda), eq(VendaSituacao.FECHADA), anyDouble(), anyDouble(),
+                anyDouble(), any(java.sql.Timestamp.class), eq(forma));
     }
 
     @Test
@@ -402,7 +586,7 @@ class VendaServiceTest {
         net.originmobi.pdv.model.TituloTipo tt = mock(net.originmobi.pdv.model.TituloTipo.class);
         when(titulo.getTipo()).thenReturn(tt);
         when(tt.getSigla()).thenReturn(TituloTipo.CARTDEB.toString());
-        when(tituloService.busca(1L)).thenReturn(Optional.of(titulo));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, titulo));
 
         String msg = vendaService.fechaVenda(codVenda, codForma, 150.00, 0.0, 0.0, vlParcelas, titulos);
 
@@ -457,7 +641,7 @@ class VendaServiceTest {
         net.originmobi.pdv.model.TituloTipo tt = mock(net.originmobi.pdv.model.TituloTipo.class);
         when(titulo.getTipo()).thenReturn(tt);
         when(tt.getSigla()).thenReturn(TituloTipo.DIN.toString());
-        when(tituloService.busca(1L)).thenReturn(Optional.of(titulo));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, titulo));
 
         when(caixas.caixaIsAberto()).thenReturn(true);
         when(caixas.caixaAberto()).thenReturn(Optional.of(new Caixa()));
@@ -499,7 +683,7 @@ class VendaServiceTest {
         forma.setFormaPagamento("30");
         when(formaPagamentos.busca(codForma)).thenReturn(forma);
 
-        when(tituloService.busca(1L)).thenReturn(Optional.of(mock(Titulo.class)));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, mock(Titulo.class)));
 
         RuntimeException ex = assertThrows(RuntimeException.class, () ->
             vendaService.fechaVenda(codVenda, codForma, 100.0, 0.0, 0.0, vlParcelas, titulos)
@@ -528,7 +712,7 @@ class VendaServiceTest {
         net.originmobi.pdv.model.TituloTipo tt = mock(net.originmobi.pdv.model.TituloTipo.class);
         when(titulo.getTipo()).thenReturn(tt);
         when(tt.getSigla()).thenReturn(TituloTipo.DIN.toString());
-        when(tituloService.busca(1L)).thenReturn(Optional.of(titulo));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, titulo));
 
         when(caixas.caixaIsAberto()).thenReturn(true);
 
@@ -561,7 +745,7 @@ class VendaServiceTest {
         net.originmobi.pdv.model.TituloTipo tt = mock(net.originmobi.pdv.model.TituloTipo.class);
         when(titulo.getTipo()).thenReturn(tt);
         when(tt.getSigla()).thenReturn(TituloTipo.DIN.toString());
-        when(tituloService.busca(1L)).thenReturn(Optional.of(titulo));
+        when(tituloService.busca(Arrays.asList(1L))).thenReturn(Collections.singletonMap(1L, titulo));
 
         when(caixas.caixaIsAberto()).thenReturn(true);
 